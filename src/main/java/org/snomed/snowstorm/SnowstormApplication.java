@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import org.snomed.snowstorm.config.Config;
 import org.snomed.snowstorm.core.data.domain.CodeSystem;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.data.services.AdminOperationsService;
 import org.snomed.snowstorm.core.data.services.CodeSystemService;
 import org.snomed.snowstorm.core.data.services.CodeSystemVersionService;
 import org.snomed.snowstorm.core.data.services.ReferenceSetMemberService;
@@ -56,6 +57,9 @@ public class SnowstormApplication extends Config implements ApplicationRunner {
 	@Autowired
 	private CodeSystemVersionService codeSystemVersionService;
 
+	@Autowired
+	private AdminOperationsService adminOperationsService;
+
 	private static final Logger logger = LoggerFactory.getLogger(SnowstormApplication.class);
 
 	public static void main(String[] args) {
@@ -88,6 +92,7 @@ public class SnowstormApplication extends Config implements ApplicationRunner {
 
 			updateIndexMaxTermsSetting(QueryConcept.class);
 			updateIndexMaxTermsSettingForAllSnomedComponents();
+			adminOperationsService.updateDescriptionAutocompleteMapping();
 
 			codeSystemService.init();
 			referenceSetMemberService.init();
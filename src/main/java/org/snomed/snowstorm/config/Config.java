@@ -22,6 +22,8 @@ import org.snomed.snowstorm.core.data.services.pojo.DescriptionCriteria;
 import org.snomed.snowstorm.core.data.services.servicehook.CommitServiceHookClient;
 import org.snomed.snowstorm.core.data.services.traceability.TraceabilityLogService;
 import org.snomed.snowstorm.core.pojo.LanguageDialect;
+import org.snomed.snowstorm.core.rf2.export.ExportService;
+import org.snomed.snowstorm.ecl.HierarchyGraphService;
 import org.snomed.snowstorm.ecl.SECLObjectFactory;
 import org.snomed.snowstorm.ecl.validation.ECLPreprocessingService;
 import org.snomed.snowstorm.fhir.config.FHIRConceptMapImplicitConfig;
@@ -106,6 +108,9 @@ public abstract class Config extends ElasticsearchConfig {
 	@Value("${elasticsearch.index.max.terms.count}")
 	private int indexMaxTermsCount;
 
+	@Value("${ecl.max-nested-results}")
+	private int eclMaxNestedResults;
+
 	@Value("${search.term.minimumLength}")
 	private int searchTermMinimumLength;
 
@@ -130,6 +135,9 @@ public abstract class Config extends ElasticsearchConfig {
 	@Autowired
 	private ConceptDefinitionStatusUpdateService conceptDefinitionStatusUpdateService;
 
+	@Autowired
+	private DescriptionAutocompleteFieldsUpdateService descriptionAutocompleteFieldsUpdateService;
+
 	@Autowired
 	private SemanticIndexUpdateService semanticIndexUpdateService;
 
@@ -151,6 +159,9 @@ public abstract class Config extends ElasticsearchConfig {
 	@Autowired
 	private MultiSearchService multiSearchService;
 
+	@Autowired
+	private AuthoringStatsService authoringStatsService;
+
 	@Autowired
 	private CommitServiceHookClient commitServiceHookClient;
 
@@ -169,6 +180,12 @@ public abstract class Config extends ElasticsearchConfig {
 	@Autowired
 	private AdditionalDependencyUpdateService additionalDependencyUpdateService;
 
+	@Autowired
+	private HierarchyGraphService hierarchyGraphService;
+
+	@Autowired
+	private ExportService exportService;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	@PostConstruct
@@ -181,6 +198,7 @@ public abstract class Config extends ElasticsearchConfig {
 		// Commit listeners will be called in this order
 		branchService.addCommitListener(mrcmLoader);
 		branchService.addCommitListener(conceptDefinitionStatusUpdateService);
+		branchService.addCommitListener(descriptionAutocompleteFieldsUpdateService);
 		branchService.addCommitListener(semanticIndexUpdateService);
 		branchService.addCommitListener(mrcmUpdateService);
 		branchService.addCommitListener(branchClassificationStatusService);
@@ -188,10 +206,13 @@ public abstract class Config extends ElasticsearchConfig {
 		branchService.addCommitListener(integrityService);
 		branchService.addCommitListener(refsetConceptsLookupUpdateService);
 		branchService.addCommitListener(multiSearchService);
+		branchService.addCommitListener(authoringStatsService);
 		branchService.addCommitListener(eclPreprocessingService);
 		branchService.addCommitListener(commitServiceHookClient);
 		branchService.addCommitListener(additionalDependencyUpdateService);
 		branchService.addCommitListener(traceabilityLogService);
+		branchService.addCommitListener(hierarchyGraphService);
+		branchService.addCommitListener(exportService);
 		branchService.addCommitListener(BranchMetadataHelper::clearTransientMetadata);
 		branchService.addCommitListener(commit -> {
 			if (jmsMessageEnabled)  {
@@ -314,7 +335,7 @@ public abstract class Config extends ElasticsearchConfig {
 
 	@Bean
 	public ECLQueryBuilder eclQueryBuilder() {
-		return new ECLQueryBuilder(new SECLObjectFactory(indexMaxTermsCount));
+		return new ECLQueryBuilder(new SECLObjectFactory(indexMaxTermsCount, eclMaxNestedResults));
 	}
 
 	@Bean // Serialize message content to json using TextMessage
@@ -131,6 +131,7 @@ public class SecurityAndUriConfig {
 				"/(.*)/integrity-check-full",
 				"/(.*)/report/.*",
 				"/(.*)/authoring-stats.*",
+				"/(.*)/validation/bulk.*",
 				"/mrcm/(.*)/domain-attributes",
 				"/mrcm/(.*)/attribute-values.*",
 				"/mrcm/(.*)/concept-model-attribute-hierarchy",
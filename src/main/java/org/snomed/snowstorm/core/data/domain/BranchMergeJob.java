@@ -19,6 +19,7 @@ public class BranchMergeJob {
 	private JobStatus status;
 	private Date endDate;
 	private String message;
+	private String progress;
 	private ApiError apiError;
 
 	public BranchMergeJob() {
@@ -80,6 +81,14 @@ public class BranchMergeJob {
 		return message;
 	}
 
+	public void setProgress(String progress) {
+		this.progress = progress;
+	}
+
+	public String getProgress() {
+		return progress;
+	}
+
 	public void setApiError(ApiError apiError) {
 		this.apiError = apiError;
 	}
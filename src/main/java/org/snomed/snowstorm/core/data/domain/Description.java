@@ -29,11 +29,15 @@ public class Description extends SnomedComponent<Description> implements SnomedC
 		String DESCRIPTION_ID = "descriptionId";
 		String TERM = "term";
 		String TERM_FOLDED = "termFolded";
+		String TERM_AUTOCOMPLETE = "termAutocomplete";
 		String TERM_LEN = "termLen";
 		String TAG = "tag";
 		String CONCEPT_ID = "conceptId";
 		String TYPE_ID = "typeId";
 		String LANGUAGE_CODE = "languageCode";
+		String CONCEPT_ACTIVE = "conceptActive";
+		String PREFERRED_IN = "preferredIn";
+		String ACCEPTABLE_IN = "acceptableIn";
 	}
 
 	@JsonView(value = View.Component.class)
@@ -46,9 +50,13 @@ public class Description extends SnomedComponent<Description> implements SnomedC
 	@NotNull
 	private String term;
 
-	@Field(type = FieldType.Text)
+	@Field(type = FieldType.Text, copyTo = Fields.TERM_AUTOCOMPLETE)
 	private String termFolded;
 
+	// Search as you type field indexed from termFolded using copy_to, never held in the document source
+	@Field(type = FieldType.Search_As_You_Type)
+	private String termAutocomplete;
+
 	@Field(type = FieldType.Integer)
 	private int termLen;
 
@@ -75,6 +83,20 @@ public class Description extends SnomedComponent<Description> implements SnomedC
 	@Size(min = 5, max = 18)
 	private String caseSignificanceId;
 
+	// Denormalised for the autocomplete filters and kept up to date by DescriptionAutocompleteFieldsUpdateService,
+	// not set on descriptions indexed before these fields existed
+	@JsonIgnore
+	@Field(type = FieldType.Boolean)
+	private Boolean conceptActive;
+
+	@JsonIgnore
+	@Field(type = FieldType.Keyword)
+	private Set<String> preferredIn;
+
+	@JsonIgnore
+	@Field(type = FieldType.Keyword)
+	private Set<String> acceptableIn;
+
 	// Populated when requesting an update
 	@Transient
 	private Map<String, String> acceptabilityMap;
@@ -426,6 +448,33 @@ public class Description extends SnomedComponent<Description> implements SnomedC
 		return null;
 	}
 
+	public Boolean getConceptActive() {
+		return conceptActive;
+	}
+
+	public Set<String> getPreferredIn() {
+		return preferredIn;
+	}
+
+	public Set<String> getAcceptableIn() {
+		return acceptableIn;
+	}
+
+	/**
+	 * @return true if the denormalised autocomplete fields are already set to these values.
+	 */
+	public boolean hasAutocompleteFields(boolean conceptActive, Set<String> preferredIn, Set<String> acceptableIn) {
+		return this.conceptActive != null && this.conceptActive == conceptActive
+				&& Objects.equals(this.preferredIn != null ? this.preferredIn : Collections.emptySet(), preferredIn)
+				&& Objects.equals(this.acceptableIn != null ? this.acceptableIn : Collections.emptySet(), acceptableIn);
+	}
+
+	public void setAutocompleteFields(boolean conceptActive, Set<String> preferredIn, Set<String> acceptableIn) {
+		this.conceptActive = conceptActive;
+		this.preferredIn = preferredIn;
+		this.acceptableIn = acceptableIn;
+	}
+
 	public String getConceptId() {
 		return conceptId;
 	}
@@ -59,6 +59,9 @@ public class Classification {
 	@Field(type = FieldType.Boolean)
 	private Boolean equivalentConceptsFound;
 
+	@Field(type = FieldType.Keyword)
+	private String saveProgress;
+
 	public Classification() {
 	}
 
@@ -166,6 +169,14 @@ public class Classification {
 		this.equivalentConceptsFound = equivalentConceptsFound;
 	}
 
+	public String getSaveProgress() {
+		return saveProgress;
+	}
+
+	public void setSaveProgress(String saveProgress) {
+		this.saveProgress = saveProgress;
+	}
+
 	@Override
 	public String toString() {
 		return "Classification{" +
@@ -0,0 +1,159 @@
+package org.snomed.snowstorm.core.data.domain.jobs;
+
+import io.kaicode.elasticvc.domain.Commit;
+import org.snomed.snowstorm.core.data.services.traceability.Activity;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * When traceability is logged asynchronously a document of this type is stored within each commit.
+ * The traceability activity of the commit is built and sent once the commit has completed, then the document is deleted.
+ * Documents left by a restart are picked up again on startup. Documents of commits whose activity could not be sent
+ * within the maximum attempts are kept and marked as failed.
+ */
+@Document(indexName = "#{@indexNameProvider.indexName('traceability-pending-commit')}", createIndex = false)
+public class TraceabilityPendingCommit {
+
+	private String id;
+
+	@Field(type = FieldType.Keyword)
+	private String userId;
+
+	@Field(type = FieldType.Keyword)
+	private String branchPath;
+
+	@Field(type = FieldType.Long)
+	private long timepoint;
+
+	@Field(type = FieldType.Keyword)
+	private String sourceBranchPath;
+
+	@Field(type = FieldType.Keyword)
+	private Commit.CommitType commitType;
+
+	@Field(type = FieldType.Keyword)
+	private Activity.ActivityType activityType;
+
+	@Field(type = FieldType.Boolean)
+	private boolean rebase;
+
+	// Internal ids of versions replaced, by component type. Only read back, not searched.
+	@Field(type = FieldType.Object, enabled = false)
+	private Map<String, Set<String>> entityVersionsReplaced;
+
+	@Field(type = FieldType.Object, enabled = false)
+	private Map<String, Set<String>> rebaseDuplicatesRemoved;
+
+	@Field(type = FieldType.Boolean)
+	private boolean failed;
+
+	public TraceabilityPendingCommit(String userId, String branchPath, long timepoint, String sourceBranchPath, Commit.CommitType commitType,
+			Activity.ActivityType activityType, boolean rebase, Map<String, Set<String>> entityVersionsReplaced, Map<String, Set<String>> rebaseDuplicatesRemoved) {
+
+		id = branchPath + "_" + timepoint;
+		this.userId = userId;
+		this.branchPath = branchPath;
+		this.timepoint = timepoint;
+		this.sourceBranchPath = sourceBranchPath;
+		this.commitType = commitType;
+		this.activityType = activityType;
+		this.rebase = rebase;
+		this.entityVersionsReplaced = entityVersionsReplaced;
+		this.rebaseDuplicatesRemoved = rebaseDuplicatesRemoved;
+	}
+
+	public TraceabilityPendingCommit() {
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public String getBranchPath() {
+		return branchPath;
+	}
+
+	public void setBranchPath(String branchPath) {
+		this.branchPath = branchPath;
+	}
+
+	public long getTimepoint() {
+		return timepoint;
+	}
+
+	public void setTimepoint(long timepoint) {
+		this.timepoint = timepoint;
+	}
+
+	public String getSourceBranchPath() {
+		return sourceBranchPath;
+	}
+
+	public void setSourceBranchPath(String sourceBranchPath) {
+		this.sourceBranchPath = sourceBranchPath;
+	}
+
+	public Commit.CommitType getCommitType() {
+		return commitType;
+	}
+
+	public void setCommitType(Commit.CommitType commitType) {
+		this.commitType = commitType;
+	}
+
+	public Activity.ActivityType getActivityType() {
+		return activityType;
+	}
+
+	public void setActivityType(Activity.ActivityType activityType) {
+		this.activityType = activityType;
+	}
+
+	public boolean isRebase() {
+		return rebase;
+	}
+
+	public void setRebase(boolean rebase) {
+		this.rebase = rebase;
+	}
+
+	public Map<String, Set<String>> getEntityVersionsReplaced() {
+		return entityVersionsReplaced;
+	}
+
+	public void setEntityVersionsReplaced(Map<String, Set<String>> entityVersionsReplaced) {
+		this.entityVersionsReplaced = entityVersionsReplaced;
+	}
+
+	public Map<String, Set<String>> getRebaseDuplicatesRemoved() {
+		return rebaseDuplicatesRemoved;
+	}
+
+	public void setRebaseDuplicatesRemoved(Map<String, Set<String>> rebaseDuplicatesRemoved) {
+		this.rebaseDuplicatesRemoved = rebaseDuplicatesRemoved;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+}
@@ -0,0 +1,12 @@
+package org.snomed.snowstorm.core.data.repositories.jobs;
+
+import org.snomed.snowstorm.core.data.domain.jobs.TraceabilityPendingCommit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+
+public interface TraceabilityPendingCommitRepository extends ElasticsearchRepository<TraceabilityPendingCommit, String> {
+
+	Page<TraceabilityPendingCommit> findByFailedOrderByTimepoint(boolean failed, Pageable pageRequest);
+
+}
@@ -20,8 +20,15 @@ import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.identifier.IdentifierService;
 import org.snomed.snowstorm.core.rf2.RF2Constants;
 import org.snomed.snowstorm.core.util.DescriptionHelper;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
 import org.springframework.data.elasticsearch.core.document.Document;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
@@ -86,9 +93,71 @@ public class AdminOperationsService {
 	@Autowired
 	private RelationshipService relationshipService;
 
+	@Autowired
+	private DescriptionService descriptionService;
+
+	@Autowired
+	private RestClient elasticsearchRestClient;
+
+	@Value("${search.description.autocomplete.populate-on-startup}")
+	private boolean populateDescriptionAutocompleteOnStartup;
+
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	public static final int ONE_SECOND_IN_MILLIS = 1000;
 
+	/**
+	 * Adds the search as you type termAutocomplete field and the denormalised autocomplete filter fields to the mapping of an existing description index.
+	 * Descriptions indexed before the termAutocomplete field existed are then populated in the background if enabled.
+	 * If the mapping can not be updated, for example because of a conflicting field, autocomplete falls back to filtering candidates after the search.
+	 */
+	public void updateDescriptionAutocompleteMapping() {
+		IndexOperations indexOperations = elasticsearchOperations.indexOps(Description.class);
+		if (indexOperations.getMapping().get("properties") instanceof Map<?, ?> properties
+				&& (!properties.containsKey(Description.Fields.TERM_AUTOCOMPLETE) || !properties.containsKey(Description.Fields.CONCEPT_ACTIVE))) {
+			logger.info("Adding the autocomplete fields to the description index mapping.");
+			// New fields and the copy_to of termFolded can be added to an existing mapping
+			try {
+				indexOperations.putMapping(indexOperations.createMapping(Description.class));
+			} catch (DataAccessException e) {
+				logger.error("Failed to add the autocomplete fields to the description index mapping, " +
+						"autocomplete will filter candidate descriptions after the search.", e);
+				descriptionService.setAutocompleteFilterFieldsMapped(false);
+				return;
+			}
+		}
+		if (populateDescriptionAutocompleteOnStartup) {
+			populateDescriptionAutocompleteField();
+		}
+	}
+
+	/**
+	 * Reindexes, in place, the descriptions on all branches which do not have the termAutocomplete field yet.
+	 * The field is filled from termFolded using copy_to so no document changes are needed, only reindexing with the current mapping.
+	 * This runs as an Elasticsearch task, autocomplete uses the standard prefix search until it completes.
+	 * @return the Elasticsearch task id, or null if there is nothing to populate.
+	 */
+	public String populateDescriptionAutocompleteField() {
+		long missing = descriptionService.countDescriptionsWithoutAutocompleteField();
+		if (missing == 0) {
+			return null;
+		}
+		String indexName = elasticsearchOperations.getIndexCoordinatesFor(Description.class).getIndexName();
+		Request updateByQueryRequest = new Request("POST", "/" + indexName + "/_update_by_query");
+		// Documents changed by authoring meanwhile are indexed with the new mapping anyway so version conflicts can be skipped
+		updateByQueryRequest.addParameter("conflicts", "proceed");
+		updateByQueryRequest.addParameter("wait_for_completion", "false");
+		updateByQueryRequest.setJsonEntity("{\"query\": {\"bool\": {\"must_not\": {\"exists\": {\"field\": \"" + Description.Fields.TERM_AUTOCOMPLETE + "\"}}}}}");
+		try {
+			Response response = elasticsearchRestClient.performRequest(updateByQueryRequest);
+			String task = EntityUtils.toString(response.getEntity());
+			logger.info("Populating the {} field of {} descriptions in the background, Elasticsearch task {}", Description.Fields.TERM_AUTOCOMPLETE, missing, task);
+			return task;
+		} catch (IOException e) {
+			logger.error("Failed to start populating the {} field of index {}", Description.Fields.TERM_AUTOCOMPLETE, indexName, e);
+			return null;
+		}
+	}
+
 	public void reindexDescriptionsForLanguage(String languageCode) throws IOException {
 		Map<String, Set<Character>> charactersNotFoldedSets = searchLanguagesConfiguration.getCharactersNotFoldedSets();
 		Set<Character> foldedCharacters = charactersNotFoldedSets.getOrDefault(languageCode, Collections.emptySet());
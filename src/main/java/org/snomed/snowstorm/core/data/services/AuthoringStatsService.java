@@ -4,11 +4,24 @@ import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.aggregations.AggregationBuilders;
 import co.elastic.clients.elasticsearch._types.aggregations.TermsAggregation;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.CommitListener;
 import io.kaicode.elasticvc.api.VersionControlHelper;
+import io.kaicode.elasticvc.domain.Branch;
+import io.kaicode.elasticvc.domain.Commit;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.pojo.AuthoringStatsSummary;
 import org.snomed.snowstorm.core.data.services.pojo.PageWithBucketAggregations;
@@ -16,6 +29,7 @@ import org.snomed.snowstorm.core.data.services.pojo.PageWithBucketAggregationsFa
 import org.snomed.snowstorm.core.pojo.LanguageDialect;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
@@ -28,15 +42,21 @@ import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
+import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
 import static io.kaicode.elasticvc.api.VersionControlHelper.LARGE_PAGE;
 import static java.lang.Long.parseLong;
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.*;
 import static io.kaicode.elasticvc.helper.QueryHelper.*;
 
 @Service
-public class AuthoringStatsService {
+public class AuthoringStatsService implements CommitListener {
 	
 	public static final PageRequest NULL_PAGE = PageRequest.of(0,1);
 	public static final String AGGREGATION_COUNTS_BY_MODULE = "countByModule";
@@ -53,109 +73,170 @@ public class AuthoringStatsService {
 
 	@Autowired
 	private ConceptService conceptService;
-	
+
+	@Autowired
+	private BranchService branchService;
+
+	@Value("${authoring-stats.cache.max-branches}")
+	private int cacheMaxBranches;
+
+	// Results of the latest version of each branch, an entry is only used while the branch head is unchanged
+	private Cache<String, BranchVersionResult<AuthoringStatsSummary>> statsCache;
+	private Cache<String, ModuleCounts> moduleCountsCache;
+
+	// Counts the new synonyms on existing concepts while the other stats are counted
+	private final ExecutorService statsExecutor = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setNameFormat("authoring-stats-%d").setDaemon(true).build());
+
+	private static final Map<String, Class<? extends SnomedComponent<?>>> MODULE_COUNT_COMPONENT_TYPES = Map.of(
+			"Concept", Concept.class,
+			"Description", Description.class,
+			"RefsetMember", ReferenceSetMember.class);
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	@PostConstruct
+	public void init() {
+		statsCache = Caffeine.newBuilder().maximumSize(cacheMaxBranches).build();
+		moduleCountsCache = Caffeine.newBuilder().maximumSize(cacheMaxBranches).build();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		statsExecutor.shutdownNow();
+	}
+
+	@Override
+	public void preCommitCompletion(Commit commit) throws IllegalStateException {
+		String path = commit.getBranch().getPath();
+		statsCache.invalidate(path);
+		try {
+			// Content commits only add and end versions on this branch so the counts can be brought up to date from the changes alone.
+			// Nothing is counted here, the commit is recorded and its changes are counted by the next read of the counts.
+			moduleCountsCache.asMap().computeIfPresent(path, (key, moduleCounts) -> {
+				if (commit.getCommitType() != Commit.CommitType.CONTENT || moduleCounts.headTimestamp() != commit.getBranch().getHeadTimestamp()) {
+					return null;
+				}
+				Map<String, Set<String>> versionsReplaced = new HashMap<>();
+				commit.getEntityVersionsReplaced().forEach((type, internalIds) -> versionsReplaced.put(type, new HashSet<>(internalIds)));
+				List<CommitChanges> pendingCommits = new ArrayList<>(moduleCounts.pendingCommits());
+				pendingCommits.add(new CommitChanges(commit.getTimepoint().getTime(), versionsReplaced));
+				return new ModuleCounts(commit.getTimepoint().getTime(), moduleCounts.counts(), pendingCommits);
+			});
+		} catch (RuntimeException e) {
+			logger.warn("Failed to record commit on {} for component counts per module, counts will be reloaded.", path, e);
+			moduleCountsCache.invalidate(path);
+		}
+	}
+
 	public AuthoringStatsSummary getStats(String branch) {
-		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		Branch latestBranch = branchService.findBranchOrThrow(branch);
+		BranchVersionResult<AuthoringStatsSummary> cachedStats = statsCache.getIfPresent(branch);
+		if (cachedStats != null && cachedStats.headTimestamp() == latestBranch.getHeadTimestamp()) {
+			return cachedStats.result();
+		}
+
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(latestBranch);
 
 		TimerUtil timer = new TimerUtil("Authoring stats", Level.INFO, 5);
 
 		AuthoringStatsSummary authoringStatsSummary = new AuthoringStatsSummary(new Date());
 		authoringStatsSummary.setTitle("Authoring changes since last release");
 
-		// New concepts
+		// New synonyms for existing concepts can not be counted with a single query
+		Future<Long> newSynonymsForExistingConceptsCount = statsExecutor.submit(() -> countNewSynonymsOnExistingConcepts(branchCriteria));
+
+		// All other counts in one round trip
 		PageRequest pageOfOne = PageRequest.of(0, 1);
-		SearchHits<Concept> newConceptsPage = elasticsearchOperations.search(withTotalHitsTracking(getNewConceptCriteria(branchCriteria)
-				.withPageable(pageOfOne)
-				.build()), Concept.class);
-		timer.checkpoint("new concepts");
-		authoringStatsSummary.setNewConceptsCount(newConceptsPage.getTotalHits());
-
-		// Inactivated concepts
-		SearchHits<Concept> inactivatedConceptsPage = elasticsearchOperations.search(withTotalHitsTracking(getInactivatedConceptsCriteria(branchCriteria)
-				.withPageable(pageOfOne)
-				.build()), Concept.class);
-		timer.checkpoint("inactivated concepts");
-		authoringStatsSummary.setInactivatedConceptsCount(inactivatedConceptsPage.getTotalHits());
-
-		// Reactivated concepts
-		SearchHits<Concept> reactivatedConceptsPage = elasticsearchOperations.search(withTotalHitsTracking(getReactivatedConceptsCriteria(branchCriteria)
-				.withPageable(pageOfOne)
-				.build()), Concept.class);
-		timer.checkpoint("reactivated concepts");
-		authoringStatsSummary.setReactivatedConceptsCount(reactivatedConceptsPage.getTotalHits());
-
-		// Changed FSNs
-		SearchHits<Description> changedFSNsPage = elasticsearchOperations.search(withTotalHitsTracking(getChangedFSNsCriteria(branchCriteria)
-				.withPageable(pageOfOne)
-				.build()), Description.class);
-		timer.checkpoint("changed FSNs");
-		authoringStatsSummary.setChangedFsnCount(changedFSNsPage.getTotalHits());
-
-		// Inactivated synonyms
-		SearchHits<Description> inactivatedSynonyms = elasticsearchOperations.search(withTotalHitsTracking(getInactivatedSynonymCriteria(branchCriteria)
-				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null))
-				.withPageable(pageOfOne)
-				.build()), Description.class);
-		timer.checkpoint("inactivated descriptions");
-		authoringStatsSummary.setInactivatedSynonymsCount(inactivatedSynonyms.getTotalHits());
-
-		// New synonyms for existing concepts
-		SearchHits<Description> newSynonymsForExistingConcepts = elasticsearchOperations.search(withTotalHitsTracking(getNewSynonymsOnExistingConceptsCriteria(branchCriteria, timer)
-				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID, Description.Fields.CONCEPT_ID}, null))
-				.withPageable(pageOfOne)
-				.build()), Description.class);
+		List<SearchHits<?>> searchHits = elasticsearchOperations.multiSearch(List.of(
+				withTotalHitsTracking(getNewConceptCriteria(branchCriteria).withPageable(pageOfOne).build()),
+				withTotalHitsTracking(getInactivatedConceptsCriteria(branchCriteria).withPageable(pageOfOne).build()),
+				withTotalHitsTracking(getReactivatedConceptsCriteria(branchCriteria).withPageable(pageOfOne).build()),
+				withTotalHitsTracking(getChangedFSNsCriteria(branchCriteria).withPageable(pageOfOne).build()),
+				withTotalHitsTracking(getInactivatedSynonymCriteria(branchCriteria)
+						.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null))
+						.withPageable(pageOfOne).build()),
+				withTotalHitsTracking(getReactivatedSynonymsCriteria(branchCriteria)
+						.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null))
+						.withPageable(pageOfOne).build())),
+				List.<Class<?>>of(Concept.class, Concept.class, Concept.class, Description.class, Description.class, Description.class));
+		timer.checkpoint("multi-search counts");
+		authoringStatsSummary.setNewConceptsCount(searchHits.get(0).getTotalHits());
+		authoringStatsSummary.setInactivatedConceptsCount(searchHits.get(1).getTotalHits());
+		authoringStatsSummary.setReactivatedConceptsCount(searchHits.get(2).getTotalHits());
+		authoringStatsSummary.setChangedFsnCount(searchHits.get(3).getTotalHits());
+		authoringStatsSummary.setInactivatedSynonymsCount(searchHits.get(4).getTotalHits());
+		authoringStatsSummary.setReactivatedSynonymsCount(searchHits.get(5).getTotalHits());
+
+		try {
+			authoringStatsSummary.setNewSynonymsForExistingConceptsCount(newSynonymsForExistingConceptsCount.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while counting new synonyms on " + branch, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Failed to count new synonyms on " + branch, e.getCause());
+		}
 		timer.checkpoint("new synonyms for existing concepts");
-		authoringStatsSummary.setNewSynonymsForExistingConceptsCount(newSynonymsForExistingConcepts.getTotalHits());
-
-		// Reactivated synonyms
-		SearchHits<Description> reactivatedSynonyms = elasticsearchOperations.search(withTotalHitsTracking(getReactivatedSynonymsCriteria(branchCriteria)
-				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null))
-				.withPageable(pageOfOne)
-				.build()), Description.class);
-		timer.checkpoint("reactivated descriptions");
-		authoringStatsSummary.setReactivatedSynonymsCount(reactivatedSynonyms.getTotalHits());
 
+		statsCache.put(branch, new BranchVersionResult<>(latestBranch.getHeadTimestamp(), authoringStatsSummary));
 		return authoringStatsSummary;
 	}
 
-	private NativeQueryBuilder getNewSynonymsOnExistingConceptsCriteria(BranchCriteria branchCriteria, TimerUtil timer) {
-		Set<Long> newSynonymConceptIds = new LongOpenHashSet();
+	// The new synonyms are counted per concept then the counts of the concepts which have been released are added up
+	private long countNewSynonymsOnExistingConcepts(BranchCriteria branchCriteria) {
+		Long2IntOpenHashMap newSynonymCountsByConcept = countNewSynonymsByConcept(branchCriteria);
+		long[] count = {0};
+		forEachReleasedConcept(branchCriteria, newSynonymCountsByConcept.keySet(), conceptId -> count[0] += newSynonymCountsByConcept.get(conceptId));
+		return count[0];
+	}
+
+	private NativeQueryBuilder getNewSynonymsOnExistingConceptsCriteria(BranchCriteria branchCriteria) {
+		Set<Long> existingConceptsWithNewSynonyms = new LongOpenHashSet();
+		forEachReleasedConcept(branchCriteria, countNewSynonymsByConcept(branchCriteria).keySet(), existingConceptsWithNewSynonyms::add);
+		return new NativeQueryBuilder()
+				.withQuery(getNewSynonymsQuery(branchCriteria)
+						.filter(termsQuery(Description.Fields.CONCEPT_ID, existingConceptsWithNewSynonyms))
+						.build()._toQuery());
+	}
+
+	private Long2IntOpenHashMap countNewSynonymsByConcept(BranchCriteria branchCriteria) {
+		Long2IntOpenHashMap newSynonymCountsByConcept = new Long2IntOpenHashMap();
 		try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
-				.withQuery(bool(bq -> bq
-						.must(branchCriteria.getEntityBranchCriteria(Description.class))
-						.must(termQuery(Description.Fields.TYPE_ID, Concepts.SYNONYM))
-						.must(termQuery(Concept.Fields.ACTIVE, true))
-						.must(termQuery(Concept.Fields.RELEASED, "false"))))
+				.withQuery(getNewSynonymsQuery(branchCriteria).build()._toQuery())
 				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null))
 				.withPageable(LARGE_PAGE)
 				.build(), Description.class)) {
-			stream.forEachRemaining(hit -> newSynonymConceptIds.add(parseLong(hit.getContent().getConceptId())));
+			stream.forEachRemaining(hit -> newSynonymCountsByConcept.addTo(parseLong(hit.getContent().getConceptId()), 1));
 		}
-		if (timer != null) timer.checkpoint("new synonym concept ids");
+		return newSynonymCountsByConcept;
+	}
 
-		Set<Long> existingConceptsWithNewSynonyms = new LongOpenHashSet();
-		try (SearchHitsIterator<Concept> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
-				.withQuery(bool(b -> b
-						.must(branchCriteria.getEntityBranchCriteria(Concept.class))
-						.must(termQuery(Concept.Fields.RELEASED, "true"))
-						.filter(termsQuery(Concept.Fields.CONCEPT_ID, newSynonymConceptIds)))
-				)
-				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
-				.withPageable(LARGE_PAGE)
-				.build(), Concept.class)) {
-			stream.forEachRemaining(hit -> existingConceptsWithNewSynonyms.add(hit.getContent().getConceptIdAsLong()));
+	private void forEachReleasedConcept(BranchCriteria branchCriteria, Collection<Long> conceptIds, LongConsumer consumer) {
+		for (List<Long> conceptIdsBatch : Iterables.partition(conceptIds, CLAUSE_LIMIT)) {
+			try (SearchHitsIterator<Concept> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(Concept.class))
+							.must(termQuery(Concept.Fields.RELEASED, "true"))
+							.filter(termsQuery(Concept.Fields.CONCEPT_ID, conceptIdsBatch)))
+					)
+					.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), Concept.class)) {
+				stream.forEachRemaining(hit -> consumer.accept(hit.getContent().getConceptIdAsLong()));
+			}
 		}
-		if (timer != null) timer.checkpoint("existing concepts with new synonyms");
+	}
 
-		return new NativeQueryBuilder()
-				.withQuery(bool(b -> b
-						.must(branchCriteria.getEntityBranchCriteria(Description.class))
-						.must(termQuery(Description.Fields.TYPE_ID, Concepts.SYNONYM))
-						.must(termQuery(Description.Fields.ACTIVE, true))
-						.mustNot(existsQuery(Concept.Fields.EFFECTIVE_TIME))
-						.must(termQuery(Description.Fields.RELEASED, "false"))
-						.filter(termsQuery(Description.Fields.CONCEPT_ID, existingConceptsWithNewSynonyms)))
-				);
+	private BoolQuery.Builder getNewSynonymsQuery(BranchCriteria branchCriteria) {
+		return bool()
+				.must(branchCriteria.getEntityBranchCriteria(Description.class))
+				.must(termQuery(Description.Fields.TYPE_ID, Concepts.SYNONYM))
+				.must(termQuery(Description.Fields.ACTIVE, true))
+				.mustNot(existsQuery(Concept.Fields.EFFECTIVE_TIME))
+				.must(termQuery(Description.Fields.RELEASED, "false"));
 	}
 
 	public List<ConceptMicro> getNewConcepts(String branch, boolean unpromotedChangesOnly, List<LanguageDialect> languageDialects) {
@@ -217,7 +298,7 @@ public class AuthoringStatsService {
 
 	public List<ConceptMicro> getNewSynonymsOnExistingConcepts(String branch) {
 		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
-		return getDescriptionResults(getNewSynonymsOnExistingConceptsCriteria(branchCriteria, null));
+		return getDescriptionResults(getNewSynonymsOnExistingConceptsCriteria(branchCriteria));
 	}
 
 	public List<ConceptMicro> getReactivatedSynonyms(String branch) {
@@ -324,26 +405,105 @@ public class AuthoringStatsService {
 	}
 	
 	public Map<String, Map<String, Long>> getComponentCountsPerModule(String branchPath) {
+		Branch latestBranch = branchService.findBranchOrThrow(branchPath);
+		ModuleCounts cachedCounts = moduleCountsCache.getIfPresent(branchPath);
+		if (cachedCounts != null && cachedCounts.headTimestamp() == latestBranch.getHeadTimestamp()) {
+			if (cachedCounts.pendingCommits().isEmpty()) {
+				return cachedCounts.counts();
+			}
+			try {
+				Map<String, Map<String, Long>> updatedCounts = applyModuleCountChanges(cachedCounts.counts(), branchPath, cachedCounts.pendingCommits());
+				// Not cached if another commit has been recorded meanwhile
+				moduleCountsCache.asMap().replace(branchPath, cachedCounts, new ModuleCounts(cachedCounts.headTimestamp(), updatedCounts, Collections.emptyList()));
+				return updatedCounts;
+			} catch (RuntimeException e) {
+				logger.warn("Failed to update component counts per module on {}, counting all components instead.", branchPath, e);
+			}
+		}
+
+		Map<String, Map<String, Long>> componentCountsPerModule = countComponentsPerModule(latestBranch);
+		moduleCountsCache.put(branchPath, new ModuleCounts(latestBranch.getHeadTimestamp(), componentCountsPerModule, Collections.emptyList()));
+		return componentCountsPerModule;
+	}
+
+	Map<String, Map<String, Long>> countComponentsPerModule(Branch branch) {
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		return getModuleCounts(MODULE_COUNT_COMPONENT_TYPES.values().stream()
+				.map(componentClass -> bool()
+						.must(branchCriteria.getEntityBranchCriteria(componentClass))
+						.mustNot(existsQuery("end")).build()._toQuery())
+				.toList());
+	}
+
+	// The commits have completed so later commits may have ended versions they created. Versions are selected by the commit
+	// which created or ended them, whether they have ended since or not, so a version created and ended by these commits cancels out.
+	private Map<String, Map<String, Long>> applyModuleCountChanges(Map<String, Map<String, Long>> moduleCounts, String path, List<CommitChanges> commits) {
+		List<Long> timepoints = commits.stream().map(CommitChanges::timepoint).toList();
+
+		// Versions created by the commits
+		co.elastic.clients.elasticsearch._types.query_dsl.Query addedVersions = bool(b -> b
+				.must(termQuery(SnomedComponent.Fields.PATH, path))
+				.must(termsQuery(SnomedComponent.Fields.START, timepoints)));
+		Map<String, Map<String, Long>> added = getModuleCounts(Collections.nCopies(MODULE_COUNT_COMPONENT_TYPES.size(), addedVersions));
+
+		// Versions ended by the commits, on this branch or replaced on an ancestor branch
+		Map<String, Map<String, Long>> removed = getModuleCounts(MODULE_COUNT_COMPONENT_TYPES.values().stream()
+				.map(componentClass -> {
+					Set<String> versionsReplaced = new HashSet<>();
+					for (CommitChanges commit : commits) {
+						versionsReplaced.addAll(commit.versionsReplaced().getOrDefault(componentClass.getSimpleName(), Collections.emptySet()));
+					}
+					BoolQuery.Builder endedVersions = bool()
+							.should(bool(b -> b
+									.must(termQuery(SnomedComponent.Fields.PATH, path))
+									.must(termsQuery(SnomedComponent.Fields.END, timepoints))));
+					for (List<String> versionsReplacedBatch : Iterables.partition(versionsReplaced, CLAUSE_LIMIT)) {
+						endedVersions.should(termsQuery("_id", versionsReplacedBatch));
+					}
+					return endedVersions.build()._toQuery();
+				})
+				.toList());
+
+		Map<String, Map<String, Long>> updatedCounts = new HashMap<>();
+		for (String componentType : MODULE_COUNT_COMPONENT_TYPES.keySet()) {
+			Map<String, Long> counts = new HashMap<>(moduleCounts.getOrDefault(componentType, Collections.emptyMap()));
+			added.get(componentType).forEach((moduleId, count) -> counts.merge(moduleId, count, Long::sum));
+			removed.get(componentType).forEach((moduleId, count) -> counts.merge(moduleId, -count, Long::sum));
+			counts.values().removeIf(count -> count <= 0);
+			updatedCounts.put(componentType, counts);
+		}
+		return updatedCounts;
+	}
+
+	// Module counts of each component type, in the order of MODULE_COUNT_COMPONENT_TYPES, using one multi-search
+	private Map<String, Map<String, Long>> getModuleCounts(List<co.elastic.clients.elasticsearch._types.query_dsl.Query> componentQueries) {
+		List<NativeQuery> searchQueries = componentQueries.stream()
+				.map(componentQuery -> new NativeQueryBuilder()
+						.withQuery(componentQuery)
+						.withPageable(NULL_PAGE)
+						.withAggregation(AGGREGATION_COUNTS_BY_MODULE, MODULE_AGGREGATION._toAggregation())
+						.build())
+				.toList();
+		List<Class<?>> componentClasses = new ArrayList<>(MODULE_COUNT_COMPONENT_TYPES.values());
+		List<SearchHits<?>> pageResults = elasticsearchOperations.multiSearch(searchQueries, componentClasses);
+
 		Map<String, Map<String, Long>> componentCountsPerModule = new HashMap<>();
-		componentCountsPerModule.put("Concept", getModuleCounts(branchPath, Concept.class));
-		componentCountsPerModule.put("Description", getModuleCounts(branchPath, Description.class));
-		componentCountsPerModule.put("RefsetMember", getModuleCounts(branchPath, ReferenceSetMember.class));
+		int i = 0;
+		for (String componentType : MODULE_COUNT_COMPONENT_TYPES.keySet()) {
+			SearchHits<?> searchHits = pageResults.get(i++);
+			PageWithBucketAggregations<?> aggPage = PageWithBucketAggregationsFactory.createPage(searchHits, searchHits.getAggregations(), NULL_PAGE);
+			componentCountsPerModule.put(componentType, aggPage.getBuckets().getOrDefault(AGGREGATION_COUNTS_BY_MODULE, Collections.emptyMap()));
+		}
 		return componentCountsPerModule;
 	}
 
-	private Map<String, Long> getModuleCounts(String branchPath, Class<? extends SnomedComponent<?>> componentClass) {
-		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branchPath);
-		BoolQuery.Builder queryBuilder = bool()
-				.must(branchCriteria.getEntityBranchCriteria(componentClass))
-				.mustNot(existsQuery("end"));
-		NativeQuery searchQuery = new NativeQueryBuilder()
-				.withQuery(queryBuilder.build()._toQuery())
-				.withPageable(NULL_PAGE)
-				.withAggregation(AGGREGATION_COUNTS_BY_MODULE, MODULE_AGGREGATION._toAggregation())
-				.build();
-
-		SearchHits<? extends SnomedComponent<?>> pageResults = elasticsearchOperations.search(searchQuery, componentClass);
-		PageWithBucketAggregations<? extends SnomedComponent<?>> aggPage = PageWithBucketAggregationsFactory.createPage(pageResults, pageResults.getAggregations(), NULL_PAGE);
-		return aggPage.getBuckets().get(AGGREGATION_COUNTS_BY_MODULE);
+	private record BranchVersionResult<T>(long headTimestamp, T result) {
+	}
+
+	// Counts of a branch version, not including the changes of the pending commits which have not been counted yet
+	private record ModuleCounts(long headTimestamp, Map<String, Map<String, Long>> counts, List<CommitChanges> pendingCommits) {
+	}
+
+	private record CommitChanges(long timepoint, Map<String, Set<String>> versionsReplaced) {
 	}
 }
@@ -33,14 +33,12 @@ public class AxiomConversionService {
 	@Autowired
 	private ECLQueryService eclQueryService;
 
-	private final AxiomRelationshipConversionService axiomRelationshipConversionService;
-
-	public AxiomConversionService() {
-		axiomRelationshipConversionService = new AxiomRelationshipConversionService(Collections.emptySet());
-	}
+	// The toolkit conversion service is not documented as thread safe, each thread has its own so that axioms can be converted in parallel
+	private final ThreadLocal<AxiomRelationshipConversionService> axiomRelationshipConversionService =
+			ThreadLocal.withInitial(() -> new AxiomRelationshipConversionService(Collections.emptySet()));
 
 	public SAxiomRepresentation convertAxiomMemberToAxiomRepresentation(ReferenceSetMember axiomMember) throws ConversionException {
-		AxiomRepresentation axiomRepresentation = axiomRelationshipConversionService.convertAxiomToRelationships(
+		AxiomRepresentation axiomRepresentation = axiomRelationshipConversionService.get().convertAxiomToRelationships(
 				axiomMember.getAdditionalField(ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION));
 
 		if (axiomRepresentation == null) {// Will be null if the axiom is an Ontology Axiom for example a property chain or transitive axiom rather than an Additional Axiom or GCI.
@@ -86,7 +84,7 @@ public class AxiomConversionService {
 	}
 
 	public Set<Long> getReferencedConcepts(String owlExpression) throws ConversionException {
-		return axiomRelationshipConversionService.getIdsOfConceptsNamedInAxiom(owlExpression);
+		return axiomRelationshipConversionService.get().getIdsOfConceptsNamedInAxiom(owlExpression);
 	}
 
 	private ReferenceSetMember createMember(Concept concept, Axiom axiom, String owlExpression) {
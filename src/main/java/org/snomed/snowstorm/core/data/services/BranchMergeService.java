@@ -3,12 +3,15 @@ package org.snomed.snowstorm.core.data.services;
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.*;
 import io.kaicode.elasticvc.domain.Branch;
 import io.kaicode.elasticvc.domain.Commit;
 import io.kaicode.elasticvc.domain.DomainEntity;
 import io.kaicode.elasticvc.domain.Entity;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.snowstorm.core.data.domain.*;
@@ -19,6 +22,7 @@ import org.snomed.snowstorm.core.data.services.pojo.IntegrityIssueReport;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.snomed.snowstorm.rest.pojo.MergeRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
@@ -32,10 +36,16 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static io.kaicode.elasticvc.api.VersionControlHelper.LARGE_PAGE;
+import static java.lang.String.format;
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.*;
 import static io.kaicode.elasticvc.helper.QueryHelper.*;
 import static org.snomed.snowstorm.core.data.domain.SnomedComponent.Fields.*;
@@ -93,9 +103,25 @@ public class BranchMergeService {
 	@Autowired
 	private ExecutorService executorService;
 
+	@Value("${rebase.duplicate-resolution.threads:3}")
+	private int duplicateResolutionThreads;
+
+	private ExecutorService duplicateResolutionExecutorService;
+
 	private static final String USE_MERGE_REVIEW = "The target branch is diverged, please use the merge review endpoint instead.";
 	private static final Logger logger = LoggerFactory.getLogger(BranchMergeService.class);
 
+	@PostConstruct
+	public void init() {
+		duplicateResolutionExecutorService = Executors.newFixedThreadPool(Math.max(1, duplicateResolutionThreads),
+				new ThreadFactoryBuilder().setNameFormat("rebase-duplicates-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		duplicateResolutionExecutorService.shutdownNow();
+	}
+
 	public BranchMergeJob mergeBranchAsync(MergeRequest mergeRequest) {
 		final String source = mergeRequest.getSource();
 		final String target = mergeRequest.getTarget();
@@ -139,7 +165,13 @@ public class BranchMergeService {
 				if (mergeReview != null) {
 					branchReviewService.applyMergeReview(mergeReview);
 				} else {
-					mergeBranchSync(source, target, null);
+					mergeBranchSync(source, target, null, progress -> {
+						// Progress is reported from the rebase worker threads
+						synchronized (mergeJob) {
+							mergeJob.setProgress(progress);
+							branchMergeJobRepository.save(mergeJob);
+						}
+					});
 				}
 				mergeJob.setStatus(JobStatus.COMPLETED);
 				mergeJob.setEndDate(new Date());
@@ -169,6 +201,10 @@ public class BranchMergeService {
 	}
 
 	public void mergeBranchSync(String source, String target, Collection<Concept> manuallyMergedConcepts) throws ServiceException {
+		mergeBranchSync(source, target, manuallyMergedConcepts, progress -> {});
+	}
+
+	public void mergeBranchSync(String source, String target, Collection<Concept> manuallyMergedConcepts, Consumer<String> progressListener) throws ServiceException {
 		logger.info("Request merge {} -> {}", source, target);
 		String timerName = "Branch merge " + source + " -> " + target;
 		TimerUtil timer = new TimerUtil(timerName);
@@ -206,6 +242,7 @@ public class BranchMergeService {
 			// Content will be taken from the latest complete commit on the source branch.
 			try (Commit commit = branchService.openRebaseCommit(targetBranch.getPath(), branchMetadataHelper.getBranchLockMetadata("Rebasing changes from " + source))) {
 				if (manuallyMergedConcepts != null && !manuallyMergedConcepts.isEmpty()) {
+					progressListener.accept("Saving manually merged concepts");
 					Set<String> conceptsToDelete = manuallyMergedConcepts.stream()
 							.filter(Concept::isDeleted).map(Concept::getConceptId).collect(Collectors.toSet());
 					if (!conceptsToDelete.isEmpty()) {
@@ -230,23 +267,31 @@ public class BranchMergeService {
 				BranchCriteria changesOnBranchIncludingOpenCommit = versionControlHelper.getChangesOnBranchIncludingOpenCommit(commit);
 				BranchCriteria branchCriteriaIncludingOpenCommit = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
 				timer.checkpoint("Obtained changes on branch");
-				// Merge inferred relationships
-				removeRebaseDuplicateVersions(Relationship.class, bool(b -> b.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.INFERRED_RELATIONSHIP))),
-						changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
-				// Merge descriptions (all types to be safe)
-				removeRebaseDuplicateVersions(Description.class, bool().build()._toQuery(), changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
-				// Merge non-concept reference set members
-				removeRebaseDuplicateVersions(ReferenceSetMember.class, bool(b -> b.mustNot(existsQuery(ReferenceSetMember.Fields.CONCEPT_ID))), changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
-				// Merge language reference set members
-				removeRebaseDuplicateVersions(ReferenceSetMember.class, bool(b -> b.must(existsQuery(ReferenceSetMember.LanguageFields.ACCEPTABILITY_ID_FIELD_PATH))), changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
-				// Prefer latest edited versioned content
-				removeRebaseDivergedVersions(ReferenceSetMember.class, ReferenceSetMember.Fields.MEMBER_ID, changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
+				// Each component type is resolved independently so the passes run in parallel
+				runDuplicateResolutionPasses(target, progressListener, List.of(
+						// Merge inferred relationships
+						new DuplicateResolutionPass("inferred relationships", () ->
+								removeRebaseDuplicateVersions(Relationship.class, bool(b -> b.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.INFERRED_RELATIONSHIP))),
+										changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit)),
+						// Merge descriptions (all types to be safe)
+						new DuplicateResolutionPass("descriptions", () ->
+								removeRebaseDuplicateVersions(Description.class, bool().build()._toQuery(), changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit)),
+						// Reference set member passes can select the same members so they are run in order
+						new DuplicateResolutionPass("reference set members", () -> {
+							// Merge non-concept reference set members
+							removeRebaseDuplicateVersions(ReferenceSetMember.class, bool(b -> b.mustNot(existsQuery(ReferenceSetMember.Fields.CONCEPT_ID))), changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
+							// Merge language reference set members
+							removeRebaseDuplicateVersions(ReferenceSetMember.class, bool(b -> b.must(existsQuery(ReferenceSetMember.LanguageFields.ACCEPTABILITY_ID_FIELD_PATH))), changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
+							// Prefer latest edited versioned content
+							removeRebaseDivergedVersions(ReferenceSetMember.class, ReferenceSetMember.Fields.MEMBER_ID, changesOnBranchIncludingOpenCommit, branchCriteriaIncludingOpenCommit, commit);
+						})));
 				timer.checkpoint("Duplicate components resolved");
 
 				// add integrity metadata in target branch if integrity issue found in source.
 				updateIntegrityMetadata(sourceBranch, commit.getBranch());
 				timer.checkpoint("Updated integrity metadata");
 
+				progressListener.accept("Completing rebase commit");
 				commit.markSuccessful();
 
 			}
@@ -258,6 +303,7 @@ public class BranchMergeService {
 					branchMetadataHelper.getBranchLockMetadata("Receiving promotion from " + source))) {
 
 				logger.info("Integrity check before promotion of {}", source);
+				progressListener.accept("Checking integrity");
 				IntegrityIssueReport issueReport = integrityService.findChangedComponentsWithBadIntegrityNotFixed(sourceBranch);
 				if (!issueReport.isEmpty()) {
 					logger.error("Aborting promotion of {}. Integrity issues found: {}", source, issueReport);
@@ -266,6 +312,7 @@ public class BranchMergeService {
 				}
 
 				logger.info("Performing promotion {} -> {}", source, target);
+				progressListener.accept("Promoting content");
 				final Map<String, Set<String>> versionsReplaced = sourceBranch.getVersionsReplaced();
 				final Map<Class<? extends DomainEntity>, ElasticsearchRepository> componentTypeRepoMap = domainEntityConfiguration.getAllTypeRepositoryMap();
 				componentTypeRepoMap.entrySet().parallelStream().forEach(entry -> {
@@ -278,6 +325,40 @@ public class BranchMergeService {
 		}
 	}
 
+	private void runDuplicateResolutionPasses(String path, Consumer<String> progressListener, List<DuplicateResolutionPass> passes) throws ServiceException {
+		AtomicInteger passesComplete = new AtomicInteger();
+		progressListener.accept(format("Resolving duplicate components, 0 of %s passes complete", passes.size()));
+		List<Future<?>> futures = new ArrayList<>();
+		for (DuplicateResolutionPass pass : passes) {
+			futures.add(duplicateResolutionExecutorService.submit(() -> {
+				Date start = new Date();
+				pass.task().run();
+				logger.info("Rebase duplicate resolution of {} on {} complete in {} seconds.", pass.name(), path, TimerUtil.secondsSince(start));
+				progressListener.accept(format("Resolving duplicate components, %s of %s passes complete", passesComplete.incrementAndGet(), passes.size()));
+				return null;
+			}));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while resolving rebase duplicates on " + path, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ServiceException serviceException) {
+				throw serviceException;
+			}
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new ServiceException("Failed to resolve rebase duplicates on " + path, e.getCause());
+		} finally {
+			// The commit is rolled back on failure so the remaining passes are not needed
+			futures.forEach(future -> future.cancel(true));
+		}
+	}
+
 	private void updateIntegrityMetadata(Branch sourceBranch, Branch targetBranch) {
 		String integrityIssueFound = sourceBranch.getMetadata().getMapOrCreate(INTERNAL_METADATA_KEY).get(INTEGRITY_ISSUE_METADATA_KEY);
 		if (Boolean.parseBoolean(integrityIssueFound)) {
@@ -410,7 +491,10 @@ public class BranchMergeService {
 			ElasticsearchRepository repository = domainEntityConfiguration.getComponentTypeRepositoryMap().get(componentClass);
 			logger.info("Taking parent version of {} {}s on {}", duplicateComponents.size(), componentClass.getSimpleName(), path);
 			versionControlHelper.endOldVersionsOnThisBranch(componentClass, duplicateComponents, idField, clause, commit, repository);
-			BranchMetadataHelper.getRebaseDuplicatesRemoved(commit).put(componentClass.getSimpleName(), duplicateComponents);
+			// Passes of other component types run at the same time, passes of the same type add to the recorded set
+			synchronized (commit) {
+				BranchMetadataHelper.getRebaseDuplicatesRemoved(commit).computeIfAbsent(componentClass.getSimpleName(), key -> new HashSet<>()).addAll(duplicateComponents);
+			}
 		}
 	}
 
@@ -612,4 +696,11 @@ public class BranchMergeService {
 		this.branchReviewService = branchReviewService;
 	}
 
+	private interface DuplicateResolutionTask {
+		void run() throws ServiceException;
+	}
+
+	private record DuplicateResolutionPass(String name, DuplicateResolutionTask task) {
+	}
+
 }
@@ -0,0 +1,149 @@
+package org.snomed.snowstorm.core.data.services;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.snomed.snowstorm.core.data.domain.ConceptMini;
+import org.snomed.snowstorm.core.pojo.LanguageDialect;
+import org.snomed.snowstorm.core.pojo.TermLangPojo;
+import org.snomed.snowstorm.ecl.ECLQueryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the concepts matching an ECL expression without holding the whole result.
+ */
+@Service
+public class ConceptExportService {
+
+	private static final int BATCH_SIZE = 1_000;
+
+	@Autowired
+	private ECLQueryService eclQueryService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	public enum Format {
+
+		NDJSON("application/x-ndjson"), CSV("text/csv");
+
+		private final String contentType;
+
+		Format(String contentType) {
+			this.contentType = contentType;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+	}
+
+	/**
+	 * Writes the concepts matching the ECL in no particular order.
+	 * @param termLanguageDialects when not null the preferred term of each concept is written in these dialects.
+	 */
+	public void exportConcepts(String branch, String ecl, boolean stated, Format format, List<LanguageDialect> termLanguageDialects,
+			OutputStream outputStream) throws IOException {
+
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		ConceptWriter conceptWriter = new ConceptWriter(writer, format, termLanguageDialects, branchCriteria);
+		if (format == Format.CSV) {
+			writer.write(termLanguageDialects != null ? "id,pt\n" : "id\n");
+		}
+		try {
+			eclQueryService.streamConceptIds(ecl, branchCriteria, stated, conceptWriter::add);
+			conceptWriter.flush();
+		} catch (UncheckedIOException e) {
+			// Client has most likely disconnected
+			throw e.getCause();
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes concepts in batches so that preferred terms can be joined without holding the whole result.
+	 */
+	private class ConceptWriter {
+
+		private final Writer writer;
+		private final Format format;
+		private final List<LanguageDialect> termLanguageDialects;
+		private final BranchCriteria branchCriteria;
+		private final LongArrayList batch = new LongArrayList(BATCH_SIZE);
+
+		ConceptWriter(Writer writer, Format format, List<LanguageDialect> termLanguageDialects, BranchCriteria branchCriteria) {
+			this.writer = writer;
+			this.format = format;
+			this.termLanguageDialects = termLanguageDialects;
+			this.branchCriteria = branchCriteria;
+		}
+
+		void add(long conceptId) {
+			batch.add(conceptId);
+			if (batch.size() == BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		void flush() {
+			if (batch.isEmpty()) {
+				return;
+			}
+			Map<String, ConceptMini> conceptMinis = termLanguageDialects != null ?
+					conceptService.findConceptMinis(branchCriteria, batch, termLanguageDialects).getResultsMap() : Collections.emptyMap();
+			try {
+				for (long conceptId : batch) {
+					String id = Long.toString(conceptId);
+					String term = null;
+					if (termLanguageDialects != null) {
+						ConceptMini conceptMini = conceptMinis.get(id);
+						TermLangPojo pt = conceptMini != null ? conceptMini.getPt() : null;
+						term = pt != null && pt.getTerm() != null ? pt.getTerm() : "";
+					}
+					if (format == Format.CSV) {
+						writeCsv(id, term);
+					} else {
+						writeJson(id, term);
+					}
+					writer.write("\n");
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			batch.clear();
+		}
+
+		private void writeCsv(String id, String term) throws IOException {
+			writer.write(id);
+			if (term != null) {
+				writer.write(",\"");
+				writer.write(term.replace("\"", "\"\""));
+				writer.write("\"");
+			}
+		}
+
+		private void writeJson(String id, String term) throws IOException {
+			writer.write("{\"id\":\"");
+			writer.write(id);
+			writer.write("\"");
+			if (term != null) {
+				writer.write(",\"pt\":\"");
+				writer.write(JsonStringEncoder.getInstance().quoteAsString(term));
+				writer.write("\"");
+			}
+			writer.write("}");
+		}
+	}
+}
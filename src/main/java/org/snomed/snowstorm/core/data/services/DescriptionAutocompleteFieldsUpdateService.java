@@ -0,0 +1,258 @@
+package org.snomed.snowstorm.core.data.services;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.google.common.collect.Iterables;
+import io.kaicode.elasticvc.api.*;
+import io.kaicode.elasticvc.domain.Commit;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.domain.Concepts;
+import org.snomed.snowstorm.core.data.domain.Description;
+import org.snomed.snowstorm.core.data.domain.ReferenceSetMember;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
+import static io.kaicode.elasticvc.domain.Commit.CommitType.PROMOTION;
+import static io.kaicode.elasticvc.domain.Commit.CommitType.REBASE;
+import static io.kaicode.elasticvc.helper.QueryHelper.*;
+import static java.lang.Long.parseLong;
+import static org.snomed.snowstorm.config.Config.BATCH_SAVE_SIZE;
+import static org.snomed.snowstorm.core.data.domain.ReferenceSetMember.LanguageFields.ACCEPTABILITY_ID;
+import static org.snomed.snowstorm.core.data.domain.ReferenceSetMember.LanguageFields.ACCEPTABILITY_ID_FIELD_PATH;
+import static org.springframework.data.elasticsearch.core.query.ScriptType.INLINE;
+
+/**
+ * Keeps the description fields used by the autocomplete filters up to date: whether the concept is active
+ * and the language reference sets the description is preferred or acceptable in.
+ * Descriptions affected by a commit are updated within the commit so the fields are version controlled along with the description.
+ */
+@Service
+public class DescriptionAutocompleteFieldsUpdateService implements CommitListener {
+
+	private static final String UPDATE_SCRIPT = "ctx._source." + Description.Fields.CONCEPT_ACTIVE + "=params.conceptActive;" +
+			"ctx._source." + Description.Fields.PREFERRED_IN + "=params.preferredIn;" +
+			"ctx._source." + Description.Fields.ACCEPTABLE_IN + "=params.acceptableIn";
+
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ConceptUpdateHelper conceptUpdateHelper;
+
+	@Autowired
+	private DescriptionService descriptionService;
+
+	@Autowired
+	private BranchMetadataHelper branchMetadataHelper;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	@Override
+	public void preCommitCompletion(Commit commit) throws IllegalStateException {
+		// Promoted descriptions keep the fields set on the source branch, which is up to date with this branch before promotion
+		if (commit.getCommitType() == PROMOTION || !descriptionService.isAutocompleteFilterFieldsMapped()) {
+			return;
+		}
+		try {
+			// After a rebase the changes on either side may affect the descriptions changed on the branch
+			BranchCriteria changesCriteria = commit.getCommitType() == REBASE ?
+					versionControlHelper.getChangesOnBranchIncludingOpenCommit(commit) : versionControlHelper.getBranchCriteriaChangesAndDeletionsWithinOpenCommitOnly(commit);
+			updateDescriptions(findAffectedDescriptions(changesCriteria, commit), commit);
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to update description autocomplete fields.", e);
+		}
+	}
+
+	/**
+	 * Sets the autocomplete fields of every description on the branch, needed once for descriptions indexed before the fields existed.
+	 */
+	public void updateAllDescriptions(String path) throws ServiceException {
+		logger.info("Updating the autocomplete fields of all descriptions on branch {}.", path);
+		try (Commit commit = branchService.openCommit(path, branchMetadataHelper.getBranchLockMetadata("Updating description autocomplete fields."))) {
+			Set<Long> descriptionIds = new LongOpenHashSet();
+			try (SearchHitsIterator<Description> descriptions = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit).getEntityBranchCriteria(Description.class))
+					.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID}, null))
+					.withPageable(ConceptService.LARGE_PAGE).build(), Description.class)) {
+				descriptions.forEachRemaining(hit -> descriptionIds.add(parseLong(hit.getContent().getDescriptionId())));
+			}
+			updateDescriptions(descriptionIds, commit);
+			commit.markSuccessful();
+		} catch (Exception e) {
+			throw new ServiceException("Failed to update description autocomplete fields.", e);
+		}
+		logger.info("Completed updating the autocomplete fields of all descriptions on branch {}.", path);
+	}
+
+	private Set<Long> findAffectedDescriptions(BranchCriteria changesCriteria, Commit commit) {
+		Set<Long> descriptionIds = new LongOpenHashSet();
+		try (SearchHitsIterator<Description> descriptions = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(changesCriteria.getEntityBranchCriteria(Description.class))
+				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID}, null))
+				.withPageable(ConceptService.LARGE_PAGE).build(), Description.class)) {
+			descriptions.forEachRemaining(hit -> descriptionIds.add(parseLong(hit.getContent().getDescriptionId())));
+		}
+
+		// Language reference set members changed or deleted
+		try (SearchHitsIterator<ReferenceSetMember> members = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(changesCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
+						.must(existsQuery(ACCEPTABILITY_ID_FIELD_PATH))))
+				.withSourceFilter(new FetchSourceFilter(new String[]{ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID}, null))
+				.withPageable(ConceptService.LARGE_PAGE).build(), ReferenceSetMember.class)) {
+			members.forEachRemaining(hit -> descriptionIds.add(parseLong(hit.getContent().getReferencedComponentId())));
+		}
+
+		// Descriptions of the concepts changed, the concept may have been inactivated or reactivated
+		Set<Long> conceptIds = new LongOpenHashSet();
+		try (SearchHitsIterator<Concept> concepts = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(changesCriteria.getEntityBranchCriteria(Concept.class))
+				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+				.withPageable(ConceptService.LARGE_PAGE).build(), Concept.class)) {
+			concepts.forEachRemaining(hit -> conceptIds.add(hit.getContent().getConceptIdAsLong()));
+		}
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
+		for (List<Long> conceptIdBatch : Iterables.partition(conceptIds, CLAUSE_LIMIT)) {
+			try (SearchHitsIterator<Description> descriptions = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(Description.class))
+							.must(termsQuery(Description.Fields.CONCEPT_ID, conceptIdBatch))))
+					.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID}, null))
+					.withPageable(ConceptService.LARGE_PAGE).build(), Description.class)) {
+				descriptions.forEachRemaining(hit -> descriptionIds.add(parseLong(hit.getContent().getDescriptionId())));
+			}
+		}
+		return descriptionIds;
+	}
+
+	private void updateDescriptions(Set<Long> descriptionIds, Commit commit) {
+		if (descriptionIds.isEmpty()) {
+			return;
+		}
+		TimerUtil timer = new TimerUtil("Description autocomplete fields " + commit.getBranch().getPath());
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
+		int updated = 0;
+		for (List<Long> descriptionIdBatch : Iterables.partition(descriptionIds, CLAUSE_LIMIT)) {
+			List<Description> descriptions = new ArrayList<>();
+			try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(Description.class))
+							.must(termsQuery(Description.Fields.DESCRIPTION_ID, descriptionIdBatch))))
+					.withPageable(ConceptService.LARGE_PAGE).build(), Description.class)) {
+				stream.forEachRemaining(hit -> descriptions.add(hit.getContent()));
+			}
+			if (descriptions.isEmpty()) {
+				continue;
+			}
+
+			Set<String> activeConceptIds = findActiveConcepts(descriptions, branchCriteria);
+			Map<String, Set<String>> preferredIn = new HashMap<>();
+			Map<String, Set<String>> acceptableIn = new HashMap<>();
+			findAcceptability(descriptionIdBatch, branchCriteria, preferredIn, acceptableIn);
+
+			List<Description> updatedInCommit = new ArrayList<>();
+			List<Description> newVersions = new ArrayList<>();
+			for (Description description : descriptions) {
+				boolean conceptActive = activeConceptIds.contains(description.getConceptId());
+				Set<String> descriptionPreferredIn = preferredIn.getOrDefault(description.getDescriptionId(), Collections.emptySet());
+				Set<String> descriptionAcceptableIn = acceptableIn.getOrDefault(description.getDescriptionId(), Collections.emptySet());
+				if (!description.hasAutocompleteFields(conceptActive, descriptionPreferredIn, descriptionAcceptableIn)) {
+					description.setAutocompleteFields(conceptActive, descriptionPreferredIn, descriptionAcceptableIn);
+					// Versions already written in this commit are updated in place to avoid two versions of the same description in the commit
+					if (commit.getBranch().getPath().equals(description.getPath()) && commit.getTimepoint().equals(description.getStart())) {
+						updatedInCommit.add(description);
+					} else {
+						description.markChanged();
+						newVersions.add(description);
+					}
+				}
+			}
+			updateInPlace(updatedInCommit);
+			for (List<Description> batch : Iterables.partition(newVersions, BATCH_SAVE_SIZE)) {
+				conceptUpdateHelper.doSaveBatchDescriptions(batch, commit);
+			}
+			updated += updatedInCommit.size() + newVersions.size();
+		}
+		timer.finish();
+		if (updated > 0) {
+			logger.info("Updated the autocomplete fields of {} descriptions on branch {}.", updated, commit.getBranch().getPath());
+		}
+	}
+
+	private Set<String> findActiveConcepts(List<Description> descriptions, BranchCriteria branchCriteria) {
+		Set<String> conceptIds = new HashSet<>();
+		descriptions.forEach(description -> conceptIds.add(description.getConceptId()));
+		Set<String> activeConceptIds = new HashSet<>();
+		try (SearchHitsIterator<Concept> concepts = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(branchCriteria.getEntityBranchCriteria(Concept.class))
+						.must(termQuery(Concept.Fields.ACTIVE, true))
+						.must(termsQuery(Concept.Fields.CONCEPT_ID, conceptIds))))
+				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+				.withPageable(ConceptService.LARGE_PAGE).build(), Concept.class)) {
+			concepts.forEachRemaining(hit -> activeConceptIds.add(hit.getContent().getConceptId()));
+		}
+		return activeConceptIds;
+	}
+
+	private void findAcceptability(Collection<Long> descriptionIds, BranchCriteria branchCriteria,
+			Map<String, Set<String>> preferredIn, Map<String, Set<String>> acceptableIn) {
+
+		Query query = bool(b -> b
+				.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
+				.must(termQuery(ReferenceSetMember.Fields.ACTIVE, true))
+				.must(termsQuery(ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, descriptionIds))
+				.must(existsQuery(ACCEPTABILITY_ID_FIELD_PATH)));
+		try (SearchHitsIterator<ReferenceSetMember> members = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(query)
+				.withSourceFilter(new FetchSourceFilter(new String[]{ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID,
+						ReferenceSetMember.Fields.REFSET_ID, ACCEPTABILITY_ID_FIELD_PATH}, null))
+				.withPageable(ConceptService.LARGE_PAGE).build(), ReferenceSetMember.class)) {
+			members.forEachRemaining(hit -> {
+				ReferenceSetMember member = hit.getContent();
+				String acceptabilityId = member.getAdditionalField(ACCEPTABILITY_ID);
+				if (Concepts.PREFERRED.equals(acceptabilityId)) {
+					preferredIn.computeIfAbsent(member.getReferencedComponentId(), id -> new HashSet<>()).add(member.getRefsetId());
+				} else if (Concepts.ACCEPTABLE.equals(acceptabilityId)) {
+					acceptableIn.computeIfAbsent(member.getReferencedComponentId(), id -> new HashSet<>()).add(member.getRefsetId());
+				}
+			});
+		}
+	}
+
+	private void updateInPlace(List<Description> descriptions) {
+		if (descriptions.isEmpty()) {
+			return;
+		}
+		List<UpdateQuery> updateQueries = new ArrayList<>();
+		for (Description description : descriptions) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("conceptActive", description.getConceptActive());
+			params.put("preferredIn", new ArrayList<>(description.getPreferredIn()));
+			params.put("acceptableIn", new ArrayList<>(description.getAcceptableIn()));
+			updateQueries.add(UpdateQuery.builder(description.getInternalId()).withScript(UPDATE_SCRIPT).withParams(params).withScriptType(INLINE).build());
+		}
+		for (List<UpdateQuery> batch : Iterables.partition(updateQueries, BATCH_SAVE_SIZE)) {
+			elasticsearchOperations.bulkUpdate(batch, elasticsearchOperations.getIndexCoordinatesFor(Description.class));
+		}
+		elasticsearchOperations.indexOps(Description.class).refresh();
+	}
+}
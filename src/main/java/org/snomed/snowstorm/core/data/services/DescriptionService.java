@@ -6,6 +6,8 @@ import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.TextQueryType;
+import co.elastic.clients.elasticsearch.core.search.FieldCollapse;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -105,6 +107,13 @@ public class DescriptionService extends ComponentService {
 	@Value("${search.description.aggregation.maxProcessableResultsSize}")
 	private int aggregationMaxProcessableResultsSize;
 
+	private static final int AUTOCOMPLETE_MAX_LIMIT = 100;
+
+	// Number of candidate descriptions fetched for each autocomplete result requested, when they are filtered after the search
+	private static final int AUTOCOMPLETE_CANDIDATE_FACTOR = 3;
+
+	private volatile boolean autocompleteFilterFieldsMapped = true;
+
 	public enum SearchMode {
 		STANDARD, REGEX, WHOLE_WORD, WILDCARD
 	}
@@ -367,6 +376,224 @@ public class DescriptionService extends ComponentService {
 		}
 	}
 
+	/**
+	 * Search as you type lookup of the active concepts which have an active description starting with the words given.
+	 * One description is returned per concept, shortest terms first. Matching uses the termAutocomplete field and the concept active
+	 * and acceptability criteria use the fields denormalised onto each description, so a single query bounded by the limit returns the results.
+	 * Descriptions indexed before those fields existed are checked with separate queries after the search,
+	 * fewer results than the limit may be returned until the fields are populated.
+	 */
+	public List<Description> findAutocompleteDescriptions(String path, DescriptionCriteria criteria, int limit) {
+		if (limit < 1 || limit > AUTOCOMPLETE_MAX_LIMIT) {
+			throw new IllegalArgumentException(String.format("Limit must be between 1 and %s.", AUTOCOMPLETE_MAX_LIMIT));
+		}
+		String term = criteria.getTerm();
+		if (term == null) {
+			return Collections.emptyList();
+		}
+		TimerUtil timer = new TimerUtil("Autocomplete", Level.INFO, 1);
+		final BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(path);
+
+		BoolQuery.Builder descriptionQuery = bool()
+				.must(branchCriteria.getEntityBranchCriteria(Description.class))
+				.must(termQuery(Description.Fields.ACTIVE, true));
+		if (IdentifierService.isConceptId(term) || IdentifierService.isDescriptionId(term)) {
+			addTermClauses(term, SearchMode.STANDARD, descriptionQuery);
+		} else {
+			// Descriptions indexed before the autocomplete field was added, and not populated since, are matched using the standard prefix search
+			BoolQuery.Builder withoutAutocompleteFieldQuery = bool().mustNot(existsQuery(Description.Fields.TERM_AUTOCOMPLETE));
+			addTermClauses(term, SearchMode.STANDARD, withoutAutocompleteFieldQuery);
+			descriptionQuery.filter(bool(b -> b
+					.should(getAutocompleteQuery(term))
+					.should(withoutAutocompleteFieldQuery.build()._toQuery())));
+		}
+		addTermClauses(null, null, criteria.getSearchLanguageCodes(), criteria.getType(), descriptionQuery);
+
+		boolean filterFieldsMapped = autocompleteFilterFieldsMapped;
+		if (filterFieldsMapped) {
+			BoolQuery.Builder filterFieldsQuery = bool().must(termQuery(Description.Fields.CONCEPT_ACTIVE, true));
+			addAcceptabilityFieldClauses(criteria, filterFieldsQuery);
+			descriptionQuery.filter(bool(b -> b
+					.should(filterFieldsQuery.build()._toQuery())
+					.should(bool(wb -> wb.mustNot(existsQuery(Description.Fields.CONCEPT_ACTIVE))))));
+		}
+		Query query = descriptionQuery.build()._toQuery();
+		BoolQuery.Builder acceptabilityQuery = getAcceptabilityQuery(criteria, branchCriteria);
+
+		// Without the denormalised fields extra candidates are fetched to allow for filtering
+		int pageSize = filterFieldsMapped ? limit : limit * AUTOCOMPLETE_CANDIDATE_FACTOR;
+		List<Description> results = new ArrayList<>();
+		Set<String> resultConceptIds = new HashSet<>();
+		for (int page = 0; page < AUTOCOMPLETE_CANDIDATE_FACTOR; page++) {
+			NativeQueryBuilder candidateQueryBuilder = new NativeQueryBuilder()
+					.withQuery(query)
+					.withPageable(PageRequest.of(page, pageSize));
+			if (filterFieldsMapped || acceptabilityQuery == null) {
+				// Any matching description of the concept will do, let Elasticsearch pick the shortest
+				candidateQueryBuilder.withFieldCollapse(FieldCollapse.of(f -> f.field(Description.Fields.CONCEPT_ID)));
+			}
+			List<Description> candidates = elasticsearchOperations.search(addTermSort(candidateQueryBuilder.build()), Description.class)
+					.stream().map(SearchHit::getContent).collect(Collectors.toList());
+			timer.checkpoint("Find candidate descriptions");
+
+			// Candidates are in term order, keep the first description of each concept
+			for (Description candidate : filterAutocompleteCandidatesWithoutFields(candidates, acceptabilityQuery, branchCriteria, timer)) {
+				if (resultConceptIds.add(candidate.getConceptId())) {
+					results.add(candidate);
+					if (results.size() == limit) {
+						break;
+					}
+				}
+			}
+			// Another page is only needed when descriptions without the denormalised fields have been filtered out
+			if (results.size() == limit || candidates.size() < pageSize || !filterFieldsMapped) {
+				break;
+			}
+		}
+		timer.finish();
+		return results;
+	}
+
+	/**
+	 * Removes the candidates without the denormalised autocomplete fields which do not meet the concept active or acceptability criteria,
+	 * the other candidates were filtered by the search.
+	 */
+	private List<Description> filterAutocompleteCandidatesWithoutFields(List<Description> candidates, BoolQuery.Builder acceptabilityQuery,
+			BranchCriteria branchCriteria, TimerUtil timer) {
+
+		List<Description> candidatesWithoutFields = candidates.stream().filter(candidate -> candidate.getConceptActive() == null).toList();
+		if (candidatesWithoutFields.isEmpty()) {
+			return candidates;
+		}
+
+		Set<String> rejectedDescriptionIds = new HashSet<>();
+		if (acceptabilityQuery != null) {
+			Set<String> acceptableDescriptionIds = new HashSet<>();
+			try (SearchHitsIterator<ReferenceSetMember> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(acceptabilityQuery.build()._toQuery())
+					.withFilter(termsQuery(ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, candidatesWithoutFields.stream().map(Description::getDescriptionId).toList()))
+					.withSourceFilter(new FetchSourceFilter(new String[]{ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), ReferenceSetMember.class)) {
+				stream.forEachRemaining(hit -> acceptableDescriptionIds.add(hit.getContent().getReferencedComponentId()));
+			}
+			candidatesWithoutFields.stream().map(Description::getDescriptionId)
+					.filter(descriptionId -> !acceptableDescriptionIds.contains(descriptionId))
+					.forEach(rejectedDescriptionIds::add);
+			timer.checkpoint("Language refset filtering");
+		}
+
+		Set<String> candidateConceptIds = candidatesWithoutFields.stream().map(Description::getConceptId).collect(Collectors.toSet());
+		Set<String> activeConceptIds = new HashSet<>();
+		elasticsearchOperations.search(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(branchCriteria.getEntityBranchCriteria(Concept.class))
+						.must(termQuery(Concept.Fields.ACTIVE, true))
+						.filter(termsQuery(Concept.Fields.CONCEPT_ID, candidateConceptIds)))
+				)
+				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+				.withPageable(PageRequest.of(0, candidateConceptIds.size()))
+				.build(), Concept.class)
+				.forEach(hit -> activeConceptIds.add(hit.getContent().getConceptId()));
+		candidatesWithoutFields.stream()
+				.filter(candidate -> !activeConceptIds.contains(candidate.getConceptId()))
+				.forEach(candidate -> rejectedDescriptionIds.add(candidate.getDescriptionId()));
+		timer.checkpoint("Concept active filtering");
+
+		return candidates.stream().filter(candidate -> !rejectedDescriptionIds.contains(candidate.getDescriptionId())).toList();
+	}
+
+	/**
+	 * Adds the acceptability criteria as clauses on the language reference set fields denormalised onto each description.
+	 */
+	private void addAcceptabilityFieldClauses(DescriptionCriteria criteria, BoolQuery.Builder query) {
+		if (!CollectionUtils.isEmpty(criteria.getPreferredIn())) {
+			query.must(termsQuery(Description.Fields.PREFERRED_IN, criteria.getPreferredIn()));
+		}
+		if (!CollectionUtils.isEmpty(criteria.getAcceptableIn())) {
+			query.must(termsQuery(Description.Fields.ACCEPTABLE_IN, criteria.getAcceptableIn()));
+		}
+		if (!CollectionUtils.isEmpty(criteria.getPreferredOrAcceptableIn())) {
+			query.must(getPreferredOrAcceptableInQuery(criteria.getPreferredOrAcceptableIn()));
+		}
+		if (criteria.getDisjunctionAcceptabilityCriteria() != null) {
+			for (DescriptionCriteria.DisjunctionAcceptabilityCriteria disjunctionCriteria : criteria.getDisjunctionAcceptabilityCriteria()) {
+				BoolQuery.Builder shouldClause = bool();
+				if (!CollectionUtils.isEmpty(disjunctionCriteria.preferred())) {
+					shouldClause.should(termsQuery(Description.Fields.PREFERRED_IN, disjunctionCriteria.preferred()));
+				}
+				if (!CollectionUtils.isEmpty(disjunctionCriteria.acceptable())) {
+					shouldClause.should(termsQuery(Description.Fields.ACCEPTABLE_IN, disjunctionCriteria.acceptable()));
+				}
+				if (!CollectionUtils.isEmpty(disjunctionCriteria.preferredOrAcceptable())) {
+					shouldClause.should(getPreferredOrAcceptableInQuery(disjunctionCriteria.preferredOrAcceptable()));
+				}
+				if (!shouldClause.build().should().isEmpty()) {
+					query.must(shouldClause.build()._toQuery());
+				}
+			}
+		}
+	}
+
+	private Query getPreferredOrAcceptableInQuery(Set<Long> languageRefsetIds) {
+		return bool(b -> b
+				.should(termsQuery(Description.Fields.PREFERRED_IN, languageRefsetIds))
+				.should(termsQuery(Description.Fields.ACCEPTABLE_IN, languageRefsetIds)));
+	}
+
+	public boolean isAutocompleteFilterFieldsMapped() {
+		return autocompleteFilterFieldsMapped;
+	}
+
+	/**
+	 * Set when the description index mapping can not be updated with the denormalised autocomplete fields,
+	 * the fields are then neither used by autocomplete nor kept up to date.
+	 */
+	public void setAutocompleteFilterFieldsMapped(boolean autocompleteFilterFieldsMapped) {
+		this.autocompleteFilterFieldsMapped = autocompleteFilterFieldsMapped;
+	}
+
+	/**
+	 * Counts descriptions on all branches which were indexed before the termAutocomplete field existed in the mapping.
+	 */
+	public long countDescriptionsWithoutAutocompleteField() {
+		return elasticsearchOperations.count(new NativeQueryBuilder()
+				.withQuery(bool(b -> b.mustNot(existsQuery(Description.Fields.TERM_AUTOCOMPLETE))))
+				.build(), Description.class);
+	}
+
+	private Query getAutocompleteQuery(String term) {
+		Map<String, Set<Character>> charactersNotFoldedSets = searchLanguagesConfiguration.getCharactersNotFoldedSets();
+		Set<String> languageFoldingStrategies = new HashSet<>(charactersNotFoldedSets.keySet());
+		languageFoldingStrategies.add("");
+
+		// Put search term through character folding for each language, the same as the standard search
+		Set<String> foldedSearchTerms = new HashSet<>();
+		for (String languageFoldingStrategy : languageFoldingStrategies) {
+			String foldedSearchTerm = DescriptionHelper.foldTerm(term, charactersNotFoldedSets.getOrDefault(languageFoldingStrategy, Collections.emptySet()));
+			foldedSearchTerm = constructSearchTerm(analyze(foldedSearchTerm, new StandardAnalyzer()));
+			if (!foldedSearchTerm.isEmpty()) {
+				foldedSearchTerms.add(foldedSearchTerm);
+			}
+		}
+		if (foldedSearchTerms.isEmpty()) {
+			return termQuery(Description.Fields.TERM, NO_MATCH);
+		}
+
+		// Each word must match, the last word as a prefix. The shingle sub-fields favour words in the order given.
+		BoolQuery.Builder foldedTermsQuery = bool();
+		for (String foldedSearchTerm : foldedSearchTerms) {
+			foldedTermsQuery.should(multiMatch(m -> m
+					.query(foldedSearchTerm)
+					.type(TextQueryType.BoolPrefix)
+					.operator(Operator.And)
+					.fields(Description.Fields.TERM_AUTOCOMPLETE,
+							Description.Fields.TERM_AUTOCOMPLETE + "._2gram",
+							Description.Fields.TERM_AUTOCOMPLETE + "._3gram")));
+		}
+		return foldedTermsQuery.build()._toQuery();
+	}
+
 	public Map<String, Long> countActiveConceptsPerSemanticTag(String branch) {
 
 		Branch branchObject = branchService.findLatest(branch);
@@ -703,59 +930,11 @@ public class DescriptionService extends ComponentService {
 		timer.checkpoint("Collect all description and concept ids");
 
 		// Second pass to apply lang refset filter
-		Set<Long> preferredIn = criteria.getPreferredIn();
-		Set<Long> acceptableIn = criteria.getAcceptableIn();
-		Set<Long> preferredOrAcceptableIn = criteria.getPreferredOrAcceptableIn();
 		Set<Long> conceptIds;
-		if (!CollectionUtils.isEmpty(preferredIn) || !CollectionUtils.isEmpty(acceptableIn)
-				|| !CollectionUtils.isEmpty(preferredOrAcceptableIn) || !CollectionUtils.isEmpty(criteria.getDisjunctionAcceptabilityCriteria())) {
-
-			BoolQuery.Builder queryBuilder = bool()
-					.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
-					.must(termQuery(ReferenceSetMember.Fields.ACTIVE, true));
-
-			if (!CollectionUtils.isEmpty(preferredIn)) {
-				queryBuilder
-						.must(termsQuery(REFSET_ID, preferredIn))
-						.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.PREFERRED));
-			}
-			if (!CollectionUtils.isEmpty(acceptableIn)) {
-				queryBuilder
-						.must(termsQuery(REFSET_ID, acceptableIn))
-						.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.ACCEPTABLE));
-			}
-			if (!CollectionUtils.isEmpty(preferredOrAcceptableIn)) {
-				queryBuilder
-						.must(termsQuery(REFSET_ID, preferredOrAcceptableIn))
-						.must(termsQuery(ACCEPTABILITY_ID_FIELD_PATH, Sets.newHashSet(Concepts.PREFERRED, Concepts.ACCEPTABLE)));
-			}
-			// processing DisjunctionAcceptabilityCriteria
-			if (criteria.getDisjunctionAcceptabilityCriteria() != null) {
-				for (DescriptionCriteria.DisjunctionAcceptabilityCriteria disjunctionCriteria : criteria.getDisjunctionAcceptabilityCriteria()) {
-					BoolQuery.Builder shouldClause = bool();
-					if (!CollectionUtils.isEmpty(disjunctionCriteria.preferred())) {
-						disjunctionCriteria.preferred().forEach(refsetId -> shouldClause.should(bool(b -> b
-								.must(termQuery(REFSET_ID, refsetId))
-								.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.PREFERRED)))));
-					}
-					if (!CollectionUtils.isEmpty(acceptableIn)) {
-						disjunctionCriteria.preferred().forEach(refsetId -> shouldClause.should(bool(b -> b
-								.must(termQuery(REFSET_ID, refsetId))
-								.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.ACCEPTABLE)))));
-					}
-					if (!CollectionUtils.isEmpty(preferredOrAcceptableIn)) {
-						shouldClause.should(bool(b -> b
-								.must(termsQuery(REFSET_ID, preferredOrAcceptableIn))
-								.must(termsQuery(ACCEPTABILITY_ID_FIELD_PATH, Sets.newHashSet(Concepts.PREFERRED, Concepts.ACCEPTABLE)))));
-					}
-					if (!shouldClause.build().should().isEmpty()) {
-						queryBuilder.must(shouldClause.build()._toQuery());
-					}
-				}
-			}
-
+		BoolQuery.Builder acceptabilityQueryBuilder = getAcceptabilityQuery(criteria, branchCriteria);
+		if (acceptabilityQueryBuilder != null) {
 			NativeQuery nativeSearchQuery = new NativeQueryBuilder()
-					.withQuery(queryBuilder.build()._toQuery())
+					.withQuery(acceptabilityQueryBuilder.build()._toQuery())
 					.withFilter(termsQuery(ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, descriptionToConceptMap.keySet()))
 					.withSourceFilter(new FetchSourceFilter(new String[]{ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID}, null))
 					.withPageable(LARGE_PAGE)
@@ -840,6 +1019,64 @@ public class DescriptionService extends ComponentService {
 		return new DescriptionMatches(descriptions, conceptIds, descriptionQuery);
 	}
 
+	/**
+	 * @return query for the active language reference set members which meet the acceptability criteria, or null if there are no acceptability criteria.
+	 */
+	private BoolQuery.Builder getAcceptabilityQuery(DescriptionCriteria criteria, BranchCriteria branchCriteria) {
+		Set<Long> preferredIn = criteria.getPreferredIn();
+		Set<Long> acceptableIn = criteria.getAcceptableIn();
+		Set<Long> preferredOrAcceptableIn = criteria.getPreferredOrAcceptableIn();
+		if (CollectionUtils.isEmpty(preferredIn) && CollectionUtils.isEmpty(acceptableIn)
+				&& CollectionUtils.isEmpty(preferredOrAcceptableIn) && CollectionUtils.isEmpty(criteria.getDisjunctionAcceptabilityCriteria())) {
+			return null;
+		}
+
+		BoolQuery.Builder queryBuilder = bool()
+				.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
+				.must(termQuery(ReferenceSetMember.Fields.ACTIVE, true));
+
+		if (!CollectionUtils.isEmpty(preferredIn)) {
+			queryBuilder
+					.must(termsQuery(REFSET_ID, preferredIn))
+					.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.PREFERRED));
+		}
+		if (!CollectionUtils.isEmpty(acceptableIn)) {
+			queryBuilder
+					.must(termsQuery(REFSET_ID, acceptableIn))
+					.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.ACCEPTABLE));
+		}
+		if (!CollectionUtils.isEmpty(preferredOrAcceptableIn)) {
+			queryBuilder
+					.must(termsQuery(REFSET_ID, preferredOrAcceptableIn))
+					.must(termsQuery(ACCEPTABILITY_ID_FIELD_PATH, Sets.newHashSet(Concepts.PREFERRED, Concepts.ACCEPTABLE)));
+		}
+		// processing DisjunctionAcceptabilityCriteria
+		if (criteria.getDisjunctionAcceptabilityCriteria() != null) {
+			for (DescriptionCriteria.DisjunctionAcceptabilityCriteria disjunctionCriteria : criteria.getDisjunctionAcceptabilityCriteria()) {
+				BoolQuery.Builder shouldClause = bool();
+				if (!CollectionUtils.isEmpty(disjunctionCriteria.preferred())) {
+					disjunctionCriteria.preferred().forEach(refsetId -> shouldClause.should(bool(b -> b
+							.must(termQuery(REFSET_ID, refsetId))
+							.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.PREFERRED)))));
+				}
+				if (!CollectionUtils.isEmpty(acceptableIn)) {
+					disjunctionCriteria.preferred().forEach(refsetId -> shouldClause.should(bool(b -> b
+							.must(termQuery(REFSET_ID, refsetId))
+							.must(termQuery(ACCEPTABILITY_ID_FIELD_PATH, Concepts.ACCEPTABLE)))));
+				}
+				if (!CollectionUtils.isEmpty(preferredOrAcceptableIn)) {
+					shouldClause.should(bool(b -> b
+							.must(termsQuery(REFSET_ID, preferredOrAcceptableIn))
+							.must(termsQuery(ACCEPTABILITY_ID_FIELD_PATH, Sets.newHashSet(Concepts.PREFERRED, Concepts.ACCEPTABLE)))));
+				}
+				if (!shouldClause.build().should().isEmpty()) {
+					queryBuilder.must(shouldClause.build()._toQuery());
+				}
+			}
+		}
+		return queryBuilder;
+	}
+
 	private Set<Long> filterOrderedSet(Set<Long> orderedIds, List<Long> idsToKeep) {
 		Set<Long> newSet = new LongLinkedOpenHashSet();
 		for (Long orderedId : orderedIds) {
@@ -0,0 +1,82 @@
+package org.snomed.snowstorm.core.data.services;
+
+import ch.qos.logback.classic.Level;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import jakarta.annotation.PostConstruct;
+import org.snomed.otf.owltoolkit.conversion.ConversionException;
+import org.snomed.snowstorm.core.data.domain.ReferenceSetMember;
+import org.snomed.snowstorm.core.util.IdSet;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+
+import static org.snomed.snowstorm.core.data.domain.ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION;
+
+/**
+ * In-memory indexes used by the integrity checks.
+ * The active concept ids of a branch version are held so that concepts can be checked without Elasticsearch terms queries.
+ * Branch versions are keyed by path and timepoint so an index never becomes stale.
+ * The concepts referenced by an OWL expression are held so that each axiom is only parsed once.
+ * Ids are held in compressed bitmaps. The sets returned are shared by all callers and must not be modified.
+ */
+@Service
+public class IntegrityIndexService {
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private AxiomConversionService axiomConversionService;
+
+	@Value("${integrity.active-concept-index.max-branch-versions}")
+	private int maxBranchVersions;
+
+	@Value("${integrity.axiom-references.max-expressions}")
+	private int maxExpressions;
+
+	private Cache<BranchVersion, IdSet> activeConceptIndexes;
+	private Cache<String, IdSet> axiomReferences;
+
+	@PostConstruct
+	public void init() {
+		activeConceptIndexes = Caffeine.newBuilder().maximumSize(maxBranchVersions).build();
+		axiomReferences = Caffeine.newBuilder().maximumSize(maxExpressions).build();
+	}
+
+	/**
+	 * @return ids of the concepts which are active on the branch at the timepoint.
+	 */
+	public IdSet getActiveConcepts(String path, Date timepoint) {
+		return activeConceptIndexes.get(new BranchVersion(path, timepoint.getTime()), key -> {
+			TimerUtil timer = new TimerUtil("Active concept index " + path, Level.INFO, 1);
+			IdSet activeConcepts = IdSet.of(conceptService.findAllActiveConcepts(versionControlHelper.getBranchCriteriaAtTimepoint(path, timepoint))).freeze();
+			timer.checkpoint("Active concepts: " + activeConcepts.size());
+			timer.finish();
+			return activeConcepts;
+		});
+	}
+
+	public IdSet getReferencedConcepts(ReferenceSetMember axiomMember) throws ConversionException {
+		String owlExpression = axiomMember.getAdditionalField(OWL_EXPRESSION);
+		if (owlExpression == null) {
+			return IdSet.of(axiomConversionService.getReferencedConcepts(null)).freeze();
+		}
+		IdSet referencedConcepts = axiomReferences.getIfPresent(owlExpression);
+		if (referencedConcepts == null) {
+			referencedConcepts = IdSet.of(axiomConversionService.getReferencedConcepts(owlExpression)).freeze();
+			axiomReferences.put(owlExpression, referencedConcepts);
+		}
+		return referencedConcepts;
+	}
+
+	private record BranchVersion(String path, long timepoint) {
+	}
+}
@@ -2,7 +2,7 @@ package org.snomed.snowstorm.core.data.services;
 
 import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Iterables;
 import io.kaicode.elasticvc.api.*;
 import io.kaicode.elasticvc.domain.Branch;
 import io.kaicode.elasticvc.domain.Commit;
@@ -16,6 +16,7 @@ import org.snomed.otf.owltoolkit.conversion.ConversionException;
 import org.snomed.snowstorm.config.Config;
 import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.pojo.IntegrityIssueReport;
+import org.snomed.snowstorm.core.util.IdSet;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
@@ -28,8 +29,8 @@ import java.util.*;
 
 import static java.lang.Long.parseLong;
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.*;
+import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
 import static io.kaicode.elasticvc.helper.QueryHelper.*;
-import static org.snomed.snowstorm.core.data.domain.ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION;
 import static org.snomed.snowstorm.core.data.domain.Relationship.Fields.*;
 import static org.snomed.snowstorm.core.data.domain.SnomedComponent.Fields.ACTIVE;
 import static org.snomed.snowstorm.core.data.services.BranchMetadataHelper.INTERNAL_METADATA_KEY;
@@ -52,7 +53,7 @@ public class IntegrityService extends ComponentService implements CommitListener
 	private BranchService branchService;
 
 	@Autowired
-	private AxiomConversionService axiomConversionService;
+	private IntegrityIndexService integrityIndexService;
 
 	@Autowired
 	private DescriptionService descriptionService;
@@ -77,7 +78,7 @@ public class IntegrityService extends ComponentService implements CommitListener
 				if (codeSystem.getBranchPath().equals(commit.getBranch().getPath())) {
 					// Run integrity check for content changed only on the CodeSystem branch
 					BranchCriteria branchCriteriaIncludingOpenCommit = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
-					integrityIssueReport = findChangedComponentsWithBadIntegrityNotFixed(branchCriteriaIncludingOpenCommit, commit.getBranch());
+					integrityIssueReport = findChangedComponentsWithBadIntegrityNotFixed(branchCriteriaIncludingOpenCommit, commit.getBranch(), true, commit);
 				} else {
 					// check with fix branch against code system branch
 					integrityIssueReport = findChangedComponentsWithBadIntegrityNotFixed(commit.getBranch(), codeSystem.getBranchPath());
@@ -93,10 +94,21 @@ public class IntegrityService extends ComponentService implements CommitListener
 	}
 
 	public IntegrityIssueReport findChangedComponentsWithBadIntegrityNotFixed(Branch branch) throws ServiceException {
-		return  findChangedComponentsWithBadIntegrityNotFixed(versionControlHelper.getBranchCriteria(branch), branch);
+		// The content of a completed commit, concept states can be taken from the parent branch index plus the changes on this branch
+		return findChangedComponentsWithBadIntegrityNotFixed(versionControlHelper.getBranchCriteria(branch), branch, true, null);
 	}
 
 	public IntegrityIssueReport findChangedComponentsWithBadIntegrityNotFixed(BranchCriteria branchCriteria, Branch branch) throws ServiceException {
+		return findChangedComponentsWithBadIntegrityNotFixed(branchCriteria, branch, false, null);
+	}
+
+	/**
+	 * @param useActiveConceptIndex take the state of concepts not changed on the branch from the active concept index of the parent branch,
+	 * only valid when the branch criteria select the head of the branch.
+	 * @param openCommit the commit in progress on the branch, if any. Its concept changes are added to the changes on the branch.
+	 */
+	private IntegrityIssueReport findChangedComponentsWithBadIntegrityNotFixed(BranchCriteria branchCriteria, Branch branch, boolean useActiveConceptIndex,
+			Commit openCommit) throws ServiceException {
 
 		if (branch.getPath().equals("MAIN")) {
 			throw new RuntimeServiceException("This function can not be used on the MAIN branch. " +
@@ -112,7 +124,8 @@ public class IntegrityService extends ComponentService implements CommitListener
 
 		// Find any active stated relationships using the concepts which have been deleted or inactivated on this branch
 		// First find those concept
-		Set<Long> deletedOrInactiveConcepts = findDeletedOrInactivatedConcepts(branch, branchCriteria);
+		ConceptChanges conceptChanges = findConceptChanges(branch, branchCriteria, openCommit);
+		Set<Long> deletedOrInactiveConcepts = conceptChanges.getDeletedOrInactive();
 		timer.checkpoint("Collect deleted or inactive concepts: " + deletedOrInactiveConcepts.size());
 
 		// Then find the relationships with bad integrity
@@ -175,9 +188,8 @@ public class IntegrityService extends ComponentService implements CommitListener
 				try {
 					while (possiblyBadAxioms.hasNext()) {
 						ReferenceSetMember axiomMember = possiblyBadAxioms.next().getContent();
-						String owlExpression = axiomMember.getAdditionalField(OWL_EXPRESSION);
-						Set<Long> referencedConcepts = axiomConversionService.getReferencedConcepts(owlExpression);
-						Sets.SetView<Long> badReferences = Sets.intersection(referencedConcepts, deletedOrInactiveConcepts);
+						List<Long> badReferences = integrityIndexService.getReferencedConcepts(axiomMember).toAscendingList().stream()
+								.filter(deletedOrInactiveConcepts::contains).toList();
 						if (!badReferences.isEmpty()) {
 							axiomIdReferenceComponentMap.put(axiomMember.getId(), axiomMember.getReferencedComponentId());
 							axiomWithInactiveReferencedConcept.computeIfAbsent(axiomMember.getId(), id -> new HashSet<>()).addAll(badReferences);
@@ -226,8 +238,7 @@ public class IntegrityService extends ComponentService implements CommitListener
 				while (axiomStream.hasNext()) {
 					ReferenceSetMember axiom = axiomStream.next().getContent();
 					axiomIdReferenceComponentMap.put(axiom.getId(), axiom.getReferencedComponentId());
-					Set<Long> referencedConcepts = axiomConversionService.getReferencedConcepts(axiom.getAdditionalField(OWL_EXPRESSION));
-					for (Long referencedConcept : referencedConcepts) {
+					for (Long referencedConcept : integrityIndexService.getReferencedConcepts(axiom).toAscendingList()) {
 						conceptUsedInAxioms.computeIfAbsent(referencedConcept, id -> new HashSet<>()).add(axiom.getId());
 					}
 				}
@@ -245,16 +256,26 @@ public class IntegrityService extends ComponentService implements CommitListener
 		timer.checkpoint("Collect concepts referenced in changed relationships and axioms: " + conceptsRequiredActive.size());
 
 		Set<Long> activeConcepts = new LongOpenHashSet();
-		try (SearchHitsIterator<Concept> activeConceptStream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
-				.withQuery(bool(b -> b
-						.must(branchCriteria.getEntityBranchCriteria(Concept.class))
-						.must(termQuery(ACTIVE, true))
-						.must(termsQuery(Concept.Fields.CONCEPT_ID, conceptsRequiredActive)))
-				)
-				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
-				.withPageable(LARGE_PAGE)
-				.build(), Concept.class)) {
-			activeConceptStream.forEachRemaining(hit -> activeConcepts.add(hit.getContent().getConceptIdAsLong()));
+		if (useActiveConceptIndex) {
+			// Concepts not changed on this branch have the state they had on the parent branch at the base timepoint
+			IdSet activeOnParent = integrityIndexService.getActiveConcepts(PathUtil.getParentPath(branch.getPath()), branch.getBase());
+			for (Long conceptId : conceptsRequiredActive) {
+				if (conceptChanges.changedOrDeleted().contains(conceptId) ? conceptChanges.changedAndActive().contains(conceptId) : activeOnParent.contains(conceptId)) {
+					activeConcepts.add(conceptId);
+				}
+			}
+		} else {
+			try (SearchHitsIterator<Concept> activeConceptStream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(Concept.class))
+							.must(termQuery(ACTIVE, true))
+							.must(termsQuery(Concept.Fields.CONCEPT_ID, conceptsRequiredActive)))
+					)
+					.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), Concept.class)) {
+				activeConceptStream.forEachRemaining(hit -> activeConcepts.add(hit.getContent().getConceptIdAsLong()));
+			}
 		}
 		timer.checkpoint("Collect active concepts referenced in changed relationships and axioms: " + activeConcepts.size());
 
@@ -372,8 +393,7 @@ public class IntegrityService extends ComponentService implements CommitListener
 				while (axiomStream.hasNext()) {
 					ReferenceSetMember axiom = axiomStream.next().getContent();
 					axiomIdReferenceComponentMap.put(axiom.getMemberId(), axiom.getReferencedComponentId());
-					Set<Long> referencedConcepts = axiomConversionService.getReferencedConcepts(axiom.getAdditionalField(OWL_EXPRESSION));
-					for (Long referencedConcept : referencedConcepts) {
+					for (Long referencedConcept : integrityIndexService.getReferencedConcepts(axiom).toAscendingList()) {
 						conceptUsedInAxioms.computeIfAbsent(referencedConcept, id -> new HashSet<>()).add(axiom.getId());
 					}
 				}
@@ -465,17 +485,13 @@ public class IntegrityService extends ComponentService implements CommitListener
 		TimerUtil timer = new TimerUtil("Full integrity check on " + branch.getPath());
 
 		// Fetch all active concepts
-		Set<Long> activeConcepts = new LongOpenHashSet(conceptService.findAllActiveConcepts(branchCriteria));
+		IdSet activeConcepts = integrityIndexService.getActiveConcepts(branch.getPath(), branch.getHead());
 		timer.checkpoint("Fetch active concepts: " + activeConcepts.size());
 
-		// Find relationships pointing to something other than the active concepts
+		// Check the concepts used by every active relationship against the active concepts in memory
 		BoolQuery.Builder boolQueryBuilder = bool()
 				.must(branchCriteria.getEntityBranchCriteria(Relationship.class))
-				.must(termQuery(ACTIVE, true))
-				.must(bool(b -> b
-						.should(bool(sb -> sb.mustNot(termsQuery(SOURCE_ID, activeConcepts))))
-						.should(bool(tb -> tb.mustNot(termsQuery(TYPE_ID, activeConcepts))))
-						.should(bool(rb -> rb.mustNot(termsQuery(Relationship.Fields.DESTINATION_ID, activeConcepts))))));
+				.must(termQuery(ACTIVE, true));
 
 		if (stated) {
 			boolQueryBuilder.mustNot(termQuery(CHARACTERISTIC_TYPE_ID, Concepts.INFERRED_RELATIONSHIP));
@@ -484,6 +500,8 @@ public class IntegrityService extends ComponentService implements CommitListener
 		}
 		NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
 				.withQuery(boolQueryBuilder.build()._toQuery())
+				.withSourceFilter(new FetchSourceFilter(new String[]{Relationship.Fields.RELATIONSHIP_ID, Relationship.Fields.SOURCE_ID,
+						Relationship.Fields.TYPE_ID, Relationship.Fields.DESTINATION_ID}, null))
 				.withPageable(LARGE_PAGE);
 		try (SearchHitsIterator<Relationship> relationshipStream = elasticsearchOperations.searchForStream(queryBuilder.build(), Relationship.class)) {
 			relationshipStream.forEachRemaining(hit -> {
@@ -491,50 +509,38 @@ public class IntegrityService extends ComponentService implements CommitListener
 				long relationshipId = parseLong(relationship.getRelationshipId());
 				putIfInactive(relationship.getSourceId(), activeConcepts, relationshipId, relationshipWithInactiveSource);
 				putIfInactive(relationship.getTypeId(), activeConcepts, relationshipId, relationshipWithInactiveType);
-				putIfInactive(relationship.getDestinationId(), activeConcepts, relationshipId, relationshipWithInactiveDestination);
+				// Concrete relationships have a value rather than a destination
+				if (relationship.getDestinationId() != null) {
+					putIfInactive(relationship.getDestinationId(), activeConcepts, relationshipId, relationshipWithInactiveDestination);
+				}
 			});
 		}
+		timer.checkpoint("Check relationships");
 
-		// Find Axioms pointing to something other than the active concepts, use semantic index first.
-		Set<Long> conceptIdsWithBadAxioms = new LongOpenHashSet();
-		try (SearchHitsIterator<QueryConcept> badStatedIndexConcepts = elasticsearchOperations.searchForStream(
+		// Check the concepts referenced by every active axiom, the referenced concepts of each expression are cached
+		try (SearchHitsIterator<ReferenceSetMember> axioms = elasticsearchOperations.searchForStream(
 				new NativeQueryBuilder()
 						.withQuery(bool(b -> b
-								.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
-								.must(termQuery(QueryConcept.Fields.STATED, true))
-								.mustNot(termsQuery(QueryConcept.Fields.ATTR + "." + QueryConcept.ATTR_TYPE_WILDCARD, activeConcepts)))
+								.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
+								.must(termQuery(ACTIVE, true))
+								.must(termQuery(ReferenceSetMember.Fields.REFSET_ID, Concepts.OWL_AXIOM_REFERENCE_SET)))
 						)
 						.withPageable(LARGE_PAGE).build(),
-				QueryConcept.class)) {
-			badStatedIndexConcepts.forEachRemaining(hit -> conceptIdsWithBadAxioms.add(hit.getContent().getConceptIdL()));
-		}
-		if (!conceptIdsWithBadAxioms.isEmpty()) {
-			try (SearchHitsIterator<ReferenceSetMember> possiblyBadAxioms = elasticsearchOperations.searchForStream(
-					new NativeQueryBuilder()
-							.withQuery(bool(b -> b
-									.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
-									.must(termQuery(ACTIVE, true))
-									.must(termQuery(ReferenceSetMember.Fields.REFSET_ID, Concepts.OWL_AXIOM_REFERENCE_SET))
-									.must(termsQuery(ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, conceptIdsWithBadAxioms)))
-							)
-							.withPageable(LARGE_PAGE).build(),
-					ReferenceSetMember.class)) {
-				try {
-					Map<String, ConceptMini> conceptMiniMap = new HashMap<>();
-					while (possiblyBadAxioms.hasNext()) {
-						ReferenceSetMember axiomMember = possiblyBadAxioms.next().getContent();
-						String owlExpression = axiomMember.getAdditionalField(OWL_EXPRESSION);
-						Set<Long> referencedConcepts = axiomConversionService.getReferencedConcepts(owlExpression);
-						Sets.SetView<Long> badReferences = Sets.difference(referencedConcepts, activeConcepts);
-						if (!badReferences.isEmpty()) {
-							addConceptMini(axiomWithInactiveReferencedConcept, conceptMiniMap, axiomMember.getId(), axiomMember.getReferencedComponentId(), badReferences);
-						}
+				ReferenceSetMember.class)) {
+			try {
+				Map<String, ConceptMini> conceptMiniMap = new HashMap<>();
+				while (axioms.hasNext()) {
+					ReferenceSetMember axiomMember = axioms.next().getContent();
+					List<Long> badReferences = integrityIndexService.getReferencedConcepts(axiomMember).toAscendingList().stream()
+							.filter(conceptId -> !activeConcepts.contains(conceptId)).toList();
+					if (!badReferences.isEmpty()) {
+						addConceptMini(axiomWithInactiveReferencedConcept, conceptMiniMap, axiomMember.getId(), axiomMember.getReferencedComponentId(), badReferences);
 					}
-					// Join descriptions so FSN and PT are returned
-					descriptionService.joinActiveDescriptions(branch.getPath(), conceptMiniMap);
-				} catch (ConversionException e) {
-					throw new ServiceException(FAILED_TO_DESERIALISE_AXIOM_DURING_REFERENCE_INTEGRITY_CHECK, e);
 				}
+				// Join descriptions so FSN and PT are returned
+				descriptionService.joinActiveDescriptions(branch.getPath(), conceptMiniMap);
+			} catch (ConversionException e) {
+				throw new ServiceException(FAILED_TO_DESERIALISE_AXIOM_DURING_REFERENCE_INTEGRITY_CHECK, e);
 			}
 		}
 
@@ -578,7 +584,7 @@ public class IntegrityService extends ComponentService implements CommitListener
 		return issueReport;
 	}
 
-	private void putIfInactive(String sourceId, Collection<Long> activeConcepts, long relationshipId, Map<Long, Long> relationshipWithInactiveSource) {
+	private void putIfInactive(String sourceId, IdSet activeConcepts, long relationshipId, Map<Long, Long> relationshipWithInactiveSource) {
 		long source = parseLong(sourceId);
 		if (!activeConcepts.contains(source)) {
 			relationshipWithInactiveSource.put(relationshipId, source);
@@ -621,7 +627,7 @@ public class IntegrityService extends ComponentService implements CommitListener
 		return new ConceptsInForm(statedIds, inferredIds);
 	}
 
-	private Set<Long> findDeletedOrInactivatedConcepts(Branch branch, BranchCriteria branchCriteria) {
+	private ConceptChanges findConceptChanges(Branch branch, BranchCriteria branchCriteria, Commit openCommit) {
 		// Find Concepts changed or deleted on this branch
 		final Set<Long> changedOrDeletedConcepts = new LongOpenHashSet();
 		try (SearchHitsIterator<Concept> changedOrDeletedConceptStream = elasticsearchOperations.searchForStream(
@@ -631,6 +637,27 @@ public class IntegrityService extends ComponentService implements CommitListener
 						.withPageable(LARGE_PAGE).build(), Concept.class)) {
 			changedOrDeletedConceptStream.forEachRemaining(hit -> changedOrDeletedConcepts.add(hit.getContent().getConceptIdAsLong()));
 		}
+		if (openCommit != null) {
+			// Versions created or ended by the commit in progress, on this branch or replaced on an ancestor branch
+			long timepoint = openCommit.getTimepoint().getTime();
+			BoolQuery.Builder commitChanges = bool()
+					.should(bool(b -> b
+							.must(termQuery(SnomedComponent.Fields.PATH, branch.getPath()))
+							.must(bool(tb -> tb
+									.should(termQuery(SnomedComponent.Fields.START, timepoint))
+									.should(termQuery(SnomedComponent.Fields.END, timepoint))))));
+			Set<String> versionsReplaced = openCommit.getEntityVersionsReplaced().getOrDefault(Concept.class.getSimpleName(), Collections.emptySet());
+			for (List<String> versionsReplacedBatch : Iterables.partition(versionsReplaced, CLAUSE_LIMIT)) {
+				commitChanges.should(termsQuery("_id", versionsReplacedBatch));
+			}
+			try (SearchHitsIterator<Concept> commitChangesStream = elasticsearchOperations.searchForStream(
+					new NativeQueryBuilder()
+							.withQuery(commitChanges.build()._toQuery())
+							.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+							.withPageable(LARGE_PAGE).build(), Concept.class)) {
+				commitChangesStream.forEachRemaining(hit -> changedOrDeletedConcepts.add(hit.getContent().getConceptIdAsLong()));
+			}
+		}
 		logger.info("Concepts changed or deleted on branch {} = {}", branch.getPath(), changedOrDeletedConcepts.size());
 
 		// Of these concepts, which are currently present and active?
@@ -649,11 +676,18 @@ public class IntegrityService extends ComponentService implements CommitListener
 		}
 		logger.info("Concepts changed, currently present and active on branch {} = {}", branch.getPath(), changedAndActiveConcepts.size());
 
-		// Therefore concepts deleted or inactive are:
-		Set<Long> deletedOrInactiveConcepts = new LongOpenHashSet(changedOrDeletedConcepts);
-		deletedOrInactiveConcepts.removeAll(changedAndActiveConcepts);
-		logger.info("Concepts deleted or inactive on branch {} = {}", branch.getPath(), deletedOrInactiveConcepts.size());
-		return deletedOrInactiveConcepts;
+		ConceptChanges conceptChanges = new ConceptChanges(changedOrDeletedConcepts, changedAndActiveConcepts);
+		logger.info("Concepts deleted or inactive on branch {} = {}", branch.getPath(), conceptChanges.getDeletedOrInactive().size());
+		return conceptChanges;
+	}
+
+	private record ConceptChanges(Set<Long> changedOrDeleted, Set<Long> changedAndActive) {
+
+		Set<Long> getDeletedOrInactive() {
+			Set<Long> deletedOrInactiveConcepts = new LongOpenHashSet(changedOrDeleted);
+			deletedOrInactiveConcepts.removeAll(changedAndActive);
+			return deletedOrInactiveConcepts;
+		}
 	}
 
 	public static class ConceptsInForm {
@@ -4,13 +4,18 @@ import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.*;
 import io.kaicode.elasticvc.domain.Branch;
 import io.kaicode.elasticvc.domain.Commit;
 import io.kaicode.elasticvc.domain.Entity;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.lang3.math.NumberUtils;
 
 import org.slf4j.Logger;
@@ -22,8 +27,10 @@ import org.snomed.snowstorm.core.data.repositories.QueryConceptRepository;
 import org.snomed.snowstorm.core.data.services.pojo.SAxiomRepresentation;
 import org.snomed.snowstorm.core.data.services.transitiveclosure.GraphBuilder;
 import org.snomed.snowstorm.core.data.services.transitiveclosure.GraphBuilderException;
-import org.snomed.snowstorm.core.data.services.transitiveclosure.Node;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.TransitiveClosure;
+import org.snomed.snowstorm.core.util.PrefetchIterator;
 import org.snomed.snowstorm.core.util.TimerUtil;
+import org.snomed.snowstorm.ecl.HierarchyGraphService;
 import org.snomed.snowstorm.mrcm.MRCMLoader;
 import org.snomed.snowstorm.mrcm.model.AttributeRange;
 import org.snomed.snowstorm.mrcm.model.MRCM;
@@ -31,6 +38,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
@@ -40,6 +48,11 @@ import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -62,6 +75,23 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	@Value("${commit-hook.semantic-indexing.enabled:true}")
 	private boolean semanticIndexingEnabled;
 
+	@Value("${commit-hook.semantic-indexing.parallel-forms:true}")
+	private boolean parallelForms;
+
+	@Value("${commit-hook.semantic-indexing.prefetch-queue-size:10000}")
+	private int prefetchQueueSize;
+
+	@Value("${commit-hook.semantic-indexing.axiom-conversion-threads:4}")
+	private int axiomConversionThreads;
+
+	private static final int AXIOM_CONVERSION_BATCH_SIZE = 1_000;
+
+	private static final int AXIOM_CONVERSION_TASK_SIZE = 100;
+
+	private final ExecutorService pipelineExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("semantic-index-%d").setDaemon(true).build());
+
+	private ExecutorService axiomConversionExecutor;
+
 	private static final long IS_A_TYPE = parseLong(Concepts.ISA);
 
 	@Autowired
@@ -85,8 +115,17 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	@Autowired
 	private MRCMLoader mrcmLoader;
 
+	@Autowired
+	private HierarchyGraphService hierarchyGraphService;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	@PostConstruct
+	public void init() {
+		// Dedicated pool rather than the common fork join pool which is shared with the rest of the application
+		axiomConversionExecutor = Executors.newFixedThreadPool(Math.max(axiomConversionThreads, 1),
+				new ThreadFactoryBuilder().setNameFormat("semantic-index-axioms-%d").setDaemon(true).build());
+	}
 
 	@Override
 	public void preCommitCompletion(Commit commit) throws IllegalStateException {
@@ -127,8 +166,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 					Sets.union(commit.getEntityVersionsReplaced().getOrDefault(ReferenceSetMember.class.getSimpleName(), Collections.emptySet()),
 							commit.getEntityVersionsReplaced().getOrDefault(Relationship.class.getSimpleName(), Collections.emptySet()));
 
-			updateSemanticIndex(Form.STATED, relationshipAndAxiomDeletionsToProcess, commit, false, false, false);
-			updateSemanticIndex(Form.INFERRED, relationshipAndAxiomDeletionsToProcess, commit, false, false, false);
+			updateSemanticIndexForms(relationshipAndAxiomDeletionsToProcess, commit, false, false, false);
 		}
 		// If promotion the semantic changes will be promoted with the rest of the content.
 	}
@@ -148,14 +186,115 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			}
 			removeQConceptChangesOnBranch(commit);
 		}
+		hierarchyGraphService.recordRebuild(commit);
+		return updateSemanticIndexForms(relationshipAndAxiomDeletionsToProcess, commit, true, completeRebuild, dryRun);
+	}
+
+	/**
+	 * The stated and inferred forms are independent so they are processed in parallel unless this is disabled.
+	 * The branch criteria are built once, before the forms are forked, and neither form saves to the commit until both have finished reading.
+	 * Saving adds to the versions replaced in the commit, which the open commit criteria read, so this keeps reads and saves apart.
+	 * Saving to the commit is also serialised in doSaveBatch.
+	 */
+	private Map<String, Integer> updateSemanticIndexForms(Set<String> internalIdsOfDeletedComponents, Commit commit,
+			boolean rebuild, boolean completeRebuild, boolean dryRun) throws ConversionException, GraphBuilderException, ServiceException {
+
+		SemanticIndexCriteria criteria = getSemanticIndexCriteria(commit, rebuild, completeRebuild);
 		Map<String, Integer> updateCount = new HashMap<>();
-		updateCount.put(Form.STATED.getName(), updateSemanticIndex(Form.STATED, relationshipAndAxiomDeletionsToProcess, commit, true, completeRebuild, dryRun));
-		updateCount.put(Form.INFERRED.getName(), updateSemanticIndex(Form.INFERRED, relationshipAndAxiomDeletionsToProcess, commit, true, completeRebuild, dryRun));
+		if (!parallelForms) {
+			updateCount.put(Form.STATED.getName(), updateSemanticIndex(Form.STATED, internalIdsOfDeletedComponents, commit, criteria, ReadPhase.NONE, completeRebuild, dryRun));
+			updateCount.put(Form.INFERRED.getName(), updateSemanticIndex(Form.INFERRED, internalIdsOfDeletedComponents, commit, criteria, ReadPhase.NONE, completeRebuild, dryRun));
+			return updateCount;
+		}
+
+		CountDownLatch formsReading = new CountDownLatch(2);
+		Future<Integer> statedUpdate = pipelineExecutor.submit(() ->
+				updateSemanticIndex(Form.STATED, internalIdsOfDeletedComponents, commit, criteria, new ReadPhase(formsReading), completeRebuild, dryRun));
+		int inferredUpdateCount;
+		try {
+			inferredUpdateCount = updateSemanticIndex(Form.INFERRED, internalIdsOfDeletedComponents, commit, criteria, new ReadPhase(formsReading), completeRebuild, dryRun);
+		} catch (ConversionException | GraphBuilderException | ServiceException | RuntimeException e) {
+			// Let the stated form finish before the commit is rolled back
+			try {
+				getResult(statedUpdate);
+			} catch (ConversionException | GraphBuilderException | ServiceException | RuntimeException statedException) {
+				e.addSuppressed(statedException);
+			}
+			throw e;
+		}
+		updateCount.put(Form.STATED.getName(), getResult(statedUpdate));
+		updateCount.put(Form.INFERRED.getName(), inferredUpdateCount);
 		return updateCount;
 	}
 
-	private int updateSemanticIndex(Form form, Set<String> internalIdsOfDeletedComponents, Commit commit,
-			boolean rebuild, boolean completeRebuild, boolean dryRun) throws IllegalStateException, ConversionException, GraphBuilderException, ServiceException {
+	private <T> T getResult(Future<T> future) throws ConversionException, GraphBuilderException, ServiceException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while updating the semantic index.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ConversionException conversionException) {
+				throw conversionException;
+			} else if (cause instanceof GraphBuilderException graphBuilderException) {
+				throw graphBuilderException;
+			} else if (cause instanceof ServiceException serviceException) {
+				throw serviceException;
+			} else if (cause instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			} else if (cause instanceof Error error) {
+				throw error;
+			}
+			throw new ServiceException("Failed to update semantic index. " + cause.getMessage(), cause);
+		}
+	}
+
+	private SemanticIndexCriteria getSemanticIndexCriteria(Commit commit, boolean rebuild, boolean completeRebuild) {
+		final Branch branch = commit.getBranch();
+		String branchPath = branch.getPath();
+		// Nothing is saving to the commit yet but take the lock anyway, the criteria include the versions replaced in the open commit
+		synchronized (commit) {
+			if (rebuild) {
+				if (completeRebuild) {
+					// Not used until the end
+					BranchCriteria previousStateCriteria = versionControlHelper.getBranchCriteria(branch);
+					// Force everything, changes criteria not used in complete rebuild
+					return new SemanticIndexCriteria(previousStateCriteria, null, previousStateCriteria);
+				} else {
+					return new SemanticIndexCriteria(
+							// Take existing content from parent branch
+							versionControlHelper.getBranchCriteriaAtTimepoint(PathUtil.getParentPath(branchPath), branch.getBase()),
+							// Process all changes on branch
+							versionControlHelper.getChangesOnBranchCriteria(branch),
+							// Standard selection on already committed content. Including open commit to include manually resolved conflicts.
+							versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit));
+				}
+			} else {
+				return new SemanticIndexCriteria(
+						// Take existing content from this branch before the current commit
+						versionControlHelper.getBranchCriteriaBeforeOpenCommit(commit),
+						// Process changes in this commit
+						versionControlHelper.getBranchCriteriaChangesAndDeletionsWithinOpenCommitOnly(commit),
+						// Current commit may contain content
+						versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit));
+			}
+		}
+	}
+
+	private int updateSemanticIndex(Form form, Set<String> internalIdsOfDeletedComponents, Commit commit, SemanticIndexCriteria criteria, ReadPhase readPhase,
+			boolean completeRebuild, boolean dryRun) throws IllegalStateException, ConversionException, GraphBuilderException, ServiceException {
+
+		try {
+			return doUpdateSemanticIndex(form, internalIdsOfDeletedComponents, commit, criteria, readPhase, completeRebuild, dryRun);
+		} finally {
+			// Also when failed or there is nothing to save, so that the other form is not left waiting
+			readPhase.complete();
+		}
+	}
+
+	private int doUpdateSemanticIndex(Form form, Set<String> internalIdsOfDeletedComponents, Commit commit, SemanticIndexCriteria criteria, ReadPhase readPhase,
+			boolean completeRebuild, boolean dryRun) throws IllegalStateException, ConversionException, GraphBuilderException, ServiceException {
 
 		if (dryRun && !completeRebuild) {
 			throw new IllegalArgumentException("dryRun flag can only be used when rebuilding the index of the MAIN branch.");
@@ -168,34 +307,9 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		final Branch branch = commit.getBranch();
 		String branchPath = branch.getPath();
 
-		BranchCriteria previousStateCriteria;
-		BranchCriteria changesCriteria;
-		BranchCriteria newStateCriteria;
-		if (rebuild) {
-			if (completeRebuild) {
-				// Not used until the end
-				previousStateCriteria = versionControlHelper.getBranchCriteria(branch);
-				// Force everything
-				newStateCriteria = previousStateCriteria;
-				// Not used in complete rebuild
-				changesCriteria = null;
-			} else {
-				// Take existing content from parent branch
-				previousStateCriteria = versionControlHelper.getBranchCriteriaAtTimepoint(PathUtil.getParentPath(branchPath), branch.getBase());
-				// Standard selection on already committed content. Including open commit to include manually resolved conflicts.
-				newStateCriteria = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
-				// Process all changes on branch
-				changesCriteria = versionControlHelper.getChangesOnBranchCriteria(branch);
-			}
-		} else {
-			// Take existing content from this branch before the current commit
-			previousStateCriteria = versionControlHelper.getBranchCriteriaBeforeOpenCommit(commit);
-			// Current commit may contain content
-			newStateCriteria = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
-			// Process changes in this commit
-			changesCriteria = versionControlHelper.getBranchCriteriaChangesAndDeletionsWithinOpenCommitOnly(commit);
-		}
-		timer.checkpoint("get branch criteria");
+		BranchCriteria previousStateCriteria = criteria.previousState();
+		BranchCriteria changesCriteria = criteria.changes();
+		BranchCriteria newStateCriteria = criteria.newState();
 
 		// Identify concepts with modeling changes  and load relevant parts of the existing node graph
 		final GraphBuilder graphBuilder = new GraphBuilder();
@@ -265,7 +379,9 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 				.withSort(SortOptions.of(s -> s.field(f -> f.field(SnomedComponent.Fields.ACTIVE))))
 				.withSort(SortOptions.of(s -> s.field(f -> f.field("start"))))
 				.withPageable(LARGE_PAGE).build(), Relationship.class)) {
-			activeRelationships.forEachRemaining(hit -> relationshipConsumer.accept(hit.getContent(), hit.getContent()));
+			try (PrefetchIterator<SearchHit<Relationship>> prefetched = prefetch(activeRelationships)) {
+				prefetched.forEachRemaining(hit -> relationshipConsumer.accept(hit.getContent(), hit.getContent()));
+			}
 		}
 		timer.checkpoint("Update graph using relationships of concepts with changed modelling.");
 
@@ -303,16 +419,22 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			logger.warn("The following concepts have been referred to in relationships but are missing or inactive: {}", inactiveOrMissingConceptIds);
 		}
 
+		// Step: Calculate transitive closure, each ancestor set is calculated once and shared with descendants
+		final TransitiveClosure transitiveClosure = graphBuilder.buildTransitiveClosure();
+		timer.checkpoint("Calculate transitive closure.");
+
 		// Step: Save changes
-		Map<Long, Node> nodesToSave = new Long2ObjectOpenHashMap<>();
-		graphBuilder.getNodes().stream()
-				.filter(node -> newGraph || node.isAncestorOrSelfUpdated() || conceptAttributeChanges.containsKey(node.getId()))
-				.forEach(node -> nodesToSave.put(node.getId(), node));
-		Set<Long> nodesNotFound = new LongOpenHashSet(nodesToSave.keySet());
+		Set<Long> nodesToSave = new LongOpenHashSet();
+		for (long nodeId : transitiveClosure.getConceptIds()) {
+			if (newGraph || transitiveClosure.isAncestorOrSelfUpdated(nodeId) || conceptAttributeChanges.containsKey(nodeId)) {
+				nodesToSave.add(nodeId);
+			}
+		}
+		Set<Long> nodesNotFound = new LongOpenHashSet(nodesToSave);
 		Set<QueryConcept> queryConceptsToSave = new HashSet<>();
 
 		// Collect ids of nodes and attribute updates and convert to conceptIdForm
-		Set<Long> conceptIdsToUpdate = new LongOpenHashSet(nodesToSave.keySet());
+		Set<Long> conceptIdsToUpdate = new LongOpenHashSet(nodesToSave);
 		conceptIdsToUpdate.addAll(conceptAttributeChanges.keySet());
 
 		// If there is a loop found in the transitive closure we throw an exception,
@@ -335,15 +457,16 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 						.must(termQuery(QueryConcept.Fields.STATED, form.isStated()))
 						.filter(filter.build()._toQuery()))
 				)
-				.withPageable(LARGE_PAGE).build(), QueryConcept.class)) {
-			while (existingQueryConcepts.hasNext()) {
-				QueryConcept queryConcept = existingQueryConcepts.next().getContent();
+				.withPageable(LARGE_PAGE).build(), QueryConcept.class);
+				PrefetchIterator<SearchHit<QueryConcept>> prefetched = prefetch(existingQueryConcepts)) {
+			while (prefetched.hasNext()) {
+				QueryConcept queryConcept = prefetched.next().getContent();
 				Long conceptId = queryConcept.getConceptIdL();
-				Node node = nodesToSave.get(conceptId);
+				boolean inGraph = nodesToSave.contains(conceptId);
 				boolean save = false;
 				if (completeRebuild) {
-					if (node != null) {
-						QueryConcept newQueryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, node.getId(), node);
+					if (inGraph) {
+						QueryConcept newQueryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, conceptId, transitiveClosure);
 						if (!queryConcept.fieldsMatch(newQueryConcept)) {
 							queryConcept = newQueryConcept;
 							save = true;
@@ -354,10 +477,10 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 					}
 				} else {
 					QueryConcept newQueryConcept = new QueryConcept(queryConcept);
-					if (node != null) {
+					if (inGraph) {
 						// TC changes
-						newQueryConcept.setParents(node.getParents().stream().map(Node::getId).collect(Collectors.toSet()));
-						newQueryConcept.setAncestors(new HashSet<>(node.getTransitiveClosure(branchPath, throwExceptionIfTransitiveClosureLoopFound)));
+						newQueryConcept.setParents(new HashSet<>(transitiveClosure.getParents(conceptId)));
+						newQueryConcept.setAncestors(new HashSet<>(transitiveClosure.getAncestors(conceptId, branchPath, throwExceptionIfTransitiveClosureLoopFound)));
 					}
 					if (updatedConceptIds.contains(conceptId)) {
 						applyAttributeChanges(newQueryConcept, conceptId, conceptAttributeChanges);
@@ -376,11 +499,13 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 
 		timer.checkpoint("Collect existingDescendants from QueryConcept.");
 
+		// All reads are done, wait until the other form has finished reading before saving to the commit
+		readPhase.completeAndAwaitOthers();
+
 		// The remaining nodes are new - create new QueryConcepts
 		for (Long nodeId : nodesNotFound) {
-			Node node = nodesToSave.get(nodeId);
-			QueryConcept queryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, nodeId, node);
-			if (node.getParents().isEmpty() && !queryConcept.isRoot()) {
+			QueryConcept queryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, nodeId, transitiveClosure);
+			if (!transitiveClosure.hasParents(nodeId) && !queryConcept.isRoot()) {
 				// Concept is probably inactive, don't add to semantic index.
 				continue;
 			}
@@ -391,8 +516,6 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		// Delete query concepts which have no parents
 		queryConceptsToSave.stream().filter(c -> c.getParents().isEmpty() && !c.isRoot()).forEach(Entity::markDeleted);
 
-		queryConceptsToSave.forEach(QueryConcept::serializeGroupedAttributesMap);
-
 		final long countToCreate = queryConceptsToSave.stream().filter(QueryConcept::isCreating).count();
 		final Optional<QueryConcept> firstToCreate = queryConceptsToSave.stream().filter(QueryConcept::isCreating).findFirst();
 		String createMessage = firstToCreate.isPresent() ? String.format("%s semantic concepts created including %s.", countToCreate, firstToCreate.get()) :
@@ -408,7 +531,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		String deleteMessage = firstToDelete.isPresent() ? String.format("%s semantic concepts deleted including %s.", countToDelete, firstToDelete.get()) :
 				"No semantic concepts need deleting.";
 
-		logger.info("Semantic index change summary for {} form: {} concepts loaded into the graph. {} {} {}", form.getName(), graphBuilder.getNodes().size(),
+		logger.info("Semantic index change summary for {} form: {} concepts loaded into the graph. {} {} {}", form.getName(), transitiveClosure.size(),
 				createMessage, updateMessage, deleteMessage);
 
 		if (!queryConceptsToSave.isEmpty()) {
@@ -416,9 +539,20 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			if (dryRun) {
 				logger.info("Semantic index rebuild is in dryRun mode so no changes will be persisted!");
 			} else {
-				// Save in batches
+				// Save in batches, each batch is saved while the next one is prepared
+				Future<?> previousSave = null;
 				for (List<QueryConcept> queryConcepts : Iterables.partition(queryConceptsToSave, Config.BATCH_SAVE_SIZE)) {
-					doSaveBatch(queryConcepts, commit);
+					queryConcepts.forEach(QueryConcept::serializeGroupedAttributesMap);
+					if (previousSave != null) {
+						getResult(previousSave);
+					}
+					previousSave = pipelineExecutor.submit(() -> doSaveBatch(queryConcepts, commit));
+				}
+				if (previousSave != null) {
+					getResult(previousSave);
+				}
+				if (!completeRebuild) {
+					recordParentChanges(form, commit, queryConceptsToSave);
 				}
 			}
 		}
@@ -429,12 +563,28 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		return queryConceptsToSave.size();
 	}
 
+	/**
+	 * Passes the new parents of the saved semantic concepts to the hierarchy graphs, so that the graph of the new head does not have to be rebuilt.
+	 */
+	private void recordParentChanges(Form form, Commit commit, Collection<QueryConcept> savedQueryConcepts) {
+		Map<Long, Set<Long>> newParents = new Long2ObjectOpenHashMap<>();
+		Set<Long> removedConceptIds = new LongOpenHashSet();
+		for (QueryConcept queryConcept : savedQueryConcepts) {
+			if (queryConcept.isDeleted()) {
+				removedConceptIds.add(queryConcept.getConceptIdL());
+			} else {
+				newParents.put(queryConcept.getConceptIdL(), queryConcept.getParents());
+			}
+		}
+		hierarchyGraphService.recordParentChanges(commit, form.isStated(), newParents, removedConceptIds);
+	}
+
 	private QueryConcept createQueryConcept(Form form, String branchPath, Map<Long, AttributeChanges> conceptAttributeChanges,
-			boolean throwExceptionIfTransitiveClosureLoopFound, Long nodeId, Node node) throws GraphBuilderException {
+			boolean throwExceptionIfTransitiveClosureLoopFound, Long nodeId, TransitiveClosure transitiveClosure) throws GraphBuilderException {
 
-		final Set<Long> transitiveClosure = new HashSet<>(node.getTransitiveClosure(branchPath, throwExceptionIfTransitiveClosureLoopFound));
-		final Set<Long> parentIds = node.getParents().stream().map(Node::getId).collect(Collectors.toSet());
-		QueryConcept queryConcept = new QueryConcept(nodeId, parentIds, transitiveClosure, form.isStated());
+		final Set<Long> ancestorIds = new HashSet<>(transitiveClosure.getAncestors(nodeId, branchPath, throwExceptionIfTransitiveClosureLoopFound));
+		final Set<Long> parentIds = new HashSet<>(transitiveClosure.getParents(nodeId));
+		QueryConcept queryConcept = new QueryConcept(nodeId, parentIds, ancestorIds, form.isStated());
 		applyAttributeChanges(queryConcept, nodeId, conceptAttributeChanges);
 		return queryConcept;
 	}
@@ -665,34 +815,74 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			BiConsumer<SnomedComponent<?>, Relationship> relationshipConsumer) throws ConversionException {
 
 		AtomicReference<ConversionException> exceptionHolder = new AtomicReference<>();// Used to hold exceptions thrown within the lambda function
-		changedAxioms.forEachRemaining(hit -> {
-			try {
-				SAxiomRepresentation sAxiomRepresentation = axiomConversionService.convertAxiomMemberToAxiomRepresentation(hit.getContent());
-				if (sAxiomRepresentation == null) {
-					// Not a regular axiom so does not effect the semantic index
-					return;
-				}
-				Long conceptId = sAxiomRepresentation.getLeftHandSideNamedConcept();
-				Set<Relationship> relationships = sAxiomRepresentation.getRightHandSideRelationships();
-				if (conceptId == null || relationships == null) {
-					// Not a regular axiom so does not effect the semantic index
-					return;
+		// Axioms are fetched ahead and converted in parallel batches, the relationships are passed to the consumer in the original order
+		try (PrefetchIterator<SearchHit<ReferenceSetMember>> prefetched = prefetch(changedAxioms)) {
+			Iterator<List<SearchHit<ReferenceSetMember>>> batches = Iterators.partition(prefetched, AXIOM_CONVERSION_BATCH_SIZE);
+			while (batches.hasNext()) {
+				List<SearchHit<ReferenceSetMember>> batch = batches.next();
+				List<SAxiomRepresentation> representations = convertAxioms(batch, exceptionHolder);
+				for (int i = 0; i < batch.size(); i++) {
+					addAxiomRelationships(batch.get(i).getContent(), representations.get(i), relationshipPredicate, relationshipConsumer);
 				}
-				relationships.stream()
-						.filter(relationshipPredicate)
-						.forEach(relationship -> {
-							relationship.setSourceId(conceptId.toString());
-							relationshipConsumer.accept(hit.getContent(), relationship);
-						});
-			} catch (ConversionException e) {
-				exceptionHolder.set(new ConversionException(format("Failed to convert axiom %s", hit.getContent().getAdditionalField(ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION)), e));
 			}
-		});
+		}
 		if (exceptionHolder.get() != null) {
 			throw exceptionHolder.get();
 		}
 	}
 
+	private List<SAxiomRepresentation> convertAxioms(List<SearchHit<ReferenceSetMember>> batch, AtomicReference<ConversionException> exceptionHolder) throws ConversionException {
+		List<Future<List<SAxiomRepresentation>>> futures = new ArrayList<>();
+		for (List<SearchHit<ReferenceSetMember>> task : Lists.partition(batch, AXIOM_CONVERSION_TASK_SIZE)) {
+			futures.add(axiomConversionExecutor.submit(() -> task.stream().map(hit -> convertAxiom(hit.getContent(), exceptionHolder)).toList()));
+		}
+		List<SAxiomRepresentation> representations = new ArrayList<>(batch.size());
+		try {
+			for (Future<List<SAxiomRepresentation>> future : futures) {
+				representations.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConversionException("Interrupted while converting axioms.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new ConversionException("Failed to convert axioms.", e.getCause());
+		}
+		return representations;
+	}
+
+	private SAxiomRepresentation convertAxiom(ReferenceSetMember axiomMember, AtomicReference<ConversionException> exceptionHolder) {
+		try {
+			return axiomConversionService.convertAxiomMemberToAxiomRepresentation(axiomMember);
+		} catch (ConversionException e) {
+			exceptionHolder.set(new ConversionException(format("Failed to convert axiom %s", axiomMember.getAdditionalField(ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION)), e));
+			return null;
+		}
+	}
+
+	private void addAxiomRelationships(ReferenceSetMember axiomMember, SAxiomRepresentation sAxiomRepresentation, Predicate<Relationship> relationshipPredicate,
+			BiConsumer<SnomedComponent<?>, Relationship> relationshipConsumer) {
+
+		if (sAxiomRepresentation == null) {
+			// Not a regular axiom so does not effect the semantic index
+			return;
+		}
+		Long conceptId = sAxiomRepresentation.getLeftHandSideNamedConcept();
+		Set<Relationship> relationships = sAxiomRepresentation.getRightHandSideRelationships();
+		if (conceptId == null || relationships == null) {
+			// Not a regular axiom so does not effect the semantic index
+			return;
+		}
+		relationships.stream()
+				.filter(relationshipPredicate)
+				.forEach(relationship -> {
+					relationship.setSourceId(conceptId.toString());
+					relationshipConsumer.accept(axiomMember, relationship);
+				});
+	}
+
 	private void applyAttributeChanges(QueryConcept queryConcept, Long conceptId, Map<Long, AttributeChanges> conceptAttributeChanges) {
 		queryConcept.clearAttributes();
 		AttributeChanges attributeChanges = conceptAttributeChanges.get(conceptId);
@@ -724,7 +914,57 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	}
 
 	private void doSaveBatch(Collection<QueryConcept> queryConcepts, Commit commit) {
-		doSaveBatchComponents(queryConcepts, commit, "conceptIdForm", queryConceptRepository);
+		// The commit records replaced versions and is not thread safe, both forms may be saving at the same time
+		synchronized (commit) {
+			doSaveBatchComponents(queryConcepts, commit, "conceptIdForm", queryConceptRepository);
+		}
+	}
+
+	private <T> PrefetchIterator<SearchHit<T>> prefetch(SearchHitsIterator<T> searchHits) {
+		return new PrefetchIterator<>(searchHits, prefetchQueueSize, pipelineExecutor);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pipelineExecutor.shutdown();
+		axiomConversionExecutor.shutdown();
+	}
+
+	private record SemanticIndexCriteria(BranchCriteria previousState, BranchCriteria changes, BranchCriteria newState) {
+	}
+
+	/**
+	 * Keeps the reads of both forms apart from saves to the shared commit when the forms are processed in parallel.
+	 */
+	private static final class ReadPhase {
+
+		static final ReadPhase NONE = new ReadPhase(null);
+
+		private final CountDownLatch formsReading;
+		private boolean complete;
+
+		ReadPhase(CountDownLatch formsReading) {
+			this.formsReading = formsReading;
+		}
+
+		void complete() {
+			if (formsReading != null && !complete) {
+				complete = true;
+				formsReading.countDown();
+			}
+		}
+
+		void completeAndAwaitOthers() throws ServiceException {
+			complete();
+			if (formsReading != null) {
+				try {
+					formsReading.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ServiceException("Interrupted while updating the semantic index.", e);
+				}
+			}
+		}
 	}
 
 	private Set<Long> getInactiveOrMissingConceptIds(Set<Long> requiredActiveConcepts, BranchCriteria branchCriteria) {
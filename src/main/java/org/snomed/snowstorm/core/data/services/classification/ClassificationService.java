@@ -3,9 +3,10 @@ package org.snomed.snowstorm.core.data.services.classification;
 import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.SortOrder;
-import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.api.VersionControlHelper;
@@ -44,6 +45,7 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.core.*;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.scheduling.annotation.Async;
@@ -58,14 +60,19 @@ import java.io.*;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
 import static java.lang.Long.parseLong;
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.*;
@@ -130,6 +137,18 @@ public class ClassificationService {
 	public static final int RESULT_PROCESSING_THREADS = 2;// Two threads is a good limit here. The processing is very Elasticsearch heavy while looking up inferred-not-stated values.
 	private final ExecutorService classificationProcessingExecutor = Executors.newFixedThreadPool(RESULT_PROCESSING_THREADS);
 
+	// Loads the next batch of relationship changes and their concepts while a classification save applies the current batch
+	private final ExecutorService savePrefetchExecutor = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setNameFormat("classification-save-prefetch-%d").setDaemon(true).build());
+
+	private static final int RESULT_INGEST_BATCH_SIZE = 10_000;
+
+	@Value("${classification-service.results.ingest-threads}")
+	private int resultIngestThreads;
+
+	// Looks up 'inferred not previously stated' values and saves batches of relationship changes while the results are still being read
+	private ExecutorService resultIngestExecutor;
+
 	private static final int SECOND = 1000;
 
 	private static final PageRequest PAGE_FIRST_1K = PageRequest.of(0, 1000);
@@ -146,6 +165,8 @@ public class ClassificationService {
 
 	@PostConstruct
 	private void init() throws ServiceException {
+		resultIngestExecutor = Executors.newFixedThreadPool(resultIngestThreads,
+				new ThreadFactoryBuilder().setNameFormat("classification-result-ingest-%d").setDaemon(true).build());
 
 		try {
 			if (!elasticsearchOperations.indexOps(Concept.class).exists()) {
@@ -305,6 +326,8 @@ public class ClassificationService {
 	public void shutdownPolling() {
 		shutdownRequested = true;
 		classificationProcessingExecutor.shutdown();
+		savePrefetchExecutor.shutdownNow();
+		resultIngestExecutor.shutdownNow();
 	}
 
 	public Page<Classification> findClassifications(String path) {
@@ -391,66 +414,51 @@ public class ClassificationService {
 
 						setClassificationSaveMetadata(commit);
 
-						List<RelationshipChange> changesBatch = null;
-						Object[] searchAfterToken = null;
-						while (changesBatch == null || changesBatch.size() == LARGE_PAGE.getPageSize()) {
-
-							changesBatch = new ArrayList<>();
-
-							PageRequest pageRequest;
-							if (searchAfterToken != null) {
-								pageRequest = SearchAfterPageRequest.of(searchAfterToken, LARGE_PAGE.getPageSize(), Sort.by(SOURCE_ID, INTERNAL_ID));
-							} else {
-								pageRequest = PageRequest.of(0, LARGE_PAGE.getPageSize(), Sort.by(SOURCE_ID, INTERNAL_ID));
-							}
-
-							NativeQuery relationshipChangeQuery = new NativeQueryBuilder()
-									.withQuery(termQuery("classificationId", classificationId))
-									.withPageable(pageRequest)
-									.build();
+						long totalChanges = countRelationshipChanges(classificationId);
+						long changesSaved = 0;
+						RelationshipChangeBatchReader changeReader = new RelationshipChangeBatchReader(classificationId);
+						// Batches never share a concept, so the concepts of a batch have not been written by this commit when they are loaded.
+						// They are loaded with the criteria of the branch before the commit, which the saves running at the same time do not change.
+						BranchCriteria branchCriteriaBeforeOpenCommit = versionControlHelper.getBranchCriteriaBeforeOpenCommit(commit);
+						Future<RelationshipChangeBatch> nextBatch = savePrefetchExecutor.submit(() -> loadChangeBatch(changeReader, branchCriteriaBeforeOpenCommit, path));
+						try {
+							RelationshipChangeBatch batch = getChangeBatch(nextBatch);
+							while (!batch.isEmpty()) {
+								// Load the next batch while this one is saved
+								nextBatch = savePrefetchExecutor.submit(() -> loadChangeBatch(changeReader, branchCriteriaBeforeOpenCommit, path));
+
+								logger.info("Processing relationship changes in batch of {} for classification {}", batch.changeCount(), classification.getId());
+								Map<Long, Concept> conceptMap = batch.concepts().stream().collect(Collectors.toMap(Concept::getConceptIdAsLong, Function.identity()));
+
+								// Apply changes to concepts
+								Set<String> orphanedRelationshipsToDelete = new HashSet<>();
+								for (Map.Entry<Long, List<RelationshipChange>> changes : batch.conceptChanges().entrySet()) {
+									Concept concept = conceptMap.get(changes.getKey());
+									List<RelationshipChange> relationshipChanges = changes.getValue();
+									if (concept != null) {
+										applyRelationshipChangesToConcept(concept, relationshipChanges, false);
+									} else {
+										// Concept must have been deleted. Remove orphaned inactive relationships.
+										orphanedRelationshipsToDelete.addAll(relationshipChanges.stream()
+												.filter(Predicate.not(RelationshipChange::isActive))
+												.map(RelationshipChange::getRelationshipId)
+												.collect(Collectors.toSet()));
+									}
+								}
+								if (!orphanedRelationshipsToDelete.isEmpty()) {
+									relationshipService.deleteRelationshipsWithinCommit(orphanedRelationshipsToDelete, commit);
+								}
 
-							updateQueryWithSearchAfter(relationshipChangeQuery, pageRequest);
-							final SearchHits<RelationshipChange> searchHits = elasticsearchOperations.search(relationshipChangeQuery, RelationshipChange.class);
-							for (SearchHit<RelationshipChange> searchHit : searchHits) {
-								changesBatch.add(searchHit.getContent());
-								searchAfterToken = searchHit.getSortValues().toArray();
-							}
-							if (changesBatch.isEmpty()) {
-								break;
-							}
-							logger.info("Processing relationship changes in batch of {} for classification {}", changesBatch.size(), classification.getId());
-							// Group changes by concept
-							Map<Long, List<RelationshipChange>> conceptToChangeMap = new Long2ObjectOpenHashMap<>();
-							for (RelationshipChange relationshipChange : changesBatch) {
-								conceptToChangeMap.computeIfAbsent(parseLong(relationshipChange.getSourceId()), conceptId -> new ArrayList<>()).add(relationshipChange);
-							}
+								// Update concepts
+								conceptService.updateWithinCommit(batch.concepts(), commit);// Traceability is skipped here because it gets logged soon after
 
-							// Load concepts
-							final BranchCriteria branchCriteriaIncludingOpenCommit = versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit);
-							Collection<Concept> concepts = conceptService.find(branchCriteriaIncludingOpenCommit, path, conceptToChangeMap.keySet(), Config.DEFAULT_LANGUAGE_DIALECTS);
-							Map<Long, Concept> conceptMap = concepts.stream().collect(Collectors.toMap(Concept::getConceptIdAsLong, Function.identity()));
-
-							// Apply changes to concepts
-							Set<String> orphanedRelationshipsToDelete = new HashSet<>();
-							for (Map.Entry<Long, List<RelationshipChange>> changes : conceptToChangeMap.entrySet()) {
-								Concept concept = conceptMap.get(changes.getKey());
-								List<RelationshipChange> relationshipChanges = changes.getValue();
-								if (concept != null) {
-									applyRelationshipChangesToConcept(concept, relationshipChanges, false);
-								} else {
-									// Concept must have been deleted. Remove orphaned inactive relationships.
-									orphanedRelationshipsToDelete.addAll(relationshipChanges.stream()
-											.filter(Predicate.not(RelationshipChange::isActive))
-											.map(RelationshipChange::getRelationshipId)
-											.collect(Collectors.toSet()));
-								}
-							}
-							if (!orphanedRelationshipsToDelete.isEmpty()) {
-								relationshipService.deleteRelationshipsWithinCommit(orphanedRelationshipsToDelete, commit);
+								changesSaved += batch.changeCount();
+								classification.setSaveProgress(String.format("%s of %s relationship changes saved", changesSaved, totalChanges));
+								classificationRepository.save(classification);
+								batch = getChangeBatch(nextBatch);
 							}
-
-							// Update concepts
-							conceptService.updateWithinCommit(concepts, commit);// Traceability is skipped here because it gets logged soon after
+						} finally {
+							nextBatch.cancel(true);
 						}
 
 						BranchClassificationStatusService.setClassificationStatus(commit.getBranch(), true);
@@ -473,6 +481,38 @@ public class ClassificationService {
 		}
 	}
 
+	private long countRelationshipChanges(String classificationId) {
+		return elasticsearchOperations.count(new NativeQueryBuilder().withQuery(termQuery("classificationId", classificationId)).build(), RelationshipChange.class);
+	}
+
+	private RelationshipChangeBatch loadChangeBatch(RelationshipChangeBatchReader changeReader, BranchCriteria branchCriteria, String path) {
+		List<RelationshipChange> changes = changeReader.nextBatch();
+
+		// Group changes by concept
+		Map<Long, List<RelationshipChange>> conceptToChangeMap = new Long2ObjectOpenHashMap<>();
+		for (RelationshipChange relationshipChange : changes) {
+			conceptToChangeMap.computeIfAbsent(parseLong(relationshipChange.getSourceId()), conceptId -> new ArrayList<>()).add(relationshipChange);
+		}
+
+		// Load concepts
+		Collection<Concept> concepts = conceptService.find(branchCriteria, path, conceptToChangeMap.keySet(), Config.DEFAULT_LANGUAGE_DIALECTS);
+		return new RelationshipChangeBatch(conceptToChangeMap, concepts, changes.size());
+	}
+
+	private RelationshipChangeBatch getChangeBatch(Future<RelationshipChangeBatch> batchFuture) throws ServiceException {
+		try {
+			return batchFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while loading relationship changes.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new ServiceException("Failed to load relationship changes.", e.getCause());
+		}
+	}
+
 	private void setClassificationSaveMetadata(Commit commit) {
 		BranchMetadataHelper.disableContentAutomationsForCommit(commit);
 		BranchMetadataHelper.classificationCommit(commit);
@@ -541,6 +581,74 @@ public class ClassificationService {
 		conceptAttributeSortHelper.sortAttributes(Collections.singleton(concept));
 	}
 
+	private record RelationshipChangeBatch(Map<Long, List<RelationshipChange>> conceptChanges, Collection<Concept> concepts, int changeCount) {
+
+		boolean isEmpty() {
+			return changeCount == 0;
+		}
+	}
+
+	/**
+	 * Reads the relationship changes of a classification in batches of whole concepts.
+	 * The changes of the last concept on a page are held back for the next batch because that concept may have more changes on the next page.
+	 */
+	private class RelationshipChangeBatchReader {
+
+		private final String classificationId;
+		private final List<RelationshipChange> heldBack = new ArrayList<>();
+		private Object[] searchAfterToken;
+		private boolean allPagesRead;
+
+		private RelationshipChangeBatchReader(String classificationId) {
+			this.classificationId = classificationId;
+		}
+
+		private List<RelationshipChange> nextBatch() {
+			List<RelationshipChange> batch = new ArrayList<>(heldBack);
+			heldBack.clear();
+			while (!allPagesRead) {
+				List<RelationshipChange> page = readPage();
+				allPagesRead = page.size() < LARGE_PAGE.getPageSize();
+				batch.addAll(page);
+				if (!allPagesRead) {
+					String lastSourceId = batch.get(batch.size() - 1).getSourceId();
+					int conceptStart = batch.size();
+					while (conceptStart > 0 && batch.get(conceptStart - 1).getSourceId().equals(lastSourceId)) {
+						conceptStart--;
+					}
+					if (conceptStart > 0) {
+						heldBack.addAll(batch.subList(conceptStart, batch.size()));
+						return new ArrayList<>(batch.subList(0, conceptStart));
+					}
+					// All changes so far are for one concept, keep reading
+				}
+			}
+			return batch;
+		}
+
+		private List<RelationshipChange> readPage() {
+			PageRequest pageRequest;
+			if (searchAfterToken != null) {
+				pageRequest = SearchAfterPageRequest.of(searchAfterToken, LARGE_PAGE.getPageSize(), Sort.by(SOURCE_ID, INTERNAL_ID));
+			} else {
+				pageRequest = PageRequest.of(0, LARGE_PAGE.getPageSize(), Sort.by(SOURCE_ID, INTERNAL_ID));
+			}
+
+			NativeQuery relationshipChangeQuery = new NativeQueryBuilder()
+					.withQuery(termQuery("classificationId", classificationId))
+					.withPageable(pageRequest)
+					.build();
+
+			updateQueryWithSearchAfter(relationshipChangeQuery, pageRequest);
+			List<RelationshipChange> page = new ArrayList<>();
+			for (SearchHit<RelationshipChange> searchHit : elasticsearchOperations.search(relationshipChangeQuery, RelationshipChange.class)) {
+				page.add(searchHit.getContent());
+				searchAfterToken = searchHit.getSortValues().toArray();
+			}
+			return page;
+		}
+	}
+
 	public Page<RelationshipChange> getRelationshipChanges(String path, String classificationId, List<LanguageDialect> languageDialects, PageRequest pageRequest) {
 		checkClassificationHasResults(path, classificationId);
 		return doGetRelationshipChanges(path, classificationId, languageDialects, pageRequest, true, null);
@@ -636,94 +744,116 @@ public class ClassificationService {
 
 		reader.readLine(); // Read and discard header line
 
-		List<RelationshipChange> relationshipChanges = new ArrayList<>();
+		// Changes are read in batches, each batch is checked for 'inferred not previously stated' values and saved while the next is read
+		NumberFormat numberFormat = NumberFormat.getIntegerInstance();
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(classification.getPath());
+		Semaphore batchesInFlight = new Semaphore(resultIngestThreads * 2);
+		List<Future<?>> futures = new ArrayList<>();
+		List<RelationshipChange> batch = new ArrayList<>();
+		long rows = 0;
 		String line;
-		long activeRows = 0;
-		boolean active;
-		while ((line = reader.readLine()) != null) {
-
-			// Relationship Header:
-			// id	effectiveTime	active	moduleId	sourceId	destinationId	relationshipGroup	typeId	characteristicTypeId	modifierId
-
-			// Concrete Relationship Header:
-			// id	effectiveTime	active	moduleId	sourceId	value	relationshipGroup	typeId	characteristicTypeId	modifierId
-
-			String[] values = line.split("\\t");
-			active = "1".equals(values[RelationshipFieldIndexes.active]);
-			relationshipChanges.add(new RelationshipChange(
-					classification.getId(),
-					values[RelationshipFieldIndexes.id],
-					active,
-					values[RelationshipFieldIndexes.sourceId],
-					values[RelationshipFieldIndexes.destinationId],// destination or value depending on value of concrete flag
-					Integer.parseInt(values[RelationshipFieldIndexes.relationshipGroup]),
-					values[RelationshipFieldIndexes.typeId],
-					values[RelationshipFieldIndexes.modifierId],
-					concrete));
-			if (active) {
-				activeRows++;
+		try {
+			while ((line = reader.readLine()) != null) {
+
+				// Relationship Header:
+				// id	effectiveTime	active	moduleId	sourceId	destinationId	relationshipGroup	typeId	characteristicTypeId	modifierId
+
+				// Concrete Relationship Header:
+				// id	effectiveTime	active	moduleId	sourceId	value	relationshipGroup	typeId	characteristicTypeId	modifierId
+
+				String[] values = line.split("\\t");
+				batch.add(new RelationshipChange(
+						classification.getId(),
+						values[RelationshipFieldIndexes.id],
+						"1".equals(values[RelationshipFieldIndexes.active]),
+						values[RelationshipFieldIndexes.sourceId],
+						values[RelationshipFieldIndexes.destinationId],// destination or value depending on value of concrete flag
+						Integer.parseInt(values[RelationshipFieldIndexes.relationshipGroup]),
+						values[RelationshipFieldIndexes.typeId],
+						values[RelationshipFieldIndexes.modifierId],
+						concrete));
+				rows++;
+				if (batch.size() == RESULT_INGEST_BATCH_SIZE) {
+					logger.info("Processing classification relationship changes up to row {} for classification {}.", numberFormat.format(rows), classification.getId());
+					futures.add(submitRelationshipChangeBatch(batch, branchCriteria, batchesInFlight));
+					batch = new ArrayList<>();
+				}
+			}
+			if (!batch.isEmpty()) {
+				futures.add(submitRelationshipChangeBatch(batch, branchCriteria, batchesInFlight));
 			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while saving classification relationship changes for classification " + classification.getId(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IOException("Failed to save classification relationship changes for classification " + classification.getId(), e.getCause());
+		} finally {
+			futures.forEach(future -> future.cancel(false));
 		}
-
-		// - Mark inferred not previously stated changes -
-		// Build query to find concepts in the stated semantic index which do not contain the inferred parents or attributes
-		NumberFormat numberFormat = NumberFormat.getIntegerInstance();
-		if (activeRows > 0) {
-			logger.info("Looking up 'inferred not previously stated' values for {} active inferred relationship changes for classification {}.",
-					numberFormat.format(activeRows), classification.getId());
+		if (rows > 0) {
+			logger.info("Saved {} classification relationship changes for classification {}.", numberFormat.format(rows), classification.getId());
 		}
-		long rowsProcessed = 0;
-		Map<Long, List<RelationshipChange>> activeConceptChanges = new HashMap<>();
-
-		// The max clauses for bool query in elastic search by default is 1024
-		for (List<RelationshipChange> relationshipChangePartition : Lists.partition(relationshipChanges, 1000)) {
-			BoolQuery.Builder allConceptsQueryBuilder = bool();
-			for (RelationshipChange relationshipChange : relationshipChangePartition) {
-				if (relationshipChange.isActive()) {
-					Long sourceId = parseLong(relationshipChange.getSourceId());
-					BoolQuery.Builder conceptQuery = bool().must(termQuery(QueryConcept.Fields.CONCEPT_ID, sourceId));
-					if (relationshipChange.getTypeId().equals(Concepts.ISA)) {
-						conceptQuery.mustNot(termQuery(QueryConcept.Fields.PARENTS, relationshipChange.getDestinationId()));
-					} else {
-						conceptQuery.mustNot(termQuery(QueryConcept.Fields.ATTR + "." + relationshipChange.getTypeId(), relationshipChange.getDestinationOrValueWithoutPrefix()));
-					}
-					allConceptsQueryBuilder.should(conceptQuery.build()._toQuery());
-					activeConceptChanges.computeIfAbsent(sourceId, id -> new ArrayList<>()).add(relationshipChange);
-					rowsProcessed++;
-					if (rowsProcessed % 1_000 == 0) {
-						logger.info("Processing row {} of {} for classification {}", numberFormat.format(rowsProcessed), numberFormat.format(activeRows), classification.getId());
-					}
+	}
+
+	// Batches are processed in parallel but only a few are held at once, reading pauses until a batch has been saved.
+	private Future<?> submitRelationshipChangeBatch(List<RelationshipChange> batch, BranchCriteria branchCriteria, Semaphore batchesInFlight) throws InterruptedException {
+		batchesInFlight.acquire();
+		try {
+			return resultIngestExecutor.submit(() -> {
+				try {
+					markInferredNotStated(batch, branchCriteria);
+					relationshipChangeRepository.saveAll(batch);
+				} finally {
+					batchesInFlight.release();
 				}
-			}
+			});
+		} catch (RejectedExecutionException e) {
+			batchesInFlight.release();
+			throw e;
+		}
+	}
 
-			// make sure the should clause is not empty before running semantic index search
-			if (!allConceptsQueryBuilder.hasClauses()) {
-				continue;
+	// - Mark inferred not previously stated changes -
+	// The stated form of every concept with an active change in the batch is loaded from the semantic index and compared in memory
+	private void markInferredNotStated(List<RelationshipChange> relationshipChanges, BranchCriteria branchCriteria) {
+		Map<Long, List<RelationshipChange>> activeConceptChanges = new Long2ObjectOpenHashMap<>();
+		for (RelationshipChange relationshipChange : relationshipChanges) {
+			if (relationshipChange.isActive()) {
+				activeConceptChanges.computeIfAbsent(parseLong(relationshipChange.getSourceId()), id -> new ArrayList<>()).add(relationshipChange);
 			}
+		}
 
-			BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(classification.getPath());
+		for (List<Long> conceptIds : Iterables.partition(activeConceptChanges.keySet(), CLAUSE_LIMIT)) {
 			try (SearchHitsIterator<QueryConcept> semanticIndexConcepts = elasticsearchOperations.searchForStream(
 					new NativeQueryBuilder()
 							.withQuery(bool(b -> b
 									.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
 									.must(termQuery(QueryConcept.Fields.STATED, true))))
-							.withFilter(allConceptsQueryBuilder.build()._toQuery())
+							.withFilter(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIds))
+							.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.PARENTS, QueryConcept.Fields.ATTR_MAP}, null))
 							.withPageable(LARGE_PAGE).build(),
 					QueryConcept.class)) {
 
 				semanticIndexConcepts.forEachRemaining(hit -> {
-					// One or more inferred attributes or parents do not exist on this stated semanticIndexConcept
-					List<RelationshipChange> conceptChanges = activeConceptChanges.get(hit.getContent().getConceptIdL());
+					QueryConcept statedConcept = hit.getContent();
+					List<RelationshipChange> conceptChanges = activeConceptChanges.get(statedConcept.getConceptIdL());
 					if (conceptChanges != null) {
-						Map<String, Set<Object>> conceptAttributes = hit.getContent().getAttr();
+						Map<String, Set<Object>> conceptAttributes = statedConcept.getAttr();
 						for (RelationshipChange relationshipChange : conceptChanges) {
+							// The inferred parent or attribute does not exist on the stated concept
 							if (relationshipChange.getTypeId().equals(Concepts.ISA)) {
-								if (!hit.getContent().getParents().contains(parseLong(relationshipChange.getDestinationId()))) {
+								if (!statedConcept.getParents().contains(parseLong(relationshipChange.getDestinationId()))) {
 									relationshipChange.setInferredNotStated(true);
 								}
 							} else {
 								if (!conceptAttributes.getOrDefault(relationshipChange.getTypeId(), Collections.emptySet())
-                                        .contains(relationshipChange.getDestinationOrRawValue())) {
+										.contains(relationshipChange.getDestinationOrRawValue())) {
 									relationshipChange.setInferredNotStated(true);
 								}
 							}
@@ -732,18 +862,6 @@ public class ClassificationService {
 				});
 			}
 		}
-
-		if (!relationshipChanges.isEmpty()) {
-			logger.info("Saving {} classification relationship changes...", numberFormat.format(relationshipChanges.size()));
-			int chunkSize = 10_000;
-			List<List<RelationshipChange>> partition = Lists.partition(relationshipChanges, chunkSize);
-			for (List<RelationshipChange> changes : partition) {
-				if (relationshipChanges.size() > chunkSize) {
-					logger.info("Saving batch of {} classification relationship changes.", numberFormat.format(changes.size()));
-				}
-				relationshipChangeRepository.saveAll(changes);
-			}
-		}
 	}
 
 	private void saveEquivalentConcepts(String classificationId, InputStream rf2Stream) throws IOException, ElasticsearchException {
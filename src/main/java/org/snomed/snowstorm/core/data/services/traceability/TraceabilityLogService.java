@@ -5,18 +5,25 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.CommitListener;
 import io.kaicode.elasticvc.api.VersionControlHelper;
+import io.kaicode.elasticvc.domain.Branch;
 import io.kaicode.elasticvc.domain.Commit;
 import it.unimi.dsi.fastutil.longs.Long2ObjectArrayMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.ihtsdo.sso.integration.SecurityUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.snowstorm.config.Config;
 import org.snomed.snowstorm.core.data.domain.*;
+import org.snomed.snowstorm.core.data.domain.jobs.TraceabilityPendingCommit;
+import org.snomed.snowstorm.core.data.repositories.jobs.TraceabilityPendingCommitRepository;
 import org.snomed.snowstorm.core.data.services.BranchMetadataHelper;
 import org.snomed.snowstorm.core.data.services.ServiceUtil;
 import org.snomed.snowstorm.core.data.services.identifier.IdentifierService;
@@ -24,6 +31,7 @@ import org.snomed.snowstorm.core.data.services.pojo.PersistedComponents;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
 import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
@@ -31,17 +39,21 @@ import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
 import static io.kaicode.elasticvc.api.VersionControlHelper.LARGE_PAGE;
 import static io.kaicode.elasticvc.domain.Commit.CommitType.CONTENT;
+import static io.kaicode.elasticvc.helper.QueryHelper.termQuery;
 import static io.kaicode.elasticvc.helper.QueryHelper.termsQuery;
 import static java.lang.Long.parseLong;
 import static org.snomed.snowstorm.core.data.services.traceability.Activity.ActivityType.CREATE_CODE_SYSTEM_VERSION;
@@ -68,6 +80,29 @@ public class TraceabilityLogService implements CommitListener {
 	@Autowired
 	private VersionControlHelper versionControlHelper;
 
+	@Autowired
+	private BranchService branchService;
+
+	@Value("${authoring.traceability.async.enabled}")
+	private boolean asyncEnabled;
+
+	@Value("${authoring.traceability.async.retry-delay-seconds}")
+	private int asyncRetryDelaySeconds;
+
+	@Value("${authoring.traceability.async.max-attempts}")
+	private int asyncMaxAttempts;
+
+	@Autowired
+	private TraceabilityPendingCommitRepository pendingCommitRepository;
+
+	private static final long COMMIT_COMPLETION_POLL_MILLIS = 500;
+	private static final int IDLE_POLL_SECONDS = 10;
+	private static final PageRequest PENDING_COMMITS_PAGE = PageRequest.of(0, 100);
+
+	// Wakes the background worker when a commit is stored
+	private final BlockingQueue<Boolean> pendingCommitSignal = new ArrayBlockingQueue<>(1);
+	private ExecutorService asyncExecutor;
+
 	private final ObjectMapper objectMapper;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -78,6 +113,23 @@ public class TraceabilityLogService implements CommitListener {
 				.build();
 	}
 
+	@PostConstruct
+	public void init() {
+		if (asyncEnabled) {
+			// Commits stored before a restart are logged first
+			asyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("traceability-%d").setDaemon(true).build());
+			asyncExecutor.submit(this::processPendingCommits);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (asyncExecutor != null) {
+			// Commits not logged yet remain stored and are logged after the next startup
+			asyncExecutor.shutdownNow();
+		}
+	}
+
 	@Override
 	public void preCommitCompletion(final Commit commit) throws IllegalStateException {
 		if (!enabled) {
@@ -100,6 +152,18 @@ public class TraceabilityLogService implements CommitListener {
 		}
 		ServiceUtil.assertNotNull("Traceability activity type", activityType);
 
+		if (asyncEnabled) {
+			// Only the commit is stored here, the activity is built from the versioned indices once the commit has completed.
+			// Storing the commit within the commit means its activity is not lost if the application stops before it is sent.
+			boolean rebase = commit.isRebase();
+			pendingCommitRepository.save(new TraceabilityPendingCommit(SecurityUtil.getUsername(), commit.getBranch().getPath(), commit.getTimepoint().getTime(),
+					commit.getSourceBranchPath(), commit.getCommitType(), activityType, rebase,
+					deepCopy(commit.getEntityVersionsReplaced()),
+					rebase ? deepCopy(BranchMetadataHelper.getRebaseDuplicatesRemoved(commit)) : Collections.emptyMap()));
+			pendingCommitSignal.offer(Boolean.TRUE);
+			return;
+		}
+
 		PersistedComponents persistedComponents = activityType == Activity.ActivityType.PROMOTION || activityType == Activity.ActivityType.CREATE_CODE_SYSTEM_VERSION ?
 				new PersistedComponents() : buildPersistedComponents(commit);
 
@@ -121,7 +185,127 @@ public class TraceabilityLogService implements CommitListener {
 				.build();
 	}
 
+	private static Map<String, Set<String>> deepCopy(Map<String, Set<String>> versions) {
+		Map<String, Set<String>> copy = new HashMap<>();
+		versions.forEach((type, internalIds) -> copy.put(type, new HashSet<>(internalIds)));
+		return copy;
+	}
+
+	/*
+		Activities are logged one at a time in commit order, each stored commit is deleted once its activity has been sent.
+		A failed activity is retried a limited number of times before its stored commit is marked as failed and the worker moves on.
+	 */
+	private void processPendingCommits() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<TraceabilityPendingCommit> pendingCommits;
+				try {
+					pendingCommits = pendingCommitRepository.findByFailedOrderByTimepoint(false, PENDING_COMMITS_PAGE).getContent();
+				} catch (RuntimeException e) {
+					logger.error("Failed to load commits waiting for traceability, retrying in {} seconds.", asyncRetryDelaySeconds, e);
+					Thread.sleep(asyncRetryDelaySeconds * 1_000L);
+					continue;
+				}
+				if (pendingCommits.isEmpty()) {
+					pendingCommitSignal.poll(IDLE_POLL_SECONDS, TimeUnit.SECONDS);
+					continue;
+				}
+				for (TraceabilityPendingCommit pendingCommit : pendingCommits) {
+					while (!logPendingCommit(pendingCommit)) {
+						Thread.sleep(COMMIT_COMPLETION_POLL_MILLIS);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return false if the commit has not completed yet.
+	 */
+	private boolean logPendingCommit(TraceabilityPendingCommit pendingCommit) throws InterruptedException {
+		final String branchPath = pendingCommit.getBranchPath();
+		final long timepoint = pendingCommit.getTimepoint();
+		boolean logged = false;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				if (!logged) {
+					if (isCommitComplete(branchPath, timepoint)) {
+						PersistedComponents persistedComponents = pendingCommit.getActivityType() == Activity.ActivityType.PROMOTION || pendingCommit.getActivityType() == CREATE_CODE_SYSTEM_VERSION ?
+								new PersistedComponents() : buildPersistedComponents(pendingCommit);
+						logActivity(pendingCommit.getUserId(), branchPath, timepoint, pendingCommit.getSourceBranchPath(), pendingCommit.getCommitType(), persistedComponents,
+								pendingCommit.getActivityType(), () -> versionControlHelper.getBranchCriteriaAtTimepoint(branchPath, new Date(timepoint)));
+					} else {
+						Branch branch = branchService.findLatest(branchPath);
+						if (branch != null && branch.isLocked()) {
+							return false;
+						}
+						logger.info("Skipping traceability for commit on {} at {} because the commit did not complete.", branchPath, timepoint);
+					}
+					logged = true;
+				}
+				// An activity may be sent again if the application stops before this
+				pendingCommitRepository.delete(pendingCommit);
+				return true;
+			} catch (RuntimeException e) {
+				if (attempt >= asyncMaxAttempts) {
+					markFailed(pendingCommit, attempt, e);
+					return true;
+				}
+				logger.error("Failed to log traceability for commit on {} at {}, retrying in {} seconds.", branchPath, timepoint, asyncRetryDelaySeconds, e);
+				Thread.sleep(asyncRetryDelaySeconds * 1_000L);
+			}
+		}
+	}
+
+	private void markFailed(TraceabilityPendingCommit pendingCommit, int attempts, RuntimeException e) {
+		logger.error("Giving up logging traceability for commit on {} at {} by {} after {} attempts. Activity type {}, source branch {}. " +
+						"The commit is kept in the traceability pending commit index marked as failed.",
+				pendingCommit.getBranchPath(), pendingCommit.getTimepoint(), pendingCommit.getUserId(), attempts, pendingCommit.getActivityType(),
+				pendingCommit.getSourceBranchPath(), e);
+		pendingCommit.setFailed(true);
+		try {
+			pendingCommitRepository.save(pendingCommit);
+		} catch (RuntimeException saveException) {
+			// Still stored as pending, so it will be tried again
+			logger.error("Failed to mark traceability commit on {} at {} as failed.", pendingCommit.getBranchPath(), pendingCommit.getTimepoint(), saveException);
+		}
+	}
+
+	List<TraceabilityPendingCommit> getFailedCommits() {
+		return pendingCommitRepository.findByFailedOrderByTimepoint(true, LARGE_PAGE).getContent();
+	}
+
+	private boolean isCommitComplete(String branchPath, long timepoint) {
+		return elasticsearchOperations.count(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(termQuery("path", branchPath))
+						.must(termQuery("head", timepoint))))
+				.build(), Branch.class) > 0;
+	}
+
+	private PersistedComponents buildPersistedComponents(TraceabilityPendingCommit pendingCommit) {
+		return PersistedComponents.builder()
+				.withPersistedConcepts(loadChangesAndDeletionsOfCompletedCommit(Concept.class, pendingCommit))
+				.withPersistedDescriptions(loadChangesAndDeletionsOfCompletedCommit(Description.class, pendingCommit))
+				.withPersistedRelationships(loadChangesAndDeletionsOfCompletedCommit(Relationship.class, pendingCommit))
+				.withPersistedReferenceSetMembers(loadChangesAndDeletionsOfCompletedCommit(ReferenceSetMember.class, pendingCommit))
+				.build();
+	}
+
+	private <T extends SnomedComponent<T>> Iterable<T> loadChangesAndDeletionsOfCompletedCommit(Class<T> clazz, TraceabilityPendingCommit pendingCommit) {
+		return traceabilityLogServiceHelper.loadChangesAndDeletionsOfCompletedCommit(clazz, pendingCommit.getBranchPath(), pendingCommit.getTimepoint(),
+				pendingCommit.isRebase(), pendingCommit.getEntityVersionsReplaced(), pendingCommit.getRebaseDuplicatesRemoved());
+	}
+
 	void logActivity(String userId, final Commit commit, final PersistedComponents persistedComponents, Activity.ActivityType activityType) {
+		logActivity(userId, commit.getBranch().getPath(), commit.getTimepoint().getTime(), commit.getSourceBranchPath(), commit.getCommitType(),
+				persistedComponents, activityType, () -> versionControlHelper.getBranchCriteria(commit.getBranch()));
+	}
+
+	private void logActivity(String userId, String branchPath, long timepoint, String sourceBranchPath, Commit.CommitType commitType,
+			final PersistedComponents persistedComponents, Activity.ActivityType activityType, Supplier<BranchCriteria> branchCriteriaSupplier) {
 
 		ServiceUtil.assertNotNull("activityType", activityType);
 		ServiceUtil.assertNotNull("persistedComponents", persistedComponents);
@@ -134,7 +318,7 @@ public class TraceabilityLogService implements CommitListener {
 			userId = Config.SYSTEM_USERNAME;
 		}
 
-		Activity activity = new Activity(userId, commit.getBranch().getPath(), commit.getTimepoint().getTime(), commit.getSourceBranchPath(), activityType);
+		Activity activity = new Activity(userId, branchPath, timepoint, sourceBranchPath, activityType);
 
 		Map<Long, Activity.ConceptActivity> activityMap = new Long2ObjectArrayMap<>();
 		Map<Long, Long> componentToConceptIdMap = new Long2ObjectArrayMap<>();
@@ -154,7 +338,7 @@ public class TraceabilityLogService implements CommitListener {
 
 		// Deal with members that refer to descriptions or relationships by looking up their concepts.
 		final Map<Long, List<ReferenceSetMember>> conceptMembersMap =
-				filterRefsetMembersAndLookupComponentConceptIds(persistedComponents.getPersistedReferenceSetMembers(), commit, componentToConceptIdMap);
+				filterRefsetMembersAndLookupComponentConceptIds(persistedComponents.getPersistedReferenceSetMembers(), branchPath, branchCriteriaSupplier, componentToConceptIdMap);
 
 		// Record all refset members against concept activities
 		for (Map.Entry<Long, List<ReferenceSetMember>> entry : conceptMembersMap.entrySet()) {
@@ -166,8 +350,8 @@ public class TraceabilityLogService implements CommitListener {
 
 		Map<String, Activity.ConceptActivity> changes = activity.getChangesMap();
 		boolean changeFound = changes.values().stream().anyMatch(conceptActivity -> !conceptActivity.getComponentChanges().isEmpty());
-		if (commit.getCommitType() == CONTENT && !changeFound && activityType != CREATE_CODE_SYSTEM_VERSION) {
-			logger.info("Skipping traceability because there was no traceable change for commit {} at {}.", commit.getBranch().getPath(), commit.getTimepoint().getTime());
+		if (commitType == CONTENT && !changeFound && activityType != CREATE_CODE_SYSTEM_VERSION) {
+			logger.info("Skipping traceability because there was no traceable change for commit {} at {}.", branchPath, timepoint);
 			return;
 		}
 
@@ -208,7 +392,7 @@ public class TraceabilityLogService implements CommitListener {
 	}
 
 	private Map<Long, List<ReferenceSetMember>> filterRefsetMembersAndLookupComponentConceptIds(Iterable<ReferenceSetMember> persistedReferenceSetMembers,
-			Commit commit, Map<Long, Long> componentToConceptIdMap) {
+			String branchPath, Supplier<BranchCriteria> branchCriteriaSupplier, Map<Long, Long> componentToConceptIdMap) {
 
 		Map<Long, List<ReferenceSetMember>> conceptToMembersMap = new Long2ObjectArrayMap<>();
 
@@ -238,7 +422,7 @@ public class TraceabilityLogService implements CommitListener {
 		BranchCriteria branchCriteria = null;
 
 		if (!descriptionIdsToLookup.isEmpty()) {
-			branchCriteria = versionControlHelper.getBranchCriteria(commit.getBranch());
+			branchCriteria = branchCriteriaSupplier.get();
 			Query descriptionQuery = branchCriteria.getEntityBranchCriteria(Description.class);
 			for (List<Long> descriptionIdsSegment : Iterables.partition(descriptionIdsToLookup, CLAUSE_LIMIT)) {
 				try (final SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
@@ -256,7 +440,7 @@ public class TraceabilityLogService implements CommitListener {
 		}
 		if (!relationshipIdsToLookup.isEmpty()) {
 			if (branchCriteria == null) {
-				branchCriteria = versionControlHelper.getBranchCriteria(commit.getBranch());
+				branchCriteria = branchCriteriaSupplier.get();
 			}
 			Query relationshipQuery = branchCriteria.getEntityBranchCriteria(Relationship.class);
 			for (List<Long> relationshipsIdsSegment : Iterables.partition(relationshipIdsToLookup, CLAUSE_LIMIT)) {
@@ -281,7 +465,7 @@ public class TraceabilityLogService implements CommitListener {
 				conceptToMembersMap.computeIfAbsent(conceptId, id -> new ArrayList<>()).add(refsetMember);
 			} else {
 				logger.error("Refset member {} with referenced component {} can not be mapped to a concept id for traceability on branch {}",
-						refsetMember.getId(), refsetMember.getReferencedComponentId(), commit.getBranch().getPath());
+						refsetMember.getId(), refsetMember.getReferencedComponentId(), branchPath);
 			}
 		});
 		return conceptToMembersMap;
@@ -2,6 +2,7 @@ package org.snomed.snowstorm.core.data.services.traceability;
 
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.domain.Commit;
 
@@ -15,6 +16,7 @@ import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 import static io.kaicode.elasticvc.api.VersionControlHelper.LARGE_PAGE;
@@ -25,14 +27,48 @@ public class TraceabilityLogServiceHelper {
 
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
+
 	public <T extends SnomedComponent<T>> Iterable<T> loadChangesAndDeletionsWithinOpenCommitOnly(Class<T> clazz, BranchCriteria changesAndDeletionsWithinOpenCommitCriteria,
 			String branchPath, Commit commit) {
 
-		final BoolQuery.Builder branchCriteria = bool().must(changesAndDeletionsWithinOpenCommitCriteria.getEntityBranchCriteria(clazz));
+		final Map<String, Set<String>> rebaseDuplicatesRemoved = commit.isRebase() ? BranchMetadataHelper.getRebaseDuplicatesRemoved(commit) : Collections.emptyMap();
+		// Within the open commit only the new versions on the branch have no end date
+		return loadChangesAndDeletions(clazz, changesAndDeletionsWithinOpenCommitCriteria.getEntityBranchCriteria(clazz), branchPath, commit.isRebase(),
+				commit.getEntityVersionsReplaced(), rebaseDuplicatesRemoved, component -> component.getEnd() == null);
+	}
+
+	/**
+	 * Loads the components changed or deleted by a commit which has already completed.
+	 * Versions created on the branch by the commit start at the commit timepoint, versions ended on the branch end at the commit timepoint
+	 * and versions on ancestor branches which were replaced by the commit are found by id.
+	 * A version created by the commit may have been ended since by a later commit so new versions are identified by their start date.
+	 */
+	public <T extends SnomedComponent<T>> Iterable<T> loadChangesAndDeletionsOfCompletedCommit(Class<T> clazz, String branchPath, long timepoint, boolean rebase,
+			Map<String, Set<String>> entityVersionsReplaced, Map<String, Set<String>> rebaseDuplicatesRemoved) {
 
-		if (commit.isRebase()) {
+		final Set<String> versionsReplaced = entityVersionsReplaced.getOrDefault(clazz.getSimpleName(), Collections.emptySet());
+		final BoolQuery.Builder commitCriteria = bool()
+				.should(bool(b -> b
+						.must(termQuery(SnomedComponent.Fields.PATH, branchPath))
+						.must(termQuery(SnomedComponent.Fields.START, timepoint))))
+				.should(bool(b -> b
+						.must(termQuery(SnomedComponent.Fields.PATH, branchPath))
+						.must(termQuery(SnomedComponent.Fields.END, timepoint))));
+		if (!versionsReplaced.isEmpty()) {
+			commitCriteria.should(termsQuery("_id", versionsReplaced));
+		}
+		return loadChangesAndDeletions(clazz, commitCriteria.build()._toQuery(), branchPath, rebase, entityVersionsReplaced, rebaseDuplicatesRemoved,
+				component -> component.getStart().getTime() == timepoint);
+	}
+
+	private <T extends SnomedComponent<T>> Iterable<T> loadChangesAndDeletions(Class<T> clazz, Query commitCriteria, String branchPath, boolean rebase,
+			Map<String, Set<String>> entityVersionsReplaced, Map<String, Set<String>> rebaseDuplicatesRemoved, Predicate<T> newVersionOnBranch) {
+
+		final BoolQuery.Builder branchCriteria = bool().must(commitCriteria);
+
+		if (rebase) {
 			// The rebase branch criteria usually includes component versions brought in from ancestor branches. We will exclude those from traceability.
-			final Set<String> versionsReplaced = commit.getEntityVersionsReplaced().getOrDefault(clazz.getSimpleName(), Collections.emptySet());
+			final Set<String> versionsReplaced = entityVersionsReplaced.getOrDefault(clazz.getSimpleName(), Collections.emptySet());
 			if (versionsReplaced.isEmpty()) {
 				branchCriteria.must(termQuery(SnomedComponent.Fields.PATH, branchPath));
 			} else {
@@ -63,7 +99,7 @@ public class TraceabilityLogServiceHelper {
 					// A version on ancestor branch was replaced (may be update or delete)
 					componentsWithEndedVersion.add(componentId);
 				} else {
-					if (component.getEnd() == null) {
+					if (newVersionOnBranch.test(component)) {
 						// A version on this branch was created (may be update or create)
 						componentsWithNewVersion.add(componentId);
 					} else {
@@ -76,8 +112,6 @@ public class TraceabilityLogServiceHelper {
 
 		final Collection<T> components = componentResult.values();
 
-		final Map<String, Set<String>> rebaseDuplicatesRemoved = commit.isRebase() ? BranchMetadataHelper.getRebaseDuplicatesRemoved(commit) : Collections.emptyMap();
-
 		// Use new and ended sets to work out if components was created, updated or deleted
 		components.forEach(component -> {
 			final String componentId = component.getId();
@@ -88,7 +122,7 @@ public class TraceabilityLogServiceHelper {
 					component.setCreating(true);
 				}
 			} else {
-				if (commit.isRebase() && rebaseDuplicatesRemoved.computeIfAbsent(clazz.getSimpleName(), key -> Collections.emptySet()).contains(componentId)) {
+				if (rebase && rebaseDuplicatesRemoved.getOrDefault(clazz.getSimpleName(), Collections.emptySet()).contains(componentId)) {
 					// Component in child branch is replaced by newer version in parent branch. Log as change, not deletion.
 					component.markChanged();
 				} else {
@@ -1,42 +1,117 @@
 package org.snomed.snowstorm.core.data.services.transitiveclosure;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.BitSet;
 
+/**
+ * Collects is-a edges using dense int node indexes and primitive edge lists, no object is created per concept or edge.
+ * The edges are converted to a compact CSR graph when the transitive closure is built.
+ */
 public class GraphBuilder {
 
-	private final Map<Long, Node> nodeLookup = new Long2ObjectOpenHashMap<>();
+	private final Long2IntOpenHashMap nodeIndexes = new Long2IntOpenHashMap();
+	private final LongArrayList ids = new LongArrayList();
+	// Edges before this position are ignored for the node because its parents have been cleared
+	private final IntArrayList parentsValidFrom = new IntArrayList();
+	private final IntArrayList edgeChildren = new IntArrayList();
+	private final IntArrayList edgeParents = new IntArrayList();
+	private final BitSet updated = new BitSet();
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(GraphBuilder.class);
 
-	public void addParent(Long sourceId, Long destinationId) {
+	public GraphBuilder() {
+		nodeIndexes.defaultReturnValue(-1);
+	}
+
+	public void addParent(long sourceId, long destinationId) {
 		LOGGER.debug("{} -> {}", sourceId, destinationId);
-		Node createNode = getCreateNode(sourceId);
-		createNode.addParent(getCreateNode(destinationId));
+		int child = getCreateNode(sourceId);
+		int parent = getCreateNode(destinationId);
+		edgeChildren.add(child);
+		edgeParents.add(parent);
 	}
 
-	private Node getCreateNode(Long id) {
-		Node node = nodeLookup.get(id);
-		if (node == null) {
-			node = new Node(id);
-			nodeLookup.put(node.getId(), node);
+	private int getCreateNode(long id) {
+		int index = nodeIndexes.get(id);
+		if (index == -1) {
+			index = ids.size();
+			nodeIndexes.put(id, index);
+			ids.add(id);
+			parentsValidFrom.add(0);
 		}
-		return node;
+		return index;
 	}
 
-	public Collection<Node> getNodes() {
-		return nodeLookup.values();
+	public int getNodeCount() {
+		return ids.size();
 	}
 
-	public int getNodeCount() {
-		return nodeLookup.size();
+	public void clearParentsAndMarkUpdated(long sourceId) {
+		int index = getCreateNode(sourceId);
+		updated.set(index);
+		parentsValidFrom.set(index, edgeChildren.size());
 	}
 
-	public void clearParentsAndMarkUpdated(Long sourceId) {
-		getCreateNode(sourceId).markUpdated().getParents().clear();
+	/**
+	 * Builds the graph and calculates the transitive closure. Changes made to the builder afterwards are not included.
+	 */
+	public TransitiveClosure buildTransitiveClosure() {
+		int nodeCount = ids.size();
+
+		// Nodes are renumbered in id order
+		long[] sortedIds = ids.toLongArray();
+		Arrays.sort(sortedIds);
+		int[] newIndex = new int[nodeCount];
+		BitSet sortedUpdated = new BitSet(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			int sortedIndex = Arrays.binarySearch(sortedIds, ids.getLong(i));
+			newIndex[i] = sortedIndex;
+			if (updated.get(i)) {
+				sortedUpdated.set(sortedIndex);
+			}
+		}
+
+		int edgeCount = edgeChildren.size();
+		int[] parentOffsets = new int[nodeCount + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			int child = edgeChildren.getInt(e);
+			if (e >= parentsValidFrom.getInt(child)) {
+				parentOffsets[newIndex[child] + 1]++;
+			}
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			parentOffsets[i + 1] += parentOffsets[i];
+		}
+		int[] parentIndexes = new int[parentOffsets[nodeCount]];
+		int[] cursor = Arrays.copyOf(parentOffsets, nodeCount);
+		for (int e = 0; e < edgeCount; e++) {
+			int child = edgeChildren.getInt(e);
+			if (e >= parentsValidFrom.getInt(child)) {
+				parentIndexes[cursor[newIndex[child]]++] = newIndex[edgeParents.getInt(e)];
+			}
+		}
+
+		// Parents in id order without duplicates so that any loop is always reported the same way
+		int[] compactOffsets = new int[nodeCount + 1];
+		int write = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			int from = parentOffsets[node];
+			int to = parentOffsets[node + 1];
+			IntArrays.quickSort(parentIndexes, from, to);
+			for (int e = from; e < to; e++) {
+				if (e == from || parentIndexes[e] != parentIndexes[e - 1]) {
+					parentIndexes[write++] = parentIndexes[e];
+				}
+			}
+			compactOffsets[node + 1] = write;
+		}
+		return new TransitiveClosure(sortedIds, compactOffsets, Arrays.copyOf(parentIndexes, write), sortedUpdated);
 	}
 }
@@ -0,0 +1,252 @@
+package org.snomed.snowstorm.core.data.services.transitiveclosure;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Transitive closure of a graph held in primitive arrays.
+ * Concepts are identified by their index in the sorted id array, parents are held in CSR format (offset array plus parent index array).
+ * The ancestors of each strongly connected component are calculated once, in topological order, from the ancestors of its parents
+ * so no part of the hierarchy is walked more than once. A component with more than one concept, or a concept which is its own parent, is a loop.
+ */
+public class TransitiveClosure {
+
+	private final long[] ids;
+	private final int[] parentOffsets;
+	private final int[] parentIndexes;
+	private final int[] componentOfNode;
+	private final long[][] componentAncestors;
+	private final BitSet loopComponents;
+	private final BitSet ancestorOrSelfUpdatedComponents;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TransitiveClosure.class);
+
+	/**
+	 * @param ids concept ids in ascending order
+	 * @param parentOffsets parents of node i are at parentIndexes[parentOffsets[i]] until parentIndexes[parentOffsets[i + 1]]
+	 * @param parentIndexes parent node indexes, in ascending order for each node
+	 * @param updated nodes which have updated modelling
+	 */
+	public TransitiveClosure(long[] ids, int[] parentOffsets, int[] parentIndexes, BitSet updated) {
+		this.ids = ids;
+		this.parentOffsets = parentOffsets;
+		this.parentIndexes = parentIndexes;
+		int nodeCount = ids.length;
+		componentOfNode = new int[nodeCount];
+		Arrays.fill(componentOfNode, -1);
+		componentAncestors = new long[nodeCount][];
+		loopComponents = new BitSet();
+		ancestorOrSelfUpdatedComponents = new BitSet();
+		calculate(updated);
+	}
+
+	/**
+	 * Iterative version of Tarjan's strongly connected components algorithm.
+	 * Components are completed in reverse topological order, all parents of a component are complete before the component itself.
+	 */
+	private void calculate(BitSet updated) {
+		int nodeCount = ids.length;
+		int[] discoveryOrder = new int[nodeCount];
+		int[] lowLink = new int[nodeCount];
+		int[] componentStack = new int[nodeCount];
+		BitSet onComponentStack = new BitSet(nodeCount);
+		int[] callStack = new int[nodeCount];
+		int[] edgeCursor = new int[nodeCount];
+		int componentStackSize = 0;
+		int counter = 0;
+		int componentCount = 0;
+
+		for (int start = 0; start < nodeCount; start++) {
+			if (discoveryOrder[start] != 0) {
+				continue;
+			}
+			int callStackSize = 0;
+			discoveryOrder[start] = lowLink[start] = ++counter;
+			componentStack[componentStackSize++] = start;
+			onComponentStack.set(start);
+			callStack[callStackSize] = start;
+			edgeCursor[callStackSize++] = parentOffsets[start];
+
+			while (callStackSize > 0) {
+				int node = callStack[callStackSize - 1];
+				if (edgeCursor[callStackSize - 1] < parentOffsets[node + 1]) {
+					int parent = parentIndexes[edgeCursor[callStackSize - 1]++];
+					if (discoveryOrder[parent] == 0) {
+						discoveryOrder[parent] = lowLink[parent] = ++counter;
+						componentStack[componentStackSize++] = parent;
+						onComponentStack.set(parent);
+						callStack[callStackSize] = parent;
+						edgeCursor[callStackSize++] = parentOffsets[parent];
+					} else if (onComponentStack.get(parent)) {
+						lowLink[node] = Math.min(lowLink[node], discoveryOrder[parent]);
+					}
+				} else {
+					callStackSize--;
+					if (callStackSize > 0) {
+						int child = callStack[callStackSize - 1];
+						lowLink[child] = Math.min(lowLink[child], lowLink[node]);
+					}
+					if (lowLink[node] == discoveryOrder[node]) {
+						// Node is the root of a component, the members are on the stack above it
+						int firstMember = componentStackSize - 1;
+						while (componentStack[firstMember] != node) {
+							firstMember--;
+						}
+						completeComponent(componentCount++, componentStack, firstMember, componentStackSize, updated);
+						for (int i = firstMember; i < componentStackSize; i++) {
+							onComponentStack.clear(componentStack[i]);
+						}
+						componentStackSize = firstMember;
+					}
+				}
+			}
+		}
+	}
+
+	private void completeComponent(int component, int[] members, int from, int to, BitSet updated) {
+		for (int i = from; i < to; i++) {
+			componentOfNode[members[i]] = component;
+		}
+		boolean loop = to - from > 1;
+		boolean ancestorOrSelfUpdated = false;
+		int externalParent = -1;
+		int externalParentCount = 0;
+		for (int i = from; i < to; i++) {
+			int member = members[i];
+			ancestorOrSelfUpdated |= updated.get(member);
+			for (int e = parentOffsets[member]; e < parentOffsets[member + 1]; e++) {
+				int parent = parentIndexes[e];
+				if (parent == member) {
+					loop = true;
+				} else if (componentOfNode[parent] != component) {
+					externalParent = parent;
+					externalParentCount++;
+					ancestorOrSelfUpdated |= ancestorOrSelfUpdatedComponents.get(componentOfNode[parent]);
+				}
+			}
+		}
+
+		long[] ancestors;
+		if (!loop && externalParentCount == 1) {
+			// Most concepts have a single parent, reuse its ancestors without hashing
+			int parentComponent = componentOfNode[externalParent];
+			long[] parentAncestors = componentAncestors[parentComponent];
+			if (loopComponents.get(parentComponent)) {
+				// The ancestors of a loop already include the concepts within it
+				ancestors = parentAncestors.clone();
+			} else {
+				ancestors = Arrays.copyOf(parentAncestors, parentAncestors.length + 1);
+				ancestors[parentAncestors.length] = ids[externalParent];
+			}
+		} else {
+			LongOpenHashSet ancestorSet = new LongOpenHashSet();
+			for (int i = from; i < to; i++) {
+				int member = members[i];
+				for (int e = parentOffsets[member]; e < parentOffsets[member + 1]; e++) {
+					int parent = parentIndexes[e];
+					ancestorSet.add(ids[parent]);
+					if (componentOfNode[parent] != component) {
+						for (long ancestor : componentAncestors[componentOfNode[parent]]) {
+							ancestorSet.add(ancestor);
+						}
+					}
+				}
+			}
+			ancestors = ancestorSet.toLongArray();
+		}
+		componentAncestors[component] = ancestors;
+		if (loop) {
+			loopComponents.set(component);
+		}
+		if (ancestorOrSelfUpdated) {
+			ancestorOrSelfUpdatedComponents.set(component);
+		}
+	}
+
+	/**
+	 * @return the ancestors of the concept, not including the concept itself.
+	 * @throws GraphBuilderException if the concept is part of a loop and throwExceptionIfLoopFound is true.
+	 */
+	public Set<Long> getAncestors(long conceptId, String path, boolean throwExceptionIfLoopFound) throws GraphBuilderException {
+		int index = indexOf(conceptId);
+		int component = componentOfNode[index];
+		LongOpenHashSet ancestors = new LongOpenHashSet(componentAncestors[component]);
+		if (loopComponents.get(component)) {
+			String message = String.format("Loop found in transitive closure for concept %s on branch %s. The concept %s is in its own set of ancestors: %s",
+					conceptId, path, conceptId, getAncestorsInWalkOrder(index));
+			if (throwExceptionIfLoopFound) {
+				throw new GraphBuilderException(message);
+			} else {
+				LOGGER.warn(message);
+			}
+			ancestors.remove(conceptId);
+		}
+		return ancestors;
+	}
+
+	public boolean isAncestorOrSelfUpdated(long conceptId) {
+		return ancestorOrSelfUpdatedComponents.get(componentOfNode[indexOf(conceptId)]);
+	}
+
+	public boolean contains(long conceptId) {
+		return Arrays.binarySearch(ids, conceptId) >= 0;
+	}
+
+	/**
+	 * @return the direct parents of the concept.
+	 */
+	public Set<Long> getParents(long conceptId) {
+		int index = indexOf(conceptId);
+		LongOpenHashSet parents = new LongOpenHashSet(parentOffsets[index + 1] - parentOffsets[index]);
+		for (int e = parentOffsets[index]; e < parentOffsets[index + 1]; e++) {
+			parents.add(ids[parentIndexes[e]]);
+		}
+		return parents;
+	}
+
+	public boolean hasParents(long conceptId) {
+		int index = indexOf(conceptId);
+		return parentOffsets[index + 1] > parentOffsets[index];
+	}
+
+	/**
+	 * @return all concept ids in the graph, in ascending order.
+	 */
+	public long[] getConceptIds() {
+		return ids;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	// Depth first walk, only used to explain a loop
+	private Set<Long> getAncestorsInWalkOrder(int index) {
+		Set<Long> ancestors = new LinkedHashSet<>();
+		walk(index, ancestors);
+		return ancestors;
+	}
+
+	private void walk(int index, Set<Long> ancestors) {
+		for (int e = parentOffsets[index]; e < parentOffsets[index + 1]; e++) {
+			int parent = parentIndexes[e];
+			if (ancestors.add(ids[parent])) {
+				walk(parent, ancestors);
+			}
+		}
+	}
+
+	private int indexOf(long conceptId) {
+		int index = Arrays.binarySearch(ids, conceptId);
+		if (index < 0) {
+			throw new IllegalArgumentException("Concept " + conceptId + " is not in the graph.");
+		}
+		return index;
+	}
+}
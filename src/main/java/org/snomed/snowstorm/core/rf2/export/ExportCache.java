@@ -0,0 +1,246 @@
+package org.snomed.snowstorm.core.rf2.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Files of the last export of a branch, stored on disk with the branch timepoints they represent.
+ * The next export of the branch can then start from these files and only read the components which have changed since.
+ * There is a directory per branch holding a directory per export type. Exports which have not been used for maxAge are deleted,
+ * as are the least recently used exports while the total size of the cache is above maxBytes.
+ * Each export records a filter key, the export inputs other than the branch timepoints, and is only reused by an export with the same key.
+ */
+class ExportCache {
+
+	private static final String STATE_FILE = "state.properties";
+	private static final String VERSIONS_REPLACED_FILE = "versions-replaced.txt";
+	private static final String HEAD = "head";
+	private static final String BASE = "base";
+	private static final String FILTER = "filter";
+	private static final String STAGING_SUFFIX = ".staging";
+
+	private final File directory;
+	private final Duration maxAge;
+	private final long maxBytes;
+
+	// Export directories of exports in progress, these are not evicted
+	private final Set<File> exportsInProgress = new HashSet<>();
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	ExportCache(File directory, Duration maxAge, long maxBytes) {
+		this.directory = directory;
+		this.maxAge = maxAge;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Starts an export which may use the cached export. The cached export is not evicted until the update is committed or aborted.
+	 */
+	synchronized Update startUpdate(String branchPath, String exportName) throws IOException {
+		File exportDirectory = getExportDirectory(branchPath, exportName);
+		File stagingDirectory = new File(exportDirectory.getParentFile(), exportDirectory.getName() + STAGING_SUFFIX);
+		FileSystemUtils.deleteRecursively(stagingDirectory);
+		Files.createDirectories(stagingDirectory.toPath());
+		exportsInProgress.add(exportDirectory);
+		return new Update(exportDirectory, stagingDirectory);
+	}
+
+	/**
+	 * @return the cached export or null if there is no complete cached export for the update with the same filter key.
+	 */
+	CachedExport load(Update update, String filterKey) {
+		File exportDirectory = update.exportDirectory;
+		File stateFile = new File(exportDirectory, STATE_FILE);
+		if (!stateFile.isFile()) {
+			return null;
+		}
+		try {
+			Properties state = new Properties();
+			try (InputStream inputStream = new FileInputStream(stateFile)) {
+				state.load(inputStream);
+			}
+			if (!filterKey.equals(state.getProperty(FILTER))) {
+				logger.info("Not using cached export {}, the export filter has changed.", exportDirectory);
+				return null;
+			}
+			Map<String, Set<String>> versionsReplaced = new HashMap<>();
+			try (BufferedReader reader = Files.newBufferedReader(new File(exportDirectory, VERSIONS_REPLACED_FILE).toPath(), StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					versionsReplaced.computeIfAbsent(line.substring(0, tab), key -> new HashSet<>()).add(line.substring(tab + 1));
+				}
+			}
+			return new CachedExport(exportDirectory, Long.parseLong(state.getProperty(HEAD)), Long.parseLong(state.getProperty(BASE)), versionsReplaced);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Ignoring unreadable export cache {}.", exportDirectory, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the cached exports of a branch, for example when the content of the branch has been promoted.
+	 * Must not be called while the branch is being exported.
+	 */
+	synchronized void evictBranch(String branchPath) {
+		File branchDirectory = new File(directory, encode(branchPath));
+		if (branchDirectory.isDirectory()) {
+			logger.info("Deleting cached exports of {}.", branchPath);
+			FileSystemUtils.deleteRecursively(branchDirectory);
+		}
+	}
+
+	/**
+	 * Deletes cached exports of branches which no longer exist, exports not used within maxAge and the least recently used exports above maxBytes.
+	 */
+	synchronized void evict(Predicate<String> branchExists) {
+		File[] branchDirectories = directory.listFiles(File::isDirectory);
+		if (branchDirectories == null) {
+			return;
+		}
+		long expiredBefore = System.currentTimeMillis() - maxAge.toMillis();
+		List<File> exportDirectories = new ArrayList<>();
+		for (File branchDirectory : branchDirectories) {
+			String branchPath = URLDecoder.decode(branchDirectory.getName(), StandardCharsets.UTF_8);
+			if (!branchExists.test(branchPath)) {
+				evictBranch(branchPath);
+				continue;
+			}
+			File[] files = branchDirectory.listFiles(File::isDirectory);
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				if (file.getName().endsWith(STAGING_SUFFIX)) {
+					// Left behind if the application stopped during an export
+					File exportDirectory = new File(branchDirectory, file.getName().substring(0, file.getName().length() - STAGING_SUFFIX.length()));
+					if (!exportsInProgress.contains(exportDirectory) && file.lastModified() < expiredBefore) {
+						FileSystemUtils.deleteRecursively(file);
+					}
+				} else if (!exportsInProgress.contains(file)) {
+					exportDirectories.add(file);
+				}
+			}
+		}
+		// Most recently used first, the state file is rewritten by each export
+		exportDirectories.sort(Comparator.comparingLong(ExportCache::getLastUsed).reversed());
+		long retainedBytes = 0;
+		for (File exportDirectory : exportDirectories) {
+			long size = getSize(exportDirectory);
+			if (retainedBytes + size > maxBytes || getLastUsed(exportDirectory) < expiredBefore) {
+				logger.info("Deleting cached export {}.", exportDirectory);
+				FileSystemUtils.deleteRecursively(exportDirectory);
+			} else {
+				retainedBytes += size;
+			}
+		}
+		for (File branchDirectory : branchDirectories) {
+			String[] remaining = branchDirectory.list();
+			if (remaining != null && remaining.length == 0) {
+				FileSystemUtils.deleteRecursively(branchDirectory);
+			}
+		}
+	}
+
+	private synchronized void completeUpdate(File exportDirectory) {
+		exportsInProgress.remove(exportDirectory);
+	}
+
+	private File getExportDirectory(String branchPath, String exportName) {
+		return new File(new File(directory, encode(branchPath)), encode(exportName));
+	}
+
+	private static long getLastUsed(File exportDirectory) {
+		// Zero, the oldest, when there is no state file
+		return new File(exportDirectory, STATE_FILE).lastModified();
+	}
+
+	private static long getSize(File exportDirectory) {
+		long size = 0;
+		File[] files = exportDirectory.listFiles(File::isFile);
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	private static String encode(String name) {
+		return URLEncoder.encode(name, StandardCharsets.UTF_8);
+	}
+
+	record CachedExport(File directory, long head, long base, Map<String, Set<String>> versionsReplaced) {
+
+		/**
+		 * @return the cached file content or null if the entry was not part of the cached export.
+		 */
+		File getEntryFile(String entryKey) {
+			File file = new File(directory, encode(entryKey));
+			return file.isFile() ? file : null;
+		}
+	}
+
+	/**
+	 * New content for a cache key. The previous content is only replaced when the update is committed.
+	 */
+	class Update {
+
+		private final File exportDirectory;
+		private final File stagingDirectory;
+
+		private Update(File exportDirectory, File stagingDirectory) {
+			this.exportDirectory = exportDirectory;
+			this.stagingDirectory = stagingDirectory;
+		}
+
+		OutputStream openEntry(String entryKey) throws IOException {
+			return new BufferedOutputStream(new FileOutputStream(new File(stagingDirectory, encode(entryKey))));
+		}
+
+		void commit(long head, long base, String filterKey, Map<String, Set<String>> versionsReplaced) throws IOException {
+			try {
+				try (BufferedWriter writer = Files.newBufferedWriter(new File(stagingDirectory, VERSIONS_REPLACED_FILE).toPath(), StandardCharsets.UTF_8)) {
+					for (Map.Entry<String, Set<String>> entry : versionsReplaced.entrySet()) {
+						for (String internalId : entry.getValue()) {
+							writer.write(entry.getKey());
+							writer.write('\t');
+							writer.write(internalId);
+							writer.newLine();
+						}
+					}
+				}
+				// The state file is written last, the cache is not used without it
+				Properties state = new Properties();
+				state.setProperty(HEAD, Long.toString(head));
+				state.setProperty(BASE, Long.toString(base));
+				state.setProperty(FILTER, filterKey);
+				try (OutputStream outputStream = new FileOutputStream(new File(stagingDirectory, STATE_FILE))) {
+					state.store(outputStream, null);
+				}
+				FileSystemUtils.deleteRecursively(exportDirectory);
+				if (!stagingDirectory.renameTo(exportDirectory)) {
+					throw new IOException("Failed to move export cache into place " + exportDirectory);
+				}
+			} finally {
+				completeUpdate(exportDirectory);
+			}
+		}
+
+		void abort() {
+			FileSystemUtils.deleteRecursively(stagingDirectory);
+			completeUpdate(exportDirectory);
+		}
+	}
+}
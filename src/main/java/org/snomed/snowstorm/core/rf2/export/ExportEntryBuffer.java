@@ -0,0 +1,70 @@
+package org.snomed.snowstorm.core.rf2.export;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Holds the content of one export file while it waits to be written into the zip.
+ * Content is held in memory until it grows beyond the limit, after that it is written to a temp file.
+ */
+class ExportEntryBuffer extends OutputStream {
+
+	private final int maxMemoryBytes;
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+	private File file;
+	private OutputStream fileStream;
+	private int contentLines;
+
+	ExportEntryBuffer(int maxMemoryBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		getStream(1).write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		getStream(len).write(b, off, len);
+	}
+
+	private OutputStream getStream(int bytesToWrite) throws IOException {
+		if (fileStream == null && memory.size() + bytesToWrite > maxMemoryBytes) {
+			file = File.createTempFile("export-entry-", ".txt");
+			fileStream = new BufferedOutputStream(new FileOutputStream(file));
+			memory.writeTo(fileStream);
+			memory = null;
+		}
+		return fileStream != null ? fileStream : memory;
+	}
+
+	void writeTo(OutputStream outputStream) throws IOException {
+		if (fileStream != null) {
+			fileStream.flush();
+			Files.copy(file.toPath(), outputStream);
+		} else {
+			memory.writeTo(outputStream);
+		}
+	}
+
+	int getContentLines() {
+		return contentLines;
+	}
+
+	void setContentLines(int contentLines) {
+		this.contentLines = contentLines;
+	}
+
+	/**
+	 * Releases the content.
+	 */
+	@Override
+	public void close() throws IOException {
+		memory = null;
+		if (fileStream != null) {
+			fileStream.close();
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+}
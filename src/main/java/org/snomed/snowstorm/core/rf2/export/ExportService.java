@@ -4,11 +4,16 @@ import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.json.JsonData;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.CommitListener;
 import io.kaicode.elasticvc.api.VersionControlHelper;
-
+import io.kaicode.elasticvc.domain.Branch;
+import io.kaicode.elasticvc.domain.Commit;
+import jakarta.annotation.PreDestroy;
 import org.apache.tomcat.util.http.fileupload.util.Streams;
 
 import org.slf4j.Logger;
@@ -21,29 +26,36 @@ import org.snomed.snowstorm.core.data.services.*;
 import org.snomed.snowstorm.core.rf2.RF2Type;
 import org.snomed.snowstorm.core.util.DateUtil;
 import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
-import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
 import static java.lang.String.format;
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.*;
 import static io.kaicode.elasticvc.helper.QueryHelper.*;
 
 @Service
-public class ExportService {
+public class ExportService implements CommitListener {
 
 	private final VersionControlHelper versionControlHelper;
 	private final ElasticsearchOperations elasticsearchOperations;
@@ -54,8 +66,27 @@ public class ExportService {
 	private final CodeSystemService codeSystemService;
 	private final ExecutorService executorService;
 	private final SBranchService sBranchService;
-
-	public ExportService(VersionControlHelper versionControlHelper, ElasticsearchOperations elasticsearchOperations, QueryService queryService, ExportConfigurationRepository exportConfigurationRepository, BranchService branchService, BranchMetadataHelper branchMetadataHelper, CodeSystemService codeSystemService, ExecutorService executorService, SBranchService sBranchService) {
+	private final ExecutorService entryExecutorService;
+	private final int parallelEntries;
+	private final int entryBufferMemoryBytes;
+	private final ExportCache exportCache;
+
+	// Above this number of changed components the cached export is not reused
+	private static final int MAX_INCREMENTAL_CHANGES = 50_000;
+	private static final List<Class<? extends SnomedComponent<?>>> INCREMENTAL_COMPONENT_CLASSES =
+			List.of(Concept.class, Description.class, Relationship.class, ReferenceSetMember.class);
+
+	private static final Map<Class<?>, String> ID_FIELDS = Map.of(
+			Concept.class, Concept.Fields.CONCEPT_ID,
+			Description.class, Description.Fields.DESCRIPTION_ID,
+			Relationship.class, Relationship.Fields.RELATIONSHIP_ID,
+			Identifier.class, Identifier.Fields.INTERNAL_IDENTIFIER_ID,
+			ReferenceSetMember.class, ReferenceSetMember.Fields.MEMBER_ID);
+
+	public ExportService(VersionControlHelper versionControlHelper, ElasticsearchOperations elasticsearchOperations, QueryService queryService, ExportConfigurationRepository exportConfigurationRepository, BranchService branchService, BranchMetadataHelper branchMetadataHelper, CodeSystemService codeSystemService, ExecutorService executorService, SBranchService sBranchService,
+			@Value("${export.parallel-entries:4}") int parallelEntries, @Value("${export.entry-buffer-memory-mb:64}") int entryBufferMemoryMb,
+			@Value("${export.cache.enabled:false}") boolean cacheEnabled, @Value("${export.cache.directory:store/export-cache/}") String cacheDirectory,
+			@Value("${export.cache.max-age-hours:72}") int cacheMaxAgeHours, @Value("${export.cache.max-size-mb:10240}") long cacheMaxSizeMb) {
 		this.versionControlHelper = versionControlHelper;
 		this.elasticsearchOperations = elasticsearchOperations;
 		this.queryService = queryService;
@@ -65,6 +96,36 @@ public class ExportService {
 		this.codeSystemService = codeSystemService;
 		this.executorService = executorService;
 		this.sBranchService = sBranchService;
+		this.parallelEntries = Math.max(1, parallelEntries);
+		this.entryBufferMemoryBytes = entryBufferMemoryMb * 1024 * 1024;
+		this.exportCache = cacheEnabled ? new ExportCache(new File(cacheDirectory), Duration.ofHours(cacheMaxAgeHours), cacheMaxSizeMb * 1024 * 1024) : null;
+		entryExecutorService = Executors.newFixedThreadPool(this.parallelEntries, new ThreadFactoryBuilder().setNameFormat("rf2-export-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		entryExecutorService.shutdownNow();
+	}
+
+	@Override
+	public void preCommitCompletion(Commit commit) throws IllegalStateException {
+		if (exportCache == null) {
+			return;
+		}
+		// The source branch of a promotion is locked by the commit so it is not being exported
+		if (commit.getCommitType() == Commit.CommitType.PROMOTION) {
+			exportCache.evictBranch(commit.getSourceBranchPath());
+		} else if (commit.getCommitType() == Commit.CommitType.REBASE) {
+			// The base of the branch has changed so the cached export can not be reused
+			exportCache.evictBranch(commit.getBranch().getPath());
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${export.cache.eviction-interval-ms:600000}", initialDelay = 60_000)
+	public void evictExportCache() {
+		if (exportCache != null) {
+			exportCache.evict(branchService::exists);
+		}
 	}
 
 	private final Set<String> refsetTypesRequiredForClassification = Sets.newHashSet(Concepts.REFSET_MRCM_ATTRIBUTE_DOMAIN, Concepts.OWL_EXPRESSION_TYPE_REFERENCE_SET, Concepts.MODULE_DEPENDENCY_REFERENCE_SET);
@@ -72,8 +133,8 @@ public class ExportService {
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	public String createJob(ExportConfiguration exportConfiguration) {
-		if (exportConfiguration.getType() == RF2Type.FULL) {
-			throw new IllegalArgumentException("FULL RF2 export is not implemented.");
+		if (exportConfiguration.getType() == RF2Type.FULL && exportConfiguration.isUnpromotedChangesOnly()) {
+			throw new IllegalArgumentException("The unpromotedChangesOnly parameter can not be used with the FULL export type.");
 		}
 		if (exportConfiguration.getStartEffectiveTime() != null && exportConfiguration.getType() != RF2Type.SNAPSHOT) {
 			throw new IllegalArgumentException("The startEffectiveTime parameter can only be used with the SNAPSHOT export type.");
@@ -106,10 +167,18 @@ public class ExportService {
 			exportConfigurationRepository.save(exportConfiguration);
 		}
 
-		File exportFile = exportRF2ArchiveFile(exportConfiguration.getBranchPath(), exportConfiguration.getFilenameEffectiveDate(),
-				exportConfiguration.getType(), exportConfiguration.isConceptsAndRelationshipsOnly(), exportConfiguration.isUnpromotedChangesOnly(),
-				exportConfiguration.getTransientEffectiveTime(), exportConfiguration.getStartEffectiveTime(), exportConfiguration.getModuleIds(),
-				exportConfiguration.isLegacyZipNaming(), exportConfiguration.getRefsetIds(), exportConfiguration.getId());
+		// The archive is written to a file first so that the branch is not locked while the client downloads it
+		File exportFile;
+		try {
+			exportFile = exportRF2ArchiveFile(exportConfiguration.getBranchPath(), exportConfiguration.getFilenameEffectiveDate(),
+					exportConfiguration.getType(), exportConfiguration.isConceptsAndRelationshipsOnly(), exportConfiguration.isUnpromotedChangesOnly(),
+					exportConfiguration.getTransientEffectiveTime(), exportConfiguration.getStartEffectiveTime(), exportConfiguration.getModuleIds(),
+					exportConfiguration.isLegacyZipNaming(), exportConfiguration.getRefsetIds(), exportConfiguration.getId(), false);
+		} catch (ExportException e) {
+			exportConfiguration.setStatus(ExportStatus.FAILED);
+			exportConfigurationRepository.save(exportConfiguration);
+			throw e;
+		}
 		logger.info("Transmitting " + exportConfiguration.getId() + " export file " + exportFile);
 		try (FileInputStream inputStream = new FileInputStream(exportFile)) {
 			long fileSize = Files.size(exportFile.toPath());
@@ -127,8 +196,13 @@ public class ExportService {
 		}
 	}
 
+	/**
+	 * Exports the whole branch content. Used repeatedly on the same branch, for example for classification,
+	 * so the previous export of the branch is reused when the export cache is enabled.
+	 */
 	public File exportRF2ArchiveFile(String branchPath, String filenameEffectiveDate, RF2Type exportType, boolean forClassification) throws ExportException {
-		return exportRF2ArchiveFile(branchPath, filenameEffectiveDate, exportType, forClassification, false, null, null, new HashSet<>(), true, new HashSet<>(), null);
+		return exportRF2ArchiveFile(branchPath, filenameEffectiveDate, exportType, forClassification, false, null, null, new HashSet<>(), true, new HashSet<>(), null,
+				exportCache != null && exportType != RF2Type.FULL);
 	}
 
 	public void exportRF2ArchiveAsync(ExportConfiguration exportConfiguration) {
@@ -148,7 +222,7 @@ public class ExportService {
 				file = exportRF2ArchiveFile(exportConfiguration.getBranchPath(), exportConfiguration.getFilenameEffectiveDate(),
 						exportConfiguration.getType(), exportConfiguration.isConceptsAndRelationshipsOnly(), exportConfiguration.isUnpromotedChangesOnly(),
 						exportConfiguration.getTransientEffectiveTime(), exportConfiguration.getStartEffectiveTime(), exportConfiguration.getModuleIds(),
-						exportConfiguration.isLegacyZipNaming(), exportConfiguration.getRefsetIds(), exportConfiguration.getId());
+						exportConfiguration.isLegacyZipNaming(), exportConfiguration.getRefsetIds(), exportConfiguration.getId(), false);
 
 				exportConfiguration.setExportFilePath(file.getAbsolutePath());
 				exportConfiguration.setStatus(ExportStatus.COMPLETED);
@@ -191,11 +265,30 @@ public class ExportService {
 
 	private File exportRF2ArchiveFile(String branchPath, String filenameEffectiveDate, RF2Type exportType, boolean forClassification,
 			boolean unpromotedChangesOnly, String transientEffectiveTime, String startEffectiveTime, Set<String> moduleIds,
-			boolean legacyZipNaming, Set<String> refsetIds, String exportId) throws ExportException {
+			boolean legacyZipNaming, Set<String> refsetIds, String exportId, boolean useCache) throws ExportException {
 
-		if (exportType == RF2Type.FULL) {
-			throw new IllegalArgumentException("FULL RF2 export is not implemented.");
+		File exportFile;
+		try {
+			exportFile = File.createTempFile("export-" + new Date().getTime(), ".zip");
+		} catch (IOException e) {
+			throw new ExportException("Failed to create RF2 zip file.", e);
+		}
+		try (FileOutputStream outputStream = new FileOutputStream(exportFile)) {
+			writeRF2Archive(branchPath, filenameEffectiveDate, exportType, forClassification, unpromotedChangesOnly, transientEffectiveTime, startEffectiveTime,
+					moduleIds, legacyZipNaming, refsetIds, exportId, useCache, outputStream);
+			return exportFile;
+		} catch (IOException | ExportException e) {
+			exportFile.delete();
+			if (e instanceof ExportException exportException) {
+				throw exportException;
+			}
+			throw new ExportException("Failed to write RF2 zip file.", e);
 		}
+	}
+
+	private void writeRF2Archive(String branchPath, String filenameEffectiveDate, RF2Type exportType, boolean forClassification,
+			boolean unpromotedChangesOnly, String transientEffectiveTime, String startEffectiveTime, Set<String> moduleIds,
+			boolean legacyZipNaming, Set<String> refsetIds, String exportId, boolean useCache, OutputStream outputStream) throws ExportException {
 
 		String exportStr = exportId == null ? "" : (" - " + exportId);
 		logger.info("Starting {} export of {}{}", exportType, branchPath, exportStr);
@@ -203,6 +296,8 @@ public class ExportService {
 
 		BranchCriteria allContentBranchCriteria = versionControlHelper.getBranchCriteria(branchPath);
 		BranchCriteria selectionBranchCriteria = unpromotedChangesOnly ? versionControlHelper.getChangesOnBranchCriteria(branchPath) : allContentBranchCriteria;
+		// A full export also includes the released states which have since been replaced
+		Query releasedVersionsCriteria = exportType == RF2Type.FULL ? getReleasedVersionsCriteria(branchPath) : null;
 
 		String entryDirectoryPrefix = "SnomedCT_Export/RF2Release/";
 		String codeSystemRF2Name = "INT";
@@ -214,125 +309,334 @@ public class ExportService {
 				codeSystemRF2Name = codeSystem.getShortCode();
 			}
 		}
+		String entryFilenameSuffix = format("%s_%s_%s.txt", exportType.getName(), codeSystemRF2Name, filenameEffectiveDate);
 
+		IncrementalExport incrementalExport = null;
 		try {
 			branchService.lockBranch(branchPath, branchMetadataHelper.getBranchLockMetadata("Exporting RF2 " + exportType.getName()));
-			File exportFile = File.createTempFile("export-" + new Date().getTime(), ".zip");
-			try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(exportFile))) {
-
-				boolean refsetOnlyExport = refsetIds != null && !refsetIds.isEmpty();
-
-				if (!refsetOnlyExport) {
-					// Write Concepts
-					int conceptLines = exportComponents(Concept.class, entryDirectoryPrefix, "Terminology/", "sct2_Concept_", filenameEffectiveDate, exportType, zipOutputStream,
-							getContentQuery(exportType, moduleIds, startEffectiveTime, selectionBranchCriteria.getEntityBranchCriteria(Concept.class)).build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} concept states exported", conceptLines);
-
-					if (!forClassification) {
-						// Write Descriptions
-						Query descriptionBranchCriteria = selectionBranchCriteria.getEntityBranchCriteria(Description.class);
-						BoolQuery.Builder descriptionContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, descriptionBranchCriteria);
-						descriptionContentQuery.mustNot(termQuery(Description.Fields.TYPE_ID, Concepts.TEXT_DEFINITION));
-						int descriptionLines = exportComponents(Description.class, entryDirectoryPrefix, "Terminology/", "sct2_Description_", filenameEffectiveDate, exportType, zipOutputStream,
-								descriptionContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-						logger.info("{} description states exported", descriptionLines);
-
-						// Write Text Definitions
-						BoolQuery.Builder textDefinitionContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, descriptionBranchCriteria);
-						textDefinitionContentQuery.must(termQuery(Description.Fields.TYPE_ID, Concepts.TEXT_DEFINITION));
-						int textDefinitionLines = exportComponents(Description.class, entryDirectoryPrefix, "Terminology/", "sct2_TextDefinition_", filenameEffectiveDate, exportType, zipOutputStream,
-								textDefinitionContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-						logger.info("{} text defintion states exported", textDefinitionLines);
-					}
-
-					// Write Stated Relationships
-					Query relationshipBranchCritera = selectionBranchCriteria.getEntityBranchCriteria(Relationship.class);
-					BoolQuery.Builder relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipBranchCritera);
-					relationshipQuery.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.STATED_RELATIONSHIP));
-					int statedRelationshipLines = exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_StatedRelationship_", filenameEffectiveDate, exportType, zipOutputStream,
-							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} stated relationship states exported", statedRelationshipLines);
-
-					// Write Inferred non-concrete Relationships
-					relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipBranchCritera);
-					// Not 'stated' will include inferred and additional
-					relationshipQuery.mustNot(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.STATED_RELATIONSHIP));
-					relationshipQuery.must(existsQuery(Relationship.Fields.DESTINATION_ID));
-					int inferredRelationshipLines = exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_Relationship_", filenameEffectiveDate, exportType, zipOutputStream,
-							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} inferred (non-concrete) and additional relationship states exported", inferredRelationshipLines);
-
-					// Write Concrete Inferred Relationships
-					relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipBranchCritera);
-					relationshipQuery.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.INFERRED_RELATIONSHIP));
-					relationshipQuery.must(existsQuery(Relationship.Fields.VALUE));
-					int inferredConcreteRelationshipLines = exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_RelationshipConcreteValues_", filenameEffectiveDate, exportType,
-							zipOutputStream,
-							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} concrete inferred relationship states exported", inferredConcreteRelationshipLines);
-
-					// Write Identifiers
-					BoolQuery.Builder identifierContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, selectionBranchCriteria.getEntityBranchCriteria(Identifier.class));
-					int identifierLines = exportComponents(Identifier.class, entryDirectoryPrefix, "Terminology/", "sct2_Identifier_", filenameEffectiveDate, exportType, zipOutputStream,
-							identifierContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} identifier states exported", identifierLines);
+			List<ExportEntry> entries = new ArrayList<>();
+
+			boolean refsetOnlyExport = refsetIds != null && !refsetIds.isEmpty();
+
+			if (!refsetOnlyExport) {
+				String terminologyDirectory = entryDirectoryPrefix + "Terminology/";
+
+				// Concepts
+				Query conceptCriteria = getSelectionCriteria(selectionBranchCriteria.getEntityBranchCriteria(Concept.class), releasedVersionsCriteria);
+				entries.add(new ExportEntry(Concept.class, terminologyDirectory + "sct2_Concept_" + entryFilenameSuffix,
+						getContentQuery(exportType, moduleIds, startEffectiveTime, conceptCriteria).build()._toQuery(), null, false, false, "concept states"));
+
+				if (!forClassification) {
+					// Descriptions
+					Query descriptionCriteria = getSelectionCriteria(selectionBranchCriteria.getEntityBranchCriteria(Description.class), releasedVersionsCriteria);
+					BoolQuery.Builder descriptionContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, descriptionCriteria);
+					descriptionContentQuery.mustNot(termQuery(Description.Fields.TYPE_ID, Concepts.TEXT_DEFINITION));
+					entries.add(new ExportEntry(Description.class, terminologyDirectory + "sct2_Description_" + entryFilenameSuffix,
+							descriptionContentQuery.build()._toQuery(), null, false, false, "description states"));
+
+					// Text Definitions
+					BoolQuery.Builder textDefinitionContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, descriptionCriteria);
+					textDefinitionContentQuery.must(termQuery(Description.Fields.TYPE_ID, Concepts.TEXT_DEFINITION));
+					entries.add(new ExportEntry(Description.class, terminologyDirectory + "sct2_TextDefinition_" + entryFilenameSuffix,
+							textDefinitionContentQuery.build()._toQuery(), null, false, false, "text definition states"));
 				}
 
-				// Write Reference Sets
-				List<ReferenceSetType> referenceSetTypes = getReferenceSetTypes(allContentBranchCriteria.getEntityBranchCriteria(ReferenceSetType.class)).stream()
-						.filter(type -> !forClassification || refsetTypesRequiredForClassification.contains(type.getConceptId()))
-						.collect(Collectors.toList());
-
-				logger.info("{} Reference Set Types found for this export: {}", referenceSetTypes.size(), referenceSetTypes);
-
-				Query memberBranchCriteria = selectionBranchCriteria.getEntityBranchCriteria(ReferenceSetMember.class);
-				Set<String> moduleIdsBackup = moduleIds;
-				for (ReferenceSetType referenceSetType : referenceSetTypes) {
-					List<Long> refsetsOfThisType = new ArrayList<>(queryService.findDescendantIdsAsUnion(allContentBranchCriteria, true, Collections.singleton(Long.parseLong(referenceSetType.getConceptId()))));
-					refsetsOfThisType.add(Long.parseLong(referenceSetType.getConceptId()));
-					for (Long refsetToExport : refsetsOfThisType) {
-						if (!refsetOnlyExport || refsetIds.contains(refsetToExport.toString())) {
-							if (Concepts.MODULE_DEPENDENCY_REFERENCE_SET.equals(String.valueOf(refsetToExport))) {
-								moduleIds.addAll(sBranchService.getModules(branchPath));
-							}
-
-							BoolQuery.Builder memberQueryBuilder = getContentQuery(exportType, moduleIds, startEffectiveTime, memberBranchCriteria);
-							memberQueryBuilder.must(termQuery(ReferenceSetMember.Fields.REFSET_ID, refsetToExport));
-							Query memberQuery = memberQueryBuilder.build()._toQuery();
-							long memberCount = elasticsearchOperations.count(getNativeSearchQuery(memberQuery), ReferenceSetMember.class);
-							if (memberCount > 0) {
-								logger.info("Exporting Reference Set {} {} with {} members", refsetToExport, referenceSetType.getName(), memberCount);
-								String exportDir = referenceSetType.getExportDir();
-								String entryDirectory = !exportDir.startsWith("/") ? "Refset/" + exportDir + "/" : exportDir.substring(1) + "/";
-								String entryFilenamePrefix = (!entryDirectory.startsWith("Terminology/") ? "der2_" : "sct2_") + referenceSetType.getFieldTypes() + "Refset_" + referenceSetType.getName() + (refsetsOfThisType.size() > 1 ? refsetToExport : "");
-								exportComponents(
-										ReferenceSetMember.class,
-										entryDirectoryPrefix, entryDirectory,
-										entryFilenamePrefix,
-										filenameEffectiveDate,
-										exportType,
-										zipOutputStream,
-										memberQuery,
-										transientEffectiveTime,
-										referenceSetType.getFieldNameList(),
-										codeSystemRF2Name,
-										null);
-							}
-							moduleIds = moduleIdsBackup;
+				// Stated Relationships
+				Query relationshipCriteria = getSelectionCriteria(selectionBranchCriteria.getEntityBranchCriteria(Relationship.class), releasedVersionsCriteria);
+				BoolQuery.Builder relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipCriteria);
+				relationshipQuery.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.STATED_RELATIONSHIP));
+				entries.add(new ExportEntry(Relationship.class, terminologyDirectory + "sct2_StatedRelationship_" + entryFilenameSuffix,
+						relationshipQuery.build()._toQuery(), null, false, false, "stated relationship states"));
+
+				// Inferred non-concrete Relationships
+				relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipCriteria);
+				// Not 'stated' will include inferred and additional
+				relationshipQuery.mustNot(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.STATED_RELATIONSHIP));
+				relationshipQuery.must(existsQuery(Relationship.Fields.DESTINATION_ID));
+				entries.add(new ExportEntry(Relationship.class, terminologyDirectory + "sct2_Relationship_" + entryFilenameSuffix,
+						relationshipQuery.build()._toQuery(), null, false, false, "inferred (non-concrete) and additional relationship states"));
+
+				// Concrete Inferred Relationships
+				relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipCriteria);
+				relationshipQuery.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.INFERRED_RELATIONSHIP));
+				relationshipQuery.must(existsQuery(Relationship.Fields.VALUE));
+				entries.add(new ExportEntry(Relationship.class, terminologyDirectory + "sct2_RelationshipConcreteValues_" + entryFilenameSuffix,
+						relationshipQuery.build()._toQuery(), null, true, false, "concrete inferred relationship states"));
+
+				// Identifiers
+				Query identifierCriteria = getSelectionCriteria(selectionBranchCriteria.getEntityBranchCriteria(Identifier.class), releasedVersionsCriteria);
+				entries.add(new ExportEntry(Identifier.class, terminologyDirectory + "sct2_Identifier_" + entryFilenameSuffix,
+						getContentQuery(exportType, moduleIds, startEffectiveTime, identifierCriteria).build()._toQuery(), null, false, false, "identifier states"));
+			}
+
+			// Reference Sets
+			List<ReferenceSetType> referenceSetTypes = getReferenceSetTypes(allContentBranchCriteria.getEntityBranchCriteria(ReferenceSetType.class)).stream()
+					.filter(type -> !forClassification || refsetTypesRequiredForClassification.contains(type.getConceptId()))
+					.collect(Collectors.toList());
+
+			logger.info("{} Reference Set Types found for this export: {}", referenceSetTypes.size(), referenceSetTypes);
+
+			Query memberCriteria = getSelectionCriteria(selectionBranchCriteria.getEntityBranchCriteria(ReferenceSetMember.class), releasedVersionsCriteria);
+			for (ReferenceSetType referenceSetType : referenceSetTypes) {
+				List<Long> refsetsOfThisType = new ArrayList<>(queryService.findDescendantIdsAsUnion(allContentBranchCriteria, true, Collections.singleton(Long.parseLong(referenceSetType.getConceptId()))));
+				refsetsOfThisType.add(Long.parseLong(referenceSetType.getConceptId()));
+				for (Long refsetToExport : refsetsOfThisType) {
+					if (!refsetOnlyExport || refsetIds.contains(refsetToExport.toString())) {
+						Set<String> refsetModuleIds = moduleIds;
+						if (Concepts.MODULE_DEPENDENCY_REFERENCE_SET.equals(String.valueOf(refsetToExport))) {
+							refsetModuleIds = moduleIds != null ? new HashSet<>(moduleIds) : new HashSet<>();
+							refsetModuleIds.addAll(sBranchService.getModules(branchPath));
 						}
+
+						BoolQuery.Builder memberQueryBuilder = getContentQuery(exportType, refsetModuleIds, startEffectiveTime, memberCriteria);
+						memberQueryBuilder.must(termQuery(ReferenceSetMember.Fields.REFSET_ID, refsetToExport));
+						String exportDir = referenceSetType.getExportDir();
+						String entryDirectory = !exportDir.startsWith("/") ? "Refset/" + exportDir + "/" : exportDir.substring(1) + "/";
+						String entryFilenamePrefix = (!entryDirectory.startsWith("Terminology/") ? "der2_" : "sct2_") + referenceSetType.getFieldTypes() + "Refset_" + referenceSetType.getName() + (refsetsOfThisType.size() > 1 ? refsetToExport : "");
+						// Files are only written for reference sets with members
+						entries.add(new ExportEntry(ReferenceSetMember.class, entryDirectoryPrefix + entryDirectory + entryFilenamePrefix + entryFilenameSuffix,
+								memberQueryBuilder.build()._toQuery(), referenceSetType.getFieldNameList(), false, true,
+								format("Reference Set %s %s members", refsetToExport, referenceSetType.getName())));
 					}
 				}
 			}
 
+			if (useCache) {
+				incrementalExport = startIncrementalExport(branchPath, exportType.getName() + (forClassification ? "_classification" : ""), entryFilenameSuffix,
+						getCacheFilterKey(branchPath, moduleIds, transientEffectiveTime, startEffectiveTime));
+			}
+
+			writeEntries(entries, exportType, transientEffectiveTime, incrementalExport, outputStream);
+
+			if (incrementalExport != null) {
+				Branch branch = incrementalExport.branch();
+				try {
+					incrementalExport.update().commit(branch.getHead().getTime(), branch.getBase().getTime(), incrementalExport.filterKey(), branch.getVersionsReplaced());
+					incrementalExport = null;
+				} catch (IOException e) {
+					// The export itself is complete
+					logger.warn("Failed to update the export cache of {}.", branchPath, e);
+				}
+			}
+
 			logger.info("{} export of {}{} complete in {} seconds.", exportType, branchPath, exportStr, TimerUtil.secondsSince(startTime));
-			return exportFile;
 		} catch (IOException e) {
 			throw new ExportException("Failed to write RF2 zip file.", e);
 		} finally {
+			if (incrementalExport != null) {
+				incrementalExport.update().abort();
+			}
 			branchService.unlock(branchPath);
 		}
 	}
 
+	/*
+		The cached export can be reused if the branch has not been rebased since, otherwise the content of the ancestor branches may have changed.
+		Components are read again if they have a version created or ended on the branch since the cached export, or if the versions of the component
+		on ancestor branches have been hidden or restored since.
+	 */
+	private IncrementalExport startIncrementalExport(String branchPath, String exportName, String entryFilenameSuffix, String filterKey) throws IOException {
+		Branch branch = branchService.findLatest(branchPath);
+		// Started first so that the cached export is not evicted while in use
+		ExportCache.Update update = exportCache.startUpdate(branchPath, exportName);
+		ExportCache.CachedExport cachedExport = exportCache.load(update, filterKey);
+		Map<Class<?>, Set<String>> changedIds = null;
+		if (cachedExport != null && cachedExport.base() == branch.getBase().getTime() && cachedExport.head() <= branch.getHead().getTime()) {
+			changedIds = new HashMap<>();
+			Date since = new Date(cachedExport.head());
+			for (Class<? extends SnomedComponent<?>> componentClass : INCREMENTAL_COMPONENT_CLASSES) {
+				changedIds.put(componentClass, getChangedComponentIds(componentClass, branch, since, cachedExport.versionsReplaced()));
+			}
+			int changeCount = changedIds.values().stream().mapToInt(Set::size).sum();
+			if (changeCount > MAX_INCREMENTAL_CHANGES) {
+				logger.info("{} components changed on {} since the cached export, exporting all content.", changeCount, branchPath);
+				changedIds = null;
+			} else {
+				logger.info("Updating cached export of {} with {} changed components.", branchPath, changeCount);
+			}
+		}
+		return new IncrementalExport(branch, changedIds != null ? cachedExport : null, changedIds, update, entryFilenameSuffix, filterKey);
+	}
+
+	/*
+		Export inputs which select content but are not covered by the branch timepoints. The modules of the branch are included
+		because they select the module dependency members, which do not change when the modules of the branch change.
+	 */
+	private String getCacheFilterKey(String branchPath, Set<String> moduleIds, String transientEffectiveTime, String startEffectiveTime) {
+		return String.join("|",
+				new TreeSet<>(sBranchService.getModules(branchPath)).toString(),
+				new TreeSet<>(moduleIds != null ? moduleIds : Collections.emptySet()).toString(),
+				String.valueOf(transientEffectiveTime),
+				String.valueOf(startEffectiveTime));
+	}
+
+	private Set<String> getChangedComponentIds(Class<? extends SnomedComponent<?>> componentClass, Branch branch, Date since,
+			Map<String, Set<String>> versionsReplacedBefore) {
+
+		Set<String> changedIds = new HashSet<>();
+		collectComponentIds(componentClass, bool(b -> b
+				.must(termQuery(SnomedComponent.Fields.PATH, branch.getPath()))
+				.must(bool(bq -> bq
+						.should(range().field(SnomedComponent.Fields.START).gt(JsonData.of(since.getTime())).build()._toQuery())
+						.should(range().field(SnomedComponent.Fields.END).gt(JsonData.of(since.getTime())).build()._toQuery())))), changedIds);
+
+		Set<String> versionsReplacedChanged = Sets.symmetricDifference(
+				versionsReplacedBefore.getOrDefault(componentClass.getSimpleName(), Collections.emptySet()),
+				branch.getVersionsReplaced(componentClass));
+		for (List<String> internalIds : Iterables.partition(versionsReplacedChanged, CLAUSE_LIMIT)) {
+			collectComponentIds(componentClass, termsQuery("_id", internalIds), changedIds);
+		}
+		return changedIds;
+	}
+
+	private void collectComponentIds(Class<? extends SnomedComponent<?>> componentClass, Query query, Set<String> ids) {
+		try (SearchHitsIterator<? extends SnomedComponent<?>> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(query)
+				.withSourceFilter(new FetchSourceFilter(new String[]{ID_FIELDS.get(componentClass)}, null))
+				.withPageable(LARGE_PAGE)
+				.build(), componentClass)) {
+			stream.forEachRemaining(hit -> ids.add(hit.getContent().getId()));
+		}
+	}
+
+	/*
+		Entries are generated in parallel, each into its own buffer, and written to the zip in order.
+		Generation runs at most parallelEntries ahead of the entry being written so that the number of buffers held is bounded.
+	 */
+	private void writeEntries(List<ExportEntry> entries, RF2Type exportType, String transientEffectiveTime, IncrementalExport incrementalExport,
+			OutputStream outputStream) throws IOException {
+
+		Deque<Future<ExportEntryBuffer>> generating = new ArrayDeque<>();
+		Iterator<ExportEntry> toGenerate = entries.iterator();
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(new NonClosingOutputStream(outputStream))) {
+			for (ExportEntry entry : entries) {
+				while (generating.size() < parallelEntries && toGenerate.hasNext()) {
+					ExportEntry nextEntry = toGenerate.next();
+					generating.add(entryExecutorService.submit(() -> generateEntry(nextEntry, exportType, transientEffectiveTime, incrementalExport)));
+				}
+				try (ExportEntryBuffer buffer = getGeneratedEntry(generating.remove())) {
+					if (buffer.getContentLines() > 0 || !entry.omitIfEmpty()) {
+						zipOutputStream.putNextEntry(new ZipEntry(entry.filePath()));
+						buffer.writeTo(zipOutputStream);
+						zipOutputStream.closeEntry();
+						logger.info("{} {} exported", buffer.getContentLines(), entry.description());
+					}
+					if (incrementalExport != null) {
+						try (OutputStream cacheStream = incrementalExport.update().openEntry(incrementalExport.getEntryKey(entry))) {
+							buffer.writeTo(cacheStream);
+						}
+					}
+				}
+			}
+		} finally {
+			// Entries are left only if the export failed
+			for (Future<ExportEntryBuffer> future : generating) {
+				if (!future.cancel(true) && !future.isCancelled()) {
+					try {
+						getGeneratedEntry(future).close();
+					} catch (IOException | RuntimeException e) {
+						logger.debug("Failed to release export entry.", e);
+					}
+				}
+			}
+		}
+	}
+
+	private ExportEntryBuffer generateEntry(ExportEntry entry, RF2Type exportType, String transientEffectiveTime, IncrementalExport incrementalExport) throws IOException {
+		ExportEntryBuffer buffer = new ExportEntryBuffer(entryBufferMemoryBytes);
+		try {
+			File cachedEntry = incrementalExport != null ? incrementalExport.getCachedEntryFile(entry) : null;
+			if (cachedEntry != null) {
+				buffer.setContentLines(updateCachedEntry(entry, cachedEntry, incrementalExport.changedIds().get(entry.componentClass()), exportType,
+						transientEffectiveTime, buffer));
+			} else {
+				buffer.setContentLines(exportComponents(entry, entry.componentClass(), exportType, transientEffectiveTime, true, buffer));
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				// The export has failed, nothing will release this buffer
+				buffer.close();
+				throw new ExportException("Export of '" + entry.filePath() + "' cancelled.");
+			}
+			return buffer;
+		} catch (IOException e) {
+			buffer.close();
+			throw new ExportException("Failed to write export zip entry '" + entry.filePath() + "'", e);
+		} catch (RuntimeException e) {
+			buffer.close();
+			throw e;
+		}
+	}
+
+	// Copies the cached lines of unchanged components then appends the current state of the changed components
+	private int updateCachedEntry(ExportEntry entry, File cachedEntry, Set<String> changedIds, RF2Type exportType, String transientEffectiveTime,
+			OutputStream outputStream) throws IOException {
+
+		int contentLines = 0;
+		BufferedWriter writer = getBufferedWriter(outputStream);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cachedEntry)))) {
+			String line = reader.readLine();
+			if (line != null) {
+				// Header
+				writer.write(line);
+				writer.write("\r\n");
+			}
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (!changedIds.contains(tab != -1 ? line.substring(0, tab) : line)) {
+					writer.write(line);
+					writer.write("\r\n");
+					contentLines++;
+				}
+			}
+		}
+		writer.flush();
+		if (!changedIds.isEmpty()) {
+			Query changedContentQuery = bool(b -> b.must(entry.contentQuery()).must(termsQuery(ID_FIELDS.get(entry.componentClass()), changedIds)));
+			contentLines += exportComponents(new ExportEntry(entry.componentClass(), entry.filePath(), changedContentQuery, entry.extraFieldNames(), entry.concrete(),
+					entry.omitIfEmpty(), entry.description()), entry.componentClass(), exportType, transientEffectiveTime, false, outputStream);
+		}
+		return contentLines;
+	}
+
+	private ExportEntryBuffer getGeneratedEntry(Future<ExportEntryBuffer> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ExportException("Interrupted while waiting for export file content.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new ExportException("Failed to export file content.", e.getCause());
+		}
+	}
+
+	private Query getSelectionCriteria(Query branchCriteria, Query releasedVersionsCriteria) {
+		if (releasedVersionsCriteria == null) {
+			return branchCriteria;
+		}
+		// Current state of unreleased components and all released states
+		return bool(b -> b
+				.should(bool(bq -> bq.must(branchCriteria).mustNot(existsQuery(SnomedComponent.Fields.EFFECTIVE_TIME))))
+				.should(bool(bq -> bq.must(releasedVersionsCriteria).must(existsQuery(SnomedComponent.Fields.EFFECTIVE_TIME)))));
+	}
+
+	/*
+		All component versions created on the branch or its ancestors up until the branch head, or the base of the child branch for ancestors.
+		Versions which have since been ended are included.
+	 */
+	private Query getReleasedVersionsCriteria(String branchPath) {
+		Branch branch = branchService.findBranchOrThrow(branchPath);
+		BoolQuery.Builder criteria = bool();
+		for (Branch branchVersion : versionControlHelper.getTimeSlice(branchPath, branch.getHead())) {
+			criteria.should(bool(b -> b
+					.must(termQuery(SnomedComponent.Fields.PATH, branchVersion.getPath()))
+					.must(range().field(SnomedComponent.Fields.START).lte(JsonData.of(branchVersion.getStart().getTime())).build()._toQuery())));
+		}
+		return criteria.build()._toQuery();
+	}
+
 	public String getFilename(ExportConfiguration exportConfiguration) {
 		return format("snomed-%s-%s-%s.zip",
 				exportConfiguration.getBranchPath().replace("/", "_"),
@@ -357,32 +661,54 @@ public class ExportService {
 		return contentQuery;
 	}
 
-	private <T> int exportComponents(Class<T> componentClass, String entryDirectoryPrefix, String entryDirectory, String entryFilenamePrefix, String filenameEffectiveDate,
-			RF2Type exportType, ZipOutputStream zipOutputStream, Query contentQuery, String transientEffectiveTime, List<String> extraFieldNames, String codeSystemRF2Name, ExportFilter<T> exportFilter) {
+	private <T> int exportComponents(ExportEntry entry, Class<T> componentClass, RF2Type exportType, String transientEffectiveTime, boolean writeHeader,
+			OutputStream outputStream) throws IOException {
 
-		String componentFilePath = entryDirectoryPrefix + entryDirectory + entryFilenamePrefix + format("%s_%s_%s.txt", exportType.getName(), codeSystemRF2Name, filenameEffectiveDate);
-		logger.info("Exporting file {}", componentFilePath);
-		logger.info("Export filter is " + (exportFilter==null?"null" : "present"));
-		try {
-			// Open zip entry
-			zipOutputStream.putNextEntry(new ZipEntry(componentFilePath));
+		logger.info("Exporting file {}", entry.filePath());
+		NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
+				.withQuery(entry.contentQuery())
+				.withPageable(LARGE_PAGE);
+		ExportFilter<T> exportFilter = null;
+		if (exportType == RF2Type.FULL) {
+			// Sorted so that copies of the same released state on different branches are adjacent
+			queryBuilder
+					.withSort(SortOptions.of(s -> s.field(f -> f.field(ID_FIELDS.get(componentClass)))))
+					.withSort(SortOptions.of(s -> s.field(f -> f.field(SnomedComponent.Fields.EFFECTIVE_TIME))));
+			exportFilter = getDistinctStateFilter();
+		}
 
-			// Stream components into zip
-			try (ExportWriter<T> writer = getExportWriter(componentClass, zipOutputStream, extraFieldNames, entryFilenamePrefix.contains("Concrete"));
-					SearchHitsIterator<T> componentStream = elasticsearchOperations.searchForStream(getNativeSearchQuery(contentQuery), componentClass)) {
-				writer.setTransientEffectiveTime(transientEffectiveTime);
+		// Stream components into buffer
+		try (ExportWriter<T> writer = getExportWriter(componentClass, outputStream, entry.extraFieldNames(), entry.concrete());
+				SearchHitsIterator<T> componentStream = elasticsearchOperations.searchForStream(queryBuilder.build(), componentClass)) {
+			writer.setTransientEffectiveTime(transientEffectiveTime);
+			if (writeHeader) {
 				writer.writeHeader();
-				componentStream.forEachRemaining(hit -> doFilteredWrite(exportFilter, writer, hit.getContent()));
-				return writer.getContentLinesWritten();
-			} finally {
-				// Close zip entry
-				zipOutputStream.closeEntry();
 			}
-		} catch (IOException e) {
-			throw new ExportException("Failed to write export zip entry '" + componentFilePath + "'", e);
+			ExportFilter<T> filter = exportFilter;
+			componentStream.forEachRemaining(hit -> doFilteredWrite(filter, writer, hit.getContent()));
+			return writer.getContentLinesWritten();
 		}
 	}
 
+	// Passes the first of each run of components with the same id and effective time
+	private <T> ExportFilter<T> getDistinctStateFilter() {
+		return new ExportFilter<>() {
+			private String previousId;
+			private Integer previousEffectiveTime;
+
+			@Override
+			public boolean isValid(T item) {
+				SnomedComponent<?> component = (SnomedComponent<?>) item;
+				if (component.getId().equals(previousId) && Objects.equals(component.getEffectiveTimeI(), previousEffectiveTime)) {
+					return false;
+				}
+				previousId = component.getId();
+				previousEffectiveTime = component.getEffectiveTimeI();
+				return true;
+			}
+		};
+	}
+
 	private <T> void doFilteredWrite(ExportFilter<T> exportFilter, ExportWriter<T> writer, T item) {
 		if (exportFilter == null || exportFilter.isValid(item)) {
 			writer.write(item);
@@ -418,15 +744,49 @@ public class ExportService {
 				.stream().map(SearchHit::getContent).collect(Collectors.toList());
 	}
 
-	private NativeQuery getNativeSearchQuery(Query contentQuery) {
-		return new NativeQueryBuilder()
-				.withQuery(contentQuery)
-				.withPageable(LARGE_PAGE)
-				.build();
-	}
-
 	private BufferedWriter getBufferedWriter(OutputStream outputStream) {
 		return new BufferedWriter(new OutputStreamWriter(outputStream));
 	}
 
+	private record ExportEntry(Class<?> componentClass, String filePath, Query contentQuery, List<String> extraFieldNames, boolean concrete, boolean omitIfEmpty,
+			String description) {
+	}
+
+	/*
+		Changed component ids are held per component class. Entries of other classes are always exported in full.
+	 */
+	private record IncrementalExport(Branch branch, ExportCache.CachedExport cachedExport, Map<Class<?>, Set<String>> changedIds, ExportCache.Update update,
+			String entryFilenameSuffix, String filterKey) {
+
+		String getEntryKey(ExportEntry entry) {
+			// Without the effective date so that the entry is found again by the next export
+			return entry.filePath().substring(0, entry.filePath().length() - entryFilenameSuffix.length());
+		}
+
+		File getCachedEntryFile(ExportEntry entry) {
+			if (cachedExport == null || !changedIds.containsKey(entry.componentClass())) {
+				return null;
+			}
+			return cachedExport.getEntryFile(getEntryKey(entry));
+		}
+	}
+
+	// Finishing the zip must not close the caller's stream
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream outputStream) {
+			super(outputStream);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
 }
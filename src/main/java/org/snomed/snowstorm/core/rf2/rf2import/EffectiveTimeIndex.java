@@ -0,0 +1,202 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMaps;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Effective time of each component id. SCTIDs are held as primitive longs and UUIDs as pairs of primitive longs, so that
+ * the effective times of a whole branch can be held in memory. Where an id is added more than once the latest effective time is kept.
+ */
+public class EffectiveTimeIndex {
+
+	public static final int NONE = -1;
+
+	private static final int MAX_SCTID_LENGTH = 18;
+	private static final int UUID_LENGTH = 36;
+
+	private final Long2IntOpenHashMap numericIds;
+	private final UuidTable uuidIds;
+	private final Object2IntOpenHashMap<String> otherIds;
+
+	public EffectiveTimeIndex() {
+		numericIds = new Long2IntOpenHashMap();
+		numericIds.defaultReturnValue(NONE);
+		uuidIds = new UuidTable();
+		otherIds = new Object2IntOpenHashMap<>();
+		otherIds.defaultReturnValue(NONE);
+	}
+
+	public void put(String id, int effectiveTime) {
+		if (isNumeric(id)) {
+			put(Long.parseLong(id), effectiveTime);
+			return;
+		}
+		UUID uuid = toUuid(id);
+		if (uuid != null) {
+			uuidIds.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), effectiveTime);
+		} else {
+			put(id, otherIds, effectiveTime);
+		}
+	}
+
+	private void put(long id, int effectiveTime) {
+		if (effectiveTime > numericIds.get(id)) {
+			numericIds.put(id, effectiveTime);
+		}
+	}
+
+	private static void put(String id, Object2IntOpenHashMap<String> ids, int effectiveTime) {
+		if (effectiveTime > ids.getInt(id)) {
+			ids.put(id, effectiveTime);
+		}
+	}
+
+	/**
+	 * @return the effective time of the component or NONE if the component is not in the index.
+	 */
+	public int get(String id) {
+		if (isNumeric(id)) {
+			return numericIds.get(Long.parseLong(id));
+		}
+		UUID uuid = toUuid(id);
+		if (uuid != null) {
+			return uuidIds.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+		}
+		return otherIds.getInt(id);
+	}
+
+	public void putAll(EffectiveTimeIndex other) {
+		for (Long2IntMap.Entry entry : Long2IntMaps.fastIterable(other.numericIds)) {
+			put(entry.getLongKey(), entry.getIntValue());
+		}
+		other.uuidIds.putAllInto(uuidIds);
+		for (Object2IntMap.Entry<String> entry : Object2IntMaps.fastIterable(other.otherIds)) {
+			put(entry.getKey(), otherIds, entry.getIntValue());
+		}
+	}
+
+	public int size() {
+		return numericIds.size() + uuidIds.size() + otherIds.size();
+	}
+
+	private static boolean isNumeric(String id) {
+		// Leading zeros would be lost when parsed
+		if (id.isEmpty() || id.length() > MAX_SCTID_LENGTH || (id.charAt(0) == '0' && id.length() > 1)) {
+			return false;
+		}
+		for (int i = 0; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static UUID toUuid(String id) {
+		if (id.length() == UUID_LENGTH) {
+			try {
+				UUID uuid = UUID.fromString(id);
+				// Ids which are not in the canonical form are kept as strings because ids are case-sensitive
+				if (uuid.toString().equals(id)) {
+					return uuid;
+				}
+			} catch (IllegalArgumentException e) {
+				// Not a UUID
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Open addressing hash table keyed on the two halves of a UUID, with linear probing.
+	 * An empty slot has the value NONE, effective times are never negative so NONE is never stored.
+	 */
+	private static final class UuidTable {
+
+		private static final int INITIAL_CAPACITY = 16;
+
+		private long[] mostSignificantBits;
+		private long[] leastSignificantBits;
+		private int[] values;
+		private int mask;
+		private int size;
+
+		private UuidTable() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		private int get(long most, long least) {
+			return values[slot(most, least)];
+		}
+
+		private void put(long most, long least, int effectiveTime) {
+			int slot = slot(most, least);
+			if (values[slot] == NONE) {
+				if (effectiveTime == NONE) {
+					return;
+				}
+				mostSignificantBits[slot] = most;
+				leastSignificantBits[slot] = least;
+				values[slot] = effectiveTime;
+				if (++size > values.length / 4 * 3) {
+					rehash(values.length * 2);
+				}
+			} else if (effectiveTime > values[slot]) {
+				values[slot] = effectiveTime;
+			}
+		}
+
+		private void putAllInto(UuidTable other) {
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] != NONE) {
+					other.put(mostSignificantBits[i], leastSignificantBits[i], values[i]);
+				}
+			}
+		}
+
+		private int size() {
+			return size;
+		}
+
+		// The slot holding the key, or the empty slot where it would be added
+		private int slot(long most, long least) {
+			int slot = (int) HashCommon.mix(most ^ least) & mask;
+			while (values[slot] != NONE && (mostSignificantBits[slot] != most || leastSignificantBits[slot] != least)) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldMost = mostSignificantBits;
+			long[] oldLeast = leastSignificantBits;
+			int[] oldValues = values;
+			allocate(capacity);
+			for (int i = 0; i < oldValues.length; i++) {
+				if (oldValues[i] != NONE) {
+					int slot = slot(oldMost[i], oldLeast[i]);
+					mostSignificantBits[slot] = oldMost[i];
+					leastSignificantBits[slot] = oldLeast[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		private void allocate(int capacity) {
+			mostSignificantBits = new long[capacity];
+			leastSignificantBits = new long[capacity];
+			values = new int[capacity];
+			Arrays.fill(values, NONE);
+			mask = capacity - 1;
+		}
+	}
+}
@@ -12,8 +12,10 @@ public class FullImportComponentFactoryImpl extends ImportComponentFactoryImpl i
 	private final String stopImportAfterEffectiveTime;
 
 	FullImportComponentFactoryImpl(ConceptUpdateHelper conceptUpdateHelper, ReferenceSetMemberService memberService, IdentifierComponentService identifierComponentService, BranchService branchService,
-								   BranchMetadataHelper branchMetadataHelper, CodeSystemService codeSystemService, String path, String stopImportAfterEffectiveTime) {
-		super(conceptUpdateHelper, memberService, identifierComponentService, branchService, branchMetadataHelper, path, null, false, false);
+								   BranchMetadataHelper branchMetadataHelper, CodeSystemService codeSystemService, String path, String stopImportAfterEffectiveTime,
+								   int persistBatchSize, int maxInFlightBatches) {
+		super(conceptUpdateHelper, memberService, identifierComponentService, branchService, branchMetadataHelper, path, null, false, false,
+				persistBatchSize, maxInFlightBatches);
 		this.branchMetadataHelper = branchMetadataHelper;
 		this.basePath = path;
 		this.stopImportAfterEffectiveTime = stopImportAfterEffectiveTime;
@@ -6,7 +6,6 @@ import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.api.VersionControlHelper;
 import io.kaicode.elasticvc.domain.Commit;
-import io.kaicode.elasticvc.domain.Entity;
 import org.ihtsdo.otf.snomedboot.factory.ImpotentComponentFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +21,7 @@ import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
@@ -34,8 +34,6 @@ import static io.kaicode.elasticvc.helper.QueryHelper.*;
 
 public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 
-	private static final int FLUSH_INTERVAL = 5000;
-
 	private final BranchService branchService;
 	private final BranchMetadataHelper branchMetadataHelper;
 
@@ -52,17 +50,23 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 	private final List<PersistBuffer<?>> persistBuffers;
 	private final List<PersistBuffer<?>> coreComponentPersistBuffers;
 	private final MaxEffectiveTimeCollector maxEffectiveTimeCollector;
-	final Map<String, AtomicLong> componentTypeSkippedMap = new HashMap<>();
+	private final Object coreComponentsFlushLock = new Object();
+	final Map<String, AtomicLong> componentTypeSkippedMap = new ConcurrentHashMap<>();
+	// Effective times of components on the branch before a patch import, loaded once per type when first needed
+	private final Map<Class<?>, EffectiveTimeIndex> existingEffectiveTimes = new ConcurrentHashMap<>();
+	// Effective times written in the open commit, added to the existing effective times when the commit completes
+	private final Map<Class<?>, EffectiveTimeIndex> committingEffectiveTimes = new ConcurrentHashMap<>();
 	private static final Logger logger = LoggerFactory.getLogger(ImportComponentFactoryImpl.class);
 
 	// A small number of stated relationships also appear in the inferred file. These should not be persisted when importing a snapshot.
 	Set<Long> statedRelationshipsToSkip = Sets.newHashSet(3187444026L, 3192499027L, 3574321020L);
-	boolean coreComponentsFlushed;
+	volatile boolean coreComponentsFlushed;
 	private boolean useModuleEffectiveTimeFilter;
 
 
 	ImportComponentFactoryImpl(ConceptUpdateHelper conceptUpdateHelper, ReferenceSetMemberService memberService, IdentifierComponentService identifierComponentService, BranchService branchService,
-							   BranchMetadataHelper branchMetadataHelper, String path, Integer patchReleaseVersion, boolean copyReleaseFields, boolean clearEffectiveTimes) {
+							   BranchMetadataHelper branchMetadataHelper, String path, Integer patchReleaseVersion, boolean copyReleaseFields, boolean clearEffectiveTimes,
+							   int persistBatchSize, int maxInFlightBatches) {
 
 		this.branchService = branchService;
 		this.branchMetadataHelper = branchMetadataHelper;
@@ -73,7 +77,7 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 		ElasticsearchOperations elasticsearchOperations = conceptUpdateHelper.getElasticsearchOperations();
 		versionControlHelper = conceptUpdateHelper.getVersionControlHelper();
 
-		conceptPersistBuffer = new PersistBuffer<>() {
+		conceptPersistBuffer = new PersistBuffer<>("concept", persistBatchSize, maxInFlightBatches) {
 			@Override
 			public void persistCollection(Collection<Concept> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Concept.class, copyReleaseFields, clearEffectiveTimes);
@@ -82,9 +86,10 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				}
 			}
 		};
+		persistBuffers.add(conceptPersistBuffer);
 		coreComponentPersistBuffers.add(conceptPersistBuffer);
 
-		descriptionPersistBuffer = new PersistBuffer<>() {
+		descriptionPersistBuffer = new PersistBuffer<>("description", persistBatchSize, maxInFlightBatches) {
 			@Override
 			public void persistCollection(Collection<Description> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Description.class, copyReleaseFields, clearEffectiveTimes);
@@ -93,9 +98,10 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				}
 			}
 		};
+		persistBuffers.add(descriptionPersistBuffer);
 		coreComponentPersistBuffers.add(descriptionPersistBuffer);
 
-		relationshipPersistBuffer = new PersistBuffer<>() {
+		relationshipPersistBuffer = new PersistBuffer<>("relationship", persistBatchSize, maxInFlightBatches) {
 			@Override
 			public void persistCollection(Collection<Relationship> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Relationship.class, copyReleaseFields, clearEffectiveTimes);
@@ -104,13 +110,15 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				}
 			}
 		};
+		persistBuffers.add(relationshipPersistBuffer);
 		coreComponentPersistBuffers.add(relationshipPersistBuffer);
 
-		memberPersistBuffer = new PersistBuffer<>() {
+		memberPersistBuffer = new PersistBuffer<>("member", persistBatchSize, maxInFlightBatches) {
 			@Override
 			public void persistCollection(Collection<ReferenceSetMember> entities) {
 				if (!coreComponentsFlushed) { // Avoid having to sync to check this
-					synchronized (this) {
+					// Not synchronized on this buffer, the caller may be waiting for this batch while holding that lock
+					synchronized (coreComponentsFlushLock) {
 						if (!coreComponentsFlushed) {
 							coreComponentPersistBuffers.forEach(PersistBuffer::flush);
 							coreComponentsFlushed = true;
@@ -123,8 +131,9 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				}
 			}
 		};
+		persistBuffers.add(memberPersistBuffer);
 
-		identifierPersistBuffer = new PersistBuffer<>() {
+		identifierPersistBuffer = new PersistBuffer<>("identifier", persistBatchSize, maxInFlightBatches) {
 			@Override
 			public void persistCollection(Collection<Identifier> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Identifier.class, copyReleaseFields, clearEffectiveTimes);
@@ -133,6 +142,7 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				}
 			}
 		};
+		persistBuffers.add(identifierPersistBuffer);
 	}
 
 	/*
@@ -143,7 +153,6 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 	private <T extends SnomedComponent<T>> void processEntities(Collection<T> components, Integer patchReleaseVersion, ElasticsearchOperations elasticsearchOperations,
 			Class<T> componentClass, boolean copyReleaseFields, boolean clearEffectiveTimes) {
 
-		Map<Integer, List<T>> effectiveDateMap = new HashMap<>();
 		components.forEach(component -> {
 			component.setChanged(true);
 			if (clearEffectiveTimes) {
@@ -154,13 +163,12 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 			}
 			Integer effectiveTimeI = component.getEffectiveTimeI();
 			if (effectiveTimeI != null) {
-				effectiveDateMap.computeIfAbsent(effectiveTimeI, i -> new ArrayList<>()).add(component);
 				maxEffectiveTimeCollector.add(effectiveTimeI);
 			}
 		});
 		// patchReleaseVersion=-1 is a special case which allows replacing any effectiveTime
 		if (!useModuleEffectiveTimeFilter && (patchReleaseVersion == null || !patchReleaseVersion.equals(-1))) {
-			performPatch(components, patchReleaseVersion, elasticsearchOperations, componentClass, effectiveDateMap);
+			performPatch(components, patchReleaseVersion, elasticsearchOperations, componentClass);
 		}
 		if (copyReleaseFields) {
 			Map<String, T> idToUnreleasedComponentMap = components.stream().filter(component -> component.getEffectiveTime() == null).collect(Collectors.toMap(T::getId, Function.identity()));
@@ -184,10 +192,27 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 		}
 	}
 
-	private <T extends SnomedComponent<T>> void performPatch(Collection<T> components, Integer patchReleaseVersion, ElasticsearchOperations elasticsearchOperations, Class<T> componentClass, Map<Integer, List<T>> effectiveDateMap) {
+	private <T extends SnomedComponent<T>> void performPatch(Collection<T> components, Integer patchReleaseVersion, ElasticsearchOperations elasticsearchOperations, Class<T> componentClass) {
+		if (components.isEmpty()) {
+			return;
+		}
+		if (patchReleaseVersion != null) {
+			// Patch imports check every component against the branch, loading all effective times once is cheaper than a search per batch
+			performPatchUsingIndex(components, patchReleaseVersion, elasticsearchOperations, componentClass);
+		} else {
+			performPatchUsingSearch(components, elasticsearchOperations, componentClass);
+		}
+	}
+
+	private <T extends SnomedComponent<T>> void performPatchUsingSearch(Collection<T> components, ElasticsearchOperations elasticsearchOperations, Class<T> componentClass) {
+		Map<Integer, List<T>> effectiveDateMap = new HashMap<>();
+		for (T component : components) {
+			if (component.getEffectiveTimeI() != null) {
+				effectiveDateMap.computeIfAbsent(component.getEffectiveTimeI(), i -> new ArrayList<>()).add(component);
+			}
+		}
 		for (Integer effectiveTime : new TreeSet<>(effectiveDateMap.keySet())) {
 			// Find component states with an equal or greater effective time
-			boolean replacementOfThisEffectiveTimeAllowed = patchReleaseVersion != null && patchReleaseVersion.equals(effectiveTime);
 			List<T> componentsAtDate = effectiveDateMap.get(effectiveTime);
 			String idField = componentsAtDate.get(0).getIdField();
 			AtomicInteger alreadyExistingComponentCount = new AtomicInteger();
@@ -195,9 +220,7 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 					.withQuery(bool(b -> b
 							.must(branchCriteriaBeforeOpenCommit.getEntityBranchCriteria(componentClass))
 							.must(termsQuery(idField, componentsAtDate.stream().map(T::getId).toList()))
-							.must(replacementOfThisEffectiveTimeAllowed ?
-									range().field(SnomedComponent.Fields.EFFECTIVE_TIME).gt(JsonData.of(effectiveTime)).build()._toQuery()
-									: range().field(SnomedComponent.Fields.EFFECTIVE_TIME).gte(JsonData.of(effectiveTime)).build()._toQuery())))
+							.must(range().field(SnomedComponent.Fields.EFFECTIVE_TIME).gte(JsonData.of(effectiveTime)).build()._toQuery())))
 					.withSourceFilter(new FetchSourceFilter(new String[]{idField}, null))// Only fetch the id
 					.withPageable(LARGE_PAGE)
 					.build(), componentClass)) {
@@ -211,6 +234,58 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 		}
 	}
 
+	private <T extends SnomedComponent<T>> void performPatchUsingIndex(Collection<T> components, int patchReleaseVersion, ElasticsearchOperations elasticsearchOperations, Class<T> componentClass) {
+		EffectiveTimeIndex existing = getExistingEffectiveTimes(elasticsearchOperations, componentClass, components.iterator().next().getIdField());
+
+		// Skip components which already have a state with an equal or greater effective time
+		int sizeBefore = components.size();
+		components.removeIf(component -> {
+			Integer effectiveTime = component.getEffectiveTimeI();
+			if (effectiveTime == null) {
+				return false;
+			}
+			int existingEffectiveTime = existing.get(component.getId());
+			if (existingEffectiveTime == EffectiveTimeIndex.NONE) {
+				return false;
+			}
+			boolean replacementOfThisEffectiveTimeAllowed = patchReleaseVersion == effectiveTime;
+			return replacementOfThisEffectiveTimeAllowed ? existingEffectiveTime > effectiveTime : existingEffectiveTime >= effectiveTime;
+		});
+		componentTypeSkippedMap.computeIfAbsent(componentClass.getSimpleName(), key -> new AtomicLong()).addAndGet(sizeBefore - components.size());
+
+		EffectiveTimeIndex committing = committingEffectiveTimes.computeIfAbsent(componentClass, key -> new EffectiveTimeIndex());
+		for (T component : components) {
+			if (component.getEffectiveTimeI() != null) {
+				committing.put(component.getId(), component.getEffectiveTimeI());
+			}
+		}
+	}
+
+	private <T extends SnomedComponent<T>> EffectiveTimeIndex getExistingEffectiveTimes(ElasticsearchOperations elasticsearchOperations, Class<T> componentClass, String idField) {
+		// Batches of one type are never processed concurrently so each type is only loaded once
+		EffectiveTimeIndex existing = existingEffectiveTimes.get(componentClass);
+		if (existing == null) {
+			existing = loadExistingEffectiveTimes(elasticsearchOperations, componentClass, idField);
+			existingEffectiveTimes.put(componentClass, existing);
+		}
+		return existing;
+	}
+
+	private <T extends SnomedComponent<T>> EffectiveTimeIndex loadExistingEffectiveTimes(ElasticsearchOperations elasticsearchOperations, Class<T> componentClass, String idField) {
+		EffectiveTimeIndex effectiveTimes = new EffectiveTimeIndex();
+		try (SearchHitsIterator<T> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(branchCriteriaBeforeOpenCommit.getEntityBranchCriteria(componentClass))
+						.must(existsQuery(SnomedComponent.Fields.EFFECTIVE_TIME))))
+				.withSourceFilter(new FetchSourceFilter(new String[]{idField, SnomedComponent.Fields.EFFECTIVE_TIME}, null))
+				.withPageable(LARGE_PAGE)
+				.build(), componentClass)) {
+			stream.forEachRemaining(hit -> effectiveTimes.put(hit.getContent().getId(), hit.getContent().getEffectiveTimeI()));
+		}
+		logger.info("Loaded effective times of {} existing components of type {} on {}.", effectiveTimes.size(), componentClass.getSimpleName(), path);
+		return effectiveTimes;
+	}
+
 	@Override
 	public void loadingComponentsStarting() {
 		setCommit(branchService.openCommit(path, branchMetadataHelper.getBranchLockMetadata("Loading components from RF2 import.")));
@@ -232,7 +307,15 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				logger.info("{} components of type {} were not imported from RF2 because a newer version was found.", componentTypeSkippedMap.get(type).get(), type);
 			}
 		}
+		// Waits for all batches to be written
 		persistBuffers.forEach(PersistBuffer::flush);
+		committingEffectiveTimes.forEach((componentClass, committing) -> {
+			EffectiveTimeIndex existing = existingEffectiveTimes.get(componentClass);
+			if (existing != null) {
+				existing.putAll(committing);
+			}
+		});
+		committingEffectiveTimes.clear();
 		commit.markSuccessful();
 		commit.close();
 		commit = null;
@@ -346,28 +429,11 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 		this.useModuleEffectiveTimeFilter = useModuleEffectiveTimeFilter;
 	}
 
-	private abstract class PersistBuffer<E extends Entity> {
-
-		private final List<E> entities = new ArrayList<>();
-
-		PersistBuffer() {
-			persistBuffers.add(this);
-		}
-
-		synchronized void save(E entity) {
-			entities.add(entity);
-			if (entities.size() >= FLUSH_INTERVAL) {
-				flush();
-			}
-		}
-
-		synchronized void flush() {
-			persistCollection(entities);
-			entities.clear();
-		}
-
-		abstract void persistCollection(Collection<E> entities);
-
+	/**
+	 * Stops the persist worker threads. Batches not yet written are abandoned.
+	 */
+	public void shutdown() {
+		persistBuffers.forEach(PersistBuffer::shutdown);
 	}
 
 }
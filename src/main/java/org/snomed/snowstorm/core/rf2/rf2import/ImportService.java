@@ -14,6 +14,7 @@ import org.snomed.snowstorm.core.data.domain.Concept;
 import org.snomed.snowstorm.core.data.services.*;
 import org.snomed.snowstorm.core.rf2.RF2Type;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -69,6 +70,12 @@ public class ImportService {
 	@Autowired
 	private MostRecentEffectiveTimeFinder mostRecentEffectiveTimeFinder;
 
+	@Value("${import.persist.batch-size:5000}")
+	private int persistBatchSize;
+
+	@Value("${import.persist.max-in-flight-batches:2}")
+	private int persistMaxInFlightBatches;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	public ImportService() {
@@ -222,6 +229,8 @@ public class ImportService {
 		} catch (ReleaseImportException e) {
 			rollbackIncompleteCommit(importComponentFactory);
 			throw e;
+		} finally {
+			importComponentFactory.shutdown();
 		}
 	}
 
@@ -244,6 +253,8 @@ public class ImportService {
 		} catch (ReleaseImportException e) {
 			rollbackIncompleteCommit(importComponentFactory);
 			throw e;
+		} finally {
+			importComponentFactory.shutdown();
 		}
 	}
 
@@ -259,6 +270,8 @@ public class ImportService {
 		} catch (ReleaseImportException e) {
 			rollbackIncompleteCommit(importComponentFactory);
 			throw e;
+		} finally {
+			importComponentFactory.shutdown();
 		}
 	}
 
@@ -273,12 +286,12 @@ public class ImportService {
 
 	private ImportComponentFactoryImpl getImportComponentFactory(String branchPath, Integer patchReleaseVersion, boolean copyReleaseFields, boolean clearEffectiveTimes) {
 		return new ImportComponentFactoryImpl(conceptUpdateHelper, memberService, identifierComponentService, branchService, branchMetadataHelper,
-				branchPath, patchReleaseVersion, copyReleaseFields, clearEffectiveTimes);
+				branchPath, patchReleaseVersion, copyReleaseFields, clearEffectiveTimes, persistBatchSize, persistMaxInFlightBatches);
 	}
 
 	private FullImportComponentFactoryImpl getFullImportComponentFactory(String branchPath) {
 		return new FullImportComponentFactoryImpl(conceptUpdateHelper, memberService, identifierComponentService, branchService, branchMetadataHelper, codeSystemService,
-				branchPath, null);
+				branchPath, null, persistBatchSize, persistMaxInFlightBatches);
 	}
 
 	@PreAuthorize("hasPermission('AUTHOR', #branchPath)")
@@ -0,0 +1,101 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kaicode.elasticvc.domain.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Collects components into batches. When maxInFlightBatches is more than zero each component type is written by its own worker thread
+ * so that the RF2 loading threads are not held up by Elasticsearch. Loading blocks when maxInFlightBatches batches of the type are waiting to be written.
+ * There is one worker per type because saving a batch updates the commit, batches of a type are written in the order they were filled.
+ */
+abstract class PersistBuffer<E extends Entity> {
+
+	private final int batchSize;
+	private final int maxInFlightBatches;
+	private List<E> entities = new ArrayList<>();
+	private final ExecutorService worker;
+	private final Semaphore inFlightBatches;
+	private volatile Throwable failure;
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistBuffer.class);
+
+	PersistBuffer(String componentType, int batchSize, int maxInFlightBatches) {
+		this.batchSize = batchSize;
+		this.maxInFlightBatches = maxInFlightBatches;
+		if (maxInFlightBatches > 0) {
+			worker = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("rf2-import-" + componentType + "-%d").setDaemon(true).build());
+			inFlightBatches = new Semaphore(maxInFlightBatches);
+		} else {
+			worker = null;
+			inFlightBatches = null;
+		}
+	}
+
+	synchronized void save(E entity) {
+		entities.add(entity);
+		if (entities.size() >= batchSize) {
+			submitBatch();
+		}
+	}
+
+	synchronized void flush() {
+		submitBatch();
+		if (worker != null) {
+			// Wait for all batches to be written
+			inFlightBatches.acquireUninterruptibly(maxInFlightBatches);
+			inFlightBatches.release(maxInFlightBatches);
+			throwIfFailed();
+		}
+	}
+
+	private void submitBatch() {
+		if (entities.isEmpty()) {
+			return;
+		}
+		List<E> batch = entities;
+		entities = new ArrayList<>();
+		if (worker == null) {
+			persistCollection(batch);
+			return;
+		}
+		throwIfFailed();
+		inFlightBatches.acquireUninterruptibly();
+		worker.execute(() -> {
+			try {
+				if (failure == null) {
+					persistCollection(batch);
+				}
+			} catch (Throwable e) {
+				// Errors are kept too, otherwise the import would be completed without this batch
+				logger.error("Failed to persist batch of RF2 components.", e);
+				failure = e;
+			} finally {
+				inFlightBatches.release();
+			}
+		});
+	}
+
+	private void throwIfFailed() {
+		if (failure != null) {
+			throw new IllegalStateException("Failed to persist RF2 components. " + failure.getMessage(), failure);
+		}
+	}
+
+	void shutdown() {
+		if (worker != null) {
+			worker.shutdownNow();
+		}
+	}
+
+	abstract void persistCollection(Collection<E> entities);
+
+}
@@ -0,0 +1,126 @@
+package org.snomed.snowstorm.core.util;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compressed set of SNOMED CT identifiers backed by a 64-bit Roaring bitmap.
+ * Identifiers within a namespace are dense so large sets take a fraction of the memory of a hash set
+ * and set algebra is done with word level bitwise operations.
+ * Sets are not thread safe, a set shared between threads must be frozen first, see {@link #freeze()}.
+ */
+public class IdSet {
+
+	private final Roaring64NavigableMap bitmap;
+
+	private boolean frozen;
+
+	public IdSet() {
+		bitmap = new Roaring64NavigableMap();
+	}
+
+	public static IdSet of(Collection<Long> ids) {
+		IdSet idSet = new IdSet();
+		idSet.addAll(ids);
+		return idSet;
+	}
+
+	public void add(long id) {
+		assertNotFrozen();
+		bitmap.addLong(id);
+	}
+
+	public void addAll(Collection<Long> ids) {
+		assertNotFrozen();
+		for (Long id : ids) {
+			bitmap.addLong(id);
+		}
+	}
+
+	public boolean contains(long id) {
+		return bitmap.contains(id);
+	}
+
+	public boolean isEmpty() {
+		return bitmap.isEmpty();
+	}
+
+	public long size() {
+		return bitmap.getLongCardinality();
+	}
+
+	/**
+	 * Keeps only the ids also in the other set.
+	 */
+	public IdSet and(IdSet other) {
+		assertNotFrozen();
+		bitmap.and(other.bitmap);
+		return this;
+	}
+
+	/**
+	 * Adds all ids of the other set.
+	 */
+	public IdSet or(IdSet other) {
+		assertNotFrozen();
+		bitmap.or(other.bitmap);
+		return this;
+	}
+
+	/**
+	 * Removes all ids of the other set.
+	 */
+	public IdSet andNot(IdSet other) {
+		assertNotFrozen();
+		bitmap.andNot(other.bitmap);
+		return this;
+	}
+
+	/**
+	 * Makes this set read only so that it can be shared between threads once safely published, for example through a cache.
+	 * The bitmap computes its cardinality lazily and keeps it in an internal cache, even when only being read.
+	 * That is done here so that reading a frozen set does not change any state.
+	 */
+	public IdSet freeze() {
+		bitmap.getLongCardinality();
+		frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void assertNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("Id set is frozen.");
+		}
+	}
+
+	public List<Long> toAscendingList() {
+		return toList(bitmap.getLongIterator());
+	}
+
+	/**
+	 * Descending order is the same as the default sort of concept ids in Elasticsearch.
+	 */
+	public List<Long> toDescendingList() {
+		return toList(bitmap.getReverseLongIterator());
+	}
+
+	private List<Long> toList(LongIterator iterator) {
+		LongArrayList list = new LongArrayList((int) size());
+		while (iterator.hasNext()) {
+			list.add(iterator.next());
+		}
+		return list;
+	}
+
+	public long getSizeInBytes() {
+		return bitmap.getLongSizeInBytes();
+	}
+}
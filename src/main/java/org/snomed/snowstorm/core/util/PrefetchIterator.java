@@ -0,0 +1,106 @@
+package org.snomed.snowstorm.core.util;
+
+import org.snomed.snowstorm.core.data.services.RuntimeServiceException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+/**
+ * Reads ahead from a source iterator on another thread into a bounded queue,
+ * so that fetching from the source overlaps with processing by the consumer.
+ * The iterator must be closed before the source is closed.
+ */
+public class PrefetchIterator<T> implements Iterator<T>, AutoCloseable {
+
+	private static final Object END = new Object();
+
+	private final BlockingQueue<Object> queue;
+	private final Future<?> producer;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+	private Object next;
+
+	public PrefetchIterator(Iterator<T> source, int capacity, ExecutorService executorService) {
+		queue = new ArrayBlockingQueue<>(capacity);
+		producer = executorService.submit(() -> {
+			try {
+				while (!closed && source.hasNext()) {
+					put(source.next());
+				}
+			} catch (Throwable e) {
+				// Errors are also passed on, otherwise the consumer would see a normal end of the source
+				failure = e;
+			} finally {
+				put(END);
+			}
+		});
+	}
+
+	private void put(Object item) {
+		try {
+			// Poll so that the producer stops when the consumer gives up early
+			while (!closed && !queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+				// Queue full, wait for the consumer
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			closed = true;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			while (next == null) {
+				next = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (next == null && producer.isDone()) {
+					// The end marker is not queued if the producer was interrupted
+					next = queue.poll();
+					if (next == null) {
+						throw new RuntimeServiceException("Prefetch stopped before the end of the source.", failure);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeServiceException("Interrupted while waiting for the next item.", e);
+		}
+		if (next == END) {
+			if (failure instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			} else if (failure instanceof Error error) {
+				throw error;
+			} else if (failure != null) {
+				throw new RuntimeServiceException("Failed to read from the source.", failure);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T item = (T) next;
+		next = null;
+		return item;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		queue.clear();
+		try {
+			// The source must not be used after this method returns
+			producer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Failures are reported to the consumer
+		}
+	}
+}
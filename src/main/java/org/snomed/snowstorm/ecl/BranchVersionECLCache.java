@@ -1,5 +1,6 @@
 package org.snomed.snowstorm.ecl;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -8,35 +9,53 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * View of the shared ECL results cache for a single content version, also records hit statistics for that version.
+ */
 public class BranchVersionECLCache {
 
+	private final String path;
+
 	private final Date head;
 
-	private final Map<ECLCacheEntry, Page<Long>> eclToConceptsCache;
+	private final Cache<ECLCacheEntry, Page<Long>> eclToConceptsCache;
 
 	private final Map<Calendar, AtomicLong> dayHits = new ConcurrentHashMap<>();
 
-	protected BranchVersionECLCache(Date branchHeadTimestamp) {
+	// Number of entries of this version in the shared cache, decremented by the shared cache when an entry is removed
+	private final AtomicLong entryCount = new AtomicLong();
+
+	protected BranchVersionECLCache(String path, Date branchHeadTimestamp, Cache<ECLCacheEntry, Page<Long>> eclToConceptsCache) {
+		this.path = path;
 		head = branchHeadTimestamp;
-		eclToConceptsCache = new ConcurrentHashMap<>();
+		this.eclToConceptsCache = eclToConceptsCache;
 	}
 
-	public Date getHead() {
-		return head;
+	public String getPath() {
+		return path;
 	}
 
-	public boolean isExpired(Date timepoint) {
-		// Expire if timepoint different, regardless of less than or greater than comparison
-		return !head.equals(timepoint);
+	public Date getHead() {
+		return head;
 	}
 
 	public Page<Long> get(String ecl, boolean stated, PageRequest pageRequest) {
-		ECLCacheEntry key = new ECLCacheEntry(ecl, stated, pageRequest);
-        return eclToConceptsCache.get(key);
+		ECLCacheEntry key = new ECLCacheEntry(path, head.getTime(), ecl, stated, pageRequest);
+		return eclToConceptsCache.getIfPresent(key);
 	}
 
 	public void put(String ecl, boolean stated, PageRequest pageRequest, Page<Long> page) {
-		eclToConceptsCache.put(new ECLCacheEntry(ecl, stated, pageRequest), page);
+		if (eclToConceptsCache.asMap().put(new ECLCacheEntry(path, head.getTime(), ecl, stated, pageRequest), page) == null) {
+			entryCount.incrementAndGet();
+		}
+	}
+
+	void entryRemoved() {
+		entryCount.decrementAndGet();
+	}
+
+	static String getVersionKey(String path, long head) {
+		return path + "@" + head;
 	}
 
 	static String normaliseEclString(String ecl) {
@@ -61,7 +80,7 @@ public class BranchVersionECLCache {
 
 	public Map<String, Long> getStats() {
 		Map<String, Long> stats = new HashMap<>();
-		stats.put("size", (long) eclToConceptsCache.size());
+		stats.put("size", Math.max(entryCount.get(), 0));
 		stats.put("hits-today", dayHits.getOrDefault(getToday(), new AtomicLong()).longValue());
 		addStat(stats, 7);
 		addStat(stats, 30);
@@ -89,14 +108,18 @@ public class BranchVersionECLCache {
 		return today;
 	}
 
-	private static final class ECLCacheEntry {
+	static final class ECLCacheEntry {
 
+		private final String path;
+		private final long head;
 		private final String ecl;
 		private final boolean stated;
 		private final PageRequest pageRequest;
 		private final Object[] searchAfter;
 
-		public ECLCacheEntry(String ecl, boolean stated, PageRequest pageRequest) {
+		public ECLCacheEntry(String path, long head, String ecl, boolean stated, PageRequest pageRequest) {
+			this.path = path;
+			this.head = head;
 			this.ecl = ecl != null ? normaliseEclString(ecl) : "";
 			this.stated = stated;
 			this.pageRequest = pageRequest;
@@ -112,15 +135,19 @@ public class BranchVersionECLCache {
 			if (this == o) return true;
 			if (o == null || getClass() != o.getClass()) return false;
 			ECLCacheEntry that = (ECLCacheEntry) o;
-			return stated == that.stated && ecl.equals(that.ecl) && Objects.equals(pageRequest, that.pageRequest) && Arrays.equals(searchAfter, that.searchAfter);
+			return head == that.head && stated == that.stated && path.equals(that.path) && ecl.equals(that.ecl) && Objects.equals(pageRequest, that.pageRequest) && Arrays.equals(searchAfter, that.searchAfter);
 		}
 
 		@Override
 		public int hashCode() {
-			int result = Objects.hash(ecl, stated, pageRequest);
+			int result = Objects.hash(path, head, ecl, stated, pageRequest);
 			result = 31 * result + Arrays.hashCode(searchAfter);
 			return result;
 		}
+
+		String getVersionKey() {
+			return BranchVersionECLCache.getVersionKey(path, head);
+		}
 	}
 
 }
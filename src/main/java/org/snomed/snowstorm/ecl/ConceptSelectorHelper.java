@@ -4,19 +4,20 @@ import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import io.kaicode.elasticvc.api.BranchCriteria;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
-import it.unimi.dsi.fastutil.longs.LongComparators;
 import org.apache.commons.lang3.NotImplementedException;
 
 import org.snomed.snowstorm.core.data.domain.Concept;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.util.IdSet;
 import org.snomed.snowstorm.core.util.PageHelper;
 import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
 import org.snomed.snowstorm.ecl.domain.RefinementBuilderImpl;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SRefinedExpressionConstraint;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SSubExpressionConstraint;
 import org.snomed.snowstorm.rest.converter.SearchAfterHelper;
 import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
 import org.springframework.data.domain.*;
@@ -26,6 +27,7 @@ import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
@@ -50,9 +52,50 @@ public class ConceptSelectorHelper {
 				null, null, refinementBuilder.getEclContentService(), false);
 	}
 
+	public static Page<Long> select(SExpressionConstraint sExpressionConstraint, RefinementBuilder refinementBuilder, Collection<Long> conceptIdFilter) {
+		return select(sExpressionConstraint, refinementBuilder.getBranchCriteria(), refinementBuilder.isStated(),
+				conceptIdFilter, null, refinementBuilder.getEclContentService(), false);
+	}
+
+	/**
+	 * Builds the criteria of the constraint once so that it can be counted, to plan the order of evaluation, and then selected
+	 * without running any nested constraints again. Constraints which are answered by the hierarchy graph or need a prefetch are materialised.
+	 */
+	public static PreparedSelection prepare(SExpressionConstraint sExpressionConstraint, RefinementBuilder refinementBuilder) {
+		BranchCriteria branchCriteria = refinementBuilder.getBranchCriteria();
+		boolean stated = refinementBuilder.isStated();
+		ECLContentService eclContentService = refinementBuilder.getEclContentService();
+
+		if (sExpressionConstraint instanceof SSubExpressionConstraint subExpressionConstraint) {
+			Set<Long> hierarchyIds = subExpressionConstraint.selectUsingHierarchyGraph(branchCriteria, stated, eclContentService);
+			if (hierarchyIds != null) {
+				return new PreparedSelection(IdSet.of(hierarchyIds));
+			}
+		}
+
+		BoolQuery.Builder queryBuilder = bool().must(getBranchAndStatedQuery(branchCriteria.getEntityBranchCriteria(QueryConcept.class), stated));
+		RefinementBuilder operandRefinementBuilder = new RefinementBuilderImpl(queryBuilder, branchCriteria, stated, eclContentService);
+		// Same as select
+		operandRefinementBuilder.setShouldPrefetchMemberOfQueryResults(!(sExpressionConstraint instanceof SRefinedExpressionConstraint));
+		PrefetchResult prefetchResult = new PrefetchResult();
+		sExpressionConstraint.addCriteria(operandRefinementBuilder, prefetchResult::set, false);
+		if (prefetchResult.isSet()) {
+			return new PreparedSelection(IdSet.of(prefetchResult.getIds()));
+		}
+		return new PreparedSelection(queryBuilder.build()._toQuery(), operandRefinementBuilder);
+	}
+
 	public static Page<Long> select(SExpressionConstraint sExpressionConstraint, BranchCriteria branchCriteria, boolean stated,
 			Collection<Long> conceptIdFilter, PageRequest pageRequest, ECLContentService eclContentService, boolean triedCache) {
 
+		if (sExpressionConstraint instanceof SSubExpressionConstraint subExpressionConstraint && isDefaultSort(pageRequest)) {
+			// Simple hierarchy constraints can be answered without Elasticsearch if the resident hierarchy graph is enabled
+			Set<Long> hierarchyIds = subExpressionConstraint.selectUsingHierarchyGraph(branchCriteria, stated, eclContentService);
+			if (hierarchyIds != null) {
+				return getPage(pageRequest, filterAndSort(hierarchyIds, conceptIdFilter));
+			}
+		}
+
 		BoolQuery.Builder queryBuilder = bool().must(getBranchAndStatedQuery(branchCriteria.getEntityBranchCriteria(QueryConcept.class), stated));
 		// This can add an inclusionFilter to the refinementBuilder or run pre-selections to apply filters
 		RefinementBuilder refinementBuilder = new RefinementBuilderImpl(queryBuilder, branchCriteria, stated, eclContentService);
@@ -107,15 +150,13 @@ public class ConceptSelectorHelper {
 		} else {
 			// Fetch all IDs
 			searchQueryBuilder.withPageable(LARGE_PAGE);
-			List<Long> addIds = new LongArrayList();
+			IdSet addIds = new IdSet();
 			try (SearchHitsIterator<QueryConcept> stream = conceptSelector.streamQueryResults(searchQueryBuilder.build())) {
 				stream.forEachRemaining(hit -> addIds.add(hit.getContent().getConceptIdL()));
 			}
 
-			// Stream search doesn't sort for us
-			addIds.sort(LongComparators.OPPOSITE_COMPARATOR);
-
-			return getPage(pageRequest, addIds);
+			// Stream search doesn't sort for us, the bitmap is iterated in the default sort order
+			return getPage(pageRequest, addIds.toDescendingList());
 		}
 	}
 
@@ -152,20 +193,81 @@ public class ConceptSelectorHelper {
 		} else {
 			// Fetch all IDs
 			searchQueryBuilder.withPageable(LARGE_PAGE);
-			List<Long> addIds = new LongArrayList();
-			try (SearchHitsIterator<QueryConcept> stream = eclContentService.streamQueryResults(searchQueryBuilder.build())) {
-				stream.forEachRemaining(hit -> {
-					if (inclusionFilter == null || inclusionFilter.apply(hit.getContent())) {
-						addIds.add(hit.getContent().getConceptIdL());
-					}
-				});
+			IdSet addIds = new IdSet();
+			streamIds(searchQueryBuilder, inclusionFilter, eclContentService, addIds::add);
+
+			// Stream search doesn't sort for us, the bitmap is iterated in the default sort order
+			return getPage(pageRequest, addIds.toDescendingList());
+		}
+	}
+
+	/**
+	 * Passes every concept id matching the expression constraint to the consumer, in no particular order.
+	 * Ids are streamed from Elasticsearch without being collected unless the constraint needs a prefetch, for example to apply filters.
+	 */
+	public static void stream(SExpressionConstraint sExpressionConstraint, BranchCriteria branchCriteria, boolean stated,
+			ECLContentService eclContentService, LongConsumer consumer) {
+
+		if (sExpressionConstraint instanceof SSubExpressionConstraint subExpressionConstraint) {
+			Set<Long> hierarchyIds = subExpressionConstraint.selectUsingHierarchyGraph(branchCriteria, stated, eclContentService);
+			if (hierarchyIds != null) {
+				hierarchyIds.forEach(consumer::accept);
+				return;
 			}
+		}
+
+		BoolQuery.Builder queryBuilder = bool().must(getBranchAndStatedQuery(branchCriteria.getEntityBranchCriteria(QueryConcept.class), stated));
+		RefinementBuilder refinementBuilder = new RefinementBuilderImpl(queryBuilder, branchCriteria, stated, eclContentService);
+		if (refinementBuilder.shouldPrefetchMemberOfQueryResults() == null) {
+			refinementBuilder.setShouldPrefetchMemberOfQueryResults(!(sExpressionConstraint instanceof SRefinedExpressionConstraint));
+		}
+		PrefetchResult prefetchResult = new PrefetchResult();
+		sExpressionConstraint.addCriteria(refinementBuilder, prefetchResult::set, false);
 
-			// Stream search doesn't sort for us
-			addIds.sort(LongComparators.OPPOSITE_COMPARATOR);
+		if (prefetchResult.isSet()) {
+			prefetchResult.getIds().forEach(consumer::accept);
+		} else {
+			Function<QueryConcept, Boolean> inclusionFilter = refinementBuilder.getInclusionFilter();
+			NativeQueryBuilder searchQueryBuilder = new NativeQueryBuilder()
+					.withQuery(queryBuilder.build()._toQuery())
+					.withSourceFilter(new FetchSourceFilter(getRequiredFields(inclusionFilter), null))
+					.withPageable(LARGE_PAGE);
+			streamIds(searchQueryBuilder, inclusionFilter, eclContentService, consumer);
+		}
+	}
+
+	public static void streamWildcardIds(Query query, ECLContentService eclContentService, LongConsumer consumer) {
+		NativeQueryBuilder searchQueryBuilder = new NativeQueryBuilder()
+				.withQuery(query)
+				.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID}, null))
+				.withPageable(LARGE_PAGE);
+		streamIds(searchQueryBuilder, null, eclContentService, consumer);
+	}
 
-			return getPage(pageRequest, addIds);
+	private static void streamIds(NativeQueryBuilder searchQueryBuilder, Function<QueryConcept, Boolean> inclusionFilter,
+			ECLContentService eclContentService, LongConsumer consumer) {
+
+		try (SearchHitsIterator<QueryConcept> stream = eclContentService.streamQueryResults(searchQueryBuilder.build())) {
+			stream.forEachRemaining(hit -> {
+				if (inclusionFilter == null || inclusionFilter.apply(hit.getContent())) {
+					consumer.accept(hit.getContent().getConceptIdL());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Terms query which is split into several clauses when there are more values than the index allows in a single terms query.
+	 */
+	public static Query termsQueryWithinLimit(String field, Collection<Long> values, int maxTermsCount) {
+		if (maxTermsCount <= 0 || values.size() <= maxTermsCount) {
+			return termsQuery(field, values);
+		}
+		BoolQuery.Builder queryBuilder = bool();
+		for (List<Long> batch : Iterables.partition(values, maxTermsCount)) {
+			queryBuilder.should(termsQuery(field, batch));
 		}
+		return queryBuilder.minimumShouldMatch("1").build()._toQuery();
 	}
 
 	public static Page<Long> getPage(PageRequest pageRequest, List<Long> ids) {
@@ -177,6 +279,23 @@ public class ConceptSelectorHelper {
 		}
 	}
 
+	private static boolean isDefaultSort(PageRequest pageRequest) {
+		if (pageRequest == null || Sort.unsorted().equals(pageRequest.getSort())) {
+			return true;
+		}
+		Sort.Order order = pageRequest.getSort().getOrderFor(QueryConcept.Fields.CONCEPT_ID);
+		return order != null && order.isDescending() && pageRequest.getSort().stream().count() == 1;
+	}
+
+	private static List<Long> filterAndSort(Set<Long> ids, Collection<Long> conceptIdFilter) {
+		IdSet idSet = IdSet.of(ids);
+		if (conceptIdFilter != null) {
+			idSet.and(IdSet.of(conceptIdFilter));
+		}
+		// Same order as the default Elasticsearch sort
+		return idSet.toDescendingList();
+	}
+
 	public static SortOptions getDefaultSortForQueryConcept() {
 		return SortOptions.of(s -> s.field(f -> f.field(QueryConcept.Fields.CONCEPT_ID).order(SortOrder.Desc)));
 	}
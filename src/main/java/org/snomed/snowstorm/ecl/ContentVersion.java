@@ -0,0 +1,36 @@
+package org.snomed.snowstorm.ecl;
+
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.PathUtil;
+import io.kaicode.elasticvc.domain.Branch;
+
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * The branch version which holds the content visible at a branch timepoint.
+ * A branch without content of its own has the same content as its parent at the base timepoint,
+ * in that case the parent version is used so that anything built from the content can be shared.
+ */
+record ContentVersion(String path, Date timepoint) {
+
+	/**
+	 * @param branch the version of the branch at the path with the given head timepoint, may be locked.
+	 */
+	static ContentVersion resolve(BranchService branchService, Branch branch, String path, Date timepoint) {
+		String contentPath = path;
+		Date contentTimepoint = timepoint;
+		while (branch != null && branch.getHeadTimestamp() == contentTimepoint.getTime() && !branch.isContainsContent()
+				&& branch.getVersionsReplaced().values().stream().allMatch(Set::isEmpty)) {
+			String parentPath = PathUtil.getParentPath(contentPath);
+			if (parentPath == null) {
+				break;
+			}
+			// Use the parent branch version at the base timepoint, normalised to the head of that version
+			branch = branchService.findAtTimepointOrThrow(parentPath, branch.getBase());
+			contentPath = parentPath;
+			contentTimepoint = branch.getHead();
+		}
+		return new ContentVersion(contentPath, contentTimepoint);
+	}
+}
@@ -38,7 +38,9 @@ import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
@@ -78,9 +80,20 @@ public class ECLContentService {
 	@Autowired
 	private ReferencedConceptsLookupService refsetConceptsLookupService;
 
+	@Autowired
+	private HierarchyGraphService hierarchyGraphService;
+
 	@Value("${ecl.concepts-lookup.enabled}")
 	private boolean conceptsLookupEnabled;
 
+	@Value("${ecl.parallel-operands.threads}")
+	private int parallelOperandThreads;
+
+	@Value("${ecl.parallel-operands.max-threads-per-query}")
+	private int parallelOperandMaxThreadsPerQuery;
+
+	private ECLOperandExecutor operandExecutor;
+
 	private SExpressionConstraint historyMaxECL;
 
 	private static final List<Long> HISTORY_PROFILE_MIN = Collections.singletonList(parseLong(Concepts.REFSET_SAME_AS_ASSOCIATION));
@@ -95,6 +108,20 @@ public class ECLContentService {
 	@PostConstruct
 	public void init() {
 		historyMaxECL = (SExpressionConstraint) eclQueryService.createQuery("< 900000000000522004 |Historical association reference set|");
+		operandExecutor = new ECLOperandExecutor(parallelOperandThreads, parallelOperandMaxThreadsPerQuery);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		operandExecutor.shutdown();
+	}
+
+	/**
+	 * Evaluates independent operands of a compound constraint, concurrently if enabled.
+	 * @return the results in the same order as the operands.
+	 */
+	public <T> List<T> evaluateOperands(List<Supplier<T>> operands) {
+		return operandExecutor.evaluateAll(operands);
 	}
 
 	public List<Long> fetchAllIdsWithCaching(SSubExpressionConstraint sSubExpressionConstraint, BranchCriteria branchCriteria, boolean stated) {
@@ -108,6 +135,10 @@ public class ECLContentService {
 		return PageHelper.toSearchAfterPage(searchHits, pageable);
 	}
 
+	public long countQueryResults(Query query) {
+		return elasticsearchOperations.count(new NativeQueryBuilder().withQuery(query).build(), QueryConcept.class);
+	}
+
 	public SearchHitsIterator<QueryConcept> streamQueryResults(NativeQuery searchQuery) {
 		return elasticsearchOperations.searchForStream(searchQuery, QueryConcept.class);
 	}
@@ -190,13 +221,28 @@ public class ECLContentService {
 	}
 
 	public Set<Long> findAncestorIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		HierarchyGraph hierarchyGraph = hierarchyGraphService.getGraph(branchCriteria, stated);
+		if (hierarchyGraph != null) {
+			return hierarchyGraph.findAncestors(conceptIds);
+		}
 		return queryService.findAncestorIdsAsUnion(branchCriteria, stated, conceptIds);
 	}
 
 	public Set<Long> findParentIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		HierarchyGraph hierarchyGraph = hierarchyGraphService.getGraph(branchCriteria, stated);
+		if (hierarchyGraph != null) {
+			return hierarchyGraph.findParents(conceptIds);
+		}
 		return queryService.findParentIdsAsUnion(branchCriteria, stated, conceptIds);
 	}
 
+	/**
+	 * @return the resident hierarchy graph of the branch version or null if the hierarchy graph is disabled.
+	 */
+	public HierarchyGraph getHierarchyGraph(BranchCriteria branchCriteria, boolean stated) {
+		return hierarchyGraphService.getGraph(branchCriteria, stated);
+	}
+
 	public Set<Long> applyConceptFilters(List<ConceptFilterConstraint> conceptFilters, Set<Long> conceptIdsToFilter, BranchCriteria branchCriteria, boolean stated) {
 
 		BoolQuery.Builder superQueryBuilder = bool().must(branchCriteria.getEntityBranchCriteria(Concept.class));
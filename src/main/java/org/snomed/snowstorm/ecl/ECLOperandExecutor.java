@@ -0,0 +1,102 @@
+package org.snomed.snowstorm.ecl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.snomed.snowstorm.core.data.services.RuntimeServiceException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates the independent operands of a compound ECL constraint concurrently.
+ * The calling thread always takes part in the work and helper tasks are only submitted to the shared pool up to the per query limit,
+ * so a single large query can not take all threads and a saturated pool degrades to sequential evaluation rather than blocking.
+ * Operands of nested compound constraints are evaluated on the thread which is already working on the outer operand.
+ */
+public class ECLOperandExecutor {
+
+	private static final ThreadLocal<Boolean> OPERAND_THREAD = ThreadLocal.withInitial(() -> false);
+
+	private final ExecutorService executorService;
+	private final int maxThreadsPerQuery;
+
+	public ECLOperandExecutor(int threads, int maxThreadsPerQuery) {
+		this.executorService = threads > 0 ? Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("ecl-operand-%d").setDaemon(true).build()) : null;
+		this.maxThreadsPerQuery = maxThreadsPerQuery;
+	}
+
+	/**
+	 * @return the results of the operands, in the same order as the operands.
+	 */
+	public <T> List<T> evaluateAll(List<Supplier<T>> operands) {
+		if (executorService == null || maxThreadsPerQuery < 2 || operands.size() < 2 || OPERAND_THREAD.get()) {
+			List<T> results = new ArrayList<>(operands.size());
+			for (Supplier<T> operand : operands) {
+				results.add(operand.get());
+			}
+			return results;
+		}
+
+		int count = operands.size();
+		Object[] results = new Object[count];
+		AtomicInteger next = new AtomicInteger();
+		CountDownLatch complete = new CountDownLatch(count);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Runnable worker = () -> {
+			boolean wasOperandThread = OPERAND_THREAD.get();
+			OPERAND_THREAD.set(true);
+			try {
+				int index;
+				while ((index = next.getAndIncrement()) < count) {
+					try {
+						if (failure.get() == null) {
+							results[index] = operands.get(index).get();
+						}
+					} catch (Throwable e) {
+						// Errors are captured too, otherwise an operand failing on a helper thread would leave a null result
+						failure.compareAndSet(null, e);
+					} finally {
+						complete.countDown();
+					}
+				}
+			} finally {
+				OPERAND_THREAD.set(wasOperandThread);
+			}
+		};
+
+		int helpers = Math.min(count, maxThreadsPerQuery) - 1;
+		for (int i = 0; i < helpers; i++) {
+			executorService.execute(worker);
+		}
+		worker.run();
+
+		try {
+			complete.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeServiceException("Interrupted while evaluating ECL operands.", e);
+		}
+		Throwable throwable = failure.get();
+		if (throwable instanceof RuntimeException runtimeException) {
+			throw runtimeException;
+		} else if (throwable instanceof Error error) {
+			throw error;
+		} else if (throwable != null) {
+			throw new RuntimeServiceException("Failed to evaluate ECL operand.", throwable);
+		}
+		@SuppressWarnings("unchecked")
+		List<T> resultList = (List<T>) Arrays.asList(results);
+		return resultList;
+	}
+
+	public void shutdown() {
+		if (executorService != null) {
+			executorService.shutdown();
+		}
+	}
+}
@@ -3,7 +3,10 @@ package org.snomed.snowstorm.ecl;
 import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import io.kaicode.elasticvc.api.BranchCriteria;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.domain.Branch;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,12 +17,14 @@ import org.snomed.langauges.ecl.domain.refinement.Operator;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
 import org.snomed.snowstorm.core.data.domain.ReferenceSetMember;
 import org.snomed.snowstorm.core.data.services.RuntimeServiceException;
+import org.snomed.snowstorm.core.util.IdSet;
 import org.snomed.snowstorm.core.util.SearchAfterPage;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SSubExpressionConstraint;
 import org.snomed.snowstorm.ecl.validation.ECLPreprocessingService;
 import org.snomed.snowstorm.rest.ControllerHelper;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
@@ -27,10 +32,8 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.LongConsumer;
 import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 
@@ -54,15 +57,26 @@ public class ECLQueryService {
 	@Value("${timer.ecl.duration-threshold}")
 	private int eclDurationLoggingThreshold;
 
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private ObjectProvider<MeterRegistry> meterRegistryProvider;
+
 	@Value("${cache.ecl.enabled}")
 	private boolean eclCacheEnabled;
 
-	private final ECLResultsCache resultsCache;
+	@Value("${cache.ecl.max-weight}")
+	private long eclCacheMaxWeight;
+
+	private ECLResultsCache resultsCache;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	public ECLQueryService() {
-		resultsCache = new ECLResultsCache();
+	@PostConstruct
+	public void init() {
+		resultsCache = new ECLResultsCache(eclCacheMaxWeight);
+		meterRegistryProvider.ifAvailable(resultsCache::bindMetrics);
 	}
 
 	public Page<Long> selectConceptIds(String ecl, BranchCriteria branchCriteria, boolean stated, PageRequest pageRequest) throws ECLException {
@@ -92,6 +106,28 @@ public class ECLQueryService {
 		return doSelectConceptIds(expressionConstraint, branchCriteria, stated, conceptIdFilter, pageRequest);
 	}
 
+	/**
+	 * Passes the id of every concept matching the ECL to the consumer, in no particular order.
+	 * Results are streamed from Elasticsearch rather than collected, paged or cached, so memory use does not grow with the size of the result.
+	 */
+	public void streamConceptIds(String ecl, BranchCriteria branchCriteria, boolean stated, LongConsumer consumer) throws ECLException {
+		SExpressionConstraint expressionConstraint = (SExpressionConstraint) eclQueryBuilder.createQuery(ecl);
+
+		if (isMemberFieldsSearch(expressionConstraint)) {
+			throw new RuntimeServiceException("ECL requesting specific refset member fields, can not return concept ids.");
+		}
+		expressionConstraint = eclPreprocessingService.replaceIncorrectConcreteAttributeValue(expressionConstraint, branchCriteria.getBranchPath());
+
+		TimerUtil eclSlowQueryTimer = getEclSlowQueryTimer();
+		if (expressionConstraint instanceof SSubExpressionConstraint subExpressionConstraint && subExpressionConstraint.isUnconstrained()) {
+			ConceptSelectorHelper.streamWildcardIds(ConceptSelectorHelper.getBranchAndStatedQuery(branchCriteria.getEntityBranchCriteria(QueryConcept.class), stated),
+					eclContentService, consumer);
+		} else {
+			ConceptSelectorHelper.stream(expressionConstraint, branchCriteria, stated, eclContentService, consumer);
+		}
+		eclSlowQueryTimer.checkpoint(String.format("ecl:'%s', streamed on %s.", ecl, branchCriteria.getBranchPath()));
+	}
+
 	public static boolean isMemberFieldsSearch(SExpressionConstraint expressionConstraint) {
 		if (expressionConstraint instanceof SSubExpressionConstraint constraint) {
 			return constraint.getOperator() == Operator.memberOf && (constraint.isReturnAllMemberFields() || constraint.getMemberFieldsToReturn() != null);
@@ -142,7 +178,7 @@ public class ECLQueryService {
 
 		Optional<Page<Long>> pageOptional;
 		if (eclCacheEnabled) {
-			BranchVersionECLCache branchVersionCache = resultsCache.getOrCreateBranchVersionCache(path, branchCriteria.getTimepoint());
+			BranchVersionECLCache branchVersionCache = getContentVersionCache(path, branchCriteria.getTimepoint());
 
 			PageRequest queryPageRequest = pageRequest;
 			LongPredicate filter = null;
@@ -150,15 +186,16 @@ public class ECLQueryService {
 				// Fetch all, without conceptIdFilter or paging. Apply filter and paging afterwards.
 				// This may be expensive, but it's the only way to allow the cache to help with this sort of query.
 				queryPageRequest = null;
-				final LongOpenHashSet fastSet = new LongOpenHashSet(conceptIdFilter);
-				filter = fastSet::contains;
+				final IdSet filterSet = IdSet.of(conceptIdFilter);
+				filter = filterSet::contains;
 			}
 
 			Page<Long> cachedPage = branchVersionCache.get(ecl, stated, queryPageRequest);
 			if (cachedPage != null) {
 				final int pageNumber = pageRequest != null ? pageRequest.getPageNumber() : 0;
 				final int pageSize = pageRequest != null ? pageRequest.getPageSize() : -1;
-				logger.info("ECL cache hit {}@{} \"{}\" {}:{}", path, branchCriteria.getTimepoint().getTime(), ecl, pageNumber, pageSize);
+				logger.info("ECL cache hit {}@{} \"{}\" {}:{}, content version {}@{}", path, branchCriteria.getTimepoint().getTime(), ecl, pageNumber, pageSize,
+						branchVersionCache.getPath(), branchVersionCache.getHead().getTime());
 				branchVersionCache.recordHit();
 
 				pageOptional = Optional.of(cachedPage);
@@ -196,6 +233,29 @@ public class ECLQueryService {
 		return pageOptional.get();
 	}
 
+	/**
+	 * Finds the cache of the content version visible at this branch timepoint.
+	 * A branch without content of its own has the same content as its parent at the base timepoint,
+	 * in that case the parent version is used so that the cached results are shared.
+	 */
+	private BranchVersionECLCache getContentVersionCache(String path, Date timepoint) {
+		BranchVersionECLCache resolved = resultsCache.getResolvedBranchVersionCache(path, timepoint);
+		if (resolved != null) {
+			return resolved;
+		}
+
+		Branch branch = branchService.findLatest(path);
+		// Content within an open commit may still change so is not shared or remembered
+		boolean completedCommit = branch != null && branch.getHeadTimestamp() == timepoint.getTime() && !branch.isLocked();
+		ContentVersion contentVersion = ContentVersion.resolve(branchService, branch, path, timepoint);
+
+		BranchVersionECLCache contentVersionCache = resultsCache.getOrCreateBranchVersionCache(contentVersion.path(), contentVersion.timepoint());
+		if (completedCommit) {
+			resultsCache.putResolvedBranchVersionCache(path, timepoint, contentVersionCache);
+		}
+		return contentVersionCache;
+	}
+
 	private Page<Long> getWildcardPage(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIdFilter, PageRequest pageRequest) {
 		// Wildcard expression. Grab a page of concepts with no criteria.
 		Query query = ConceptSelectorHelper.getBranchAndStatedQuery(branchCriteria.getEntityBranchCriteria(QueryConcept.class), stated);
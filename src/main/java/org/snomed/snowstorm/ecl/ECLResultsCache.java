@@ -1,45 +1,109 @@
 package org.snomed.snowstorm.ecl;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
 
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Bounded cache of ECL results.
+ * All results are held in a single cache weighed by the number of concept ids stored, the least recently used results are evicted first.
+ * Results are keyed by content version rather than branch so that branches without content of their own share the results of their parent.
+ */
 public class ECLResultsCache {
 
-	private final Map<String, BranchVersionECLCache> cacheMap;
+	public static final String CACHE_NAME = "ecl-results";
+
+	private final Cache<BranchVersionECLCache.ECLCacheEntry, Page<Long>> results;
+
+	private final Cache<String, BranchVersionECLCache> versionCaches;
+
+	private final Cache<String, BranchVersionECLCache> resolvedVersionCaches;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	public ECLResultsCache() {
-		cacheMap = new ConcurrentHashMap<>();
+	public ECLResultsCache(long maximumWeight) {
+		// Only holds statistics, results are held in the shared cache below
+		versionCaches = Caffeine.newBuilder()
+				.maximumSize(10_000)
+				.build();
+		results = Caffeine.newBuilder()
+				.maximumWeight(maximumWeight)
+				.weigher((BranchVersionECLCache.ECLCacheEntry key, Page<Long> page) -> page.getNumberOfElements() + 1)
+				// Keeps the entry count of each content version, run on the calling thread so the counts are current
+				.executor(Runnable::run)
+				.removalListener((BranchVersionECLCache.ECLCacheEntry key, Page<Long> page, RemovalCause cause) -> {
+					if (key != null && cause != RemovalCause.REPLACED) {
+						BranchVersionECLCache versionCache = versionCaches.getIfPresent(key.getVersionKey());
+						if (versionCache != null) {
+							versionCache.entryRemoved();
+						}
+					}
+				})
+				.recordStats()
+				.build();
+		// Branch version to content version lookup, avoids loading the branch for every query
+		resolvedVersionCaches = Caffeine.newBuilder()
+				.maximumSize(10_000)
+				.build();
 	}
 
-	public BranchVersionECLCache getOrCreateBranchVersionCache(String path, Date timepoint) {
-		BranchVersionECLCache branchVersionCache = cacheMap.get(path);
-		if (branchVersionCache == null || branchVersionCache.isExpired(timepoint)) {
+	public BranchVersionECLCache getResolvedBranchVersionCache(String path, Date timepoint) {
+		return resolvedVersionCaches.getIfPresent(path + "@" + timepoint.getTime());
+	}
 
-			if (branchVersionCache != null) {
-				logger.info("ECL cache expired {}@{}", path, timepoint.getTime());
-			}
+	public void putResolvedBranchVersionCache(String path, Date timepoint, BranchVersionECLCache contentVersionCache) {
+		resolvedVersionCaches.put(path + "@" + timepoint.getTime(), contentVersionCache);
+	}
 
-			branchVersionCache = new BranchVersionECLCache(timepoint);
+	/**
+	 * @param path path of the branch which holds the content. This may be an ancestor of the branch being queried.
+	 * @param timepoint head timepoint of the content version
+	 */
+	public BranchVersionECLCache getOrCreateBranchVersionCache(String path, Date timepoint) {
+		return versionCaches.get(BranchVersionECLCache.getVersionKey(path, timepoint.getTime()), key -> new BranchVersionECLCache(path, timepoint, results));
+	}
 
-			// Replacing the existing item will allow the old cache entry to be garbage collected
-			cacheMap.put(path, branchVersionCache);
-		}
-		return branchVersionCache;
+	public void bindMetrics(MeterRegistry meterRegistry) {
+		CaffeineCacheMetrics.monitor(meterRegistry, results, CACHE_NAME);
 	}
 
 	public Map<String, BranchVersionECLCache> getCacheMap() {
-		return new HashMap<>(cacheMap);
+		return new HashMap<>(versionCaches.asMap());
+	}
+
+	public Map<String, Long> getStats() {
+		CacheStats stats = results.stats();
+		Map<String, Long> statsMap = new HashMap<>();
+		statsMap.put("size", results.estimatedSize());
+		results.policy().eviction().ifPresent(eviction -> {
+			statsMap.put("weight", eviction.weightedSize().orElse(0));
+			statsMap.put("max-weight", eviction.getMaximum());
+		});
+		statsMap.put("hits", stats.hitCount());
+		statsMap.put("misses", stats.missCount());
+		statsMap.put("evictions", stats.evictionCount());
+		return statsMap;
+	}
+
+	// Runs pending eviction now rather than on the maintenance executor
+	void cleanUp() {
+		results.cleanUp();
 	}
 
 	public void clearCache() {
-		cacheMap.clear();
+		results.invalidateAll();
+		versionCaches.invalidateAll();
+		resolvedVersionCaches.invalidateAll();
 		logger.info("ECL cache cleared.");
 	}
 }
@@ -0,0 +1,246 @@
+package org.snomed.snowstorm.ecl;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.snomed.langauges.ecl.domain.refinement.Operator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact, immutable is-a graph of one branch version and form (stated/inferred).
+ * Concepts are held in a sorted long array, parent and child edges are held in CSR format (offset array plus edge array)
+ * using the int index of each concept. This keeps the graph of a full edition within a few tens of megabytes.
+ */
+public class HierarchyGraph {
+
+	private final long[] conceptIds;
+	private final int[] parentOffsets;
+	private final int[] parentIndexes;
+	private final int[] childOffsets;
+	private final int[] childIndexes;
+
+	private HierarchyGraph(long[] conceptIds, int[] parentOffsets, int[] parentIndexes, int[] childOffsets, int[] childIndexes) {
+		this.conceptIds = conceptIds;
+		this.parentOffsets = parentOffsets;
+		this.parentIndexes = parentIndexes;
+		this.childOffsets = childOffsets;
+		this.childIndexes = childIndexes;
+	}
+
+	/**
+	 * Selects the concepts matched by a hierarchy operator against the given focus concepts.
+	 * @return matching concept ids or null if the operator is not a hierarchy operator.
+	 */
+	public Set<Long> select(Operator operator, Collection<Long> focusConceptIds) {
+		if (operator == null) {
+			return null;
+		}
+		switch (operator) {
+			case childof:
+				return walk(focusConceptIds, childOffsets, childIndexes, false, false);
+			case childorselfof:
+				return walk(focusConceptIds, childOffsets, childIndexes, false, true);
+			case descendantof:
+				return walk(focusConceptIds, childOffsets, childIndexes, true, false);
+			case descendantorselfof:
+				return walk(focusConceptIds, childOffsets, childIndexes, true, true);
+			case parentof:
+				return walk(focusConceptIds, parentOffsets, parentIndexes, false, false);
+			case parentorselfof:
+				return walk(focusConceptIds, parentOffsets, parentIndexes, false, true);
+			case ancestorof:
+				return walk(focusConceptIds, parentOffsets, parentIndexes, true, false);
+			case ancestororselfof:
+				return walk(focusConceptIds, parentOffsets, parentIndexes, true, true);
+			default:
+				return null;
+		}
+	}
+
+	public Set<Long> findParents(Collection<Long> conceptIds) {
+		return walk(conceptIds, parentOffsets, parentIndexes, false, false);
+	}
+
+	public Set<Long> findAncestors(Collection<Long> conceptIds) {
+		return walk(conceptIds, parentOffsets, parentIndexes, true, false);
+	}
+
+	public Set<Long> findChildren(Collection<Long> conceptIds) {
+		return walk(conceptIds, childOffsets, childIndexes, false, false);
+	}
+
+	public Set<Long> findDescendants(Collection<Long> conceptIds) {
+		return walk(conceptIds, childOffsets, childIndexes, true, false);
+	}
+
+	/**
+	 * @return true if the first concept is a transitive parent of the second.
+	 */
+	public boolean isAncestor(long ancestorId, long conceptId) {
+		int ancestorIndex = indexOf(ancestorId);
+		int index = indexOf(conceptId);
+		if (ancestorIndex < 0 || index < 0) {
+			return false;
+		}
+		// Ancestor sets are small so visited indexes are held in a hash set rather than a bitset of the whole graph
+		IntOpenHashSet visited = new IntOpenHashSet();
+		IntArrayList queue = new IntArrayList();
+		queue.add(index);
+		while (!queue.isEmpty()) {
+			int current = queue.popInt();
+			for (int e = parentOffsets[current]; e < parentOffsets[current + 1]; e++) {
+				int parent = parentIndexes[e];
+				if (parent == ancestorIndex) {
+					return true;
+				}
+				if (visited.add(parent)) {
+					queue.add(parent);
+				}
+			}
+		}
+		return false;
+	}
+
+	public boolean contains(long conceptId) {
+		return indexOf(conceptId) >= 0;
+	}
+
+	public int size() {
+		return conceptIds.length;
+	}
+
+	/**
+	 * Creates a copy of this graph with the parents of some concepts replaced, the graph itself is not changed.
+	 * An unchanged concept without parents which is only held as the parent of other concepts is dropped when it has no children left.
+	 * @param newParents the new parents of each changed concept.
+	 * @param removedConceptIds concepts to remove, these are kept as long as they are still the parent of another concept.
+	 */
+	public HierarchyGraph withChanges(Map<Long, Set<Long>> newParents, Set<Long> removedConceptIds) {
+		Builder builder = builder();
+		for (int index = 0; index < conceptIds.length; index++) {
+			long conceptId = conceptIds[index];
+			if (removedConceptIds.contains(conceptId) || newParents.containsKey(conceptId)) {
+				continue;
+			}
+			boolean hasParents = parentOffsets[index] < parentOffsets[index + 1];
+			boolean hasChildren = childOffsets[index] < childOffsets[index + 1];
+			if (hasParents || !hasChildren) {
+				builder.addNode(conceptId);
+			}
+			for (int e = parentOffsets[index]; e < parentOffsets[index + 1]; e++) {
+				builder.addParent(conceptId, conceptIds[parentIndexes[e]]);
+			}
+		}
+		newParents.forEach((conceptId, parents) -> {
+			if (!removedConceptIds.contains(conceptId)) {
+				builder.addNode(conceptId);
+				parents.forEach(parent -> builder.addParent(conceptId, parent));
+			}
+		});
+		return builder.build();
+	}
+
+	private Set<Long> walk(Collection<Long> startIds, int[] offsets, int[] edges, boolean transitive, boolean includeSelf) {
+		LongOpenHashSet results = new LongOpenHashSet();
+		BitSet visited = new BitSet(conceptIds.length);
+		IntArrayList queue = new IntArrayList();
+		for (Long startId : startIds) {
+			int index = indexOf(startId);
+			if (index < 0) {
+				continue;
+			}
+			if (includeSelf) {
+				results.add(conceptIds[index]);
+			}
+			queue.add(index);
+		}
+		// The start concepts are not marked as visited, they may still be reached as a relative of another start concept.
+		while (!queue.isEmpty()) {
+			int index = queue.popInt();
+			for (int e = offsets[index]; e < offsets[index + 1]; e++) {
+				int relative = edges[e];
+				if (!visited.get(relative)) {
+					visited.set(relative);
+					results.add(conceptIds[relative]);
+					if (transitive) {
+						queue.add(relative);
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	private int indexOf(long conceptId) {
+		return Arrays.binarySearch(conceptIds, conceptId);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+
+		private final LongOpenHashSet nodes = new LongOpenHashSet();
+		private final LongArrayList edgeChildren = new LongArrayList();
+		private final LongArrayList edgeParents = new LongArrayList();
+
+		private Builder() {
+		}
+
+		public Builder addNode(long conceptId) {
+			nodes.add(conceptId);
+			return this;
+		}
+
+		public Builder addParent(long conceptId, long parentId) {
+			nodes.add(conceptId);
+			nodes.add(parentId);
+			edgeChildren.add(conceptId);
+			edgeParents.add(parentId);
+			return this;
+		}
+
+		public HierarchyGraph build() {
+			long[] conceptIds = nodes.toLongArray();
+			Arrays.sort(conceptIds);
+			int nodeCount = conceptIds.length;
+			int edgeCount = edgeChildren.size();
+
+			int[] childIndexOfEdge = new int[edgeCount];
+			int[] parentIndexOfEdge = new int[edgeCount];
+			int[] parentOffsets = new int[nodeCount + 1];
+			int[] childOffsets = new int[nodeCount + 1];
+			for (int e = 0; e < edgeCount; e++) {
+				int child = Arrays.binarySearch(conceptIds, edgeChildren.getLong(e));
+				int parent = Arrays.binarySearch(conceptIds, edgeParents.getLong(e));
+				childIndexOfEdge[e] = child;
+				parentIndexOfEdge[e] = parent;
+				parentOffsets[child + 1]++;
+				childOffsets[parent + 1]++;
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				parentOffsets[i + 1] += parentOffsets[i];
+				childOffsets[i + 1] += childOffsets[i];
+			}
+
+			int[] parentIndexes = new int[edgeCount];
+			int[] childIndexes = new int[edgeCount];
+			int[] parentCursor = Arrays.copyOf(parentOffsets, nodeCount);
+			int[] childCursor = Arrays.copyOf(childOffsets, nodeCount);
+			for (int e = 0; e < edgeCount; e++) {
+				int child = childIndexOfEdge[e];
+				int parent = parentIndexOfEdge[e];
+				parentIndexes[parentCursor[child]++] = parent;
+				childIndexes[childCursor[parent]++] = child;
+			}
+			return new HierarchyGraph(conceptIds, parentOffsets, parentIndexes, childOffsets, childIndexes);
+		}
+	}
+}
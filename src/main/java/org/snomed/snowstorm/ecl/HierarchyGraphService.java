@@ -0,0 +1,255 @@
+package org.snomed.snowstorm.ecl;
+
+import ch.qos.logback.classic.Level;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.CommitListener;
+import io.kaicode.elasticvc.domain.Branch;
+import io.kaicode.elasticvc.domain.Commit;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
+import static io.kaicode.elasticvc.helper.QueryHelper.termQuery;
+
+/**
+ * Holds a resident hierarchy graph per content version and form, built from the semantic index.
+ * Graphs are keyed by the branch path and head timepoint of the version which holds the content, so a branch without content of its own
+ * shares the graph of its parent version.
+ * When a content commit completes the parent changes made to the semantic index in that commit are applied to a copy of the graph of the
+ * previous version, which becomes the graph of the new head. Other graphs are built from the semantic index in the background when first
+ * requested. Until a graph is ready callers fall back to Elasticsearch, so no query waits for a graph to be built.
+ * Graphs are only requested for completed commits. The least recently used graphs are evicted when the limit is reached.
+ */
+@Service
+public class HierarchyGraphService implements CommitListener {
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Value("${ecl.hierarchy-graph.enabled}")
+	private boolean enabled;
+
+	@Value("${ecl.hierarchy-graph.max-graphs}")
+	private int maxGraphs;
+
+	private Cache<GraphKey, HierarchyGraph> graphs;
+
+	// Content version of each completed branch version which has been requested, keyed by path@timepoint
+	private Cache<String, ContentVersion> contentVersions;
+
+	// Semantic index changes of open commits, weak keys so that the changes of failed commits are released
+	private final Cache<Commit, CommitChanges> commitChanges = Caffeine.newBuilder().weakKeys().build();
+
+	// Graphs being built, so that each graph is only built once
+	private final Map<GraphKey, Future<?>> builds = new ConcurrentHashMap<>();
+
+	private ExecutorService buildExecutor;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	@PostConstruct
+	public void init() {
+		graphs = Caffeine.newBuilder().maximumSize(maxGraphs).build();
+		contentVersions = Caffeine.newBuilder().maximumSize(10_000).build();
+		buildExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("hierarchy-graph-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		buildExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return the hierarchy graph for the branch version and form or null if the hierarchy graph is disabled or not built yet.
+	 * When the graph is missing a build is started in the background.
+	 */
+	public HierarchyGraph getGraph(BranchCriteria branchCriteria, boolean stated) {
+		if (!enabled) {
+			return null;
+		}
+		GraphKey key = getGraphKey(branchCriteria, stated);
+		if (key == null) {
+			return null;
+		}
+		HierarchyGraph graph = graphs.getIfPresent(key);
+		if (graph == null) {
+			startBuild(key, branchCriteria);
+		}
+		return graph;
+	}
+
+	/**
+	 * Waits for the graph of the branch version and form to be built.
+	 * @return the hierarchy graph or null if the graph can not be built for this branch version.
+	 */
+	HierarchyGraph awaitGraph(BranchCriteria branchCriteria, boolean stated) throws ExecutionException, InterruptedException {
+		if (!enabled) {
+			return null;
+		}
+		GraphKey key = getGraphKey(branchCriteria, stated);
+		if (key == null) {
+			return null;
+		}
+		Future<?> build = startBuild(key, branchCriteria);
+		if (build != null) {
+			build.get();
+		}
+		return graphs.getIfPresent(key);
+	}
+
+	private GraphKey getGraphKey(BranchCriteria branchCriteria, boolean stated) {
+		String path = branchCriteria.getBranchPath();
+		Date timepoint = branchCriteria.getTimepoint();
+		String versionKey = path + "@" + timepoint.getTime();
+		ContentVersion contentVersion = contentVersions.getIfPresent(versionKey);
+		if (contentVersion == null) {
+			// Only use graphs for completed commits, content may still be changing within an open commit.
+			Branch latest = branchService.findLatest(path);
+			if (latest == null || latest.isLocked() || latest.getHeadTimestamp() != timepoint.getTime()) {
+				return null;
+			}
+			contentVersion = ContentVersion.resolve(branchService, latest, path, timepoint);
+			contentVersions.put(versionKey, contentVersion);
+		}
+		return new GraphKey(contentVersion.path(), contentVersion.timepoint().getTime(), stated);
+	}
+
+	private Future<?> startBuild(GraphKey key, BranchCriteria branchCriteria) {
+		if (graphs.getIfPresent(key) != null) {
+			return null;
+		}
+		// The branch criteria may be of a child branch version which has the same content
+		return builds.computeIfAbsent(key, k -> buildExecutor.submit(() -> {
+			try {
+				graphs.put(k, buildGraph(branchCriteria, k.stated()));
+			} catch (RuntimeException e) {
+				logger.warn("Failed to build {} hierarchy graph for {}@{}.", k.stated() ? "stated" : "inferred", k.path(), k.timepoint(), e);
+			} finally {
+				builds.remove(k);
+			}
+		}));
+	}
+	private HierarchyGraph buildGraph(BranchCriteria branchCriteria, boolean stated) {
+		TimerUtil timer = new TimerUtil("Hierarchy graph " + branchCriteria.getBranchPath(), Level.INFO, 2);
+		HierarchyGraph.Builder builder = HierarchyGraph.builder();
+		NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+						.must(termQuery(QueryConcept.Fields.STATED, stated)))
+				)
+				.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.PARENTS}, null))
+				.withPageable(LARGE_PAGE);
+		try (SearchHitsIterator<QueryConcept> stream = elasticsearchOperations.searchForStream(queryBuilder.build(), QueryConcept.class)) {
+			stream.forEachRemaining(hit -> {
+				QueryConcept queryConcept = hit.getContent();
+				long conceptId = queryConcept.getConceptIdL();
+				builder.addNode(conceptId);
+				if (queryConcept.getParents() != null) {
+					for (Long parent : queryConcept.getParents()) {
+						builder.addParent(conceptId, parent);
+					}
+				}
+			});
+		}
+		HierarchyGraph graph = builder.build();
+		timer.finish();
+		logger.info("Built {} hierarchy graph of {} concepts for {}@{}.", stated ? "stated" : "inferred", graph.size(),
+				branchCriteria.getBranchPath(), branchCriteria.getTimepoint().getTime());
+		return graph;
+	}
+
+	/**
+	 * Records the parent changes made to the semantic index of one form within an open commit.
+	 * @param newParents the new parents of each concept saved to the semantic index.
+	 * @param removedConceptIds concepts removed from the semantic index.
+	 */
+	public void recordParentChanges(Commit commit, boolean stated, Map<Long, Set<Long>> newParents, Set<Long> removedConceptIds) {
+		if (enabled) {
+			commitChanges.get(commit, c -> new CommitChanges()).forms().put(stated, new FormChanges(newParents, removedConceptIds));
+		}
+	}
+
+	/**
+	 * Records that the semantic index was rebuilt within an open commit, the graph of the new head is then built from the semantic index.
+	 */
+	public void recordRebuild(Commit commit) {
+		if (enabled) {
+			commitChanges.get(commit, c -> new CommitChanges()).rebuild().set(true);
+		}
+	}
+
+	@Override
+	public void preCommitCompletion(Commit commit) throws IllegalStateException {
+		CommitChanges changes = commitChanges.getIfPresent(commit);
+		commitChanges.invalidate(commit);
+		if (!enabled || commit.getCommitType() != Commit.CommitType.CONTENT || (changes != null && changes.rebuild().get())) {
+			// The graphs of other commits are built from the semantic index when next requested
+			return;
+		}
+
+		// The semantic index of the new head is the previous version plus the changes of this commit
+		Branch branch = commit.getBranch();
+		ContentVersion previousVersion = ContentVersion.resolve(branchService, branch, branch.getPath(), branch.getHead());
+		for (boolean stated : new boolean[]{true, false}) {
+			HierarchyGraph previousGraph = graphs.getIfPresent(new GraphKey(previousVersion.path(), previousVersion.timepoint().getTime(), stated));
+			if (previousGraph == null) {
+				continue;
+			}
+			FormChanges formChanges = changes != null ? changes.forms().get(stated) : null;
+			HierarchyGraph graph = formChanges != null ? previousGraph.withChanges(formChanges.newParents(), formChanges.removedConceptIds()) : previousGraph;
+			graphs.put(new GraphKey(branch.getPath(), commit.getTimepoint().getTime(), stated), graph);
+			logger.debug("Updated {} hierarchy graph for {}@{} with {} changed concepts.", stated ? "stated" : "inferred", branch.getPath(),
+					commit.getTimepoint().getTime(), formChanges != null ? formChanges.newParents().size() + formChanges.removedConceptIds().size() : 0);
+		}
+	}
+
+	public void clearCache() {
+		graphs.invalidateAll();
+		contentVersions.invalidateAll();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	private record GraphKey(String path, long timepoint, boolean stated) {
+	}
+
+	private record CommitChanges(AtomicBoolean rebuild, Map<Boolean, FormChanges> forms) {
+		private CommitChanges() {
+			this(new AtomicBoolean(), new ConcurrentHashMap<>());
+		}
+	}
+
+	private record FormChanges(Map<Long, Set<Long>> newParents, Set<Long> removedConceptIds) {
+	}
+}
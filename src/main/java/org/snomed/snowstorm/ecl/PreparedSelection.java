@@ -0,0 +1,113 @@
+package org.snomed.snowstorm.ecl;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import org.snomed.snowstorm.core.util.IdSet;
+import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Criteria of an expression constraint which have been built once so that they can be counted and then selected
+ * without evaluating any nested constraints again.
+ * Holds either the ids, if the constraint was already materialised while building the criteria, or the query to run.
+ */
+public class PreparedSelection {
+
+	private final IdSet ids;
+	private final Query query;
+	private final RefinementBuilder refinementBuilder;
+
+	PreparedSelection(IdSet ids) {
+		this.ids = ids;
+		this.query = null;
+		this.refinementBuilder = null;
+	}
+
+	PreparedSelection(Query query, RefinementBuilder refinementBuilder) {
+		this.ids = null;
+		this.query = query;
+		this.refinementBuilder = refinementBuilder;
+	}
+
+	public boolean isMaterialised() {
+		return ids != null;
+	}
+
+	/**
+	 * Exact size if materialised, otherwise the query is counted without any inclusion filter so the count may be higher than the real number.
+	 */
+	public long count() {
+		if (ids != null) {
+			return ids.size();
+		}
+		return refinementBuilder.getEclContentService().countQueryResults(query);
+	}
+
+	/**
+	 * @param conceptIdFilter optional filter, pushed down to the query when not materialised.
+	 */
+	public IdSet select(Collection<Long> conceptIdFilter) {
+		if (ids != null) {
+			IdSet result = new IdSet().or(ids);
+			if (conceptIdFilter != null) {
+				result.and(IdSet.of(conceptIdFilter));
+			}
+			return result;
+		}
+		List<Long> content = ConceptSelectorHelper.fetchIds(query, conceptIdFilter, refinementBuilder, null).getContent();
+		return IdSet.of(content);
+	}
+
+	/**
+	 * Intersects the ids with each operand, most selective first, materialised operands before the rest.
+	 * The operands are only counted to plan the order when there are more than two and none are materialised already.
+	 * The ids matched so far are pushed down as a concept id filter when that is cheaper than fetching the operand and intersecting in memory,
+	 * and the ids are within the terms limit. Evaluation stops as soon as the intersection is empty.
+	 */
+	public static IdSet intersect(IdSet ids, List<PreparedSelection> operands, int maxTermsCount, ECLContentService eclContentService) {
+		Long[] estimates = new Long[operands.size()];
+		boolean anyMaterialised = operands.stream().anyMatch(PreparedSelection::isMaterialised);
+		if (operands.size() > 2 && !anyMaterialised) {
+			List<Long> counts = eclContentService.evaluateOperands(operands.stream()
+					.map(prepared -> (Supplier<Long>) prepared::count)
+					.toList());
+			counts.toArray(estimates);
+		} else {
+			for (int i = 0; i < operands.size(); i++) {
+				if (operands.get(i).isMaterialised()) {
+					// Exact and free to count
+					estimates[i] = operands.get(i).count();
+				}
+			}
+		}
+		List<Integer> plan = new ArrayList<>();
+		for (int i = 0; i < operands.size(); i++) {
+			plan.add(i);
+		}
+		// Operands without an estimate keep their order, after those with one
+		plan.sort(Comparator.comparing((Integer index) -> estimates[index], Comparator.nullsLast(Comparator.naturalOrder())));
+
+		IdSet result = ids;
+		for (Integer operandIndex : plan) {
+			if (result.isEmpty()) {
+				break;
+			}
+			PreparedSelection prepared = operands.get(operandIndex);
+			if (prepared.isMaterialised()) {
+				result.and(prepared.select(null));
+				continue;
+			}
+			Long estimate = estimates[operandIndex];
+			if ((estimate == null || result.size() <= estimate) && result.size() <= maxTermsCount) {
+				result = prepared.select(result.toAscendingList());
+			} else {
+				result.and(prepared.select(null));
+			}
+		}
+		return result;
+	}
+}
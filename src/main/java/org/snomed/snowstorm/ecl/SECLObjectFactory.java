@@ -20,9 +20,11 @@ import java.util.List;
 public class SECLObjectFactory extends ECLObjectFactory {
 
 	private final int maxTermsCount;
+	private final int maxNestedResults;
 
-	public SECLObjectFactory(int maxTermsCount) {
+	public SECLObjectFactory(int maxTermsCount, int maxNestedResults) {
 		this.maxTermsCount = maxTermsCount;
+		this.maxNestedResults = maxNestedResults;
 	}
 
 	@Override
@@ -42,7 +44,7 @@ public class SECLObjectFactory extends ECLObjectFactory {
 
 	@Override
 	protected SubExpressionConstraint getSubExpressionConstraint(Operator operator) {
-		return new SSubExpressionConstraint(operator, maxTermsCount);
+		return new SSubExpressionConstraint(operator, maxTermsCount, maxNestedResults);
 	}
 
 	@Override
@@ -3,24 +3,22 @@ package org.snomed.snowstorm.ecl.domain.expressionconstraint;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
-import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 import org.snomed.langauges.ecl.domain.expressionconstraint.CompoundExpressionConstraint;
 import org.snomed.langauges.ecl.domain.expressionconstraint.SubExpressionConstraint;
+import org.snomed.snowstorm.core.util.IdSet;
 import org.snomed.snowstorm.ecl.ConceptSelectorHelper;
 import org.snomed.snowstorm.ecl.ECLContentService;
+import org.snomed.snowstorm.ecl.PreparedSelection;
 import org.snomed.snowstorm.ecl.deserializer.ECLModelDeserializer;
 import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
 import org.snomed.snowstorm.ecl.domain.SubRefinementBuilder;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 import static com.google.common.collect.Sets.*;
@@ -69,17 +67,7 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 		if (conjunctionExpressionConstraints != null) {
 			if (anyWithFiltersOrSupplements(conjunctionExpressionConstraints) || anyMemberOfQuery(conjunctionExpressionConstraints)) {
 				// Prefetch all
-				Set<Long> result = null;
-				for (SubExpressionConstraint conjunctionExpressionConstraint : conjunctionExpressionConstraints) {
-					List<Long> ids = ConceptSelectorHelper.select((SSubExpressionConstraint) conjunctionExpressionConstraint, refinementBuilder).getContent();
-					Set<Long> resultSet = new LongLinkedOpenHashSet(ids);
-					if (result == null) {
-						result = resultSet;
-					} else {
-						result = intersection(result, resultSet);
-					}
-				}
-				filteredOrSupplementedContentCallback.accept(result != null ? sortedList(result) : null);
+				filteredOrSupplementedContentCallback.accept(selectConjunction(refinementBuilder).toAscendingList());
 
 			} else {
 				for (SubExpressionConstraint conjunctionExpressionConstraint : conjunctionExpressionConstraints) {
@@ -89,16 +77,15 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 		} else if (disjunctionExpressionConstraints != null) {
 			if (anyWithFiltersOrSupplements(disjunctionExpressionConstraints) || anyMemberOfQuery(disjunctionExpressionConstraints)) {
 				// Prefetch all
-				Set<Long> result = null;
-				for (SubExpressionConstraint disjunctionExpressionConstraint : disjunctionExpressionConstraints) {
-					List<Long> ids = ConceptSelectorHelper.select((SSubExpressionConstraint) disjunctionExpressionConstraint, refinementBuilder).getContent();
+				IdSet result = null;
+				for (List<Long> ids : selectOperands(disjunctionExpressionConstraints, refinementBuilder)) {
 					if (result == null) {
-						result = new LongOpenHashSet(ids);
+						result = IdSet.of(ids);
 					} else {
 						result.addAll(ids);
 					}
 				}
-				filteredOrSupplementedContentCallback.accept(result != null ? sortedList(result) : null);
+				filteredOrSupplementedContentCallback.accept(result != null ? result.toAscendingList() : null);
 
 			} else {
 				BoolQuery.Builder queryBuilder = bool();
@@ -115,8 +102,16 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 			SSubExpressionConstraint second = (SSubExpressionConstraint) exclusionExpressionConstraints.getSecond();
 
 			if (first.isAnyFiltersOrSupplements() || second.isAnyFiltersOrSupplements() || anyMemberOfQuery(List.of(first,second))) {
-				List<Long> ids = new LongArrayList(ConceptSelectorHelper.select(first, refinementBuilder).getContent());
-				ids.removeAll(ConceptSelectorHelper.select(second, refinementBuilder).getContent());
+				List<List<Long>> operandIds = selectOperands(List.of(first, second), refinementBuilder);
+				List<Long> firstIds = operandIds.get(0);
+				IdSet excluded = IdSet.of(operandIds.get(1));
+				// Keep the order of the first set
+				List<Long> ids = new LongArrayList(firstIds.size());
+				for (Long id : firstIds) {
+					if (!excluded.contains(id)) {
+						ids.add(id);
+					}
+				}
 				filteredOrSupplementedContentCallback.accept(ids);
 
 			} else {
@@ -128,10 +123,45 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 		}
 	}
 
-	private LongArrayList sortedList(Set<Long> result) {
-		LongArrayList longs = new LongArrayList(result);
-		longs.sort(null);
-		return longs;
+	/**
+	 * Operands which must be prefetched are fetched first. The criteria of the other operands are then built once each and
+	 * intersected with the ids matched so far, see {@link PreparedSelection#intersect}.
+	 */
+	private IdSet selectConjunction(RefinementBuilder refinementBuilder) {
+		List<SubExpressionConstraint> prefetchOperands = conjunctionExpressionConstraints.stream().filter(this::isPrefetchRequired).toList();
+		List<SubExpressionConstraint> queryOperands = conjunctionExpressionConstraints.stream().filter(constraint -> !isPrefetchRequired(constraint)).toList();
+
+		IdSet result = null;
+		for (List<Long> ids : selectOperands(prefetchOperands, refinementBuilder)) {
+			if (result == null) {
+				result = IdSet.of(ids);
+			} else {
+				result.and(IdSet.of(ids));
+			}
+		}
+		if (result == null || result.isEmpty() || queryOperands.isEmpty()) {
+			return result != null ? result : new IdSet();
+		}
+
+		ECLContentService eclContentService = refinementBuilder.getEclContentService();
+		List<PreparedSelection> preparedOperands = eclContentService.evaluateOperands(queryOperands.stream()
+				.map(constraint -> (Supplier<PreparedSelection>) () -> ConceptSelectorHelper.prepare((SSubExpressionConstraint) constraint, refinementBuilder))
+				.toList());
+		int maxTermsCount = ((SSubExpressionConstraint) queryOperands.get(0)).getMaxTermsCount();
+		return PreparedSelection.intersect(result, preparedOperands, maxTermsCount, eclContentService);
+	}
+
+	private boolean isPrefetchRequired(SubExpressionConstraint subExpressionConstraint) {
+		SSubExpressionConstraint constraint = (SSubExpressionConstraint) subExpressionConstraint;
+		return constraint.isAnyFiltersOrSupplements() || constraint.isMemberOfQuery() || constraint.isNestedExpressionConstraintMemberOfQuery();
+	}
+
+	private List<List<Long>> selectOperands(List<SubExpressionConstraint> subExpressionConstraints, RefinementBuilder refinementBuilder) {
+		// Operands are independent so can be fetched concurrently
+		List<Supplier<List<Long>>> operands = subExpressionConstraints.stream()
+				.map(constraint -> (Supplier<List<Long>>) () -> ConceptSelectorHelper.select((SSubExpressionConstraint) constraint, refinementBuilder).getContent())
+				.toList();
+		return refinementBuilder.getEclContentService().evaluateOperands(operands);
 	}
 
 	private boolean anyWithFiltersOrSupplements(List<SubExpressionConstraint> subExpressionConstraints) {
@@ -1,7 +1,9 @@
 package org.snomed.snowstorm.ecl.domain.expressionconstraint;
 
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.collect.Iterables;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
@@ -16,8 +18,10 @@ import org.snomed.langauges.ecl.domain.refinement.Operator;
 import org.snomed.snowstorm.core.data.domain.Concepts;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
 import org.snomed.snowstorm.core.data.domain.ReferencedConceptsLookup;
+import org.snomed.snowstorm.core.util.IdSet;
 import org.snomed.snowstorm.ecl.ConceptSelectorHelper;
 import org.snomed.snowstorm.ecl.ECLContentService;
+import org.snomed.snowstorm.ecl.HierarchyGraph;
 import org.snomed.snowstorm.ecl.deserializer.ECLModelDeserializer;
 import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
 import org.snomed.snowstorm.ecl.domain.SubRefinementBuilder;
@@ -40,6 +44,7 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 	private final Logger logger = LoggerFactory.getLogger(SSubExpressionConstraint.class);
 
 	private int maxTermsCount;
+	private int maxNestedResults;
 
 	@SuppressWarnings("unused")
 	// For JSON
@@ -47,9 +52,10 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 		super(null);
 	}
 
-	public SSubExpressionConstraint(Operator operator, int maxTermsCount) {
+	public SSubExpressionConstraint(Operator operator, int maxTermsCount, int maxNestedResults) {
 		super(operator);
 		this.maxTermsCount = maxTermsCount;
+		this.maxNestedResults = maxNestedResults;
 	}
 
 	@Override
@@ -62,6 +68,11 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 		return Optional.of(ConceptSelectorHelper.select(this, branchCriteria, stated, conceptIdFilter, pageRequest, eclContentService, triedCache));
 	}
 
+	@JsonIgnore
+	public int getMaxTermsCount() {
+		return maxTermsCount;
+	}
+
 	@JsonIgnore
 	public boolean isUnconstrained() {
 		return wildcard
@@ -87,6 +98,21 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 		return false;
 	}
 
+	/**
+	 * Resolves a simple hierarchy constraint, for example "<< 404684003", using the resident hierarchy graph of the branch.
+	 * @return the matching concept ids or null if the constraint can not be answered by the hierarchy graph.
+	 */
+	public Set<Long> selectUsingHierarchyGraph(BranchCriteria branchCriteria, boolean stated, ECLContentService eclContentService) {
+		if (conceptId == null || operator == null || operator == Operator.memberOf || isAnyFiltersOrSupplements()) {
+			return null;
+		}
+		HierarchyGraph hierarchyGraph = eclContentService.getHierarchyGraph(branchCriteria, stated);
+		if (hierarchyGraph == null) {
+			return null;
+		}
+		return hierarchyGraph.select(operator, Collections.singleton(parseLong(conceptId)));
+	}
+
 	@JsonIgnore
 	public boolean isAnyFiltersOrSupplementsExcludingMemberFilters() {
 		return conceptFilterConstraints != null || descriptionFilterConstraints != null || getHistorySupplement() != null;
@@ -171,7 +197,7 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 	}
 
 	private SSubExpressionConstraint cloneWithoutFiltersOrSupplements() {
-		SSubExpressionConstraint clone = new SSubExpressionConstraint(operator, maxTermsCount);
+		SSubExpressionConstraint clone = new SSubExpressionConstraint(operator, maxTermsCount, maxNestedResults);
 		clone.setConceptId(conceptId);
 		clone.setTerm(term);
 		clone.setWildcard(wildcard);
@@ -214,7 +240,7 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 
 			SortedSet<Long> conceptIdSortedSet = new LongLinkedOpenHashSet(prefetchedConceptIds);
 			conceptIdSortedSet = applyFilters(conceptIdSortedSet, eclContentService, branchCriteria, stated);
-			query.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIdSortedSet));
+			query.must(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIdSortedSet));
 			filteredOrSupplementedContentCallback.accept(new LongArrayList(conceptIdSortedSet));
 		} else {
 			doAddCriteria(refinementBuilder, query);
@@ -226,6 +252,8 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 				(refinementBuilder.shouldPrefetchMemberOfQueryResults() != null && refinementBuilder.shouldPrefetchMemberOfQueryResults()));
 	}
 
+	// Insertion ordered sets are used rather than IdSet because the order of the prefetched ids, and of the description filter results,
+	// is the order of the selection returned. IdSet can only be iterated in id order.
 	private SortedSet<Long> applyFilters(SortedSet<Long> conceptIdSortedSet, ECLContentService eclContentService, BranchCriteria branchCriteria, boolean stated) {
 		if (!conceptIdSortedSet.isEmpty()) {
 			// Apply filter constraints
@@ -278,18 +306,19 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 			}
 			BoolQuery.Builder filterQueryBuilder = bool();
 			if (operator != null) {
+				if (conceptIds.size() > maxTermsCount && maxTermsCount > 0 && isDescendantOperator(operator)) {
+					// Too many focus concepts for a single terms query, select the concepts of each page of focus concepts instead
+					Set<Long> results = selectInPages(conceptIds, operator, refinementBuilder);
+					queryBuilder.filter(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, results));
+					return results;
+				}
 				SubRefinementBuilder filterRefinementBuilder = new SubRefinementBuilder(refinementBuilder, filterQueryBuilder);
 				filterRefinementBuilder.setShouldPrefetchMemberOfQueryResults(true);
 				Set<Long> results = applyConceptCriteriaWithOperator(conceptIds, operator, filterRefinementBuilder);
-				if (results != null && results.size() > maxTermsCount) {
-					String message = String.format("Your nested query %s matched too many results (%s) which exceeds the system limit of %s terms. Try narrowing your search.",
-							operator.getText() + ((SExpressionConstraint) nestedExpressionConstraint).toEclString(), results.size(), maxTermsCount);
-					throw new IllegalArgumentException(message);
-				}
 				queryBuilder.filter(filterQueryBuilder.build()._toQuery());
 				return results;
 			} else {
-				filterQueryBuilder.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIds));
+				filterQueryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIds));
 				queryBuilder.filter(filterQueryBuilder.build()._toQuery());
 				return matchesNothing ? Collections.emptyList() : conceptIds;
 			}
@@ -299,7 +328,7 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 			// Can't use concepts lookups here due to no reference set ids specified
 			Set<Long> conceptIdsInReferenceSet = refinementBuilder.getEclContentService()
 					.findConceptIdsInReferenceSet(null, getMemberFilterConstraints(), refinementBuilder);
-			queryBuilder.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIdsInReferenceSet));
+			queryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIdsInReferenceSet));
 			return conceptIdsInReferenceSet;
 		} else if (operator == Operator.descendantof || operator == Operator.childof) {
 			// Descendant of wildcard / Child of wildcard = anything but root
@@ -308,13 +337,35 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 			// Ancestor of wildcard / Parent of wildcard = all non-leaf concepts
 			Collection<Long> conceptsWithDescendants = refinementBuilder.getEclContentService().findRelationshipDestinationIds(
 					null, Collections.singletonList(parseLong(Concepts.ISA)), refinementBuilder.getBranchCriteria(), refinementBuilder.isStated());
-			queryBuilder.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptsWithDescendants));
+			queryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptsWithDescendants));
 		}
 		// Else Wildcard! which has no constraints
 		// <<!* and >>!* also match everything
 		return null;
 	}
 
+	private boolean isDescendantOperator(Operator operator) {
+		return operator == Operator.childof || operator == Operator.childorselfof
+				|| operator == Operator.descendantof || operator == Operator.descendantorselfof;
+	}
+
+	/**
+	 * Runs the criteria of the operator once per page of focus concepts, each page within the terms limit, and combines the results.
+	 */
+	private Set<Long> selectInPages(List<Long> focusConceptIds, Operator operator, RefinementBuilder refinementBuilder) {
+		BranchCriteria branchCriteria = refinementBuilder.getBranchCriteria();
+		ECLContentService eclContentService = refinementBuilder.getEclContentService();
+		IdSet results = new IdSet();
+		for (List<Long> page : Iterables.partition(focusConceptIds, maxTermsCount)) {
+			BoolQuery.Builder pageQueryBuilder = bool().must(ConceptSelectorHelper.getBranchAndStatedQuery(
+					branchCriteria.getEntityBranchCriteria(QueryConcept.class), refinementBuilder.isStated()));
+			applyConceptCriteriaWithOperator(page, operator, new SubRefinementBuilder(refinementBuilder, pageQueryBuilder));
+			ConceptSelectorHelper.streamWildcardIds(pageQueryBuilder.build()._toQuery(), eclContentService, results::add);
+		}
+		// Same order as the default Elasticsearch sort
+		return new LongLinkedOpenHashSet(results.toDescendingList());
+	}
+
 	private Set<Long> applyConceptCriteriaWithOperator(Collection<Long> conceptIds, Operator operator, RefinementBuilder refinementBuilder) {
 		BoolQuery.Builder queryBuilder = refinementBuilder.getQueryBuilder();
 		ECLContentService conceptSelector = refinementBuilder.getEclContentService();
@@ -324,43 +375,43 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
         switch (operator) {
             case childof ->
                 // <!
-                    queryBuilder.must(termsQuery(QueryConcept.Fields.PARENTS, conceptIds));
+                    queryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.PARENTS, conceptIds));
             case childorselfof ->
                 // <<!
                     queryBuilder.must(
                             bool(b -> b
-                                    .should(termsQuery(QueryConcept.Fields.PARENTS, conceptIds))
-                                    .should(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.PARENTS, conceptIds))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
                     );
             case descendantof ->
                 // <
-                    queryBuilder.must(termsQuery(QueryConcept.Fields.ANCESTORS, conceptIds));
+                    queryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.ANCESTORS, conceptIds));
             case descendantorselfof ->
                 // <<
                     queryBuilder.must(
                             bool(b -> b
-                                    .should(termsQuery(QueryConcept.Fields.ANCESTORS, conceptIds))
-                                    .should(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.ANCESTORS, conceptIds))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
                     );
             case parentof ->
                 // >!
-                    queryBuilder.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, retrieveAllParents(conceptIds, branchCriteria, stated, conceptSelector)));
+                    queryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, retrieveAllParents(conceptIds, branchCriteria, stated, conceptSelector)));
             case parentorselfof ->
                 // >>!
                     queryBuilder.must(
                             bool(b -> b
-                                    .should(termsQuery(QueryConcept.Fields.CONCEPT_ID, retrieveAllParents(conceptIds, branchCriteria, stated, conceptSelector)))
-                                    .should(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, retrieveAllParents(conceptIds, branchCriteria, stated, conceptSelector)))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
                     );
             case ancestorof ->
                 // >
-                    queryBuilder.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, retrieveAllAncestors(conceptIds, branchCriteria, stated, conceptSelector)));
+                    queryBuilder.must(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, retrieveAllAncestors(conceptIds, branchCriteria, stated, conceptSelector)));
             case ancestororselfof ->
                 // >>
                     queryBuilder.must(
                             bool(b -> b
-                                    .should(termsQuery(QueryConcept.Fields.CONCEPT_ID, retrieveAllAncestors(conceptIds, branchCriteria, stated, conceptSelector)))
-                                    .should(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, retrieveAllAncestors(conceptIds, branchCriteria, stated, conceptSelector)))
+                                    .should(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptIds)))
                     );
             case memberOf -> {
                 // ^
@@ -393,14 +444,14 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 	private Set<Long> findReferencedConceptIds(Collection<Long> conceptIds, RefinementBuilder refinementBuilder, BoolQuery.Builder queryBuilder, ECLContentService conceptSelector) {
 		// Use member service instead of lookups
 		Set<Long> filteredIds = conceptSelector.findConceptIdsInReferenceSet(conceptIds, getMemberFilterConstraints(), refinementBuilder);
-		queryBuilder.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, filteredIds));
+		queryBuilder.filter(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, filteredIds));
 		return filteredIds;
 	}
 
 	private Set<Long> handleQueryWithFullLookup(Collection<Long> conceptIds, RefinementBuilder refinementBuilder, BoolQuery.Builder queryBuilder, ECLContentService conceptSelector, BranchCriteria branchCriteria) {
 		if (Boolean.TRUE.equals(refinementBuilder.shouldPrefetchMemberOfQueryResults()) || conceptIds.size() > 1) {
 			Set<Long> conceptsFromLookup= conceptSelector.getConceptIdsFromLookup(branchCriteria, conceptIds);
-			queryBuilder.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptsFromLookup));
+			queryBuilder.filter(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, conceptsFromLookup));
 			return conceptsFromLookup;
 		} else {
 			queryBuilder.filter(conceptSelector.getTermsLookupFilterForMemberOfECL(branchCriteria, conceptIds.iterator().next()));
@@ -418,13 +469,27 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 			List<Long> refsetIdsWithoutLookup = new ArrayList<>(conceptIds);
 			refsetIdsWithoutLookup.removeAll(refsetIdsWithLookup);
 			results.addAll(conceptSelector.findConceptIdsInReferenceSet(refsetIdsWithoutLookup, getMemberFilterConstraints(), refinementBuilder));
-			queryBuilder.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, results));
+			queryBuilder.filter(termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, results));
 			return results;
 		} else {
 			logger.info("Not all reference set ids have lookups, so use the member service to fetch referenced concepts instead");
 			return findReferencedConceptIds(conceptIds, refinementBuilder, queryBuilder, conceptSelector);
 		}
 	}
+
+	/**
+	 * Large sets are split into several terms clauses so that they are not limited by the index terms count,
+	 * sets larger than the nested results limit are rejected.
+	 */
+	private Query termsQueryWithinLimit(String field, Collection<Long> values) {
+		if (maxNestedResults > 0 && values.size() > maxNestedResults) {
+			String message = String.format("Your nested query %s matched too many results (%s) which exceeds the system limit of %s. Try narrowing your search.",
+					toEclString(), values.size(), maxNestedResults);
+			throw new IllegalArgumentException(message);
+		}
+		return ConceptSelectorHelper.termsQueryWithinLimit(field, values, maxTermsCount);
+	}
+
 	private Set<Long> retrieveAllAncestors(Collection<Long> conceptIds, BranchCriteria branchCriteria, boolean stated, ECLContentService eclContentService) {
 		return eclContentService.findAncestorIdsAsUnion(branchCriteria, stated, conceptIds);
 	}
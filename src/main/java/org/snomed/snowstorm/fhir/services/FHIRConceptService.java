@@ -3,7 +3,9 @@ package org.snomed.snowstorm.fhir.services;
 import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
 import ca.uhn.fhir.jpa.entity.TermConcept;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
-import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.hl7.fhir.r4.model.CodeSystem;
 import org.hl7.fhir.r4.model.CodeType;
 import org.slf4j.Logger;
@@ -15,6 +17,7 @@ import org.snomed.snowstorm.fhir.domain.FHIRConcept;
 import org.snomed.snowstorm.fhir.domain.FHIRProperty;
 import org.snomed.snowstorm.fhir.repositories.FHIRConceptRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -26,6 +29,9 @@ import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.snomed.snowstorm.core.util.CollectionUtils.orEmpty;
@@ -46,8 +52,27 @@ public class FHIRConceptService {
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private FHIRGraphService graphService;
+
+	@Value("${fhir.import.save-threads}")
+	private int saveThreads;
+
+	private ExecutorService saveExecutor;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	@PostConstruct
+	public void init() {
+		saveExecutor = Executors.newFixedThreadPool(saveThreads,
+				new ThreadFactoryBuilder().setNameFormat("fhir-concept-save-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		saveExecutor.shutdownNow();
+	}
+
 	public void saveAllConceptsOfCodeSystemVersion(TermCodeSystemVersion termCodeSystemVersion, FHIRCodeSystemVersion codeSystemVersion) {
 
 		// Some code systems only return the top level concepts with getConcepts()
@@ -63,20 +88,32 @@ public class FHIRConceptService {
 				.map(termConcept -> new FHIRConcept(termConcept, codeSystemVersion))
 				.collect(Collectors.toList());
 
-		saveAllConceptsOfCodeSystemVersion(codeSystemVersion, codeSystemVersion.getId(), concepts);
+		saveAllConceptsOfCodeSystemVersion(codeSystemVersion, codeSystemVersion.getId(), concepts::forEach);
 	}
 
 	public void saveAllConceptsOfCodeSystemVersion(List<CodeSystem.ConceptDefinitionComponent> definitionConcepts, FHIRCodeSystemVersion codeSystemVersion) {
+		List<FHIRConcept> concepts = new ArrayList<>();
+		for (CodeSystem.ConceptDefinitionComponent definitionConcept : definitionConcepts) {
+			collectConcepts(definitionConcept, codeSystemVersion, concepts::add);
+		}
+		saveAllConceptsOfCodeSystemVersion(codeSystemVersion, codeSystemVersion.getId(), concepts::forEach);
+	}
 
+	/**
+	 * Saves concepts which are streamed from their source rather than held in memory.
+	 * The source is read twice, first to build the hierarchy and then to save the concepts.
+	 */
+	public void saveAllConceptsOfCodeSystemVersion(ConceptSource<CodeSystem.ConceptDefinitionComponent> definitionConcepts, FHIRCodeSystemVersion codeSystemVersion) {
+		saveAllConceptsOfCodeSystemVersion(codeSystemVersion, codeSystemVersion.getId(),
+				consumer -> definitionConcepts.forEach(definitionConcept -> collectConcepts(definitionConcept, codeSystemVersion, consumer)));
+	}
+
+	private void collectConcepts(CodeSystem.ConceptDefinitionComponent definitionConcept, FHIRCodeSystemVersion codeSystemVersion, Consumer<FHIRConcept> consumer) {
 		Set<CodeSystem.ConceptDefinitionComponent> allConcepts = new HashSet<>();
-		for (CodeSystem.ConceptDefinitionComponent concept : definitionConcepts) {
-			collectChildren(concept, allConcepts);
+		collectChildren(definitionConcept, allConcepts);
+		for (CodeSystem.ConceptDefinitionComponent concept : allConcepts) {
+			consumer.accept(new FHIRConcept(concept, codeSystemVersion));
 		}
-
-		List<FHIRConcept> concepts = allConcepts.stream()
-				.map(definitionConcept -> new FHIRConcept(definitionConcept, codeSystemVersion))
-				.collect(Collectors.toList());
-		saveAllConceptsOfCodeSystemVersion(codeSystemVersion, codeSystemVersion.getId(), concepts);
 	}
 
 	private void collectChildren(CodeSystem.ConceptDefinitionComponent parent, Set<CodeSystem.ConceptDefinitionComponent> allConcepts) {
@@ -88,73 +125,141 @@ public class FHIRConceptService {
 		}
 	}
 
-	private void saveAllConceptsOfCodeSystemVersion(FHIRCodeSystemVersion codeSystemVersion, String idWithVersion, Collection<FHIRConcept> concepts) {
+	private void saveAllConceptsOfCodeSystemVersion(FHIRCodeSystemVersion codeSystemVersion, String idWithVersion, ConceptSource<FHIRConcept> concepts) {
 		deleteExistingCodes(idWithVersion);
 
-		if (concepts.isEmpty()) {
-			return;
-		}
-
+		// First pass collects the hierarchy and the properties used
+		boolean isA = "is-a".equals(codeSystemVersion.getHierarchyMeaning());
 		FHIRGraphBuilder graphBuilder = new FHIRGraphBuilder();
-		if ("is-a".equals(codeSystemVersion.getHierarchyMeaning())) {
-			// Record transitive closure of concepts for subsumption testing
-			for (FHIRConcept concept : concepts) {
+		Set<String> props = new HashSet<>();
+		AtomicInteger conceptCount = new AtomicInteger();
+		concepts.forEach(concept -> {
+			conceptCount.incrementAndGet();
+			if (isA) {
+				// Record transitive closure of concepts for subsumption testing
+				graphBuilder.addNode(concept.getCode(), concept.getDisplay());
 				for (String parentCode : concept.getParents()) {
 					graphBuilder.addParent(concept.getCode(), parentCode);
 				}
 			}
-			// Add parent and child properties if missing
-			Map<String, String> conceptDisplayMap = concepts.stream()
-					.filter(concept -> concept.getDisplay() != null)
-					.collect(Collectors.toMap(FHIRConcept::getCode, FHIRConcept::getDisplay));
-			for (FHIRConcept concept : concepts) {
+			if (concept.getProperties() != null) {
+				props.addAll(concept.getProperties().keySet());
+			}
+		});
+
+		if (conceptCount.get() == 0) {
+			return;
+		}
+		if (isA) {
+			props.add(PARENT);
+			props.add(CHILD);
+		}
+
+		logger.info("Saving {} '{}' fhir concepts. All properties: {}", conceptCount.get(), idWithVersion, props);
+		ConceptSaveProgress progress = new ConceptSaveProgress(idWithVersion, conceptCount.get());
+		Semaphore batchesInFlight = new Semaphore(saveThreads * 2);
+		List<Future<?>> futures = new ArrayList<>();
+		List<FHIRConcept> batch = new ArrayList<>();
+		concepts.forEach(concept -> {
+			if (isA) {
+				// Add parent and child properties if missing
 				Map<String, List<FHIRProperty>> properties = concept.getProperties();
-				Collection<String> parents = graphBuilder.getNodeParents(concept.getCode());
 				if (!properties.containsKey(PARENT)) {
-					properties.put(PARENT, parents.stream().map(parent -> new FHIRProperty(PARENT, conceptDisplayMap.get(parent), parent, "CODING"))
+					properties.put(PARENT, graphBuilder.getNodeParents(concept.getCode()).stream()
+							.map(parent -> new FHIRProperty(PARENT, graphBuilder.getDisplay(parent), parent, "CODING"))
 							.collect(Collectors.toList()));
 				}
-				Collection<String> children = graphBuilder.getNodeChildren(concept.getCode());
 				if (!properties.containsKey(CHILD)) {
-					properties.put(CHILD, children.stream().map(child -> new FHIRProperty(CHILD, conceptDisplayMap.get(child), child, "CODING"))
+					properties.put(CHILD, graphBuilder.getNodeChildren(concept.getCode()).stream()
+							.map(child -> new FHIRProperty(CHILD, graphBuilder.getDisplay(child), child, "CODING"))
 							.collect(Collectors.toList()));
 				}
 			}
+			concept.setAncestors(graphBuilder.getTransitiveClosure(concept.getCode()));
+			batch.add(concept);
+			if (batch.size() == SAVE_BATCH_SIZE) {
+				futures.add(submitSave(new ArrayList<>(batch), batchesInFlight, progress));
+				batch.clear();
+			}
+		});
+		if (!batch.isEmpty()) {
+			futures.add(submitSave(batch, batchesInFlight, progress));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while saving fhir concepts of " + idWithVersion, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Failed to save fhir concepts of " + idWithVersion, e.getCause());
+		} finally {
+			futures.forEach(future -> future.cancel(false));
 		}
+		// A graph may have been built from partly saved concepts
+		graphService.evictCodeSystemGraph(idWithVersion);
+	}
 
-		Set<String> props = new HashSet<>();
-		concepts.stream()
-				.filter(concept -> concept.getProperties() != null)
-				.forEach(concept -> props.addAll(concept.getProperties().keySet()));
-
-		logger.info("Saving {} '{}' fhir concepts. All properties: {}", concepts.size(), idWithVersion, props);
-		float allSize = concepts.size();
-		int tenPercent = concepts.size() / 10;
-		if (tenPercent == 0) {
-			tenPercent = 1;
+	// Batches are saved in parallel but only a few are held at once, the next batch is not prepared until one has been saved.
+	private Future<?> submitSave(List<FHIRConcept> batch, Semaphore batchesInFlight, ConceptSaveProgress progress) {
+		try {
+			batchesInFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while saving fhir concepts.", e);
 		}
-		Float percentToLog = null;
-		int saved = 0;
-
-		for (List<FHIRConcept> conceptsBatch : Iterables.partition(concepts, SAVE_BATCH_SIZE)) {
-			List<FHIRConcept> batch = new ArrayList<>();
-			for (FHIRConcept concept : conceptsBatch) {
-				concept.setAncestors(graphBuilder.getTransitiveClosure(concept.getCode()));
-				batch.add(concept);
-				saved++;
-				if (saved % tenPercent == 0f) {
-					percentToLog = (saved / allSize) * 100;
+		try {
+			return saveExecutor.submit(() -> {
+				try {
+					conceptRepository.saveAll(batch);
+					progress.saved(batch.size());
+				} finally {
+					batchesInFlight.release();
 				}
-			}
-			conceptRepository.saveAll(batch);
-			if (concepts.size() > 1000 && percentToLog != null) {
-				logger.info("Saved {}% of '{}' fhir concepts.", Math.round(percentToLog), idWithVersion);
-				percentToLog = null;
+			});
+		} catch (RejectedExecutionException e) {
+			batchesInFlight.release();
+			throw e;
+		}
+	}
+
+	private final class ConceptSaveProgress {
+
+		private final String idWithVersion;
+		private final int total;
+		private final int tenPercent;
+		private int saved;
+
+		private ConceptSaveProgress(String idWithVersion, int total) {
+			this.idWithVersion = idWithVersion;
+			this.total = total;
+			tenPercent = Math.max(total / 10, 1);
+		}
+
+		private synchronized void saved(int count) {
+			int before = saved;
+			saved += count;
+			if (total > 1000 && saved / tenPercent > before / tenPercent) {
+				logger.info("Saved {}% of '{}' fhir concepts.", Math.round((saved / (float) total) * 100), idWithVersion);
 			}
 		}
 	}
 
+	/**
+	 * Concepts which can be read more than once. Implementations may stream concepts from a file rather than holding them all in memory.
+	 */
+	@FunctionalInterface
+	public interface ConceptSource<T> {
+
+		void forEach(Consumer<T> consumer);
+	}
+
 	public void deleteExistingCodes(String idWithVersion) {
+		graphService.evictCodeSystemGraph(idWithVersion);
 		Page<FHIRConcept> existingConcepts = conceptRepository.findByCodeSystemVersion(idWithVersion, PageRequest.of(0, 1));
 		long totalExisting = existingConcepts.getTotalElements();
 		if (totalExisting > 0) {
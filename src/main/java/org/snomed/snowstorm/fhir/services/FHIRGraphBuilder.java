@@ -1,91 +1,176 @@
 package org.snomed.snowstorm.fhir.services;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * Hierarchy of the codes of one code system version.
+ * Codes are interned to int node ids and edges are held in primitive lists so that the hierarchy of a large code system fits in a small heap.
+ * Transitive closures are memoised, the closure of each node is built from the closures of its parents.
+ * Codes in a cycle are found with Tarjan's strongly connected components algorithm and share one closure, so closures do not depend on the order codes are visited.
+ */
 public class FHIRGraphBuilder {
 
-	private final Map<String, Node> nodeLookup = new HashMap<>();
+	private final Object2IntOpenHashMap<String> nodeLookup = new Object2IntOpenHashMap<>();
+	private final List<String> codes = new ArrayList<>();
+	private final List<String> displays = new ArrayList<>();
+	private final List<IntArrayList> parents = new ArrayList<>();
+	private final List<IntArrayList> children = new ArrayList<>();
+	private int[][] closures;
+
+	// Working state of the strongly connected components search, reset with the closures
+	private int[] visitIndexes;
+	private int[] lowLinks;
+	private IntArrayList visitStack;
+	private int nextVisitIndex;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(FHIRGraphBuilder.class);
 
-	public void addParent(String sourceCode, String destinationCode) {
-		LOGGER.debug("{} -> {}", sourceCode, destinationCode);
-		Node createNode = getCreateNode(sourceCode);
-		createNode.addParent(getCreateNode(destinationCode));
+	public FHIRGraphBuilder() {
+		nodeLookup.defaultReturnValue(-1);
 	}
 
-	private Node getCreateNode(String code) {
-		Node node = nodeLookup.get(code);
-		if (node == null) {
-			node = new Node(code);
-			nodeLookup.put(node.getCode(), node);
+	public void addNode(String code, String display) {
+		int node = getCreateNode(code);
+		if (display != null) {
+			displays.set(node, display);
 		}
-		return node;
 	}
 
-	public Set<String> getTransitiveClosure(String code) {
-		Node node = nodeLookup.get(code);
-		return node != null ? node.getTransitiveClosure() : null;
+	public void addParent(String sourceCode, String destinationCode) {
+		LOGGER.debug("{} -> {}", sourceCode, destinationCode);
+		int node = getCreateNode(sourceCode);
+		int parent = getCreateNode(destinationCode);
+		addEdge(parents, node, parent);
+		addEdge(children, parent, node);
+		closures = null;
+		visitIndexes = null;
+		lowLinks = null;
+		visitStack = null;
 	}
 
-	public Collection<String> getNodeParents(String code) {
-		Node node = nodeLookup.get(code);
-		return node != null ? node.getParents().stream().map(Node::getCode).collect(Collectors.toList()) : Collections.emptyList();
+	private int getCreateNode(String code) {
+		int node = nodeLookup.getInt(code);
+		if (node == -1) {
+			node = codes.size();
+			nodeLookup.put(code, node);
+			codes.add(code);
+			displays.add(null);
+			parents.add(null);
+			children.add(null);
+		}
+		return node;
 	}
 
-	public Collection<String> getNodeChildren(String code) {
-		Node node = nodeLookup.get(code);
-		return node != null ? node.getChildren().stream().map(Node::getCode).collect(Collectors.toList()) : Collections.emptyList();
+	private static void addEdge(List<IntArrayList> edges, int from, int to) {
+		IntArrayList nodeEdges = edges.get(from);
+		if (nodeEdges == null) {
+			nodeEdges = new IntArrayList(1);
+			edges.set(from, nodeEdges);
+		}
+		if (!nodeEdges.contains(to)) {
+			nodeEdges.add(to);
+		}
 	}
 
-	public static class Node {
-
-		private final String code;
-		private final Set<Node> parents;
-		private final Set<Node> children;
-
-		public Node(String code) {
-			this.code = code;
-			parents = new HashSet<>();
-			children = new HashSet<>();
+	public Set<String> getTransitiveClosure(String code) {
+		int node = nodeLookup.getInt(code);
+		if (node == -1) {
+			return null;
 		}
-
-		public void addParent(Node parentCode) {
-			parents.add(parentCode);
-			parentCode.addChild(this);
+		if (closures == null) {
+			closures = new int[codes.size()][];
+			visitIndexes = new int[codes.size()];
+			lowLinks = new int[codes.size()];
+			visitStack = new IntArrayList();
+			nextVisitIndex = 0;
 		}
-
-		private void addChild(Node node) {
-			children.add(node);
+		if (closures[node] == null) {
+			visit(node);
 		}
-
-		public String getCode() {
-			return code;
+		Set<String> closureCodes = new HashSet<>();
+		for (int ancestor : closures[node]) {
+			closureCodes.add(codes.get(ancestor));
 		}
+		return closureCodes;
+	}
 
-		public Set<String> getTransitiveClosure() {
-			HashSet<String> tc = new HashSet<>();
-			collectParents(tc);
-			return tc;
+	private void visit(int node) {
+		int visitIndex = ++nextVisitIndex;
+		visitIndexes[node] = visitIndex;
+		lowLinks[node] = visitIndex;
+		visitStack.add(node);
+		IntArrayList nodeParents = parents.get(node);
+		if (nodeParents != null) {
+			for (int parent : nodeParents) {
+				if (closures[parent] != null) {
+					continue;
+				}
+				if (visitIndexes[parent] == 0) {
+					visit(parent);
+					lowLinks[node] = Math.min(lowLinks[node], lowLinks[parent]);
+				} else {
+					// Parent is still on the stack so is part of a cycle with this node
+					lowLinks[node] = Math.min(lowLinks[node], visitIndexes[parent]);
+				}
+			}
+		}
+		if (lowLinks[node] != visitIndex) {
+			return;
 		}
 
-		private void collectParents(Set<String> tc) {
-			for (Node parent : parents) {
-				tc.add(parent.getCode());
-				parent.collectParents(tc);
+		// This node is the first visited of its component, the members are at the top of the stack
+		int componentStart = visitStack.lastIndexOf(node);
+		IntArrayList component = new IntArrayList(visitStack.subList(componentStart, visitStack.size()));
+		visitStack.size(componentStart);
+		IntOpenHashSet ancestors = new IntOpenHashSet();
+		for (int member : component) {
+			IntArrayList memberParents = parents.get(member);
+			if (memberParents != null) {
+				for (int parent : memberParents) {
+					ancestors.add(parent);
+					// Closures of parents outside the component are complete, parents within it are already in the ancestors
+					if (closures[parent] != null) {
+						for (int ancestor : closures[parent]) {
+							ancestors.add(ancestor);
+						}
+					}
+				}
 			}
 		}
-
-		public Set<Node> getParents() {
-			return parents;
+		int[] closure = ancestors.toIntArray();
+		for (int member : component) {
+			closures[member] = closure;
 		}
+	}
+
+	public Collection<String> getNodeParents(String code) {
+		return getCodes(parents, code);
+	}
+
+	public Collection<String> getNodeChildren(String code) {
+		return getCodes(children, code);
+	}
 
-		public Set<Node> getChildren() {
-			return children;
+	private Collection<String> getCodes(List<IntArrayList> edges, String code) {
+		int node = nodeLookup.getInt(code);
+		if (node == -1 || edges.get(node) == null) {
+			return Collections.emptyList();
+		}
+		List<String> edgeCodes = new ArrayList<>();
+		for (int other : edges.get(node)) {
+			edgeCodes.add(codes.get(other));
 		}
+		return edgeCodes;
+	}
+
+	public String getDisplay(String code) {
+		int node = nodeLookup.getInt(code);
+		return node != -1 ? displays.get(node) : null;
 	}
 }
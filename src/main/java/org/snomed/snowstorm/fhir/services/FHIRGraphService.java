@@ -1,28 +1,55 @@
 package org.snomed.snowstorm.fhir.services;
 
+import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.VersionControlHelper;
 
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.snomed.snowstorm.ecl.HierarchyGraph;
+import org.snomed.snowstorm.ecl.HierarchyGraphService;
 import org.snomed.snowstorm.fhir.domain.FHIRCodeSystemVersion;
 import org.snomed.snowstorm.fhir.domain.FHIRConcept;
 import org.snomed.snowstorm.fhir.domain.FHIRGraphNode;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
 import static io.kaicode.elasticvc.helper.QueryHelper.termQuery;
 
 @Service
 /*
  * Generic service for graph/hierarchy queries on SNOMED CT or any other FHIR Code System.
+ * When resident hierarchy graphs are enabled queries are answered in memory, using the SNOMED CT graph of the branch head
+ * or a graph of the codes of a loaded code system version. Otherwise, or where no graph is available, Elasticsearch is queried.
+ * Graphs of loaded code system versions are built in the background, once per version, and queries fall back to Elasticsearch until the graph is ready.
  */
 public class FHIRGraphService {
 
@@ -35,10 +62,53 @@ public class FHIRGraphService {
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private HierarchyGraphService hierarchyGraphService;
+
+	@Value("${ecl.hierarchy-graph.max-graphs}")
+	private int maxGraphs;
+
+	// Graphs of non-SNOMED code system versions, keyed by code system version id. The future of a graph being built is held so each graph is built once.
+	private AsyncCache<String, CodeSystemGraph> codeSystemGraphs;
+
+	// Graphs of SNOMED CT versions, keyed by code system version id. Version branches do not change so the branch is not resolved again.
+	private Cache<String, HierarchyGraph> snomedVersionGraphs;
+
+	private ExecutorService buildExecutor;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	@PostConstruct
+	public void init() {
+		codeSystemGraphs = Caffeine.newBuilder().maximumSize(maxGraphs).buildAsync();
+		snomedVersionGraphs = Caffeine.newBuilder().maximumSize(maxGraphs).build();
+		buildExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("code-system-graph-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		buildExecutor.shutdownNow();
+	}
+
 	/**
 	 * Returns true if codeA is an ancestor of codeB
 	 */
 	public boolean subsumes(String codeA, String codeB, FHIRCodeSystemVersion codeSystemVersion) {
+		if (codeSystemVersion.isSnomed()) {
+			HierarchyGraph graph = getSnomedGraph(codeSystemVersion);
+			if (graph != null) {
+				Long conceptIdA = toConceptId(codeA);
+				Long conceptIdB = toConceptId(codeB);
+				return conceptIdA != null && conceptIdB != null && graph.isAncestor(conceptIdA, conceptIdB);
+			}
+		} else {
+			CodeSystemGraph graph = getCodeSystemGraph(codeSystemVersion);
+			if (graph != null) {
+				// Ancestors are only recorded for code systems with an is-a hierarchy
+				return "is-a".equals(codeSystemVersion.getHierarchyMeaning()) && graph.isAncestor(codeA, codeB);
+			}
+		}
+
 		GraphCriteria graphCriteria = getGraphCriteria(codeSystemVersion, PageRequest.of(0, 1));
 		graphCriteria.criteria()
 				.must(termQuery(graphCriteria.getCodeField(), codeB))
@@ -48,6 +118,21 @@ public class FHIRGraphService {
 	}
 
 	public List<String> findChildren(String code, FHIRCodeSystemVersion codeSystemVersion, PageRequest page) {
+		if (codeSystemVersion.isSnomed()) {
+			HierarchyGraph graph = getSnomedGraph(codeSystemVersion);
+			if (graph != null) {
+				Long conceptId = toConceptId(code);
+				List<String> children = conceptId == null ? Collections.emptyList() :
+						graph.findChildren(Set.of(conceptId)).stream().sorted().map(Object::toString).collect(Collectors.toList());
+				return getPage(children, page);
+			}
+		} else {
+			CodeSystemGraph graph = getCodeSystemGraph(codeSystemVersion);
+			if (graph != null) {
+				return getPage(graph.findChildren(code), page);
+			}
+		}
+
 		GraphCriteria graphCriteria = getGraphCriteria(codeSystemVersion, page);
 		graphCriteria.criteria()
 				.must(termQuery(PARENTS, code));
@@ -56,6 +141,133 @@ public class FHIRGraphService {
 				.get().map(hit -> hit.getContent().getCode()).collect(Collectors.toList());
 	}
 
+	/**
+	 * Releases the graph of a code system version when its concepts are replaced or deleted.
+	 */
+	public void evictCodeSystemGraph(String codeSystemVersionId) {
+		codeSystemGraphs.synchronous().invalidate(codeSystemVersionId);
+	}
+
+	private HierarchyGraph getSnomedGraph(FHIRCodeSystemVersion codeSystemVersion) {
+		if (!hierarchyGraphService.isEnabled()) {
+			return null;
+		}
+		// The daily build follows the head of the code system branch so is resolved for every query
+		if (codeSystemVersion.isSnomedUnversioned()) {
+			return hierarchyGraphService.getGraph(snomedVersionControlHelper.getBranchCriteria(codeSystemVersion.getSnomedBranch()), false);
+		}
+		HierarchyGraph graph = snomedVersionGraphs.getIfPresent(codeSystemVersion.getId());
+		if (graph == null) {
+			graph = hierarchyGraphService.getGraph(snomedVersionControlHelper.getBranchCriteria(codeSystemVersion.getSnomedBranch()), false);
+			if (graph != null) {
+				snomedVersionGraphs.put(codeSystemVersion.getId(), graph);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * @return the graph of the code system version or null if graphs are disabled or the graph is still being built.
+	 */
+	private CodeSystemGraph getCodeSystemGraph(FHIRCodeSystemVersion codeSystemVersion) {
+		if (!hierarchyGraphService.isEnabled()) {
+			return null;
+		}
+		CompletableFuture<CodeSystemGraph> graph = startCodeSystemGraphBuild(codeSystemVersion);
+		return graph.isDone() && !graph.isCompletedExceptionally() ? graph.join() : null;
+	}
+
+	/**
+	 * Waits for the graph of the code system version to be built.
+	 */
+	CodeSystemGraph awaitCodeSystemGraph(FHIRCodeSystemVersion codeSystemVersion) throws ExecutionException, InterruptedException {
+		return startCodeSystemGraphBuild(codeSystemVersion).get();
+	}
+
+	// A failed build is removed from the cache so the next query tries again
+	private CompletableFuture<CodeSystemGraph> startCodeSystemGraphBuild(FHIRCodeSystemVersion codeSystemVersion) {
+		return codeSystemGraphs.get(codeSystemVersion.getId(), (id, executor) -> CompletableFuture.supplyAsync(() -> {
+			try {
+				return buildCodeSystemGraph(codeSystemVersion);
+			} catch (RuntimeException e) {
+				logger.warn("Failed to build hierarchy graph of code system version {}.", id, e);
+				throw e;
+			}
+		}, buildExecutor));
+	}
+
+	private CodeSystemGraph buildCodeSystemGraph(FHIRCodeSystemVersion codeSystemVersion) {
+		TimerUtil timer = new TimerUtil("Code system graph " + codeSystemVersion.getId(), Level.INFO, 2);
+		Object2IntOpenHashMap<String> codeIndexes = new Object2IntOpenHashMap<>();
+		codeIndexes.defaultReturnValue(-1);
+		List<String> codes = new ArrayList<>();
+		HierarchyGraph.Builder builder = HierarchyGraph.builder();
+		NativeQuery query = new NativeQueryBuilder()
+				.withQuery(termQuery(FHIRConcept.Fields.CODE_SYSTEM_VERSION, codeSystemVersion.getId()))
+				.withSourceFilter(new FetchSourceFilter(new String[]{FHIRConcept.Fields.CODE, FHIRConcept.Fields.PARENTS}, null))
+				.withPageable(LARGE_PAGE)
+				.build();
+		try (SearchHitsIterator<FHIRConcept> stream = elasticsearchOperations.searchForStream(query, FHIRConcept.class)) {
+			stream.forEachRemaining(hit -> {
+				FHIRConcept concept = hit.getContent();
+				long index = getOrAddIndex(concept.getCode(), codeIndexes, codes);
+				builder.addNode(index);
+				if (concept.getParents() != null) {
+					for (String parent : concept.getParents()) {
+						builder.addParent(index, getOrAddIndex(parent, codeIndexes, codes));
+					}
+				}
+			});
+		}
+		CodeSystemGraph graph = new CodeSystemGraph(codeIndexes, codes, builder.build());
+		timer.finish();
+		return graph;
+	}
+
+	private static int getOrAddIndex(String code, Object2IntOpenHashMap<String> codeIndexes, List<String> codes) {
+		int index = codeIndexes.getInt(code);
+		if (index == -1) {
+			index = codes.size();
+			codeIndexes.put(code, index);
+			codes.add(code);
+		}
+		return index;
+	}
+
+	private static Long toConceptId(String code) {
+		try {
+			return Long.parseLong(code);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static List<String> getPage(List<String> codes, PageRequest page) {
+		int from = (int) Math.min(page.getOffset(), codes.size());
+		int to = (int) Math.min(page.getOffset() + page.getPageSize(), codes.size());
+		return codes.subList(from, to);
+	}
+
+	/**
+	 * Hierarchy graph of a code system version using the position of each code as the node id.
+	 */
+	record CodeSystemGraph(Object2IntOpenHashMap<String> codeIndexes, List<String> codes, HierarchyGraph graph) {
+
+		boolean isAncestor(String ancestorCode, String code) {
+			int ancestorIndex = codeIndexes.getInt(ancestorCode);
+			int index = codeIndexes.getInt(code);
+			return ancestorIndex != -1 && index != -1 && graph.isAncestor(ancestorIndex, index);
+		}
+
+		List<String> findChildren(String code) {
+			int index = codeIndexes.getInt(code);
+			if (index == -1) {
+				return Collections.emptyList();
+			}
+			return graph.findChildren(Set.of((long) index)).stream().map(child -> codes.get(child.intValue())).sorted().collect(Collectors.toList());
+		}
+	}
+
 	private GraphCriteria getGraphCriteria(FHIRCodeSystemVersion codeSystemVersion, PageRequest page) {
 		if (codeSystemVersion.isSnomed()) {
 			BoolQuery.Builder criteria = bool().must(snomedVersionControlHelper.getBranchCriteria(codeSystemVersion.getSnomedBranch()).getEntityBranchCriteria(QueryConcept.class));
@@ -3,9 +3,6 @@ package org.snomed.snowstorm.fhir.services;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.compress.archivers.ArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeSystem;
 import org.hl7.fhir.r4.model.OperationOutcome;
@@ -21,8 +18,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -69,7 +66,9 @@ public class FHIRLoadPackageService {
 			String id = indexFileToImport.getId();
 			String url = indexFileToImport.getUrl();
 			if (id != null && url != null) {
-				CodeSystem codeSystem = extractObject(packageFile, filename, CodeSystem.class, jsonParser);
+				// Concepts are streamed from the package when they are saved rather than held in memory
+				FHIRPackageCodeSystemReader codeSystemReader = new FHIRPackageCodeSystemReader(packageFile, filename, mapper, jsonParser);
+				CodeSystem codeSystem = codeSystemReader.readCodeSystemWithoutConcepts();
 				codeSystem.setId(id);
 				codeSystem.setUrl(url);
 				if (FHIRHelper.isSnomedUri(codeSystem.getUrl())) {
@@ -86,11 +85,12 @@ public class FHIRLoadPackageService {
 						codeSystemService.deleteCodeSystemVersion(existingCodeSystemVersion.getId());
 					}
 				}
-				List<CodeSystem.ConceptDefinitionComponent> concepts = codeSystem.getConcept();
-				logger.info("Importing CodeSystem {} with {} concepts from package", codeSystem.getUrl(), concepts != null ? concepts.size() : 0);
+				logger.info("Importing CodeSystem {} from package", codeSystem.getUrl());
 				FHIRCodeSystemVersion codeSystemVersion = codeSystemService.save(codeSystem);
-				if (concepts != null) {
-					fhirConceptService.saveAllConceptsOfCodeSystemVersion(concepts, codeSystemVersion);
+				try {
+					fhirConceptService.saveAllConceptsOfCodeSystemVersion(codeSystemReader, codeSystemVersion);
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
 				}
 			}
 		}
@@ -140,23 +140,15 @@ public class FHIRLoadPackageService {
 	}
 
 	private <T> T extractObject(File packageFile, String archiveEntryName, Class<T> clazz, JsonParser jsonParser) throws IOException {
-		try (GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(new FileInputStream(packageFile));
-			 TarArchiveInputStream tarIn = new TarArchiveInputStream(gzipIn)) {
-
-			ArchiveEntry entry;
-			while ((entry = tarIn.getNextEntry()) != null) {
-				if (entry.getName().replace("package/", "").equals(archiveEntryName)) {
-					logger.debug("Reading {}", entry.getName());
-					if (archiveEntryName.equals(".index.json")) {
-						return mapper.readValue(tarIn, clazz);
-					} else {
-						IBaseResource iBaseResource = jsonParser.parseResource(tarIn);
-						return (T) iBaseResource;
-					}
-				}
+		return FHIRPackageCodeSystemReader.readPackageEntry(packageFile, archiveEntryName, inputStream -> {
+			logger.debug("Reading {}", archiveEntryName);
+			if (archiveEntryName.equals(".index.json")) {
+				return mapper.readValue(inputStream, clazz);
+			} else {
+				IBaseResource iBaseResource = jsonParser.parseResource(inputStream);
+				return (T) iBaseResource;
 			}
-		}
-		throw FHIRHelper.exception(format("File '%s' not found within package.", archiveEntryName), OperationOutcome.IssueType.NOTFOUND, 401);
+		});
 	}
 
 }
@@ -0,0 +1,138 @@
+package org.snomed.snowstorm.fhir.services;
+
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.OperationOutcome;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Reads a CodeSystem resource from a FHIR package without holding all of its concepts in memory.
+ * The package JSON is parsed incrementally, top level concepts are converted in small groups each time the concepts are read.
+ */
+class FHIRPackageCodeSystemReader implements FHIRConceptService.ConceptSource<CodeSystem.ConceptDefinitionComponent> {
+
+	private static final String CONCEPT = "concept";
+	private static final int CONCEPT_PARSE_BATCH_SIZE = 1_000;
+
+	private final File packageFile;
+	private final String archiveEntryName;
+	private final ObjectMapper mapper;
+	private final IParser fhirJsonParser;
+
+	FHIRPackageCodeSystemReader(File packageFile, String archiveEntryName, ObjectMapper mapper, IParser fhirJsonParser) {
+		this.packageFile = packageFile;
+		this.archiveEntryName = archiveEntryName;
+		this.mapper = mapper;
+		this.fhirJsonParser = fhirJsonParser;
+	}
+
+	/**
+	 * @return the CodeSystem resource with all fields except the concepts.
+	 */
+	CodeSystem readCodeSystemWithoutConcepts() throws IOException {
+		return readPackageEntry(packageFile, archiveEntryName, inputStream -> {
+			try (JsonParser parser = mapper.getFactory().createParser(inputStream)) {
+				ObjectNode codeSystemNode = mapper.createObjectNode();
+				startObject(parser);
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String fieldName = parser.getCurrentName();
+					parser.nextToken();
+					if (CONCEPT.equals(fieldName)) {
+						parser.skipChildren();
+					} else {
+						codeSystemNode.set(fieldName, mapper.readTree(parser));
+					}
+				}
+				return fhirJsonParser.parseResource(CodeSystem.class, mapper.writeValueAsString(codeSystemNode));
+			}
+		});
+	}
+
+	/**
+	 * Streams the top level concepts of the CodeSystem, each with any nested concepts.
+	 */
+	@Override
+	public void forEach(Consumer<CodeSystem.ConceptDefinitionComponent> consumer) {
+		try {
+			readPackageEntry(packageFile, archiveEntryName, inputStream -> {
+				try (JsonParser parser = mapper.getFactory().createParser(inputStream)) {
+					startObject(parser);
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String fieldName = parser.getCurrentName();
+						JsonToken valueToken = parser.nextToken();
+						if (CONCEPT.equals(fieldName) && valueToken == JsonToken.START_ARRAY) {
+							ArrayNode conceptBatch = mapper.createArrayNode();
+							while (parser.nextToken() == JsonToken.START_OBJECT) {
+								conceptBatch.add((JsonNode) mapper.readTree(parser));
+								if (conceptBatch.size() == CONCEPT_PARSE_BATCH_SIZE) {
+									parseConcepts(conceptBatch, consumer);
+									conceptBatch = mapper.createArrayNode();
+								}
+							}
+							parseConcepts(conceptBatch, consumer);
+						} else {
+							parser.skipChildren();
+						}
+					}
+				}
+				return null;
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(format("Failed to read concepts of '%s' from package.", archiveEntryName), e);
+		}
+	}
+
+	// HAPI can only parse whole resources so each group of concepts is wrapped in an otherwise empty CodeSystem
+	private void parseConcepts(ArrayNode conceptBatch, Consumer<CodeSystem.ConceptDefinitionComponent> consumer) throws IOException {
+		if (conceptBatch.isEmpty()) {
+			return;
+		}
+		ObjectNode wrapper = mapper.createObjectNode();
+		wrapper.put("resourceType", "CodeSystem");
+		wrapper.set(CONCEPT, conceptBatch);
+		CodeSystem codeSystem = fhirJsonParser.parseResource(CodeSystem.class, mapper.writeValueAsString(wrapper));
+		codeSystem.getConcept().forEach(consumer);
+	}
+
+	private static void startObject(JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new IOException("Expected a JSON object.");
+		}
+	}
+
+	static <T> T readPackageEntry(File packageFile, String archiveEntryName, EntryReader<T> entryReader) throws IOException {
+		try (GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(new FileInputStream(packageFile));
+			 TarArchiveInputStream tarIn = new TarArchiveInputStream(gzipIn)) {
+
+			ArchiveEntry entry;
+			while ((entry = tarIn.getNextEntry()) != null) {
+				if (entry.getName().replace("package/", "").equals(archiveEntryName)) {
+					return entryReader.read(tarIn);
+				}
+			}
+		}
+		throw FHIRHelper.exception(format("File '%s' not found within package.", archiveEntryName), OperationOutcome.IssueType.NOTFOUND, 401);
+	}
+
+	interface EntryReader<T> {
+
+		T read(InputStream inputStream) throws IOException;
+	}
+}
@@ -309,6 +309,47 @@ public class FHIRValueSetProvider implements IResourceProvider, FHIRConstants {
 				FHIRHelper.getDisplayLanguage(displayLanguage, request.getHeader(ACCEPT_LANGUAGE_HEADER)));
 	}
 
+	/**
+	 * Validates many codings against the same ValueSet in one request.
+	 * The response contains one 'validation' parameter per coding, in request order, holding the same result as $validate-code.
+	 */
+	@Operation(name="$batch-validate-code")
+	public Parameters batchValidateCodeExplicit(
+			@IdParam IdType id,
+			HttpServletRequest request,
+			HttpServletResponse response,
+			@OperationParam(name="url") UriType url,
+			@OperationParam(name="valueSet") ValueSet valueSet,
+			@OperationParam(name="coding", max=OperationParam.MAX_UNLIMITED) List<Coding> codings,
+			@OperationParam(name="displayLanguage") String displayLanguage) {
+
+		return batchValidateCode(id.getIdPart(), url, valueSet, codings, FHIRHelper.getDisplayLanguage(displayLanguage, request.getHeader(ACCEPT_LANGUAGE_HEADER)));
+	}
+
+	@Operation(name="$batch-validate-code")
+	public Parameters batchValidateCodeImplicit(
+			HttpServletRequest request,
+			HttpServletResponse response,
+			@OperationParam(name="url") UriType url,
+			@OperationParam(name="valueSet") ValueSet valueSet,
+			@OperationParam(name="coding", max=OperationParam.MAX_UNLIMITED) List<Coding> codings,
+			@OperationParam(name="displayLanguage") String displayLanguage) {
+
+		return batchValidateCode(null, url, valueSet, codings, FHIRHelper.getDisplayLanguage(displayLanguage, request.getHeader(ACCEPT_LANGUAGE_HEADER)));
+	}
+
+	private Parameters batchValidateCode(String id, UriType url, ValueSet valueSet, List<Coding> codings, String displayLanguage) {
+		List<Parameters> results = valueSetService.validateCodes(id, url, valueSet, codings, displayLanguage);
+		if (results == null) {
+			return null;
+		}
+		Parameters batchResponse = new Parameters();
+		for (Parameters result : results) {
+			batchResponse.addParameter().setName("validation").setResource(result);
+		}
+		return batchResponse;
+	}
+
 	private void validateCodeParamHints(String incorrectParamSystemVersion) {
 		FHIRHelper.parameterNamingHint("system-version", incorrectParamSystemVersion, "systemVersion");
 	}
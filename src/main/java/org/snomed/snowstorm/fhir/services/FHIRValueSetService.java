@@ -3,6 +3,9 @@ package org.snomed.snowstorm.fhir.services;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.domain.Branch;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.hl7.fhir.r4.model.*;
@@ -41,6 +44,7 @@ import org.springframework.stereotype.Service;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
@@ -85,6 +89,12 @@ public class FHIRValueSetService {
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private ValueSetExpansionCache expansionCache;
+
 	private final Map<String, Set<String>> codeSystemVersionToRefsetsWithMembersCache = new HashMap<>();
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -227,39 +237,26 @@ public class FHIRValueSetService {
 			// Constraints:
 			// - Elasticsearch prevents us from requesting results beyond the first 10K
 			// Strategy:
-			// - Load concept ids until we reach the requested page
+			// - Pages within the first 10K are loaded directly unless the whole expansion is already held
+			// - Otherwise load all concept ids of the expansion once, hold them and take the requested page
 			// - Then load the concepts for that page
 			int offsetRequested = (int) pageRequest.getOffset();
 			int limitRequested = (int) (pageRequest.getOffset() + pageRequest.getPageSize());
 
 			QueryService.ConceptQueryBuilder conceptQuery = getSnomedConceptQuery(filter, activeOnly, codeSelectionCriteria, languageDialects);
+			ValueSetExpansionCache.ExpansionKey expansionKey = getExpansionKey(codeSystemVersion, codeSelectionCriteria, activeOnly, filter, languageDialects);
+			long[] expansionConceptIds = expansionCache.getIfPresent(expansionKey);
+			if (expansionConceptIds == null && limitRequested > LARGE_PAGE.getPageSize()) {
+				Sort sort = pageRequest.getSort();
+				expansionConceptIds = expansionCache.get(expansionKey, () -> findAllConceptIds(conceptQuery, codeSystemVersion.getSnomedBranch(), sort));
+			}
 
-			int totalResults = 0;
+			int totalResults;
 			List<Long> conceptsToLoad;
-			if (limitRequested > LARGE_PAGE.getPageSize()) {
-				// Have to use search-after feature to paginate to the page requested because of Elasticsearch 10k limit.
-				SearchAfterPage<Long> previousPage = null;
-				List<Long> allConceptIds = new LongArrayList();
-				boolean loadedAll = false;
-				while (allConceptIds.size() < limitRequested && !loadedAll) {
-					PageRequest largePageRequest;
-					if (previousPage == null) {
-						largePageRequest = PageRequest.of(0, LARGE_PAGE.getPageSize(), pageRequest.getSort());
-					} else {
-						int pageSize = Math.min(limitRequested - allConceptIds.size(), LARGE_PAGE.getPageSize());
-						largePageRequest = SearchAfterPageRequest.of(previousPage.getSearchAfter(), pageSize, previousPage.getSort());
-					}
-					SearchAfterPage<Long> page = snomedQueryService.searchForIds(conceptQuery, codeSystemVersion.getSnomedBranch(), largePageRequest);
-					allConceptIds.addAll(page.getContent());
-					loadedAll = page.getNumberOfElements() < largePageRequest.getPageSize();
-					if (previousPage == null) {
-						// Collect results total
-						totalResults = (int) page.getTotalElements();
-					}
-					previousPage = page;
-				}
-				if (allConceptIds.size() > offsetRequested) {
-					conceptsToLoad = new LongArrayList(allConceptIds).subList(offsetRequested, Math.min(limitRequested, allConceptIds.size()));
+			if (expansionConceptIds != null) {
+				totalResults = expansionConceptIds.length;
+				if (expansionConceptIds.length > offsetRequested) {
+					conceptsToLoad = new LongArrayList(expansionConceptIds, offsetRequested, Math.min(limitRequested, expansionConceptIds.length) - offsetRequested);
 				} else {
 					conceptsToLoad = new ArrayList<>();
 				}
@@ -384,6 +381,41 @@ public class FHIRValueSetService {
 		return hapiValueSet;
 	}
 
+	// Have to use search-after feature to load beyond the first 10K because of the Elasticsearch limit.
+	private long[] findAllConceptIds(QueryService.ConceptQueryBuilder conceptQuery, String branchPath, Sort sort) {
+		LongArrayList allConceptIds = new LongArrayList();
+		SearchAfterPage<Long> previousPage = null;
+		boolean loadedAll = false;
+		while (!loadedAll) {
+			PageRequest largePageRequest;
+			if (previousPage == null) {
+				largePageRequest = PageRequest.of(0, LARGE_PAGE.getPageSize(), sort);
+			} else {
+				largePageRequest = SearchAfterPageRequest.of(previousPage.getSearchAfter(), LARGE_PAGE.getPageSize(), previousPage.getSort());
+			}
+			SearchAfterPage<Long> page = snomedQueryService.searchForIds(conceptQuery, branchPath, largePageRequest);
+			allConceptIds.addAll(page.getContent());
+			loadedAll = page.getNumberOfElements() < largePageRequest.getPageSize();
+			previousPage = page;
+		}
+		logger.info("Loaded {} concept ids for ValueSet expansion on {}", allConceptIds.size(), branchPath);
+		return allConceptIds.toLongArray();
+	}
+
+	private ValueSetExpansionCache.ExpansionKey getExpansionKey(FHIRCodeSystemVersion codeSystemVersion, CodeSelectionCriteria codeSelectionCriteria, boolean activeOnly,
+			String filter, List<LanguageDialect> languageDialects) {
+
+		String branchPath = codeSystemVersion.getSnomedBranch();
+		Branch branch = branchService.findBranchOrThrow(branchPath);
+		String selection;
+		if (codeSelectionCriteria.isAnyECL()) {
+			selection = "ecl:" + inclusionExclusionClausesToEcl(codeSelectionCriteria);
+		} else {
+			selection = "codes:" + String.join(",", new TreeSet<>(getSnomedCodes(codeSelectionCriteria)));
+		}
+		return new ValueSetExpansionCache.ExpansionKey(branchPath, branch.getHeadTimestamp(), selection, activeOnly, filter, List.copyOf(orEmpty(languageDialects)));
+	}
+
 	private String getUserRef(ValueSet valueSet) {
 		return valueSet.getUrl() != null ? valueSet.getUrl() : "inline value set";
 	}
@@ -503,10 +535,7 @@ public class FHIRValueSetService {
 			conceptQuery.ecl(ecl);
 		} else {
 			// Just a set of concept codes
-			Set<String> codes = new HashSet<>();
-			codeSelectionCriteria.getInclusionConstraints().values().stream().flatMap(Collection::stream).forEach(include -> codes.addAll(include.getCode()));
-			codeSelectionCriteria.getExclusionConstraints().values().stream().flatMap(Collection::stream).forEach(include -> codes.removeAll(include.getCode()));
-			conceptQuery.conceptIds(codes);
+			conceptQuery.conceptIds(getSnomedCodes(codeSelectionCriteria));
 			if (activeOnly) {
 				conceptQuery.activeFilter(activeOnly);
 			}
@@ -523,6 +552,13 @@ public class FHIRValueSetService {
 		return conceptQuery;
 	}
 
+	private Set<String> getSnomedCodes(CodeSelectionCriteria codeSelectionCriteria) {
+		Set<String> codes = new HashSet<>();
+		codeSelectionCriteria.getInclusionConstraints().values().stream().flatMap(Collection::stream).forEach(include -> codes.addAll(include.getCode()));
+		codeSelectionCriteria.getExclusionConstraints().values().stream().flatMap(Collection::stream).forEach(include -> codes.removeAll(include.getCode()));
+		return codes;
+	}
+
 	@NotNull
 	private CodeSelectionCriteria generateInclusionExclusionConstraints(ValueSet valueSet, CodeSystemVersionProvider codeSystemVersionProvider, boolean activeOnly) {
 
@@ -590,12 +626,59 @@ public class FHIRValueSetService {
 			throw exception("No codings provided to validate.", OperationOutcome.IssueType.INVALID, 400);
 		}
 
+		CodeSelectionCriteria codeSelectionCriteria = generateInclusionExclusionConstraints(hapiValueSet, codings);
+		List<LanguageDialect> languageDialects = ControllerHelper.parseAcceptLanguageHeader(displayLanguage);
+		return validateCodings(codings, codeSelectionCriteria, languageDialects, displayLanguage,
+				(codingA, resolvedVersions) -> findInValueSet(codingA, resolvedVersions, codeSelectionCriteria, languageDialects));
+	}
+
+	/**
+	 * Validates many codings against one ValueSet. The ValueSet and code system versions are resolved once
+	 * and the codings are found with one query per code system version rather than one query per coding.
+	 * @return one validation result per coding, in the same order as the codings given.
+	 */
+	public List<Parameters> validateCodes(String id, UriType url, ValueSet valueSet, List<Coding> codings, String displayLanguage) {
+		if (codings == null || codings.isEmpty()) {
+			throw exception("No codings provided to validate.", OperationOutcome.IssueType.INVALID, 400);
+		}
+		for (Coding coding : codings) {
+			if (!coding.hasSystem() || !coding.hasCode()) {
+				throw exception("Each coding must have a system and code.", OperationOutcome.IssueType.INVALID, 400);
+			}
+		}
+
+		ValueSet hapiValueSet = findOrInferValueSet(id, FHIRHelper.toString(url), valueSet);
+		if (hapiValueSet == null) {
+			return null;
+		}
+
+		CodeSelectionCriteria codeSelectionCriteria = generateInclusionExclusionConstraints(hapiValueSet, codings);
+		List<LanguageDialect> languageDialects = ControllerHelper.parseAcceptLanguageHeader(displayLanguage);
+		Map<FHIRCodeSystemVersion, Map<String, FHIRConcept>> conceptsFound = findAllInValueSet(codings, codeSelectionCriteria, languageDialects);
+
+		List<Parameters> results = new ArrayList<>();
+		for (Coding coding : codings) {
+			results.add(validateCodings(Set.of(coding), codeSelectionCriteria, languageDialects, displayLanguage,
+					(codingA, resolvedVersions) -> resolvedVersions.stream()
+							.filter(version -> isVersionMatch(codingA, version))
+							.map(version -> conceptsFound.getOrDefault(version, Collections.emptyMap()).get(codingA.getCode()))
+							.filter(Objects::nonNull)
+							.findFirst().orElse(null)));
+		}
+		return results;
+	}
+
+	private CodeSelectionCriteria generateInclusionExclusionConstraints(ValueSet hapiValueSet, Collection<Coding> codings) {
 		Set<CanonicalUri> codingSystemVersions = codings.stream()
 				.filter(Coding::hasVersion).map(codingA -> CanonicalUri.of(codingA.getSystem(), codingA.getVersion())).collect(Collectors.toSet());
 
 		CodeSystemVersionProvider codeSystemVersionProvider = new CodeSystemVersionProvider(codingSystemVersions, null, null, null, codeSystemService);
 		// Collate set of inclusion and exclusion constraints for each code system version
-		CodeSelectionCriteria codeSelectionCriteria = generateInclusionExclusionConstraints(hapiValueSet, codeSystemVersionProvider, false);
+		return generateInclusionExclusionConstraints(hapiValueSet, codeSystemVersionProvider, false);
+	}
+
+	private Parameters validateCodings(Set<Coding> codings, CodeSelectionCriteria codeSelectionCriteria, List<LanguageDialect> languageDialects, String displayLanguage,
+			BiFunction<Coding, Set<FHIRCodeSystemVersion>, FHIRConcept> conceptLookup) {
 
 		Set<FHIRCodeSystemVersion> resolvedCodeSystemVersionsMatchingCodings = new HashSet<>();
 		boolean systemMatch = false;
@@ -643,9 +726,8 @@ public class FHIRValueSetService {
 			response.addParameter("version", resolvedCodeSystemVersionsMatchingCodings.iterator().next().getVersion());
 		}
 
-		List<LanguageDialect> languageDialects = ControllerHelper.parseAcceptLanguageHeader(displayLanguage);
 		for (Coding codingA : codings) {
-			FHIRConcept concept = findInValueSet(codingA, resolvedCodeSystemVersionsMatchingCodings, codeSelectionCriteria, languageDialects);
+			FHIRConcept concept = conceptLookup.apply(codingA, resolvedCodeSystemVersionsMatchingCodings);
 			if (concept != null) {
 				if (codings.size() == 1 && FHIRHelper.isSnomedUri(codingA.getSystem())) {
 					response.addParameter("inactive", !concept.isActive());
@@ -740,9 +822,7 @@ public class FHIRValueSetService {
 		for (FHIRCodeSystemVersion codeSystemVersionForExpansion : codeSystemVersionsForExpansion) {
 
 			// Check system and version match
-			if (coding.getSystem().equals(codeSystemVersionForExpansion.getUrl()) &&
-					(coding.getVersion() == null || coding.getVersion().equals(codeSystemVersionForExpansion.getVersion())) ||
-					(FHIRHelper.isSnomedUri(coding.getSystem()) && codeSystemVersionForExpansion.getVersion().contains(coding.getVersion()))) {
+			if (isVersionMatch(coding, codeSystemVersionForExpansion)) {
 
 				if (codeSystemVersionForExpansion.isSnomed()) {
 					snomedVersions.add(codeSystemVersionForExpansion);
@@ -778,6 +858,57 @@ public class FHIRValueSetService {
 		return null;
 	}
 
+	private Map<FHIRCodeSystemVersion, Map<String, FHIRConcept>> findAllInValueSet(List<Coding> codings, CodeSelectionCriteria codeSelectionCriteria,
+			List<LanguageDialect> languageDialects) {
+
+		Map<FHIRCodeSystemVersion, Map<String, FHIRConcept>> conceptsFound = new HashMap<>();
+		Set<String> genericCodes = new HashSet<>();
+		for (FHIRCodeSystemVersion version : codeSelectionCriteria.gatherAllInclusionVersions()) {
+			Set<String> codes = codings.stream().filter(coding -> isVersionMatch(coding, version)).map(Coding::getCode).collect(Collectors.toSet());
+			if (codes.isEmpty()) {
+				continue;
+			}
+			if (version.isSnomed()) {
+				Map<String, FHIRConcept> versionConcepts = conceptsFound.computeIfAbsent(version, v -> new HashMap<>());
+				for (List<String> codesBatch : Iterables.partition(codes, LARGE_PAGE.getPageSize())) {
+					QueryService.ConceptQueryBuilder snomedConceptQuery = getSnomedConceptQuery(null, false, codeSelectionCriteria, languageDialects);
+					snomedConceptQuery.conceptIds(new HashSet<>(codesBatch));
+					for (ConceptMini conceptMini : snomedQueryService.search(snomedConceptQuery, version.getSnomedBranch(), PageRequest.of(0, codesBatch.size()))) {
+						versionConcepts.put(conceptMini.getConceptId(), new FHIRConcept(conceptMini, version, true));
+					}
+				}
+			} else {
+				genericCodes.addAll(codes);
+			}
+		}
+
+		if (!genericCodes.isEmpty()) {
+			// As with single codings, a FHIR-concept found in any of the ValueSet versions is used for all matching versions
+			Map<String, FHIRConcept> genericConcepts = new HashMap<>();
+			for (List<String> codesBatch : Iterables.partition(genericCodes, LARGE_PAGE.getPageSize())) {
+				BoolQuery.Builder fhirConceptQuery = getFhirConceptQuery(codeSelectionCriteria, null);
+				fhirConceptQuery.must(termsQuery(FHIRConcept.Fields.CODE, codesBatch));
+				for (FHIRConcept concept : conceptService.findConcepts(fhirConceptQuery, PageRequest.of(0, codesBatch.size()))) {
+					genericConcepts.putIfAbsent(concept.getCode(), concept);
+				}
+			}
+			for (FHIRCodeSystemVersion version : codeSelectionCriteria.gatherAllInclusionVersions()) {
+				if (!version.isSnomed()) {
+					conceptsFound.put(version, genericConcepts);
+				}
+			}
+		}
+		return conceptsFound;
+	}
+
+	private static boolean isVersionMatch(Coding coding, FHIRCodeSystemVersion codeSystemVersion) {
+		if (coding.getSystem() == null || !coding.getSystem().equals(codeSystemVersion.getUrl().replace("xsct", "sct"))) {
+			return false;
+		}
+		return coding.getVersion() == null || coding.getVersion().equals(codeSystemVersion.getVersion()) ||
+				(FHIRHelper.isSnomedUri(coding.getSystem()) && codeSystemVersion.getVersion() != null && codeSystemVersion.getVersion().contains(coding.getVersion()));
+	}
+
 	private String inclusionExclusionClausesToEcl(CodeSelectionCriteria codeSelectionCriteria) {
 		StringBuilder ecl = new StringBuilder();
 		for (ConceptConstraint inclusion : codeSelectionCriteria.getInclusionConstraints().values().iterator().next()) {
@@ -0,0 +1,55 @@
+package org.snomed.snowstorm.fhir.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.snomed.snowstorm.core.pojo.LanguageDialect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Complete SNOMED CT ValueSet expansions held as arrays of concept ids in expansion order.
+ * Expansions are keyed by the head timepoint of the code system version branch so that new content always results in a new expansion.
+ * The cache is weighed by the number of concept ids held, the least recently used expansions are evicted first.
+ */
+@Service
+public class ValueSetExpansionCache {
+
+	private final Cache<ExpansionKey, long[]> expansions;
+
+	public ValueSetExpansionCache(@Value("${fhir.valueset.expansion-cache.max-codes:5000000}") long maxCodes) {
+		expansions = Caffeine.newBuilder()
+				.maximumWeight(maxCodes)
+				.weigher((ExpansionKey key, long[] conceptIds) -> conceptIds.length + 1)
+				.recordStats()
+				.build();
+	}
+
+	public long[] getIfPresent(ExpansionKey key) {
+		return expansions.getIfPresent(key);
+	}
+
+	/**
+	 * Concurrent requests for the same expansion wait for a single load.
+	 */
+	public long[] get(ExpansionKey key, Supplier<long[]> loader) {
+		return expansions.get(key, k -> loader.get());
+	}
+
+	public CacheStats getStats() {
+		return expansions.stats();
+	}
+
+	public void clearCache() {
+		expansions.invalidateAll();
+	}
+
+	/**
+	 * @param selection the ECL or concept codes which select the expansion content
+	 */
+	public record ExpansionKey(String branchPath, long headTimestamp, String selection, boolean activeOnly, String filter, List<LanguageDialect> languageDialects) {
+	}
+}
@@ -36,6 +36,9 @@ public class AdminController {
 	@Autowired
 	private ConceptDefinitionStatusUpdateService definitionStatusUpdateService;
 
+	@Autowired
+	private DescriptionAutocompleteFieldsUpdateService descriptionAutocompleteFieldsUpdateService;
+
 	@Autowired
 	private AdminOperationsService adminOperationsService;
 
@@ -75,6 +78,27 @@ public class AdminController {
 		adminOperationsService.reindexDescriptionsForLanguage(languageCode);
 	}
 
+	@Operation(summary = "Populate the description autocomplete field.",
+			description = "Reindexes the descriptions which were indexed before the description autocomplete field was added, on all branches. " +
+					"This runs in the background as an Elasticsearch task, the task id is returned. " +
+					"Until then description autocomplete uses the standard prefix search for the descriptions without the field. " +
+					"This only needs to be run once, it is also started on startup if search.description.autocomplete.populate-on-startup is true.")
+	@PostMapping(value = "/actions/populate-description-autocomplete")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public String populateDescriptionAutocomplete() {
+		return adminOperationsService.populateDescriptionAutocompleteField();
+	}
+
+	@Operation(summary = "Populate the description autocomplete filter fields on a branch.",
+			description = "Sets the concept active and language reference set fields used by the description autocomplete filters on every description of the branch. " +
+					"These fields are kept up to date by each commit, this only needs to be run once on each code system branch for descriptions indexed before the fields existed. " +
+					"Until then description autocomplete checks the descriptions without the fields using separate queries.")
+	@PostMapping(value = "/{branch}/actions/populate-description-autocomplete-fields")
+	@PreAuthorize("hasPermission('ADMIN', #branch)")
+	public void populateDescriptionAutocompleteFields(@PathVariable String branch) throws ServiceException {
+		descriptionAutocompleteFieldsUpdateService.updateAllDescriptions(BranchPathUriUtil.decodePath(branch));
+	}
+
 	@Operation(summary = "Backfill traceability information.",
 			description = "Used to backfill data after upgrading to Traceability Service version 3.1.x. " +
 					"Sends previously missing information to the Traceability Service including the commit date of all code system versions.")
@@ -322,6 +346,7 @@ public class AdminController {
 	public Map<String, Map<String, Long>> getECLCacheStats() {
 		final Map<String, BranchVersionECLCache> cacheMap = eclQueryService.getResultsCache().getCacheMap();
 		Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+		stats.put("all", eclQueryService.getResultsCache().getStats());
 		for (String branch : new TreeSet<>(cacheMap.keySet())) {
 			stats.put(branch, cacheMap.get(branch).getStats());
 		}
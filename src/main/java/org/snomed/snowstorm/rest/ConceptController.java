@@ -10,6 +10,7 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import jakarta.servlet.http.HttpServletResponse;
 import org.ihtsdo.drools.response.Severity;
 import org.snomed.snowstorm.config.Config;
 import org.snomed.snowstorm.core.data.domain.*;
@@ -44,6 +45,8 @@ import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.validation.Valid;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -99,6 +102,9 @@ public class ConceptController {
 	@Autowired
 	private IdentifierComponentService identifierComponentService;
 
+	@Autowired
+	private ConceptExportService conceptExportService;
+
 	@Value("${snowstorm.rest-api.allowUnlimitedConceptPagination:false}")
 	private boolean allowUnlimitedConceptPagination;
 
@@ -228,6 +234,32 @@ public class ConceptController {
 		return ControllerHelper.throwIfNotFound("Concept", concept);
 	}
 
+	@Operation(summary = "Export the concepts matching an ECL expression.",
+			description = "All matching concepts are streamed as newline delimited JSON (format=ndjson) or CSV (format=csv), " +
+					"optionally with the preferred term. Results are not sorted. Memory use does not depend on the size of the result " +
+					"so this is the recommended way to extract large subsets.")
+	@GetMapping(value = "/{branch}/concepts/export", produces = {"application/x-ndjson", "text/csv"})
+	public void exportConcepts(
+			@PathVariable String branch,
+			@RequestParam String ecl,
+			@RequestParam(required = false, defaultValue = "false") boolean stated,
+			@RequestParam(required = false, defaultValue = "ndjson") String format,
+			@RequestParam(required = false, defaultValue = "false") boolean includeTerm,
+			@RequestHeader(value = "Accept-Language", defaultValue = Config.DEFAULT_ACCEPT_LANG_HEADER) String acceptLanguageHeader,
+			HttpServletResponse response) throws IOException {
+
+		branch = BranchPathUriUtil.decodePath(branch);
+		ConceptExportService.Format exportFormat = Arrays.stream(ConceptExportService.Format.values())
+				.filter(value -> value.name().equalsIgnoreCase(format)).findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Parameter format must be 'ndjson' or 'csv'."));
+		eclValidator.validate(ecl, branch);
+		List<LanguageDialect> languageDialects = ControllerHelper.parseAcceptLanguageHeaderWithDefaultFallback(acceptLanguageHeader);
+
+		response.setContentType(exportFormat.getContentType());
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		conceptExportService.exportConcepts(branch, ecl, stated, exportFormat, includeTerm ? languageDialects : null, response.getOutputStream());
+	}
+
 	@GetMapping(value = "/browser/{branch}/concepts/{componentId}/concept-or-identifier-ref-concept", produces = {"application/json", "text/csv"})
 	@JsonView(value = View.Component.class)
 	public HttpEntity<ItemsPage<?>> findConceptOrIdentifierReferencedConcept(
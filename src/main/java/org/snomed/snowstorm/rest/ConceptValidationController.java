@@ -9,12 +9,20 @@ import org.ihtsdo.drools.response.InvalidContent;
 import org.snomed.snowstorm.core.data.domain.Concept;
 import org.snomed.snowstorm.core.data.services.ContentReportService;
 import org.snomed.snowstorm.core.data.services.ServiceException;
+import org.snomed.snowstorm.validation.BulkValidationJob;
 import org.snomed.snowstorm.validation.DroolsValidationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Set;
 
@@ -47,6 +55,49 @@ public class ConceptValidationController {
 		return validationService.validateConcepts(branchPath, concepts);
 	}
 
+	@PostMapping(value = "/{branch}/validation/bulk")
+	@Operation(summary = "Start bulk validation using the Snomed-Drools project.",
+			description = "Validates all concepts matching the ECL in parallel. Jobs are run one at a time. " +
+					"The 'location' response header contain the URL, including the identifier, of the new job.")
+	@PreAuthorize("hasPermission('AUTHOR', #branch)")
+	public ResponseEntity<Void> createBulkValidationJob(@Parameter(description = "The branch path") @PathVariable(value = "branch") @NotNull String branch,
+			@Parameter(description = "ECL selecting the concepts to validate") @RequestParam String ecl,
+			@RequestParam(required = false, defaultValue = "false") boolean afterClassification) throws ServiceException {
+
+		branch = BranchPathUriUtil.decodePath(branch);
+		BulkValidationJob job = validationService.createBulkValidationJob(branch, ecl, afterClassification);
+		return ControllerHelper.getCreatedResponse(job.getId());
+	}
+
+	@GetMapping(value = "/{branch}/validation/bulk/{jobId}")
+	@Operation(summary = "Retrieve a bulk validation job.")
+	public BulkValidationJob getBulkValidationJob(@PathVariable(value = "branch") String branch, @PathVariable String jobId) {
+		branch = BranchPathUriUtil.decodePath(branch);
+		return validationService.getBulkValidationJobOrThrow(branch, jobId);
+	}
+
+	@GetMapping(value = "/{branch}/validation/bulk/{jobId}/results", produces = "text/tab-separated-values")
+	@Operation(summary = "Download the results of a bulk validation job.",
+			description = "While the job is running the results found so far are returned, the job status shows whether they are complete. " +
+					"NOT SUPPORTED IN SWAGGER UI. Instead open the URL in a new browser tab or make a GET request another way.")
+	public void downloadBulkValidationResults(@PathVariable(value = "branch") String branch, @PathVariable String jobId, HttpServletResponse response) throws IOException {
+		branch = BranchPathUriUtil.decodePath(branch);
+		BulkValidationJob job = validationService.getBulkValidationJobOrThrow(branch, jobId);
+		// Read the length first, the file may still be growing
+		long resultsLength = job.getResultsLength();
+		File resultsFile = job.getResultsFile();
+		if (job.getStatus() != BulkValidationJob.Status.FAILED && resultsFile != null && resultsFile.isFile() && resultsLength > 0) {
+			response.setHeader("Content-Disposition", "attachment; filename=\"validation-bulk-" + jobId + ".tsv\"");
+			try (InputStream resultsStream = Files.newInputStream(resultsFile.toPath())) {
+				StreamUtils.copyRange(resultsStream, response.getOutputStream(), 0, resultsLength - 1);
+			}
+		} else {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			response.getWriter().write(String.format("Results of bulk validation %s are not available, job status is %s.", jobId, job.getStatus()));
+			response.getWriter().flush();
+		}
+	}
+
 	@PostMapping(value = "/validation-maintenance/reload-validation-rules")
 	@Operation(description = "Reload SNOMED Drools assertions and test resources.")
 	@PreAuthorize("hasPermission('ADMIN', 'global')")
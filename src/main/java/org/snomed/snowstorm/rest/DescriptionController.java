@@ -128,6 +128,54 @@ public class DescriptionController {
 		return pageWithBucketAggregations;
 	}
 
+	@Operation(summary = "Search as you type lookup of active concepts by description prefix.",
+			description = "Returns up to 'limit' active concepts which have an active description starting with the words given, one description per concept, shortest terms first. " +
+					"Intended for typeahead use, the cost of each request does not grow with the number of matching descriptions. " +
+					"The Accept-Language header is used to chose the FSN and PT values in the response.")
+	@GetMapping(value = "browser/{branch}/descriptions/autocomplete")
+	@JsonView(value = View.Component.class)
+	public List<BrowserDescriptionSearchResult> autocompleteDescriptions(
+			@PathVariable String branch,
+			@RequestParam String term,
+
+			@Parameter(description = "Set of two character language codes to match.")
+			@RequestParam(required = false) Set<String> language,
+
+			@Parameter(description = "Set of description type ids to use include. Defaults to any.")
+			@RequestParam(required = false) Set<Long> type,
+
+			@Parameter(description = "Set of description language reference sets. The description must be preferred in at least one of these to match.")
+			@RequestParam(required = false) Set<Long> preferredIn,
+
+			@Parameter(description = "Set of description language reference sets. The description must be acceptable in at least one of these to match.")
+			@RequestParam(required = false) Set<Long> acceptableIn,
+
+			@Parameter(description = "Set of description language reference sets. The description must be preferred OR acceptable in at least one of these to match.")
+			@RequestParam(required = false) Set<Long> preferredOrAcceptableIn,
+
+			@Parameter(description = "Maximum number of concepts to return, up to 100.")
+			@RequestParam(defaultValue = "10") int limit,
+			@RequestHeader(value = "Accept-Language", defaultValue = Config.DEFAULT_ACCEPT_LANG_HEADER) String acceptLanguageHeader) {
+
+		branch = BranchPathUriUtil.decodePath(branch);
+		List<LanguageDialect> languageDialects = ControllerHelper.parseAcceptLanguageHeaderWithDefaultFallback(acceptLanguageHeader);
+
+		List<Description> descriptions = descriptionService.findAutocompleteDescriptions(branch, new DescriptionCriteria()
+						.term(term)
+						.searchLanguageCodes(language)
+						.type(type)
+						.preferredIn(preferredIn)
+						.acceptableIn(acceptableIn)
+						.preferredOrAcceptableIn(preferredOrAcceptableIn),
+				limit);
+
+		Set<String> conceptIds = descriptions.stream().map(Description::getConceptId).collect(Collectors.toSet());
+		Map<String, ConceptMini> conceptMinis = conceptService.findConceptMinis(branch, conceptIds, languageDialects).getResultsMap();
+		return descriptions.stream()
+				.map(d -> new BrowserDescriptionSearchResult(d.getTerm(), d.isActive(), d.getLanguageCode(), d.getModuleId(), conceptMinis.get(d.getConceptId())))
+				.toList();
+	}
+
 	private void addBucketConcepts(@PathVariable String branch, List<LanguageDialect> LanguageDialect, PageWithBucketAggregations<BrowserDescriptionSearchResult> pageWithBucketAggregations) {
 		Map<String, Map<String, Long>> buckets = pageWithBucketAggregations.getBuckets();
 		Set<String> bucketConceptIds = new HashSet<>();
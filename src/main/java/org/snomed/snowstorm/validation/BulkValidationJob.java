@@ -0,0 +1,135 @@
+package org.snomed.snowstorm.validation;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkValidationJob {
+
+	public enum Status {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	private final String id;
+	private final String branchPath;
+	private final String ecl;
+	private final boolean afterClassification;
+	private final Date startDate;
+	private final AtomicInteger validatedCount = new AtomicInteger();
+	private final AtomicInteger invalidContentCount = new AtomicInteger();
+	private volatile Status status;
+	private volatile int conceptCount;
+	private volatile Date endDate;
+	private volatile String errorMessage;
+	private volatile File resultsFile;
+	private volatile long resultsLength;
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	public BulkValidationJob(String id, String branchPath, String ecl, boolean afterClassification) {
+		this.id = id;
+		this.branchPath = branchPath;
+		this.ecl = ecl;
+		this.afterClassification = afterClassification;
+		startDate = new Date();
+		status = Status.RUNNING;
+	}
+
+	void addValidated(int concepts, int invalidContent) {
+		validatedCount.addAndGet(concepts);
+		invalidContentCount.addAndGet(invalidContent);
+	}
+
+	void complete() {
+		endDate = new Date();
+		status = Status.COMPLETED;
+		finished.countDown();
+	}
+
+	void fail(String errorMessage) {
+		this.errorMessage = errorMessage;
+		endDate = new Date();
+		status = Status.FAILED;
+		finished.countDown();
+	}
+
+	/**
+	 * @return true if the job completed or failed within the timeout.
+	 */
+	boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getBranchPath() {
+		return branchPath;
+	}
+
+	public String getEcl() {
+		return ecl;
+	}
+
+	public boolean isAfterClassification() {
+		return afterClassification;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public int getConceptCount() {
+		return conceptCount;
+	}
+
+	void setConceptCount(int conceptCount) {
+		this.conceptCount = conceptCount;
+	}
+
+	public int getValidatedCount() {
+		return validatedCount.get();
+	}
+
+	public int getInvalidContentCount() {
+		return invalidContentCount.get();
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	@JsonIgnore
+	public File getResultsFile() {
+		return resultsFile;
+	}
+
+	void setResultsFile(File resultsFile) {
+		this.resultsFile = resultsFile;
+	}
+
+	/**
+	 * @return the length of the start of the results file which has been written and flushed, only whole lines.
+	 * The results of a running job can be read up to this length.
+	 */
+	@JsonIgnore
+	public long getResultsLength() {
+		return resultsLength;
+	}
+
+	void setResultsLength(long resultsLength) {
+		this.resultsLength = resultsLength;
+	}
+}
@@ -1,32 +1,42 @@
 package org.snomed.snowstorm.validation;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import org.snomed.snowstorm.core.data.services.QueryService;
-import org.snomed.snowstorm.core.util.SearchAfterPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
 
 public class DisposableQueryService {
 
+    private static final int DEFAULT_MAX_CACHED_QUERIES = 10_000;
+
     private final QueryService queryService;
     private final String branchPath;
 
-    private final Map<QueryService.ConceptQueryBuilder, Page<Long>> searchCache = Collections.synchronizedMap(new HashMap<>());
-    private final Map<QueryService.ConceptQueryBuilder, Boolean> anyResultsCache = Collections.synchronizedMap(new HashMap<>());
+    // Shared by concurrent validations, each query is run once and other threads wait for the result
+    private final Cache<QueryService.ConceptQueryBuilder, CompletableFuture<Page<Long>>> searchCache;
+    private final Cache<QueryService.ConceptQueryBuilder, CompletableFuture<Boolean>> anyResultsCache;
     private final BranchCriteria branchCriteria;
 
     public DisposableQueryService(QueryService queryService, String branchPath, BranchCriteria branchCriteria) {
+        this(queryService, branchPath, branchCriteria, DEFAULT_MAX_CACHED_QUERIES);
+    }
+
+    public DisposableQueryService(QueryService queryService, String branchPath, BranchCriteria branchCriteria, int maxCachedQueries) {
         this.queryService = queryService;
         this.branchPath = branchPath;
         this.branchCriteria = branchCriteria;
+        searchCache = Caffeine.newBuilder().maximumSize(maxCachedQueries).build();
+        anyResultsCache = Caffeine.newBuilder().maximumSize(maxCachedQueries).build();
     }
 
     public QueryService.ConceptQueryBuilder createQueryBuilder(boolean stated) {
@@ -38,11 +48,7 @@ public class DisposableQueryService {
     }
 
     public Page<Long> searchForIds(QueryService.ConceptQueryBuilder queryBuilder) {
-        if (!searchCache.containsKey(queryBuilder)) {
-            SearchAfterPage<Long> ids = queryService.searchForIds(queryBuilder, branchCriteria, LARGE_PAGE);
-            searchCache.put(queryBuilder, ids);
-        }
-        return searchCache.get(queryBuilder);
+        return getOrLoad(searchCache, queryBuilder, () -> queryService.searchForIds(queryBuilder, branchCriteria, LARGE_PAGE));
     }
 
     public Set<String> findAncestorIds(boolean stated, String conceptId) {
@@ -50,10 +56,31 @@ public class DisposableQueryService {
     }
 
     public boolean isAnyResults(QueryService.ConceptQueryBuilder queryBuilder) {
-        if (!anyResultsCache.containsKey(queryBuilder)) {
-            SearchAfterPage<Long> page = queryService.searchForIds(queryBuilder, branchCriteria, PageRequest.of(0, 1));
-            anyResultsCache.put(queryBuilder, !page.isEmpty());
+        return getOrLoad(anyResultsCache, queryBuilder, () -> !queryService.searchForIds(queryBuilder, branchCriteria, PageRequest.of(0, 1)).isEmpty());
+    }
+
+    // The query is run by the first thread to ask for it, outside the cache's locks, so a slow query does not hold up other queries.
+    // A failed query is removed so that it is run again next time.
+    private static <T> T getOrLoad(Cache<QueryService.ConceptQueryBuilder, CompletableFuture<T>> cache, QueryService.ConceptQueryBuilder queryBuilder, Supplier<T> loader) {
+        CompletableFuture<T> newResult = new CompletableFuture<>();
+        CompletableFuture<T> result = cache.asMap().putIfAbsent(queryBuilder, newResult);
+        if (result == null) {
+            try {
+                newResult.complete(loader.get());
+            } catch (RuntimeException e) {
+                cache.asMap().remove(queryBuilder, newResult);
+                newResult.completeExceptionally(e);
+                throw e;
+            }
+            result = newResult;
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
         }
-        return anyResultsCache.get(queryBuilder);
     }
 }
@@ -1,11 +1,16 @@
 package org.snomed.snowstorm.validation;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.api.VersionControlHelper;
 import io.kaicode.elasticvc.domain.Branch;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import jakarta.annotation.PreDestroy;
 import org.ihtsdo.drools.RuleExecutor;
 import org.ihtsdo.drools.RuleExecutorFactory;
 import org.ihtsdo.drools.response.InvalidContent;
@@ -18,25 +23,23 @@ import org.snomed.snowstorm.config.Config;
 import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.*;
 import org.snomed.snowstorm.core.util.SearchAfterPage;
+import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
 import org.snomed.snowstorm.validation.domain.DroolsConcept;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ResourceLoader;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 import static io.kaicode.elasticvc.api.VersionControlHelper.LARGE_PAGE;
@@ -68,17 +71,30 @@ public class DroolsValidationService {
 	@Autowired
 	private AxiomConversionService axiomConversionService;
 
+	@Value("${validation.drools.bulk.job-expiry-hours}")
+	private int bulkValidationJobExpiryHours;
+
 	private final String droolsRulesPath;
 	private final ResourceManager testResourceManager;
 
 	private RuleExecutor ruleExecutor;
 	private TestResourceProvider testResourceProvider;
 	private final ExecutorService batchExecutorService;
+	private final ExecutorService bulkValidationExecutor;
+	private final int bulkValidationThreads;
+	private final Map<String, BulkValidationJob> bulkValidationJobs = new ConcurrentHashMap<>();
+	private final Cache<BranchVersion, DisposableQueryService> queryServices;
+	private final int queryCacheMaxQueries;
+
+	private static final int BULK_VALIDATION_BATCH_SIZE = 100;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	public DroolsValidationService(
 			@Value("${validation.drools.rules.path}") String droolsRulesPath,
+			@Value("${validation.drools.bulk.threads}") int bulkValidationThreads,
+			@Value("${validation.drools.query-cache.max-branch-versions}") int queryCacheMaxBranchVersions,
+			@Value("${validation.drools.query-cache.max-queries-per-branch-version}") int queryCacheMaxQueries,
 			@Autowired TestResourcesResourceManagerConfiguration resourceManagerConfiguration,
 			@Autowired ResourceLoader cloudResourceLoader) {
 
@@ -86,6 +102,15 @@ public class DroolsValidationService {
 		testResourceManager = new ResourceManager(resourceManagerConfiguration, cloudResourceLoader);
 		newRuleExecutorAndResources();
 		batchExecutorService = Executors.newFixedThreadPool(1);
+		this.bulkValidationThreads = bulkValidationThreads;
+		bulkValidationExecutor = Executors.newFixedThreadPool(bulkValidationThreads,
+				new ThreadFactoryBuilder().setNameFormat("validation-bulk-%d").setDaemon(true).build());
+		this.queryCacheMaxQueries = queryCacheMaxQueries;
+		// Entries are replaced periodically because the cache of a branch version which is validated often grows with every new query
+		queryServices = Caffeine.newBuilder()
+				.maximumSize(queryCacheMaxBranchVersions)
+				.expireAfterWrite(30, TimeUnit.MINUTES)
+				.build();
 	}
 
 	public Set<String> getSemanticTags(String language) {
@@ -104,12 +129,8 @@ public class DroolsValidationService {
 	public List<InvalidContent> validateConcepts(String branchPath, Set<Concept> concepts) throws ServiceException {
 		// Get drools assertion groups to run
 		Branch branchWithInheritedMetadata = branchService.findBranchOrThrow(branchPath, true);
-		String assertionGroupNamesMetaString = branchWithInheritedMetadata.getMetadata().getString(BranchMetadataKeys.ASSERTION_GROUP_NAMES);
 		Set<String> assertionExclusionList = getAssertionExclusionList(branchWithInheritedMetadata);
-		if (assertionGroupNamesMetaString == null) {
-			throw new ServiceException("'" + BranchMetadataKeys.ASSERTION_GROUP_NAMES + "' not set on branch metadata for Snomed-Drools validation configuration.");
-		}
-		Set<String> ruleSetNames = Arrays.stream(assertionGroupNamesMetaString.split(",")).map(String::trim).filter(StringUtils::hasLength).collect(Collectors.toSet());
+		Set<String> ruleSetNames = getRuleSetNames(branchWithInheritedMetadata);
 		if (ruleSetNames.isEmpty()) {
 			logger.info("Branch metadata item '{}' set as empty for {}, skipping Snomed-Drools validation.", BranchMetadataKeys.ASSERTION_GROUP_NAMES, branchPath);
 			return Collections.emptyList();
@@ -124,7 +145,7 @@ public class DroolsValidationService {
 		// Look-up release hashes from the store to set/update the component effectiveTimes
 		setReleaseHashAndEffectiveTime(concepts, branchCriteria);
 		Set<String> inferredTopLevelHierarchies = getTopLevelHierarchies();
-		DisposableQueryService disposableQueryService = new DisposableQueryService(queryService, branchPath, branchCriteria);
+		DisposableQueryService disposableQueryService = getQueryService(branchWithInheritedMetadata, branchCriteria);
 		ConceptDroolsValidationService droolsConceptService = new ConceptDroolsValidationService(branchCriteria, elasticsearchOperations, disposableQueryService, inferredTopLevelHierarchies, versionControlHelper, axiomConversionService);
 		DescriptionDroolsValidationService droolsDescriptionService = new DescriptionDroolsValidationService(branchPath, branchCriteria, elasticsearchOperations,
 				this.descriptionService, disposableQueryService, testResourceProvider, inferredTopLevelHierarchies);
@@ -134,41 +155,190 @@ public class DroolsValidationService {
 		return invalidContents;
 	}
 
-	public void validateBatch(String branch, String ecl, boolean afterClassification) {
+	/**
+	 * Starts validation of all concepts matching the ECL on the branch. Jobs run one at a time, the concepts of a job are validated in parallel.
+	 * The results are written to a tab separated file. The results of each batch are flushed once written
+	 * so the results found so far can be downloaded while the job is running.
+	 */
+	public BulkValidationJob createBulkValidationJob(String branchPath, String ecl, boolean afterClassification) throws ServiceException {
+		Branch branchWithInheritedMetadata = branchService.findBranchOrThrow(branchPath, true);
+		Set<String> ruleSetNames = getRuleSetNames(branchWithInheritedMetadata);
+		BulkValidationJob job = new BulkValidationJob(UUID.randomUUID().toString(), branchPath, ecl, afterClassification);
+		bulkValidationJobs.put(job.getId(), job);
 		batchExecutorService.submit(() -> {
 			try {
-				final PageRequest page = PageRequest.of(0, 2_000);
-				long startTime = new Date().getTime();
-				final SearchAfterPage<Long> conceptIds = queryService.searchForIds(queryService.createQueryBuilder(false).ecl(ecl), branch, page);
-				final int total = conceptIds.getNumberOfElements();
-				long doneCount = 0;
-				final String fileName = "validation-bulk-" + new Date().getTime() + ".tsv";
-				logger.info("Validating batch of {} concepts using ECL {} on branch {}, writing to {}", total, ecl, branch, fileName);
-
-				try (PrintWriter writer = new PrintWriter(fileName)) {
-					writer.println("conceptId\tfsn\terrorCount\tmessages\ttsv-duration\ttotal-duration");
-					writer.printf("-\t-\t-\tValidating batch of %s concepts using ECL %s on branch %s\t0\t0%n", total, ecl, branch);
-					for (List<Long> partition : Iterables.partition(conceptIds, 100)) {
-						final Page<Concept> concepts = conceptService.find(partition, Config.DEFAULT_LANGUAGE_DIALECTS, branch, page);
-						for (Concept concept : concepts) {
-							doneCount++;
-							if (doneCount % 10 == 0) {
-								logger.info("Validating concept {} of {}.", doneCount, total);
-							}
+				runBulkValidation(job, branchWithInheritedMetadata, ruleSetNames);
+			} catch (Exception e) {
+				logger.error("Failed to validate batch using ECL {} on branch {}", ecl, branchPath, e);
+				job.fail(e.getMessage());
+				deleteResultsFile(job);
+			}
+		});
+		return job;
+	}
+
+	public BulkValidationJob getBulkValidationJobOrThrow(String branchPath, String jobId) {
+		BulkValidationJob job = bulkValidationJobs.get(jobId);
+		if (job == null || !job.getBranchPath().equals(branchPath)) {
+			throw new NotFoundException("Bulk validation job not found.");
+		}
+		return job;
+	}
+
+	@Scheduled(fixedDelay = 600_000, initialDelay = 600_000)
+	public void expireBulkValidationJobs() {
+		expireBulkValidationJobsFinishedBefore(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(bulkValidationJobExpiryHours)));
+	}
+
+	// Running jobs are kept, finished jobs are removed along with their results
+	void expireBulkValidationJobsFinishedBefore(Date date) {
+		for (BulkValidationJob job : bulkValidationJobs.values()) {
+			Date endDate = job.getEndDate();
+			if (endDate != null && endDate.before(date)) {
+				bulkValidationJobs.remove(job.getId());
+				deleteResultsFile(job);
+				logger.info("Removed bulk validation job {} on branch {} which finished at {}.", job.getId(), job.getBranchPath(), endDate);
+			}
+		}
+	}
+
+	private void deleteResultsFile(BulkValidationJob job) {
+		File resultsFile = job.getResultsFile();
+		if (resultsFile != null && resultsFile.exists() && !resultsFile.delete()) {
+			logger.warn("Failed to delete bulk validation results file {}", resultsFile.getAbsolutePath());
+		}
+	}
+
+	private void runBulkValidation(BulkValidationJob job, Branch branch, Set<String> ruleSetNames) throws IOException, InterruptedException {
+		final String branchPath = job.getBranchPath();
+		final long startTime = new Date().getTime();
+
+		// All workers share the query cache of this version of the branch
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		Set<String> inferredTopLevelHierarchies = getTopLevelHierarchies();
+		DisposableQueryService disposableQueryService = getQueryService(branch, branchCriteria);
+		ConceptDroolsValidationService droolsConceptService = new ConceptDroolsValidationService(branchCriteria, elasticsearchOperations, disposableQueryService, inferredTopLevelHierarchies, versionControlHelper, axiomConversionService);
+		DescriptionDroolsValidationService droolsDescriptionService = new DescriptionDroolsValidationService(branchPath, branchCriteria, elasticsearchOperations,
+				this.descriptionService, disposableQueryService, testResourceProvider, inferredTopLevelHierarchies);
+		RelationshipDroolsValidationService relationshipService = new RelationshipDroolsValidationService(disposableQueryService);
+		Set<String> assertionExclusionList = getAssertionExclusionList(branch);
+
+		final LongArrayList conceptIds = findAllConceptIds(job.getEcl(), branchCriteria);
+		job.setConceptCount(conceptIds.size());
+		File resultsFile = File.createTempFile("validation-bulk-" + job.getId(), ".tsv");
+		resultsFile.deleteOnExit();
+		job.setResultsFile(resultsFile);
+		logger.info("Validating batch of {} concepts using ECL {} on branch {}, writing to {}", conceptIds.size(), job.getEcl(), branchPath, resultsFile.getAbsolutePath());
+
+		Semaphore batchesInFlight = new Semaphore(bulkValidationThreads * 2);
+		List<Future<?>> futures = new ArrayList<>();
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(resultsFile)))) {
+			writer.println("conceptId\tconceptFsn\tcomponentId\truleId\tseverity\tmessage");
+			checkWriteError(writer);
+			job.setResultsLength(resultsFile.length());
+			for (List<Long> partition : Iterables.partition(conceptIds, BULK_VALIDATION_BATCH_SIZE)) {
+				batchesInFlight.acquire();
+				try {
+					futures.add(bulkValidationExecutor.submit(() -> {
+						try {
+							Collection<Concept> concepts = conceptService.find(branchCriteria, branchPath, partition, Config.DEFAULT_LANGUAGE_DIALECTS);
+							Set<DroolsConcept> droolsConcepts = concepts.stream().map(DroolsConcept::new).collect(Collectors.toSet());
+							// Existing content is being validated so published components are included
+							List<InvalidContent> invalidContents = ruleExecutor.execute(ruleSetNames, assertionExclusionList, droolsConcepts,
+									droolsConceptService, droolsDescriptionService, relationshipService, true, job.isAfterClassification());
+							writeResults(writer, invalidContents, job);
+							job.addValidated(concepts.size(), invalidContents.size());
+						} finally {
+							batchesInFlight.release();
 						}
-					}
-					long end = new Date().getTime() - startTime;
-					writer.printf("-\t-\t-\tValidated batch of %s concepts using ECL %s on branch %s\t0\t%s%n", total, ecl, branch, end);
-				} catch (FileNotFoundException e) {
-					logger.error("Failed to write validation batch to file {}.", fileName, e);
+					}));
+				} catch (RejectedExecutionException e) {
+					batchesInFlight.release();
+					throw e;
+				}
+				if (futures.size() % 100 == 0) {
+					logger.info("Validated {} of {} concepts.", job.getValidatedCount(), conceptIds.size());
 				}
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			checkWriteError(writer);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Failed to validate batch on " + branchPath, e.getCause());
+		} finally {
+			futures.forEach(future -> future.cancel(false));
+		}
 
-				logger.info("Validated batch of {} concepts using ECL {} on branch {}, written to {}", total, ecl, branch, fileName);
-			} catch (Exception e) {
-				logger.error("Failed to validate batch using ECL {} on branch {}", ecl, branch, e);
-				throw e;
+		job.complete();
+		logger.info("Validated batch of {} concepts using ECL {} on branch {} in {} seconds, {} invalid content found.",
+				conceptIds.size(), job.getEcl(), branchPath, (new Date().getTime() - startTime) / 1_000, job.getInvalidContentCount());
+	}
+
+	static void writeResults(PrintWriter writer, List<InvalidContent> invalidContents, BulkValidationJob job) {
+		synchronized (writer) {
+			for (InvalidContent invalidContent : invalidContents) {
+				writer.printf("%s\t%s\t%s\t%s\t%s\t%s%n", invalidContent.getConceptId(), tsvValue(invalidContent.getConceptFsn()), invalidContent.getComponentId(),
+						invalidContent.getRuleId(), invalidContent.getSeverity(), tsvValue(invalidContent.getMessage()));
 			}
-		});
+			checkWriteError(writer);
+			// Everything written so far has been flushed, so the file can be read up to here while other batches are still running
+			job.setResultsLength(job.getResultsFile().length());
+		}
+	}
+
+	// PrintWriter does not throw IO errors, it only records them. This also flushes the writer.
+	private static void checkWriteError(PrintWriter writer) {
+		if (writer.checkError()) {
+			throw new IllegalStateException("Failed to write bulk validation results.");
+		}
+	}
+
+	private static String tsvValue(String value) {
+		return value != null ? value.replaceAll("[\t\r\n]", " ") : "";
+	}
+
+	private LongArrayList findAllConceptIds(String ecl, BranchCriteria branchCriteria) {
+		LongArrayList allConceptIds = new LongArrayList();
+		QueryService.ConceptQueryBuilder conceptQuery = queryService.createQueryBuilder(false).ecl(ecl);
+		SearchAfterPage<Long> previousPage = null;
+		boolean loadedAll = false;
+		while (!loadedAll) {
+			PageRequest largePageRequest;
+			if (previousPage == null) {
+				largePageRequest = PageRequest.of(0, LARGE_PAGE.getPageSize());
+			} else {
+				largePageRequest = SearchAfterPageRequest.of(previousPage.getSearchAfter(), LARGE_PAGE.getPageSize(), previousPage.getSort());
+			}
+			SearchAfterPage<Long> page = queryService.searchForIds(conceptQuery, branchCriteria, largePageRequest);
+			allConceptIds.addAll(page.getContent());
+			loadedAll = page.getNumberOfElements() < largePageRequest.getPageSize();
+			previousPage = page;
+		}
+		return allConceptIds;
+	}
+
+	// Query results only depend on the branch content so the cache of a branch version can be shared by all validations of that version
+	private DisposableQueryService getQueryService(Branch branch, BranchCriteria branchCriteria) {
+		return queryServices.get(new BranchVersion(branch.getPath(), branch.getHeadTimestamp()),
+				key -> new DisposableQueryService(queryService, branch.getPath(), branchCriteria, queryCacheMaxQueries));
+	}
+
+	private Set<String> getRuleSetNames(Branch branchWithInheritedMetadata) throws ServiceException {
+		String assertionGroupNamesMetaString = branchWithInheritedMetadata.getMetadata().getString(BranchMetadataKeys.ASSERTION_GROUP_NAMES);
+		if (assertionGroupNamesMetaString == null) {
+			throw new ServiceException("'" + BranchMetadataKeys.ASSERTION_GROUP_NAMES + "' not set on branch metadata for Snomed-Drools validation configuration.");
+		}
+		return Arrays.stream(assertionGroupNamesMetaString.split(",")).map(String::trim).filter(StringUtils::hasLength).collect(Collectors.toSet());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		batchExecutorService.shutdownNow();
+		bulkValidationExecutor.shutdownNow();
 	}
 
 	@Nullable
@@ -281,4 +451,7 @@ public class DroolsValidationService {
 		}
 		return topLevelHierarchies;
 	}
+
+	private record BranchVersion(String path, long headTimestamp) {
+	}
 }
@@ -0,0 +1,64 @@
+package org.snomed.snowstorm.core.data.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.Description;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+class AdminOperationsServiceMappingTest {
+
+	private AdminOperationsService adminOperationsService;
+	private IndexOperations indexOperations;
+	private DescriptionService descriptionService;
+
+	@BeforeEach
+	void setup() {
+		ElasticsearchOperations elasticsearchOperations = mock(ElasticsearchOperations.class);
+		indexOperations = mock(IndexOperations.class);
+		descriptionService = mock(DescriptionService.class);
+		when(elasticsearchOperations.indexOps(Description.class)).thenReturn(indexOperations);
+		when(indexOperations.createMapping(Description.class)).thenReturn(Document.create());
+
+		adminOperationsService = new AdminOperationsService();
+		ReflectionTestUtils.setField(adminOperationsService, "elasticsearchOperations", elasticsearchOperations);
+		ReflectionTestUtils.setField(adminOperationsService, "descriptionService", descriptionService);
+	}
+
+	@Test
+	void testMappingConflictFallsBack() {
+		when(indexOperations.getMapping()).thenReturn(Map.<String, Object>of("properties", Map.of(Description.Fields.TERM_AUTOCOMPLETE, Map.of("type", "search_as_you_type"))));
+		when(indexOperations.putMapping(any(Document.class))).thenThrow(new UncategorizedElasticsearchException("mapper [conceptActive] cannot be changed from type [keyword] to [boolean]"));
+
+		assertDoesNotThrow(() -> adminOperationsService.updateDescriptionAutocompleteMapping());
+		verify(descriptionService).setAutocompleteFilterFieldsMapped(false);
+		verify(descriptionService, never()).countDescriptionsWithoutAutocompleteField();
+	}
+
+	@Test
+	void testMappingUpdated() {
+		when(indexOperations.getMapping()).thenReturn(Map.<String, Object>of("properties", Map.of(Description.Fields.TERM_AUTOCOMPLETE, Map.of("type", "search_as_you_type"))));
+		when(indexOperations.putMapping(any(Document.class))).thenReturn(true);
+
+		adminOperationsService.updateDescriptionAutocompleteMapping();
+		verify(indexOperations).putMapping(any(Document.class));
+		verify(descriptionService, never()).setAutocompleteFilterFieldsMapped(anyBoolean());
+
+		// Nothing to add once the fields are mapped
+		when(indexOperations.getMapping()).thenReturn(Map.<String, Object>of("properties", Map.of(
+				Description.Fields.TERM_AUTOCOMPLETE, Map.of("type", "search_as_you_type"),
+				Description.Fields.CONCEPT_ACTIVE, Map.of("type", "boolean"))));
+		adminOperationsService.updateDescriptionAutocompleteMapping();
+		verify(indexOperations, times(1)).putMapping(any(Document.class));
+	}
+}
@@ -0,0 +1,146 @@
+package org.snomed.snowstorm.core.data.services;
+
+import io.kaicode.elasticvc.api.BranchService;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.core.data.domain.CodeSystem;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.domain.ConceptMicro;
+import org.snomed.snowstorm.core.data.domain.Description;
+import org.snomed.snowstorm.core.data.services.pojo.AuthoringStatsSummary;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.snowstorm.core.data.domain.Concepts.*;
+
+class AuthoringStatsServiceTest extends AbstractTest {
+
+	@Autowired
+	private AuthoringStatsService authoringStatsService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private CodeSystemService codeSystemService;
+
+	@Test
+	void testStatsOfEachChangeSinceRelease() throws ServiceException {
+		conceptService.batchCreate(List.of(
+				new Concept("100001").addFSN("Existing (finding)")
+						.addDescription(new Description("Existing").setTypeId(SYNONYM))
+						.addDescription(new Description("Old synonym").setTypeId(SYNONYM)),
+				new Concept("100002").addFSN("To inactivate (finding)"),
+				new Concept("100003").setActive(false).addFSN("To reactivate (finding)"),
+				new Concept("100005").addFSN("Synonym reactivated (finding)")
+						.addDescription(new Description("Retired synonym").setTypeId(SYNONYM).setActive(false))), "MAIN");
+		codeSystemService.createCodeSystem(new CodeSystem("SNOMEDCT", "MAIN"));
+		codeSystemService.createVersion(codeSystemService.find("SNOMEDCT"), 20250101, "");
+		String branch = "MAIN/A";
+		branchService.create(branch);
+
+		AuthoringStatsSummary stats = authoringStatsService.getStats(branch);
+		assertEquals(0, stats.getNewConceptsCount());
+		assertEquals(0, stats.getNewSynonymsForExistingConceptsCount());
+
+		// New concept, its synonym is not on an existing concept
+		conceptService.create(new Concept("100004").addFSN("New (finding)").addDescription(new Description("New").setTypeId(SYNONYM)), branch);
+
+		// Inactivated and reactivated concepts
+		Concept concept = conceptService.find("100002", branch);
+		concept.setActive(false);
+		conceptService.update(concept, branch);
+		concept = conceptService.find("100003", branch);
+		concept.setActive(true);
+		conceptService.update(concept, branch);
+
+		// Changed FSN, inactivated synonym and two new synonyms on a released concept
+		concept = conceptService.find("100001", branch);
+		getDescription(concept, "Existing (finding)").setTerm("Existing changed (finding)");
+		getDescription(concept, "Old synonym").setActive(false);
+		concept.addDescription(new Description("Existing new one").setTypeId(SYNONYM));
+		concept.addDescription(new Description("Existing new two").setTypeId(SYNONYM));
+		conceptService.update(concept, branch);
+
+		// Reactivated synonym
+		concept = conceptService.find("100005", branch);
+		getDescription(concept, "Retired synonym").setActive(true);
+		conceptService.update(concept, branch);
+
+		stats = authoringStatsService.getStats(branch);
+		assertEquals(1, stats.getNewConceptsCount());
+		assertEquals(1, stats.getInactivatedConceptsCount());
+		assertEquals(1, stats.getReactivatedConceptsCount());
+		assertEquals(1, stats.getChangedFsnCount());
+		assertEquals(1, stats.getInactivatedSynonymsCount());
+		assertEquals(2, stats.getNewSynonymsForExistingConceptsCount());
+		assertEquals(1, stats.getReactivatedSynonymsCount());
+		assertEquals(List.of("Existing new one", "Existing new two"),
+				authoringStatsService.getNewSynonymsOnExistingConcepts(branch).stream().map(ConceptMicro::getTerm).toList());
+
+		// Read again from the cache while the branch is unchanged
+		assertSame(stats, authoringStatsService.getStats(branch));
+
+		// A commit replaces the cached stats
+		concept = conceptService.find("100005", branch);
+		concept.addDescription(new Description("Synonym added").setTypeId(SYNONYM));
+		conceptService.update(concept, branch);
+		AuthoringStatsSummary statsAfterCommit = authoringStatsService.getStats(branch);
+		assertNotSame(stats, statsAfterCommit);
+		assertEquals(3, statsAfterCommit.getNewSynonymsForExistingConceptsCount());
+		assertEquals(1, statsAfterCommit.getNewConceptsCount());
+		assertEquals(1, statsAfterCommit.getReactivatedSynonymsCount());
+		assertSame(statsAfterCommit, authoringStatsService.getStats(branch));
+	}
+
+	@Test
+	void testComponentCountsPerModuleUpdatedByCommits() throws ServiceException {
+		conceptService.batchCreate(List.of(
+				new Concept("100001").setModuleId(CORE_MODULE).addFSN("One (finding)"),
+				new Concept("100002").setModuleId(CORE_MODULE).addFSN("Two (finding)")), "MAIN");
+		String branch = "MAIN/A";
+		branchService.create(branch);
+		assertCountsMatchRecount(branch);
+
+		// New concepts, one of them changed again before the counts are read
+		conceptService.create(new Concept("100003").setModuleId(MODEL_MODULE).addFSN("Three (finding)"), branch);
+		Concept concept = conceptService.create(new Concept("100004").setModuleId(CORE_MODULE).addFSN("Four (finding)"), branch);
+		concept.setModuleId(MODEL_MODULE);
+		conceptService.update(concept, branch);
+		Map<String, Map<String, Long>> counts = assertCountsMatchRecount(branch);
+		assertEquals(2L, counts.get("Concept").get(MODEL_MODULE));
+
+		// Inactivate and change the module of concepts from the parent branch
+		concept = conceptService.find("100001", branch);
+		concept.setActive(false);
+		conceptService.update(concept, branch);
+		concept = conceptService.find("100002", branch);
+		concept.setModuleId(MODEL_MODULE);
+		conceptService.update(concept, branch);
+		assertCountsMatchRecount(branch);
+
+		// Delete a concept from the parent branch and one created on this branch
+		conceptService.deleteConceptAndComponents("100002", branch, false);
+		conceptService.deleteConceptAndComponents("100003", branch, false);
+		counts = assertCountsMatchRecount(branch);
+		assertEquals(1L, counts.get("Concept").get(MODEL_MODULE));
+	}
+
+	private static Description getDescription(Concept concept, String term) {
+		return concept.getDescriptions().stream().filter(description -> description.getTerm().equals(term)).findFirst().orElseThrow();
+	}
+
+	private Map<String, Map<String, Long>> assertCountsMatchRecount(String branch) {
+		Map<String, Map<String, Long>> counts = authoringStatsService.getComponentCountsPerModule(branch);
+		assertEquals(authoringStatsService.countComponentsPerModule(branchService.findLatest(branch)), counts);
+		// Read again from the cache
+		assertEquals(counts, authoringStatsService.getComponentCountsPerModule(branch));
+		return counts;
+	}
+}
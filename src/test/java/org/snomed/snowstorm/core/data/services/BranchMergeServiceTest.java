@@ -977,6 +977,56 @@ class BranchMergeServiceTest extends AbstractTest {
 		assertEquals(1, countMembers(referencedComponent, "MAIN/A"));
 	}
 
+	@Test
+	void testAutomaticMergeOfDuplicatesOfSeveralComponentTypes() throws ServiceException {
+		String conceptId = "131148009";
+		conceptService.createUpdate(Lists.newArrayList(
+				new Concept(Concepts.ISA).addRelationship(new Relationship(Concepts.ISA, Concepts.SNOMEDCT_ROOT).setInferred(true)),
+				new Concept(conceptId)
+						.addDescription(new Description("Some synonym").setTypeId(Concepts.SYNONYM).setCaseSignificanceId(Concepts.CASE_INSENSITIVE))
+						.addRelationship(new Relationship(Concepts.ISA, Concepts.SNOMEDCT_ROOT).setInferred(true))
+		), "MAIN");
+		String memberId = memberService.createMember("MAIN", new ReferenceSetMember(Concepts.CORE_MODULE, Concepts.REFSET_SIMPLE, conceptId)).getMemberId();
+		branchMergeService.mergeBranchSync("MAIN", "MAIN/A", Collections.emptySet());
+		branchMergeService.mergeBranchSync("MAIN/A", "MAIN/A/A1", Collections.emptySet());
+
+		// Update the description, inferred relationship and member on MAIN/A
+		Concept concept = conceptService.find(conceptId, "MAIN/A");
+		concept.getDescriptions().iterator().next().setCaseSignificanceId(Concepts.INITIAL_CHARACTER_CASE_INSENSITIVE);
+		concept.getRelationships().iterator().next().setModuleId(MODEL_MODULE);
+		conceptService.update(concept, "MAIN/A");
+		setMemeberModule(memberId, "MAIN/A", MODEL_MODULE);
+
+		// Update the same components on MAIN/A/A1
+		concept = conceptService.find(conceptId, "MAIN/A/A1");
+		concept.getDescriptions().iterator().next().setCaseSignificanceId(Concepts.ENTIRE_TERM_CASE_SENSITIVE);
+		concept.getRelationships().iterator().next().setModuleId("1231230010");
+		conceptService.update(concept, "MAIN/A/A1");
+		setMemeberModule(memberId, "MAIN/A/A1", "1231230010");
+
+		// Rebase the diverged branch. The duplicates of each component type are resolved by passes which run at the same time.
+		branchMergeService.mergeBranchSync("MAIN/A", "MAIN/A/A1", Collections.emptySet());
+		assertEquals(1, countDescriptions("MAIN/A/A1", conceptId));
+		assertEquals(1, countRelationships("MAIN/A/A1", conceptId, Relationship.CharacteristicType.inferred));
+		assertEquals(1, countMembers(conceptId, "MAIN/A/A1"));
+
+		// The duplicates removed by every pass are recorded in the commit, so traceability logs them as changes rather than deletions
+		Activity activity = getLatestTraceabilityActivity();
+		assertEquals(Activity.ActivityType.REBASE, activity.getActivityType());
+		Map<Activity.ComponentType, Set<Activity.ChangeType>> changeTypes = new EnumMap<>(Activity.ComponentType.class);
+		for (Activity.ComponentChange change : activity.getChangesMap().get(conceptId).getComponentChanges()) {
+			changeTypes.computeIfAbsent(change.getComponentType(), type -> new HashSet<>()).add(change.getChangeType());
+		}
+		assertEquals(Set.of(Activity.ChangeType.UPDATE), changeTypes.get(Activity.ComponentType.DESCRIPTION));
+		assertEquals(Set.of(Activity.ChangeType.UPDATE), changeTypes.get(Activity.ComponentType.RELATIONSHIP));
+		assertEquals(Set.of(Activity.ChangeType.UPDATE), changeTypes.get(Activity.ComponentType.REFERENCE_SET_MEMBER));
+
+		branchMergeService.mergeBranchSync("MAIN/A/A1", "MAIN/A", Collections.emptySet());
+		assertEquals(1, countDescriptions("MAIN/A", conceptId));
+		assertEquals(1, countRelationships("MAIN/A", conceptId, Relationship.CharacteristicType.inferred));
+		assertEquals(1, countMembers(conceptId, "MAIN/A"));
+	}
+
 	void setMemeberModule(String memberId, String branch, String module) {
 		ReferenceSetMember member;
 		member = memberService.findMember(branch, memberId);
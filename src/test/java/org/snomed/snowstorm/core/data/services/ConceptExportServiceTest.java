@@ -0,0 +1,74 @@
+package org.snomed.snowstorm.core.data.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.config.Config;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.domain.Description;
+import org.snomed.snowstorm.core.data.domain.Relationship;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.snomed.snowstorm.core.data.domain.Concepts.*;
+
+class ConceptExportServiceTest extends AbstractTest {
+
+	@Autowired
+	private ConceptExportService conceptExportService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@BeforeEach
+	void setup() throws ServiceException {
+		conceptService.batchCreate(List.of(
+				new Concept(SNOMEDCT_ROOT),
+				new Concept("100001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+						.addDescription(new Description("Plain").setTypeId(SYNONYM).addAcceptability(US_EN_LANG_REFSET, PREFERRED_CONSTANT)),
+				new Concept("100002").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+						.addDescription(new Description("Quoted \"term\", with comma").setTypeId(SYNONYM).addAcceptability(US_EN_LANG_REFSET, PREFERRED_CONSTANT)),
+				new Concept("100003").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))), "MAIN");
+	}
+
+	@Test
+	void testExportIds() throws IOException {
+		String csv = export(ConceptExportService.Format.CSV, false);
+		List<String> lines = Arrays.asList(csv.split("\n"));
+		assertEquals("id", lines.get(0));
+		assertEquals(Set.of("100001", "100002", "100003"), Set.copyOf(lines.subList(1, lines.size())));
+
+		String ndjson = export(ConceptExportService.Format.NDJSON, false);
+		assertEquals(Set.of("{\"id\":\"100001\"}", "{\"id\":\"100002\"}", "{\"id\":\"100003\"}"), Set.of(ndjson.split("\n")));
+	}
+
+	@Test
+	void testExportWithPreferredTerm() throws IOException {
+		// Terms are escaped for each format, a concept without a preferred term has an empty term
+		String csv = export(ConceptExportService.Format.CSV, true);
+		List<String> lines = Arrays.asList(csv.split("\n"));
+		assertEquals("id,pt", lines.get(0));
+		assertEquals(Set.of("100001,\"Plain\"", "100002,\"Quoted \"\"term\"\", with comma\"", "100003,\"\""), Set.copyOf(lines.subList(1, lines.size())));
+
+		String ndjson = export(ConceptExportService.Format.NDJSON, true);
+		assertEquals(Set.of(
+				"{\"id\":\"100001\",\"pt\":\"Plain\"}",
+				"{\"id\":\"100002\",\"pt\":\"Quoted \\\"term\\\", with comma\"}",
+				"{\"id\":\"100003\",\"pt\":\"\"}"),
+				Arrays.stream(ndjson.split("\n")).collect(Collectors.toSet()));
+	}
+
+	private String export(ConceptExportService.Format format, boolean includeTerm) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		conceptExportService.exportConcepts("MAIN", "< " + SNOMEDCT_ROOT, false, format, includeTerm ? Config.DEFAULT_LANGUAGE_DIALECTS : null, outputStream);
+		return outputStream.toString(StandardCharsets.UTF_8);
+	}
+}
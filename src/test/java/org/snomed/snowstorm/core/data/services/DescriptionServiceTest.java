@@ -575,6 +575,86 @@ class DescriptionServiceTest extends AbstractTest {
 		assertEquals(2, descriptionService.findDescriptionsWithAggregations(path, descriptionCriteria.term("origin place"), PageRequest.of(0, 10)).getTotalElements());
 	}
 
+	@Test
+	void testAutocomplete() throws ServiceException {
+		String path = "MAIN";
+		Concept root = new Concept(SNOMEDCT_ROOT);
+		Concept footCramp = new Concept("100002").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+				.addDescription(new Description("Foot cramp").addLanguageRefsetMember(GB_EN_LANG_REFSET, PREFERRED))
+				.addDescription(new Description("Foot cramps").addLanguageRefsetMember(GB_EN_LANG_REFSET, ACCEPTABLE));
+		Concept footBone = new Concept("100003").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+				.addDescription(new Description("Foot bone").addLanguageRefsetMember(GB_EN_LANG_REFSET, ACCEPTABLE));
+		Concept footwear = new Concept("100004").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+				.addDescription(new Description("Footwear").addLanguageRefsetMember(GB_EN_LANG_REFSET, PREFERRED));
+		Concept inactiveFoot = new Concept("100005").setActive(false)
+				.addDescription(new Description("Foot").addLanguageRefsetMember(GB_EN_LANG_REFSET, PREFERRED));
+		List<Concept> concepts = newArrayList(root, footCramp, footBone, footwear, inactiveFoot);
+		setModulesAndLanguage(concepts);
+		conceptService.batchCreate(concepts, path);
+
+		// One description per active concept, shortest first
+		assertEquals(newArrayList("Footwear", "Foot bone", "Foot cramp"), getAutocompleteTerms(path, new DescriptionCriteria().term("foo"), 10));
+		assertEquals(newArrayList("Foot cramp"), getAutocompleteTerms(path, new DescriptionCriteria().term("foot cra"), 10));
+		assertEquals(newArrayList("Footwear", "Foot bone"), getAutocompleteTerms(path, new DescriptionCriteria().term("foo"), 2));
+		assertEquals(newArrayList("Foot cramps"), getAutocompleteTerms(path, new DescriptionCriteria().term("foot cramps"), 10));
+
+		// Acceptability is checked before picking the description of each concept
+		assertEquals(newArrayList("Foot bone", "Foot cramps"), getAutocompleteTerms(path, new DescriptionCriteria().term("foot")
+				.acceptableIn(Collections.singleton(parseLong(GB_EN_LANG_REFSET))), 10));
+
+		assertThrows(IllegalArgumentException.class, () -> descriptionService.findAutocompleteDescriptions(path, new DescriptionCriteria().term("foo"), 0));
+	}
+
+	@Test
+	void testAutocompleteFiltersKeptUpToDateByCommits() throws ServiceException {
+		List<Concept> concepts = newArrayList(new Concept(SNOMEDCT_ROOT));
+		// Shorter terms which are not in the GB language reference set
+		for (int i = 1; i <= 5; i++) {
+			concepts.add(new Concept("20000" + i).addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+					.addDescription(new Description("Arm " + i).addLanguageRefsetMember(US_EN_LANG_REFSET, PREFERRED)));
+		}
+		concepts.add(new Concept("200010").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+				.addDescription(new Description("Arm bone").addLanguageRefsetMember(GB_EN_LANG_REFSET, PREFERRED)));
+		concepts.add(new Concept("200011").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))
+				.addDescription(new Description("Arm muscle").addLanguageRefsetMember(GB_EN_LANG_REFSET, ACCEPTABLE)));
+		setModulesAndLanguage(concepts);
+		conceptService.batchCreate(concepts, "MAIN");
+
+		// The limit is met even though the shortest matches are not acceptable
+		Set<Long> gb = Collections.singleton(parseLong(GB_EN_LANG_REFSET));
+		assertEquals(newArrayList("Arm bone", "Arm muscle"), getAutocompleteTerms("MAIN", new DescriptionCriteria().term("arm").preferredOrAcceptableIn(gb), 2));
+		assertEquals(newArrayList("Arm bone"), getAutocompleteTerms("MAIN", new DescriptionCriteria().term("arm").preferredIn(gb), 1));
+		assertEquals(newArrayList("Arm muscle"), getAutocompleteTerms("MAIN", new DescriptionCriteria().term("arm").acceptableIn(gb), 5));
+
+		// Inactivating a concept on a child branch
+		String branch = "MAIN/A";
+		branchService.create(branch);
+		Concept concept = conceptService.find("200010", branch);
+		concept.setActive(false);
+		conceptService.update(concept, branch);
+		assertEquals(newArrayList("Arm muscle"), getAutocompleteTerms(branch, new DescriptionCriteria().term("arm").preferredOrAcceptableIn(gb), 2));
+		assertEquals(newArrayList("Arm bone", "Arm muscle"), getAutocompleteTerms("MAIN", new DescriptionCriteria().term("arm").preferredOrAcceptableIn(gb), 2));
+
+		// Changing the acceptability of a description on the child branch
+		concept = conceptService.find("200001", branch);
+		concept.getDescriptions().iterator().next().clearLanguageRefsetMembers().addAcceptability(GB_EN_LANG_REFSET, PREFERRED_CONSTANT);
+		conceptService.update(concept, branch);
+		assertEquals(newArrayList("Arm 1", "Arm muscle"), getAutocompleteTerms(branch, new DescriptionCriteria().term("arm").preferredOrAcceptableIn(gb), 2));
+		assertEquals(newArrayList("Arm 1"), getAutocompleteTerms(branch, new DescriptionCriteria().term("arm").preferredIn(gb), 5));
+		assertEquals(Set.of("Arm 2", "Arm 3", "Arm 4", "Arm 5"), new HashSet<>(getAutocompleteTerms(branch, new DescriptionCriteria().term("arm")
+				.preferredIn(Collections.singleton(parseLong(US_EN_LANG_REFSET))), 5)));
+
+		// Reactivating the concept
+		concept = conceptService.find("200010", branch);
+		concept.setActive(true);
+		conceptService.update(concept, branch);
+		assertEquals(newArrayList("Arm 1", "Arm bone"), getAutocompleteTerms(branch, new DescriptionCriteria().term("arm").preferredIn(gb), 5));
+	}
+
+	private List<String> getAutocompleteTerms(String path, DescriptionCriteria criteria, int limit) {
+		return descriptionService.findAutocompleteDescriptions(path, criteria, limit).stream().map(Description::getTerm).collect(Collectors.toList());
+	}
+
 	private String getAggregationString(String name, Map<String, Map<String, Long>> buckets) {
 		return buckets.containsKey(name) ? buckets.get(name).toString() : null;
 	}
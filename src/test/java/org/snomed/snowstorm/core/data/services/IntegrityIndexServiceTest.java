@@ -0,0 +1,65 @@
+package org.snomed.snowstorm.core.data.services;
+
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.domain.Branch;
+import org.junit.jupiter.api.Test;
+import org.snomed.otf.owltoolkit.conversion.ConversionException;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.domain.Concepts;
+import org.snomed.snowstorm.core.data.domain.ReferenceSetMember;
+import org.snomed.snowstorm.core.util.IdSet;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.snowstorm.core.data.domain.ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION;
+
+class IntegrityIndexServiceTest extends AbstractTest {
+
+	@Autowired
+	private IntegrityIndexService integrityIndexService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Test
+	void testActiveConceptsOfBranchVersion() throws ServiceException {
+		conceptService.batchCreate(List.of(new Concept("100001"), new Concept("100002"), new Concept("100003")), "MAIN");
+		Branch before = branchService.findLatest("MAIN");
+
+		IdSet activeConcepts = integrityIndexService.getActiveConcepts("MAIN", before.getHead());
+		assertEquals(List.of(100001L, 100002L, 100003L), activeConcepts.toAscendingList());
+		assertSame(activeConcepts, integrityIndexService.getActiveConcepts("MAIN", before.getHead()), "Index of the branch version is reused.");
+
+		Concept concept = conceptService.find("100002", "MAIN");
+		concept.setActive(false);
+		conceptService.update(concept, "MAIN");
+		Branch after = branchService.findLatest("MAIN");
+
+		// A new head timestamp is a new branch version with its own index
+		IdSet activeConceptsAfter = integrityIndexService.getActiveConcepts("MAIN", after.getHead());
+		assertNotSame(activeConcepts, activeConceptsAfter);
+		assertEquals(List.of(100001L, 100003L), activeConceptsAfter.toAscendingList());
+
+		// The previous branch version is unchanged
+		assertEquals(List.of(100001L, 100002L, 100003L), integrityIndexService.getActiveConcepts("MAIN", before.getHead()).toAscendingList());
+	}
+
+	@Test
+	void testReferencedConceptsOfAxiom() throws ConversionException {
+		ReferenceSetMember axiom = new ReferenceSetMember(Concepts.CORE_MODULE, Concepts.OWL_AXIOM_REFERENCE_SET, "100003")
+				.setAdditionalField(OWL_EXPRESSION, "SubClassOf(:100003 ObjectIntersectionOf(:100001 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100002 :100004))))");
+
+		IdSet referencedConcepts = integrityIndexService.getReferencedConcepts(axiom);
+		assertTrue(referencedConcepts.contains(100001L));
+		assertTrue(referencedConcepts.contains(100002L));
+		assertTrue(referencedConcepts.contains(100004L));
+		assertFalse(referencedConcepts.contains(100005L));
+		assertSame(referencedConcepts, integrityIndexService.getReferencedConcepts(axiom), "Parsed expression is reused.");
+	}
+}
@@ -17,6 +17,8 @@ import org.snomed.snowstorm.core.data.repositories.QueryConceptRepository;
 import org.snomed.snowstorm.core.data.services.classification.BranchClassificationStatusService;
 import org.snomed.snowstorm.core.data.services.traceability.TraceabilityLogService;
 import org.snomed.snowstorm.core.data.services.transitiveclosure.GraphBuilderException;
+import org.snomed.snowstorm.core.rf2.export.ExportService;
+import org.snomed.snowstorm.ecl.HierarchyGraphService;
 import org.snomed.snowstorm.ecl.validation.ECLPreprocessingService;
 import org.snomed.snowstorm.mrcm.MRCMLoader;
 import org.snomed.snowstorm.mrcm.MRCMUpdateService;
@@ -79,19 +81,23 @@ class SemanticIndexUpdateServiceTest extends AbstractTest {
 	@Test
 	void testCommitListenerOrderingConfig() {
 		List<CommitListener> commitListeners = branchService.getCommitListeners();
-		assertEquals(16, commitListeners.size());
+		assertEquals(20, commitListeners.size());
 		assertEquals(MRCMLoader.class, commitListeners.get(0).getClass());
 		assertEquals(ConceptDefinitionStatusUpdateService.class, commitListeners.get(1).getClass());
-		assertEquals(SemanticIndexUpdateService.class, commitListeners.get(2).getClass());
-		assertEquals(MRCMUpdateService.class, commitListeners.get(3).getClass());
-		assertEquals(BranchClassificationStatusService.class, commitListeners.get(4).getClass());
-		assertEquals(RefsetDescriptorUpdaterService.class, commitListeners.get(5).getClass());
-		assertEquals(IntegrityService.class, commitListeners.get(6).getClass());
-		assertEquals(ReferencedConceptsLookupUpdateService.class, commitListeners.get(7).getClass());
-		assertEquals(MultiSearchService.class, commitListeners.get(8).getClass());
-		assertEquals(ECLPreprocessingService.class, commitListeners.get(9).getClass());
-		assertEquals(AdditionalDependencyUpdateService.class, commitListeners.get(11).getClass());
-		assertEquals(TraceabilityLogService.class, commitListeners.get(12).getClass());
+		assertEquals(DescriptionAutocompleteFieldsUpdateService.class, commitListeners.get(2).getClass());
+		assertEquals(SemanticIndexUpdateService.class, commitListeners.get(3).getClass());
+		assertEquals(MRCMUpdateService.class, commitListeners.get(4).getClass());
+		assertEquals(BranchClassificationStatusService.class, commitListeners.get(5).getClass());
+		assertEquals(RefsetDescriptorUpdaterService.class, commitListeners.get(6).getClass());
+		assertEquals(IntegrityService.class, commitListeners.get(7).getClass());
+		assertEquals(ReferencedConceptsLookupUpdateService.class, commitListeners.get(8).getClass());
+		assertEquals(MultiSearchService.class, commitListeners.get(9).getClass());
+		assertEquals(AuthoringStatsService.class, commitListeners.get(10).getClass());
+		assertEquals(ECLPreprocessingService.class, commitListeners.get(11).getClass());
+		assertEquals(AdditionalDependencyUpdateService.class, commitListeners.get(13).getClass());
+		assertEquals(TraceabilityLogService.class, commitListeners.get(14).getClass());
+		assertEquals(HierarchyGraphService.class, commitListeners.get(15).getClass());
+		assertEquals(ExportService.class, commitListeners.get(16).getClass());
 	}
 
 	@Test
@@ -1,6 +1,7 @@
 package org.snomed.snowstorm.core.data.services.classification;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.domain.Branch;
@@ -19,6 +20,9 @@ import org.snomed.snowstorm.core.data.services.pojo.MemberSearchRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.io.ByteArrayInputStream;
@@ -27,6 +31,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static io.kaicode.elasticvc.api.VersionControlHelper.LARGE_PAGE;
+import static io.kaicode.elasticvc.helper.QueryHelper.termQuery;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.snomed.snowstorm.core.data.domain.Concepts.*;
 import static org.snomed.snowstorm.core.data.domain.classification.ClassificationStatus.*;
@@ -60,6 +65,9 @@ class ClassificationServiceTest extends AbstractTest {
 	@Autowired
 	private BranchMergeService branchMergeService;
 
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
 	@Test
 	void testSaveRelationshipChanges() throws IOException, ServiceException, InterruptedException {
 		// Create concept with some stated modeling in an axiom
@@ -139,6 +147,94 @@ class ClassificationServiceTest extends AbstractTest {
 //		assertEquals(1, activity.getChanges().size());
 	}
 
+	@Test
+	void testSaveRelationshipChangesInSeveralBatches() throws ServiceException, InterruptedException {
+		// Enough concepts for the changes to span several pages, with 7 changes per concept so that concepts straddle the page boundaries
+		final String branch = "MAIN";
+		conceptService.create(new Concept(SNOMEDCT_ROOT), branch);
+		List<Concept> newConcepts = new ArrayList<>();
+		for (int i = 0; i < 3_000; i++) {
+			newConcepts.add(new Concept().addAxiom(new Relationship(ISA, SNOMEDCT_ROOT)));
+		}
+		List<String> conceptIds = new ArrayList<>();
+		conceptService.batchCreate(newConcepts, branch).forEach(concept -> conceptIds.add(concept.getConceptId()));
+		Collections.sort(conceptIds);
+
+		// Each concept gets parents which are spread across the other batches
+		String classificationId = UUID.randomUUID().toString();
+		Classification classification = createClassification(branch, classificationId);
+		Map<String, Set<String>> expectedParents = new HashMap<>();
+		List<RelationshipChange> changes = new ArrayList<>();
+		for (int i = 0; i < conceptIds.size(); i++) {
+			String conceptId = conceptIds.get(i);
+			for (int parent = 1; parent <= 7; parent++) {
+				String parentId = conceptIds.get((i + parent * 431) % conceptIds.size());
+				expectedParents.computeIfAbsent(conceptId, id -> new HashSet<>()).add(parentId);
+				changes.add(new RelationshipChange(classificationId, null, true, conceptId, parentId, 0, ISA, EXISTENTIAL, false));
+			}
+		}
+		relationshipChangeRepository.saveAll(changes);
+
+		assertEquals(SAVED, saveClassificationAndWaitForCompletion(branch, classificationId));
+
+		for (List<String> conceptIdBatch : Lists.partition(conceptIds, 500)) {
+			Collection<Concept> concepts = conceptService.find(branch, conceptIdBatch, Config.DEFAULT_LANGUAGE_DIALECTS);
+			assertEquals(conceptIdBatch.size(), concepts.size());
+			for (Concept concept : concepts) {
+				List<String> inferredParents = concept.getRelationships().stream()
+						.filter(relationship -> relationship.isActive() && INFERRED_RELATIONSHIP.equals(relationship.getCharacteristicTypeId()))
+						.map(Relationship::getDestinationId)
+						.collect(Collectors.toList());
+				assertEquals(7, inferredParents.size(), "Inferred relationships of concept " + concept.getConceptId());
+				assertEquals(expectedParents.get(concept.getConceptId()), new HashSet<>(inferredParents));
+			}
+		}
+	}
+
+	@Test
+	void testSaveRelationshipChangesOfSeveralIngestBatches() throws IOException, ServiceException {
+		final String branch = "MAIN";
+		conceptService.create(new Concept(SNOMEDCT_ROOT), branch);
+		List<Concept> newConcepts = new ArrayList<>();
+		for (int i = 0; i < 3_000; i++) {
+			newConcepts.add(new Concept().addAxiom(new Relationship(ISA, SNOMEDCT_ROOT)));
+		}
+		List<String> conceptIds = new ArrayList<>();
+		conceptService.batchCreate(newConcepts, branch).forEach(concept -> conceptIds.add(concept.getConceptId()));
+
+		// 27,000 rows are ingested in three batches. The rows of each concept are spread over all the batches.
+		// Only the root parent is stated so it is the only change which is not 'inferred not previously stated'.
+		Map<String, Map<String, Boolean>> expectedChanges = new HashMap<>();
+		StringBuilder rf2 = new StringBuilder(rf2RelationshipHeader());
+		for (int parent = 0; parent < 9; parent++) {
+			for (int i = 0; i < conceptIds.size(); i++) {
+				String conceptId = conceptIds.get(i);
+				String parentId = parent == 0 ? SNOMEDCT_ROOT : conceptIds.get((i + parent * 331) % conceptIds.size());
+				expectedChanges.computeIfAbsent(conceptId, id -> new HashMap<>()).put(parentId, parent != 0);
+				rf2.append(rf2RelationshipRow(null, null, "1", CORE_MODULE, conceptId, parentId, "0", ISA, INFERRED_RELATIONSHIP, EXISTENTIAL)).append("\n");
+			}
+		}
+
+		String classificationId = UUID.randomUUID().toString();
+		Classification classification = createClassification(branch, classificationId);
+		classificationService.saveRelationshipChanges(classification, new ByteArrayInputStream(rf2.toString().getBytes()), false);
+
+		Map<String, Map<String, Boolean>> savedChanges = new HashMap<>();
+		int savedChangeCount = 0;
+		try (SearchHitsIterator<RelationshipChange> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(termQuery("classificationId", classificationId))
+				.withPageable(LARGE_PAGE)
+				.build(), RelationshipChange.class)) {
+			while (stream.hasNext()) {
+				RelationshipChange change = stream.next().getContent();
+				savedChanges.computeIfAbsent(change.getSourceId(), id -> new HashMap<>()).put(change.getDestinationId(), change.isInferredNotStated());
+				savedChangeCount++;
+			}
+		}
+		assertEquals(27_000, savedChangeCount);
+		assertEquals(expectedChanges, savedChanges);
+	}
+
 	@Test
 	void testSaveRelationshipChangesFailsWithLoop() throws IOException, ServiceException, InterruptedException {
 		// Create concept with some stated modeling in an axiom
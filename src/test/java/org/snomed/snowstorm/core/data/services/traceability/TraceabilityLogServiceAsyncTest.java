@@ -0,0 +1,200 @@
+package org.snomed.snowstorm.core.data.services.traceability;
+
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import io.kaicode.elasticvc.domain.Branch;
+import io.kaicode.elasticvc.domain.Commit;
+import io.kaicode.elasticvc.domain.Metadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.jobs.TraceabilityPendingCommit;
+import org.snomed.snowstorm.core.data.repositories.jobs.TraceabilityPendingCommitRepository;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TraceabilityLogServiceAsyncTest {
+
+	private static final AtomicLong lastTimepoint = new AtomicLong();
+
+	private TraceabilityLogService traceabilityLogService;
+	private final List<String> branchesLogged = Collections.synchronizedList(new ArrayList<>());
+	private final Semaphore activitiesLogged = new Semaphore(0);
+	private final Semaphore storedCommitsDeleted = new Semaphore(0);
+	private final Map<String, TraceabilityPendingCommit> storedCommits = new ConcurrentHashMap<>();
+	private Consumer<Activity> onActivity;
+
+	@BeforeEach
+	void setup() {
+		ElasticsearchOperations elasticsearchOperations = mock(ElasticsearchOperations.class);
+		// Every commit has completed
+		when(elasticsearchOperations.count(any(Query.class), eq(Branch.class))).thenReturn(1L);
+		TraceabilityConsumer traceabilityConsumer = mock(TraceabilityConsumer.class);
+		doAnswer(invocation -> {
+			Activity activity = invocation.getArgument(0);
+			if (onActivity != null) {
+				onActivity.accept(activity);
+			}
+			branchesLogged.add(activity.getBranchPath());
+			activitiesLogged.release();
+			return null;
+		}).when(traceabilityConsumer).accept(any(Activity.class));
+
+		// Stored commits are held in a map
+		TraceabilityPendingCommitRepository pendingCommitRepository = mock(TraceabilityPendingCommitRepository.class);
+		when(pendingCommitRepository.save(any(TraceabilityPendingCommit.class))).thenAnswer(invocation -> {
+			TraceabilityPendingCommit pendingCommit = invocation.getArgument(0);
+			storedCommits.put(pendingCommit.getId(), pendingCommit);
+			return pendingCommit;
+		});
+		doAnswer(invocation -> {
+			storedCommits.remove(((TraceabilityPendingCommit) invocation.getArgument(0)).getId());
+			storedCommitsDeleted.release();
+			return null;
+		}).when(pendingCommitRepository).delete(any(TraceabilityPendingCommit.class));
+		when(pendingCommitRepository.findByFailedOrderByTimepoint(anyBoolean(), any(Pageable.class))).thenAnswer(invocation -> {
+			boolean failed = invocation.getArgument(0);
+			Pageable pageable = invocation.getArgument(1);
+			return new PageImpl<>(storedCommits.values().stream()
+					.filter(pendingCommit -> pendingCommit.isFailed() == failed)
+					.sorted(Comparator.comparingLong(TraceabilityPendingCommit::getTimepoint))
+					.limit(pageable.getPageSize())
+					.toList());
+		});
+
+		traceabilityLogService = new TraceabilityLogService();
+		ReflectionTestUtils.setField(traceabilityLogService, "enabled", true);
+		ReflectionTestUtils.setField(traceabilityLogService, "inferredMax", 100);
+		ReflectionTestUtils.setField(traceabilityLogService, "asyncEnabled", true);
+		ReflectionTestUtils.setField(traceabilityLogService, "asyncRetryDelaySeconds", 0);
+		ReflectionTestUtils.setField(traceabilityLogService, "asyncMaxAttempts", 3);
+		ReflectionTestUtils.setField(traceabilityLogService, "elasticsearchOperations", elasticsearchOperations);
+		ReflectionTestUtils.setField(traceabilityLogService, "branchService", mock(BranchService.class));
+		ReflectionTestUtils.setField(traceabilityLogService, "versionControlHelper", mock(VersionControlHelper.class));
+		ReflectionTestUtils.setField(traceabilityLogService, "pendingCommitRepository", pendingCommitRepository);
+		traceabilityLogService.setTraceabilityConsumer(traceabilityConsumer);
+	}
+
+	@AfterEach
+	void tearDown() {
+		traceabilityLogService.shutdown();
+	}
+
+	@Test
+	void activitiesAreLoggedInCommitOrder() throws InterruptedException {
+		traceabilityLogService.init();
+
+		for (String branch : List.of("MAIN/A", "MAIN/B", "MAIN/C", "MAIN/D")) {
+			traceabilityLogService.preCommitCompletion(promotionCommit(branch));
+		}
+
+		waitForActivities(4);
+		assertEquals(List.of("MAIN/A", "MAIN/B", "MAIN/C", "MAIN/D"), branchesLogged);
+		waitForStoredCommitsDeleted(4);
+		assertTrue(storedCommits.isEmpty());
+	}
+
+	@Test
+	void failedActivityIsRetried() throws InterruptedException {
+		Map<String, Integer> attempts = new ConcurrentHashMap<>();
+		onActivity = activity -> {
+			// The first activity fails twice
+			int attempt = attempts.merge(activity.getBranchPath(), 1, Integer::sum);
+			if (activity.getBranchPath().equals("MAIN/A") && attempt < 3) {
+				throw new IllegalStateException("Message broker not available");
+			}
+		};
+		traceabilityLogService.init();
+
+		traceabilityLogService.preCommitCompletion(promotionCommit("MAIN/A"));
+		traceabilityLogService.preCommitCompletion(promotionCommit("MAIN/B"));
+
+		waitForActivities(2);
+		assertEquals(List.of("MAIN/A", "MAIN/B"), branchesLogged);
+		assertEquals(3, attempts.get("MAIN/A"));
+		waitForStoredCommitsDeleted(2);
+		assertTrue(storedCommits.isEmpty());
+		assertTrue(traceabilityLogService.getFailedCommits().isEmpty());
+	}
+
+	@Test
+	void commitIsMarkedFailedAfterMaxAttempts() throws InterruptedException {
+		Map<String, Integer> attempts = new ConcurrentHashMap<>();
+		onActivity = activity -> {
+			attempts.merge(activity.getBranchPath(), 1, Integer::sum);
+			if (activity.getBranchPath().equals("MAIN/A")) {
+				throw new IllegalStateException("Activity can not be sent");
+			}
+		};
+		traceabilityLogService.init();
+
+		traceabilityLogService.preCommitCompletion(promotionCommit("MAIN/A"));
+		traceabilityLogService.preCommitCompletion(promotionCommit("MAIN/B"));
+
+		// The worker gives up on the first activity and moves on to the next, the failed commit is kept
+		waitForActivities(1);
+		assertEquals(List.of("MAIN/B"), branchesLogged);
+		assertEquals(3, attempts.get("MAIN/A"));
+		waitForStoredCommitsDeleted(1);
+		assertEquals(1, storedCommits.size());
+		List<TraceabilityPendingCommit> failedCommits = traceabilityLogService.getFailedCommits();
+		assertEquals(1, failedCommits.size());
+		assertEquals("MAIN/A", failedCommits.get(0).getBranchPath());
+	}
+
+	@Test
+	void storedCommitsAreLoggedAfterRestart() throws InterruptedException {
+		traceabilityLogService.init();
+		traceabilityLogService.shutdown();
+
+		// Commits completed while the worker is stopped are only stored
+		traceabilityLogService.preCommitCompletion(promotionCommit("MAIN/A"));
+		traceabilityLogService.preCommitCompletion(promotionCommit("MAIN/B"));
+		assertEquals(2, storedCommits.size());
+		assertTrue(branchesLogged.isEmpty());
+
+		traceabilityLogService.init();
+		waitForActivities(2);
+		assertEquals(List.of("MAIN/A", "MAIN/B"), branchesLogged);
+		waitForStoredCommitsDeleted(2);
+		assertTrue(storedCommits.isEmpty());
+	}
+
+	private void waitForActivities(int count) throws InterruptedException {
+		assertTrue(activitiesLogged.tryAcquire(count, 20, TimeUnit.SECONDS), "Activities logged");
+	}
+
+	// The stored commit is deleted just after its activity is sent
+	private void waitForStoredCommitsDeleted(int count) throws InterruptedException {
+		assertTrue(storedCommitsDeleted.tryAcquire(count, 20, TimeUnit.SECONDS), "Stored commits deleted");
+	}
+
+	private static Commit promotionCommit(String branchPath) {
+		Branch branch = new Branch(branchPath);
+		branch.setMetadata(new Metadata());
+		// Commits are ordered by timepoint
+		Date timepoint = new Date(lastTimepoint.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis())));
+		return new Commit(branch, Commit.CommitType.PROMOTION, null, null) {
+			@Override
+			public Date getTimepoint() {
+				return timepoint;
+			}
+		};
+	}
+}
@@ -0,0 +1,84 @@
+package org.snomed.snowstorm.core.data.services.transitiveclosure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransitiveClosureTest {
+
+	@Test
+	void ancestorsOfDiamond() throws GraphBuilderException {
+		GraphBuilder graphBuilder = new GraphBuilder();
+		// 2 and 3 are children of 1, 4 is a child of 2 and 3, 5 is a child of 4
+		graphBuilder.addParent(2L, 1L);
+		graphBuilder.addParent(3L, 1L);
+		graphBuilder.addParent(4L, 2L);
+		graphBuilder.addParent(4L, 3L);
+		graphBuilder.addParent(5L, 4L);
+		graphBuilder.clearParentsAndMarkUpdated(6L);
+
+		TransitiveClosure transitiveClosure = graphBuilder.buildTransitiveClosure();
+		assertEquals(Set.of(), transitiveClosure.getAncestors(1L, "MAIN", true));
+		assertEquals(Set.of(1L), transitiveClosure.getAncestors(2L, "MAIN", true));
+		assertEquals(Set.of(1L, 2L, 3L), transitiveClosure.getAncestors(4L, "MAIN", true));
+		assertEquals(Set.of(1L, 2L, 3L, 4L), transitiveClosure.getAncestors(5L, "MAIN", true));
+		assertFalse(transitiveClosure.isAncestorOrSelfUpdated(5L));
+		assertTrue(transitiveClosure.isAncestorOrSelfUpdated(6L));
+	}
+
+	@Test
+	void updatedAncestor() {
+		GraphBuilder graphBuilder = new GraphBuilder();
+		graphBuilder.addParent(2L, 1L);
+		graphBuilder.addParent(3L, 2L);
+		graphBuilder.addParent(4L, 1L);
+		graphBuilder.clearParentsAndMarkUpdated(2L);
+		graphBuilder.addParent(2L, 1L);
+
+		TransitiveClosure transitiveClosure = graphBuilder.buildTransitiveClosure();
+		assertFalse(transitiveClosure.isAncestorOrSelfUpdated(1L));
+		assertTrue(transitiveClosure.isAncestorOrSelfUpdated(2L));
+		assertTrue(transitiveClosure.isAncestorOrSelfUpdated(3L));
+		assertFalse(transitiveClosure.isAncestorOrSelfUpdated(4L));
+	}
+
+	@Test
+	void loop() throws GraphBuilderException {
+		GraphBuilder graphBuilder = new GraphBuilder();
+		// 11 -> 13 -> 12 -> 11 and everything under root 1
+		graphBuilder.addParent(11L, 1L);
+		graphBuilder.addParent(11L, 13L);
+		graphBuilder.addParent(12L, 11L);
+		graphBuilder.addParent(13L, 12L);
+		graphBuilder.addParent(14L, 13L);
+
+		TransitiveClosure transitiveClosure = graphBuilder.buildTransitiveClosure();
+		GraphBuilderException exception = assertThrows(GraphBuilderException.class, () -> transitiveClosure.getAncestors(11L, "MAIN", true));
+		assertEquals("Loop found in transitive closure for concept 11 on branch MAIN. The concept 11 is in its own set of ancestors: [1, 13, 12, 11]",
+				exception.getMessage());
+
+		// Loop is logged but not thrown
+		assertEquals(Set.of(1L, 12L, 13L), transitiveClosure.getAncestors(11L, "MAIN", false));
+		// Concepts below a loop are not part of it
+		assertEquals(Set.of(1L, 11L, 12L, 13L), transitiveClosure.getAncestors(14L, "MAIN", true));
+	}
+
+	@Test
+	void clearedParentsAreReplaced() throws GraphBuilderException {
+		GraphBuilder graphBuilder = new GraphBuilder();
+		graphBuilder.addParent(3L, 1L);
+		graphBuilder.addParent(3L, 2L);
+		graphBuilder.addParent(2L, 1L);
+		graphBuilder.clearParentsAndMarkUpdated(3L);
+		graphBuilder.addParent(3L, 2L);
+		graphBuilder.addParent(3L, 2L);
+
+		TransitiveClosure transitiveClosure = graphBuilder.buildTransitiveClosure();
+		assertEquals(3, transitiveClosure.size());
+		assertEquals(Set.of(2L), transitiveClosure.getParents(3L));
+		assertEquals(Set.of(1L, 2L), transitiveClosure.getAncestors(3L, "MAIN", true));
+		assertFalse(transitiveClosure.hasParents(1L));
+	}
+}
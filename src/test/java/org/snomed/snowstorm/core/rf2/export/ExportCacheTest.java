@@ -0,0 +1,144 @@
+package org.snomed.snowstorm.core.rf2.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportCacheTest {
+
+	private static final String FILTER_KEY = "[1]";
+	private static final long MAX_BYTES = 1024 * 1024;
+
+	@TempDir
+	File directory;
+
+	@Test
+	void cachedExportLoaded() throws IOException {
+		ExportCache cache = new ExportCache(directory, Duration.ofHours(1), MAX_BYTES);
+		cacheExport(cache, "MAIN/A", "Delta", 200L);
+
+		ExportCache.Update update = cache.startUpdate("MAIN/A", "Delta");
+		ExportCache.CachedExport cachedExport = cache.load(update, FILTER_KEY);
+		assertNotNull(cachedExport);
+		assertEquals(200L, cachedExport.head());
+		assertEquals(100L, cachedExport.base());
+		assertEquals(Map.of("Concept", Set.of("1")), cachedExport.versionsReplaced());
+		assertNotNull(cachedExport.getEntryFile("Terminology/sct2_Concept_Delta"));
+		update.abort();
+
+		assertNull(cache.load(cache.startUpdate("MAIN/A", "Snapshot"), FILTER_KEY));
+	}
+
+	@Test
+	void cachedExportWithOtherFilterNotLoaded() throws IOException {
+		ExportCache cache = new ExportCache(directory, Duration.ofHours(1), MAX_BYTES);
+		cacheExport(cache, "MAIN/A", "Delta", 200L);
+
+		ExportCache.Update update = cache.startUpdate("MAIN/A", "Delta");
+		assertNull(cache.load(update, "[1, 2]"));
+		update.abort();
+	}
+
+	@Test
+	void branchEvicted() throws IOException {
+		ExportCache cache = new ExportCache(directory, Duration.ofHours(1), MAX_BYTES);
+		cacheExport(cache, "MAIN/A", "Delta", 200L);
+		cacheExport(cache, "MAIN/A", "Delta_classification", 200L);
+		cacheExport(cache, "MAIN/A/B", "Delta", 200L);
+
+		cache.evictBranch("MAIN/A");
+		assertFalse(isCached(cache, "MAIN/A", "Delta"));
+		assertFalse(isCached(cache, "MAIN/A", "Delta_classification"));
+		assertTrue(isCached(cache, "MAIN/A/B", "Delta"));
+	}
+
+	@Test
+	void missingBranchEvicted() throws IOException {
+		ExportCache cache = new ExportCache(directory, Duration.ofHours(1), MAX_BYTES);
+		cacheExport(cache, "MAIN/A", "Delta", 200L);
+		cacheExport(cache, "MAIN/B", "Delta", 200L);
+
+		cache.evict(branchPath -> !branchPath.equals("MAIN/B"));
+		assertTrue(isCached(cache, "MAIN/A", "Delta"));
+		assertFalse(isCached(cache, "MAIN/B", "Delta"));
+	}
+
+	@Test
+	void expiredAndLeastRecentlyUsedEvicted() throws IOException {
+		ExportCache sizingCache = new ExportCache(directory, Duration.ofHours(1), MAX_BYTES);
+		cacheExport(sizingCache, "MAIN/A", "Delta", 200L);
+		long exportBytes = getSize("MAIN/A", "Delta");
+
+		// Room for two exports
+		ExportCache cache = new ExportCache(directory, Duration.ofHours(1), exportBytes * 2);
+		cacheExport(cache, "MAIN/B", "Delta", 200L);
+		cacheExport(cache, "MAIN/C", "Delta", 200L);
+		cacheExport(cache, "MAIN/D", "Delta", 200L);
+		long now = System.currentTimeMillis();
+		setLastUsed("MAIN/A", "Delta", now - Duration.ofHours(2).toMillis());
+		setLastUsed("MAIN/B", "Delta", now - Duration.ofMinutes(30).toMillis());
+		setLastUsed("MAIN/C", "Delta", now - Duration.ofMinutes(20).toMillis());
+		setLastUsed("MAIN/D", "Delta", now - Duration.ofMinutes(10).toMillis());
+
+		cache.evict(branchPath -> true);
+		assertFalse(isCached(cache, "MAIN/A", "Delta"), "Expired");
+		assertFalse(isCached(cache, "MAIN/B", "Delta"), "Least recently used above max size");
+		assertTrue(isCached(cache, "MAIN/C", "Delta"));
+		assertTrue(isCached(cache, "MAIN/D", "Delta"));
+	}
+
+	@Test
+	void exportInProgressNotEvicted() throws IOException {
+		ExportCache cache = new ExportCache(directory, Duration.ZERO, 0);
+		cacheExport(cache, "MAIN/A", "Delta", 200L);
+
+		ExportCache.Update update = cache.startUpdate("MAIN/A", "Delta");
+		cache.evict(branchPath -> true);
+		assertNotNull(cache.load(update, FILTER_KEY));
+		update.abort();
+
+		cache.evict(branchPath -> true);
+		assertFalse(isCached(cache, "MAIN/A", "Delta"));
+	}
+
+	private void cacheExport(ExportCache cache, String branchPath, String exportName, long head) throws IOException {
+		ExportCache.Update update = cache.startUpdate(branchPath, exportName);
+		try (OutputStream outputStream = update.openEntry("Terminology/sct2_Concept_Delta")) {
+			outputStream.write("id\n".getBytes());
+		}
+		update.commit(head, 100L, FILTER_KEY, Map.of("Concept", Collections.singleton("1")));
+	}
+
+	private boolean isCached(ExportCache cache, String branchPath, String exportName) throws IOException {
+		ExportCache.Update update = cache.startUpdate(branchPath, exportName);
+		try {
+			return cache.load(update, FILTER_KEY) != null;
+		} finally {
+			update.abort();
+		}
+	}
+
+	private void setLastUsed(String branchPath, String exportName, long time) {
+		assertTrue(new File(getExportDirectory(branchPath, exportName), "state.properties").setLastModified(time));
+	}
+
+	private long getSize(String branchPath, String exportName) {
+		File[] files = getExportDirectory(branchPath, exportName).listFiles();
+		assertNotNull(files);
+		return Arrays.stream(files).mapToLong(File::length).sum();
+	}
+
+	private File getExportDirectory(String branchPath, String exportName) {
+		return new File(new File(directory, branchPath.replace("/", "%2F")), exportName);
+	}
+}
@@ -704,6 +704,119 @@ class ExportServiceTest extends AbstractTest {
 		}
 	}
 
+	@Test
+	void exportFull() throws Exception {
+		// Change a released concept and version again
+		Concept concept = conceptService.find(Concepts.REFSET_SIMPLE, "MAIN");
+		concept.setModuleId(Concepts.MODEL_MODULE);
+		conceptService.update(concept, "MAIN");
+		releaseService.createVersion(20200131, "MAIN");
+
+		File exportFile = getTempFile("export", ".zip");
+		exportFile.deleteOnExit();
+
+		// Run export
+		try (FileOutputStream outputStream = new FileOutputStream(exportFile)) {
+			ExportConfiguration exportConfiguration = new ExportConfiguration("MAIN", RF2Type.FULL);
+			exportConfiguration.setFilenameEffectiveDate("20200131");
+			exportService.createJob(exportConfiguration);
+			exportService.exportRF2Archive(exportConfiguration, outputStream);
+		}
+
+		// Test export
+		try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(exportFile))) {
+			ZipEntry concepts = zipInputStream.getNextEntry();
+			assertNotNull(concepts);
+			assertEquals("SnomedCT_Export/Full/Terminology/sct2_Concept_Full_INT_20200131.txt", concepts.getName());
+			List<String> lines = getLines(zipInputStream);
+			printLines(lines);
+			assertEquals(RF2Constants.CONCEPT_HEADER, lines.get(0));
+			assertEquals(10, lines.size());
+			assertEquals(lines.size(), new HashSet<>(lines).size(), "Each state is only exported once.");
+
+			// Both states of the changed concept, in effective time order
+			int previousState = lines.indexOf("446609009\t20100131\t1\t900000000000207008\t900000000000074008");
+			int currentState = lines.indexOf("446609009\t20200131\t1\t900000000000012004\t900000000000074008");
+			assertTrue(previousState > 0);
+			assertEquals(previousState + 1, currentState);
+			assertTrue(lines.contains("123001\t20200131\t1\t900000000000207008\t900000000000074008"));
+			assertTrue(lines.contains("733073007\t20190131\t1\t900000000000207008\t900000000000074008"));
+		}
+	}
+
+	@Test
+	void exportFileUpdatesCachedExport() throws Exception {
+		File firstExport = exportService.exportRF2ArchiveFile("MAIN", "20210731", RF2Type.SNAPSHOT, true);
+		firstExport.deleteOnExit();
+		List<String> firstConceptLines = getConceptLines(firstExport);
+		assertTrue(firstConceptLines.contains("123001\t\t1\t900000000000207008\t900000000000074008"));
+
+		// Change one concept and add another
+		Concept concept = conceptService.find("123001", "MAIN");
+		concept.setModuleId(Concepts.MODEL_MODULE);
+		conceptService.update(concept, "MAIN");
+		Concept newConcept = conceptService.create(new Concept(), "MAIN");
+
+		File secondExport = exportService.exportRF2ArchiveFile("MAIN", "20210801", RF2Type.SNAPSHOT, true);
+		secondExport.deleteOnExit();
+		List<String> secondConceptLines = getConceptLines(secondExport);
+		assertEquals(RF2Constants.CONCEPT_HEADER, secondConceptLines.get(0));
+		assertEquals(firstConceptLines.size() + 1, secondConceptLines.size());
+		assertEquals(secondConceptLines.size(), new HashSet<>(secondConceptLines).size());
+		assertFalse(secondConceptLines.contains("123001\t\t1\t900000000000207008\t900000000000074008"));
+		assertTrue(secondConceptLines.contains("123001\t\t1\t900000000000012004\t900000000000074008"));
+		assertTrue(secondConceptLines.contains(newConcept.getConceptId() + "\t\t1\t900000000000207008\t900000000000074008"));
+	}
+
+	@Test
+	void exportFileNotUpdatedFromCachedExportWhenBranchModulesChange() throws Exception {
+		codeSystemService.createCodeSystem(new CodeSystem("SNOMEDCT-XX", "MAIN/SNOMEDCT-XX"));
+		String extModuleId = "11000003104";
+		String otherExtModuleId = "12000003103";
+		branchService.updateMetadata("MAIN/SNOMEDCT-XX", Map.of(Config.DEFAULT_MODULE_ID_KEY, extModuleId, Config.EXPECTED_EXTENSION_MODULES, List.of(extModuleId)));
+		String extMdrsId = referenceSetMemberService.createMember("MAIN/SNOMEDCT-XX",
+				new ReferenceSetMember(extModuleId, Concepts.MODULE_DEPENDENCY_REFERENCE_SET, CORE_MODULE)).getMemberId();
+		String otherExtMdrsId = referenceSetMemberService.createMember("MAIN/SNOMEDCT-XX",
+				new ReferenceSetMember(otherExtModuleId, Concepts.MODULE_DEPENDENCY_REFERENCE_SET, CORE_MODULE)).getMemberId();
+
+		File firstExport = exportService.exportRF2ArchiveFile("MAIN/SNOMEDCT-XX", "20210731", RF2Type.SNAPSHOT, true);
+		firstExport.deleteOnExit();
+		List<String> firstMdrsLines = getEntryLines(firstExport, "ModuleDependency");
+		assertTrue(firstMdrsLines.stream().anyMatch(line -> line.startsWith(extMdrsId)));
+		assertTrue(firstMdrsLines.stream().noneMatch(line -> line.startsWith(otherExtMdrsId)));
+
+		// The unchanged member of the newly expected module must be exported
+		branchService.updateMetadata("MAIN/SNOMEDCT-XX", Map.of(Config.DEFAULT_MODULE_ID_KEY, extModuleId, Config.EXPECTED_EXTENSION_MODULES, List.of(extModuleId, otherExtModuleId)));
+
+		File secondExport = exportService.exportRF2ArchiveFile("MAIN/SNOMEDCT-XX", "20210801", RF2Type.SNAPSHOT, true);
+		secondExport.deleteOnExit();
+		List<String> secondMdrsLines = getEntryLines(secondExport, "ModuleDependency");
+		assertTrue(secondMdrsLines.stream().anyMatch(line -> line.startsWith(extMdrsId)));
+		assertTrue(secondMdrsLines.stream().anyMatch(line -> line.startsWith(otherExtMdrsId)));
+	}
+
+	private List<String> getEntryLines(File exportFile, String entryNameContains) throws IOException {
+		try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(exportFile))) {
+			ZipEntry zipEntry;
+			while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+				if (zipEntry.getName().contains(entryNameContains)) {
+					return getLines(zipInputStream);
+				}
+			}
+		}
+		fail("No export entry containing " + entryNameContains);
+		return null;
+	}
+
+	private List<String> getConceptLines(File exportFile) throws IOException {
+		try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(exportFile))) {
+			ZipEntry concepts = zipInputStream.getNextEntry();
+			assertNotNull(concepts);
+			assertTrue(concepts.getName().contains("sct2_Concept_"));
+			return getLines(zipInputStream);
+		}
+	}
+
 	@Test
 	void testExportRefsetMemberWithBlankFields() throws IOException {
 		String path = "MAIN";
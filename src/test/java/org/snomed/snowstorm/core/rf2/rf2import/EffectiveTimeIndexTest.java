@@ -0,0 +1,82 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.snowstorm.core.rf2.rf2import.EffectiveTimeIndex.NONE;
+
+class EffectiveTimeIndexTest {
+
+	@Test
+	void latestEffectiveTimeKept() {
+		EffectiveTimeIndex index = new EffectiveTimeIndex();
+		index.put("100005", 20200131);
+		index.put("100005", 20210131);
+		index.put("100005", 20190731);
+		index.put("6c8a5bd0-ba0c-4b7f-8e5d-8d4e5a1f0b4e", 20200731);
+		index.put("6c8a5bd0-ba0c-4b7f-8e5d-8d4e5a1f0b4e", 20200131);
+
+		assertEquals(20210131, index.get("100005"));
+		assertEquals(20200731, index.get("6c8a5bd0-ba0c-4b7f-8e5d-8d4e5a1f0b4e"));
+		assertEquals(NONE, index.get("200009"));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	void idsNotMatchedByValueAlone() {
+		EffectiveTimeIndex index = new EffectiveTimeIndex();
+		index.put("6C8A5BD0-BA0C-4B7F-8E5D-8D4E5A1F0B4E", 20200131);
+		index.put("00100005", 20200731);
+		index.put("A123", 20210131);
+
+		assertEquals(NONE, index.get("6c8a5bd0-ba0c-4b7f-8e5d-8d4e5a1f0b4e"));
+		assertEquals(20200131, index.get("6C8A5BD0-BA0C-4B7F-8E5D-8D4E5A1F0B4E"));
+		assertEquals(NONE, index.get("100005"));
+		assertEquals(20200731, index.get("00100005"));
+		assertEquals(20210131, index.get("A123"));
+	}
+
+	@Test
+	void putAll() {
+		EffectiveTimeIndex index = new EffectiveTimeIndex();
+		index.put("100005", 20200131);
+		index.put("A123", 20210131);
+		EffectiveTimeIndex written = new EffectiveTimeIndex();
+		written.put("100005", 20200731);
+		written.put("A123", 20200131);
+		written.put("200009", 20200731);
+
+		index.putAll(written);
+		assertEquals(20200731, index.get("100005"));
+		assertEquals(20210131, index.get("A123"));
+		assertEquals(20200731, index.get("200009"));
+	}
+
+	@Test
+	void manyUuids() {
+		EffectiveTimeIndex index = new EffectiveTimeIndex();
+		List<String> ids = new ArrayList<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 10_000; i++) {
+			String id = new UUID(random.nextLong(), random.nextLong()).toString();
+			ids.add(id);
+			index.put(id, 20200000 + i);
+		}
+		EffectiveTimeIndex written = new EffectiveTimeIndex();
+		for (int i = 0; i < ids.size(); i += 2) {
+			written.put(ids.get(i), 20300131);
+		}
+		index.putAll(written);
+
+		assertEquals(10_000, index.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(i % 2 == 0 ? 20300131 : 20200000 + i, index.get(ids.get(i)));
+		}
+		assertEquals(NONE, index.get(new UUID(random.nextLong(), random.nextLong()).toString()));
+	}
+}
@@ -0,0 +1,109 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.Concept;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistBufferTest {
+
+	@Test
+	void batchesWrittenInOrderAndCompleteOnFlush() {
+		List<String> persisted = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		List<String> threads = Collections.synchronizedList(new ArrayList<>());
+		PersistBuffer<Concept> buffer = new PersistBuffer<>("concept", 2, 2) {
+			@Override
+			void persistCollection(Collection<Concept> entities) {
+				sleep(20);
+				entities.forEach(concept -> persisted.add(concept.getConceptId()));
+				batchSizes.add(entities.size());
+				threads.add(Thread.currentThread().getName());
+			}
+		};
+		List<String> expected = new ArrayList<>();
+		for (int i = 1; i <= 7; i++) {
+			String conceptId = i + "00000" + i;
+			expected.add(conceptId);
+			buffer.save(new Concept(conceptId));
+		}
+		buffer.flush();
+
+		// Everything written once flush returns, including the last partial batch
+		assertEquals(expected, persisted);
+		assertEquals(List.of(2, 2, 2, 1), batchSizes);
+		threads.forEach(thread -> assertTrue(thread.startsWith("rf2-import-concept-")));
+		buffer.shutdown();
+	}
+
+	@Test
+	void workerFailurePropagates() {
+		AtomicInteger batches = new AtomicInteger();
+		PersistBuffer<Concept> buffer = new PersistBuffer<>("concept", 1, 4) {
+			@Override
+			void persistCollection(Collection<Concept> entities) {
+				if (batches.incrementAndGet() == 2) {
+					throw new IllegalArgumentException("Bad batch");
+				}
+			}
+		};
+		buffer.save(new Concept("100001"));
+		buffer.save(new Concept("200002"));
+		IllegalStateException exception = assertThrows(IllegalStateException.class, () -> {
+			buffer.flush();
+			// Fails on the next submission if the worker failed after flush returned
+			for (int i = 0; i < 10; i++) {
+				buffer.save(new Concept("300003"));
+				buffer.flush();
+			}
+		});
+		assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+		assertEquals(2, batches.get(), "Batches after the failed batch are not written.");
+		buffer.shutdown();
+	}
+
+	@Test
+	void workerErrorPropagates() {
+		PersistBuffer<Concept> buffer = new PersistBuffer<>("concept", 1, 2) {
+			@Override
+			void persistCollection(Collection<Concept> entities) {
+				throw new OutOfMemoryError("Test error");
+			}
+		};
+		buffer.save(new Concept("100001"));
+		IllegalStateException exception = assertThrows(IllegalStateException.class, buffer::flush);
+		assertInstanceOf(OutOfMemoryError.class, exception.getCause());
+		buffer.shutdown();
+	}
+
+	@Test
+	void synchronousWhenNoBatchesInFlight() {
+		List<String> threads = new ArrayList<>();
+		PersistBuffer<Concept> buffer = new PersistBuffer<>("concept", 2, 0) {
+			@Override
+			void persistCollection(Collection<Concept> entities) {
+				threads.add(Thread.currentThread().getName());
+			}
+		};
+		buffer.save(new Concept("100001"));
+		buffer.save(new Concept("200002"));
+		assertEquals(List.of(Thread.currentThread().getName()), threads);
+		buffer.save(new Concept("300003"));
+		buffer.flush();
+		assertEquals(2, threads.size());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.snomed.snowstorm.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdSetTest {
+
+	@Test
+	void setAlgebra() {
+		IdSet set = IdSet.of(List.of(138875005L, 404684003L, 10000006L, 9999999999999999L));
+		assertEquals(4, set.size());
+		assertTrue(set.contains(9999999999999999L));
+		assertFalse(set.contains(123037004L));
+
+		set.and(IdSet.of(List.of(404684003L, 10000006L, 9999999999999999L, 123037004L)));
+		assertEquals(List.of(10000006L, 404684003L, 9999999999999999L), set.toAscendingList());
+
+		set.andNot(IdSet.of(List.of(404684003L)));
+		assertEquals(List.of(9999999999999999L, 10000006L), set.toDescendingList());
+
+		set.or(IdSet.of(List.of(138875005L)));
+		assertEquals(List.of(10000006L, 138875005L, 9999999999999999L), set.toAscendingList());
+	}
+
+	@Test
+	void frozenSetIsReadOnly() {
+		IdSet set = IdSet.of(List.of(138875005L, 404684003L)).freeze();
+		assertTrue(set.isFrozen());
+		assertEquals(2, set.size());
+		assertThrows(IllegalStateException.class, () -> set.add(10000006L));
+		assertThrows(IllegalStateException.class, () -> set.and(new IdSet()));
+
+		// Can still be used to change other sets
+		IdSet other = IdSet.of(List.of(404684003L)).or(set);
+		assertEquals(List.of(138875005L, 404684003L), other.toAscendingList());
+	}
+
+	@Test
+	void empty() {
+		IdSet set = new IdSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.toDescendingList().isEmpty());
+	}
+}
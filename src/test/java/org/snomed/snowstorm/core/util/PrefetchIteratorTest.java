@@ -0,0 +1,110 @@
+package org.snomed.snowstorm.core.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.services.RuntimeServiceException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefetchIteratorTest {
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void tearDown() {
+		executorService.shutdown();
+	}
+
+	@Test
+	void itemsInSourceOrder() {
+		List<Integer> source = IntStream.range(0, 1_000).boxed().toList();
+		List<Integer> items = new ArrayList<>();
+		try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source.iterator(), 10, executorService)) {
+			iterator.forEachRemaining(items::add);
+			assertFalse(iterator.hasNext());
+		}
+		assertEquals(source, items);
+	}
+
+	@Test
+	void closeBeforeEnd() {
+		Iterator<Integer> source = IntStream.range(0, 1_000).boxed().iterator();
+		try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, executorService)) {
+			assertEquals(0, iterator.next());
+		}
+		// Producer has stopped reading
+		assertTrue(source.hasNext());
+	}
+
+	@Test
+	void sourceFailure() {
+		Iterator<Integer> source = new Iterator<>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				if (next == 3) {
+					throw new IllegalStateException("Source failed");
+				}
+				return next++;
+			}
+		};
+		try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, executorService)) {
+			assertEquals(0, iterator.next());
+			assertEquals(1, iterator.next());
+			assertEquals(2, iterator.next());
+			IllegalStateException exception = assertThrows(IllegalStateException.class, iterator::hasNext);
+			assertEquals("Source failed", exception.getMessage());
+		}
+	}
+
+	@Test
+	void sourceError() {
+		Iterator<Integer> source = new Iterator<>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				if (next == 2) {
+					throw new AssertionError("Source error");
+				}
+				return next++;
+			}
+		};
+		try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, executorService)) {
+			assertEquals(0, iterator.next());
+			assertEquals(1, iterator.next());
+			AssertionError error = assertThrows(AssertionError.class, iterator::hasNext);
+			assertEquals("Source error", error.getMessage());
+		}
+	}
+
+	@Test
+	void producerInterrupted() {
+		ExecutorService producerExecutor = Executors.newSingleThreadExecutor();
+		Iterator<Integer> source = IntStream.range(0, 1_000).boxed().iterator();
+		try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, producerExecutor)) {
+			assertEquals(0, iterator.next());
+			// Interrupts the producer while it waits for space in the queue
+			producerExecutor.shutdownNow();
+			assertThrows(RuntimeServiceException.class, () -> iterator.forEachRemaining(item -> {}));
+		}
+	}
+}
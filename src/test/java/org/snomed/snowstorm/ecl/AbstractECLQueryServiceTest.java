@@ -4,7 +4,9 @@ import com.google.common.collect.Sets;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.VersionControlHelper;
 import org.junit.jupiter.api.Test;
+import org.snomed.langauges.ecl.ECLQueryBuilder;
 import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 
@@ -13,7 +15,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.snomed.snowstorm.TestConcepts.NON_EXISTENT_CONCEPT;
 import static org.snomed.snowstorm.TestConcepts.*;
 import static org.snomed.snowstorm.core.data.domain.Concepts.*;
@@ -511,6 +513,34 @@ abstract class AbstractECLQueryServiceTest {
 				strings(selectConceptIds("* MINUS >*")).toString());
 	}
 
+	@Test
+	void nestedQueryLargerThanTermsLimit() {
+		String ecl = "< (<! " + SNOMEDCT_ROOT + ")";
+		Set<String> expected = strings(selectConceptIds(ecl));
+		assertFalse(expected.isEmpty());
+
+		// The focus concepts are selected in pages when there are more than the terms limit
+		ECLQueryBuilder pagedQueryBuilder = new ECLQueryBuilder(new SECLObjectFactory(2, 10000));
+		eclQueryService.clearCache();
+		assertEquals(expected, strings(eclQueryService.doSelectConceptIds(
+				(SExpressionConstraint) pagedQueryBuilder.createQuery(ecl), branchCriteria, INFERRED, null, null).getContent()));
+
+		// Nested results over the limit are rejected
+		ECLQueryBuilder limitedQueryBuilder = new ECLQueryBuilder(new SECLObjectFactory(2, 3));
+		eclQueryService.clearCache();
+		assertThrows(IllegalArgumentException.class, () -> eclQueryService.doSelectConceptIds(
+				(SExpressionConstraint) limitedQueryBuilder.createQuery(ecl), branchCriteria, INFERRED, null, null));
+	}
+
+	@Test
+	void streamConceptIds() {
+		for (String ecl : new String[]{"<<" + SNOMEDCT_ROOT, "*", ">>" + DISORDER, "<<" + SNOMEDCT_ROOT + " MINUS <<" + DISORDER}) {
+			Set<Long> streamed = new HashSet<>();
+			eclQueryService.streamConceptIds(ecl, branchCriteria, INFERRED, streamed::add);
+			assertEquals(strings(selectConceptIds(ecl)), strings(streamed), ecl);
+		}
+	}
+
 	protected Set<String> strings(Collection<Long> ids) {
 		return ids.stream().map(Object::toString).collect(Collectors.toSet());
 	}
@@ -0,0 +1,26 @@
+package org.snomed.snowstorm.ecl;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.QueryConcept;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConceptSelectorHelperTest {
+
+	@Test
+	void termsQueryWithinLimit() {
+		List<Long> ids = List.of(1L, 2L, 3L, 4L, 5L);
+
+		Query query = ConceptSelectorHelper.termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, ids, 5);
+		assertTrue(query.isTerms());
+
+		query = ConceptSelectorHelper.termsQueryWithinLimit(QueryConcept.Fields.CONCEPT_ID, ids, 2);
+		assertTrue(query.isBool());
+		assertEquals(3, query.bool().should().size());
+		assertEquals("1", query.bool().minimumShouldMatch());
+		query.bool().should().forEach(clause -> assertTrue(clause.terms().terms().value().size() <= 2));
+	}
+}
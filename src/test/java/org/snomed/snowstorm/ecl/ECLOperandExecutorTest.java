@@ -0,0 +1,81 @@
+package org.snomed.snowstorm.ecl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ECLOperandExecutorTest {
+
+	private final ECLOperandExecutor executor = new ECLOperandExecutor(4, 2);
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void resultsKeepOperandOrder() {
+		List<Supplier<Integer>> operands = List.of(() -> sleepAndReturn(30, 1), () -> sleepAndReturn(0, 2), () -> sleepAndReturn(10, 3));
+		assertEquals(List.of(1, 2, 3), executor.evaluateAll(operands));
+	}
+
+	@Test
+	void nestedOperandsRunOnTheOuterThread() {
+		ConcurrentHashMap.KeySetView<String, Boolean> threads = ConcurrentHashMap.newKeySet();
+		Supplier<Integer> nested = () -> {
+			String outerThread = Thread.currentThread().getName();
+			List<Supplier<Integer>> inner = List.of(() -> {
+				threads.add(outerThread + ">" + Thread.currentThread().getName());
+				return 1;
+			}, () -> 2);
+			return executor.evaluateAll(inner).size();
+		};
+		assertEquals(List.of(2, 2), executor.evaluateAll(List.of(nested, nested)));
+		threads.forEach(pair -> {
+			String[] parts = pair.split(">");
+			assertEquals(parts[0], parts[1]);
+		});
+	}
+
+	@Test
+	void failurePropagates() {
+		List<Supplier<Integer>> operands = List.of(() -> 1, () -> {
+			throw new IllegalArgumentException("Bad operand");
+		});
+		assertThrows(IllegalArgumentException.class, () -> executor.evaluateAll(operands));
+	}
+
+	@Test
+	void errorPropagatesFromHelperThread() {
+		// The first operand is slow so that the failing operand is taken by a helper thread
+		List<Supplier<Integer>> operands = List.of(() -> sleepAndReturn(50, 1), () -> {
+			throw new StackOverflowError("Operand error");
+		});
+		StackOverflowError error = assertThrows(StackOverflowError.class, () -> executor.evaluateAll(operands));
+		assertEquals("Operand error", error.getMessage());
+
+		// The pool is still usable after the error
+		assertEquals(List.of(1, 2), executor.evaluateAll(List.of(() -> 1, () -> 2)));
+	}
+
+	@Test
+	void disabled() {
+		ECLOperandExecutor sequential = new ECLOperandExecutor(0, 4);
+		assertEquals(List.of(1, 2), sequential.evaluateAll(List.of(() -> 1, () -> 2)));
+		sequential.shutdown();
+	}
+
+	private static Integer sleepAndReturn(long millis, int value) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return value;
+	}
+}
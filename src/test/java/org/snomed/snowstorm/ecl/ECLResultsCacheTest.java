@@ -0,0 +1,148 @@
+package org.snomed.snowstorm.ecl;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.domain.Relationship;
+import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.snomed.snowstorm.core.data.services.ServiceException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.snowstorm.core.data.domain.Concepts.ISA;
+import static org.snomed.snowstorm.core.data.domain.Concepts.SNOMEDCT_ROOT;
+
+class ECLResultsCacheTest extends AbstractTest {
+
+	@Autowired
+	private ECLQueryService eclQueryService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	@BeforeEach
+	void setup() {
+		eclQueryService.clearCache();
+	}
+
+	@Test
+	void testBranchWithoutContentSharesParentResults() throws ServiceException {
+		conceptService.batchCreate(List.of(
+				new Concept(SNOMEDCT_ROOT),
+				new Concept("100001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT))), "MAIN");
+		branchService.create("MAIN/A");
+
+		assertEquals(1, selectDescendants("MAIN").getTotalElements());
+		Map<String, Long> stats = eclQueryService.getResultsCache().getStats();
+		assertEquals(0, stats.get("hits"));
+
+		// Same content version as MAIN so the MAIN result is used
+		assertEquals(1, selectDescendants("MAIN/A").getTotalElements());
+		stats = eclQueryService.getResultsCache().getStats();
+		assertEquals(1, stats.get("hits"));
+		assertEquals(1, stats.get("size"));
+
+		// New content on the task is a new content version
+		conceptService.create(new Concept("100002").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT)), "MAIN/A");
+		assertEquals(2, selectDescendants("MAIN/A").getTotalElements());
+		stats = eclQueryService.getResultsCache().getStats();
+		assertEquals(1, stats.get("hits"));
+		assertEquals(2, stats.get("size"));
+
+		// MAIN is unchanged so still hits
+		assertEquals(1, selectDescendants("MAIN").getTotalElements());
+		assertEquals(2, eclQueryService.getResultsCache().getStats().get("hits"));
+	}
+
+	@Test
+	void testNewHeadTimestampInvalidatesEntries() {
+		ECLResultsCache cache = new ECLResultsCache(1_000);
+		Date head = new Date(1000);
+		BranchVersionECLCache versionCache = cache.getOrCreateBranchVersionCache("MAIN", head);
+		versionCache.put("<< 404684003", false, null, page(1L, 2L));
+
+		assertSame(versionCache, cache.getOrCreateBranchVersionCache("MAIN", new Date(1000)));
+		assertNotNull(cache.getOrCreateBranchVersionCache("MAIN", new Date(1000)).get("<< 404684003", false, null));
+
+		BranchVersionECLCache newVersionCache = cache.getOrCreateBranchVersionCache("MAIN", new Date(2000));
+		assertNotSame(versionCache, newVersionCache);
+		assertNull(newVersionCache.get("<< 404684003", false, null));
+		assertNull(cache.getOrCreateBranchVersionCache("MAIN/A", head).get("<< 404684003", false, null));
+	}
+
+	@Test
+	void testWeightBasedEviction() {
+		// Each page of three ids weighs four
+		ECLResultsCache cache = new ECLResultsCache(10);
+		BranchVersionECLCache versionCache = cache.getOrCreateBranchVersionCache("MAIN", new Date(1000));
+		versionCache.put("<< 1", false, null, page(1L, 2L, 3L));
+		versionCache.put("<< 2", false, null, page(4L, 5L, 6L));
+		cache.cleanUp();
+		assertEquals(0, cache.getStats().get("evictions"));
+		assertEquals(8, cache.getStats().get("weight"));
+
+		versionCache.put("<< 3", false, null, page(7L, 8L, 9L));
+		cache.cleanUp();
+		Map<String, Long> stats = cache.getStats();
+		assertEquals(1, stats.get("evictions"));
+		assertEquals(2, stats.get("size"));
+		assertTrue(stats.get("weight") <= 10);
+		assertEquals(10, stats.get("max-weight"));
+
+		// A single result heavier than the cache is not held
+		versionCache.put("<< 4", false, null, page(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L));
+		cache.cleanUp();
+		assertNull(versionCache.get("<< 4", false, null));
+	}
+
+	@Test
+	void testVersionStatsCountOwnEntries() {
+		ECLResultsCache cache = new ECLResultsCache(10);
+		BranchVersionECLCache versionCache = cache.getOrCreateBranchVersionCache("MAIN", new Date(1000));
+		BranchVersionECLCache otherVersionCache = cache.getOrCreateBranchVersionCache("MAIN/A", new Date(2000));
+		versionCache.put("<< 1", false, null, page(1L, 2L, 3L));
+		versionCache.put("<< 1", false, null, page(1L, 2L, 3L));
+		otherVersionCache.put("<< 2", false, null, page(4L, 5L, 6L));
+		cache.cleanUp();
+		assertEquals(1, versionCache.getStats().get("size"), "Replaced entry counted once");
+		assertEquals(1, otherVersionCache.getStats().get("size"));
+
+		// Eviction updates the count of the version of the entry evicted
+		otherVersionCache.put("<< 3", false, null, page(7L, 8L, 9L));
+		cache.cleanUp();
+		assertEquals(1, cache.getStats().get("evictions"));
+		assertEquals(versionCache.get("<< 1", false, null) != null ? 1 : 0, versionCache.getStats().get("size"));
+		long otherEntries = (otherVersionCache.get("<< 2", false, null) != null ? 1 : 0) + (otherVersionCache.get("<< 3", false, null) != null ? 1 : 0);
+		assertEquals(otherEntries, otherVersionCache.getStats().get("size"));
+		assertEquals(2, versionCache.getStats().get("size") + otherVersionCache.getStats().get("size"));
+
+		cache.clearCache();
+		assertEquals(0, otherVersionCache.getStats().get("size"));
+	}
+
+	private Page<Long> selectDescendants(String path) {
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(path);
+		return eclQueryService.selectConceptIds("< " + SNOMEDCT_ROOT, branchCriteria, false, PageRequest.of(0, 100));
+	}
+
+	private static Page<Long> page(Long... ids) {
+		return new PageImpl<>(List.of(ids));
+	}
+}
@@ -0,0 +1,130 @@
+package org.snomed.snowstorm.ecl;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.langauges.ecl.domain.refinement.Operator;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.domain.Relationship;
+import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.langauges.ecl.domain.refinement.Operator.*;
+import static org.snomed.snowstorm.core.data.domain.Concepts.ISA;
+import static org.snomed.snowstorm.core.data.domain.Concepts.SNOMEDCT_ROOT;
+
+class HierarchyGraphServiceTest extends AbstractTest {
+
+	private static final Map<Operator, String> OPERATOR_ECL = Map.of(
+			childof, "<!",
+			descendantof, "<",
+			descendantorselfof, "<<",
+			parentof, ">!",
+			ancestorof, ">",
+			ancestororselfof, ">>");
+
+	@Autowired
+	private HierarchyGraphService hierarchyGraphService;
+
+	@Autowired
+	private ECLQueryService eclQueryService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	@BeforeEach
+	void setup() {
+		hierarchyGraphService.clearCache();
+		hierarchyGraphService.setEnabled(true);
+	}
+
+	@AfterEach
+	void tearDown() {
+		hierarchyGraphService.setEnabled(false);
+		hierarchyGraphService.clearCache();
+	}
+
+	@Test
+	void graphMatchesElasticsearchAfterEdits() throws Exception {
+		conceptService.batchCreate(List.of(
+				new Concept(SNOMEDCT_ROOT),
+				new Concept("100001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT)),
+				new Concept("100002").addRelationship(new Relationship(ISA, "100001")),
+				new Concept("100003").addRelationship(new Relationship(ISA, "100001")),
+				new Concept("100004").addRelationship(new Relationship(ISA, "100002")).addRelationship(new Relationship(ISA, "100003"))), "MAIN");
+		branchService.create("MAIN/A");
+		assertGraphMatchesElasticsearch("MAIN/A", "100001", "100002", "100003", "100004");
+
+		// A branch without content of its own shares the graph of its parent version
+		assertSame(hierarchyGraphService.getGraph(versionControlHelper.getBranchCriteria("MAIN"), false),
+				hierarchyGraphService.getGraph(versionControlHelper.getBranchCriteria("MAIN/A"), false));
+
+		// Add a concept, move a concept and remove a parent
+		conceptService.create(new Concept("100005").addRelationship(new Relationship(ISA, "100004")), "MAIN/A");
+		Concept concept = conceptService.find("100003", "MAIN/A");
+		concept.getRelationships().clear();
+		concept.addRelationship(new Relationship(ISA, SNOMEDCT_ROOT));
+		conceptService.update(concept, "MAIN/A");
+		concept = conceptService.find("100004", "MAIN/A");
+		concept.getRelationships().removeIf(relationship -> "100002".equals(relationship.getDestinationId()));
+		conceptService.update(concept, "MAIN/A");
+
+		// Each commit applied its changes to the graph of the previous version, so the graph of the new head is ready without a build
+		assertNotNull(hierarchyGraphService.getGraph(versionControlHelper.getBranchCriteria("MAIN/A"), false));
+		assertGraphMatchesElasticsearch("MAIN/A", "100001", "100002", "100003", "100004", "100005");
+		assertGraphMatchesElasticsearch("MAIN", "100001", "100002", "100003", "100004");
+
+		// A concept without parents is removed from the graph
+		concept = conceptService.find("100005", "MAIN/A");
+		concept.getRelationships().clear();
+		conceptService.update(concept, "MAIN/A");
+		assertNotNull(hierarchyGraphService.getGraph(versionControlHelper.getBranchCriteria("MAIN/A"), false));
+		assertFalse(hierarchyGraphService.getGraph(versionControlHelper.getBranchCriteria("MAIN/A"), false).contains(100005L));
+		assertGraphMatchesElasticsearch("MAIN/A", "100001", "100002", "100003", "100004");
+	}
+
+	private void assertGraphMatchesElasticsearch(String path, String... conceptIds) throws Exception {
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(path);
+		HierarchyGraph graph = hierarchyGraphService.awaitGraph(branchCriteria, false);
+		assertNotNull(graph);
+		assertSame(graph, hierarchyGraphService.getGraph(branchCriteria, false), "Later requests are served from the built graph.");
+
+		List<String> allConceptIds = new ArrayList<>(List.of(conceptIds));
+		allConceptIds.add(SNOMEDCT_ROOT);
+		for (String conceptId : allConceptIds) {
+			for (Map.Entry<Operator, String> operatorEcl : OPERATOR_ECL.entrySet()) {
+				String ecl = operatorEcl.getValue() + " " + conceptId;
+				Set<Long> graphResults = graph.select(operatorEcl.getKey(), Set.of(Long.parseLong(conceptId)));
+				assertEquals(selectUsingElasticsearch(ecl, branchCriteria), graphResults, path + " " + ecl);
+			}
+		}
+	}
+
+	private Set<Long> selectUsingElasticsearch(String ecl, BranchCriteria branchCriteria) {
+		hierarchyGraphService.setEnabled(false);
+		eclQueryService.clearCache();
+		try {
+			return new HashSet<>(eclQueryService.selectConceptIds(ecl, branchCriteria, false, PageRequest.of(0, 100)).getContent());
+		} finally {
+			hierarchyGraphService.setEnabled(true);
+		}
+	}
+}
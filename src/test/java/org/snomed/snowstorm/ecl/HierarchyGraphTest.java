@@ -0,0 +1,102 @@
+package org.snomed.snowstorm.ecl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.langauges.ecl.domain.refinement.Operator.*;
+
+class HierarchyGraphTest {
+
+	private HierarchyGraph graph;
+
+	@BeforeEach
+	void setup() {
+		//      1
+		//    /   \
+		//   2     3
+		//   |   / |
+		//   4  5  6
+		//    \ |
+		//      7
+		graph = HierarchyGraph.builder()
+				.addNode(1L)
+				.addParent(2L, 1L)
+				.addParent(3L, 1L)
+				.addParent(4L, 2L)
+				.addParent(5L, 3L)
+				.addParent(6L, 3L)
+				.addParent(7L, 4L)
+				.addParent(7L, 5L)
+				.build();
+	}
+
+	@Test
+	void testDescendants() {
+		assertEquals(Set.of(2L, 3L, 4L, 5L, 6L, 7L), graph.select(descendantof, List.of(1L)));
+		assertEquals(Set.of(3L, 5L, 6L, 7L), graph.select(descendantorselfof, List.of(3L)));
+		assertEquals(Set.of(5L, 6L), graph.select(childof, List.of(3L)));
+		assertEquals(Set.of(3L, 5L, 6L), graph.select(childorselfof, List.of(3L)));
+		assertEquals(Set.of(), graph.select(descendantof, List.of(7L)));
+	}
+
+	@Test
+	void testAncestors() {
+		assertEquals(Set.of(1L, 2L, 3L, 4L, 5L), graph.select(ancestorof, List.of(7L)));
+		assertEquals(Set.of(1L, 2L, 3L, 4L, 5L, 7L), graph.select(ancestororselfof, List.of(7L)));
+		assertEquals(Set.of(4L, 5L), graph.select(parentof, List.of(7L)));
+		assertEquals(Set.of(4L, 5L, 7L), graph.select(parentorselfof, List.of(7L)));
+		assertEquals(Set.of(), graph.select(ancestorof, List.of(1L)));
+	}
+
+	@Test
+	void testMultipleFocusConcepts() {
+		// Focus concept 4 is a descendant of focus concept 2 so must be included
+		assertEquals(Set.of(4L, 7L), graph.select(descendantof, List.of(2L, 4L)));
+		assertEquals(Set.of(1L, 2L, 3L), graph.findAncestors(List.of(4L, 6L)));
+	}
+
+	@Test
+	void testIsAncestor() {
+		assertTrue(graph.isAncestor(1L, 7L));
+		assertTrue(graph.isAncestor(3L, 7L));
+		assertTrue(graph.isAncestor(4L, 7L));
+		assertFalse(graph.isAncestor(7L, 1L));
+		assertFalse(graph.isAncestor(7L, 7L));
+		assertFalse(graph.isAncestor(2L, 6L));
+		assertFalse(graph.isAncestor(100L, 7L));
+	}
+
+	@Test
+	void testUnknownConcept() {
+		assertFalse(graph.contains(100L));
+		assertEquals(Set.of(), graph.select(descendantorselfof, List.of(100L)));
+		assertNull(graph.select(memberOf, List.of(1L)));
+		assertEquals(7, graph.size());
+	}
+
+	@Test
+	void testWithChanges() {
+		// Move 5 below 2, give 8 the parent 6 and remove 7
+		HierarchyGraph changed = graph.withChanges(Map.of(5L, Set.of(2L), 8L, Set.of(6L)), Set.of(7L));
+		assertEquals(Set.of(4L, 5L), changed.select(childof, List.of(2L)));
+		assertEquals(Set.of(6L), changed.select(childof, List.of(3L)));
+		assertEquals(Set.of(1L, 3L, 6L), changed.findAncestors(List.of(8L)));
+		assertFalse(changed.contains(7L));
+		assertEquals(Set.of(), changed.select(childof, List.of(4L)));
+		assertEquals(7, changed.size());
+
+		// The original graph is not changed
+		assertEquals(Set.of(5L, 6L), graph.select(childof, List.of(3L)));
+		assertTrue(graph.contains(7L));
+
+		// A removed concept is kept while it is still the parent of another concept
+		assertTrue(graph.withChanges(Map.of(), Set.of(4L)).contains(4L));
+		assertEquals(Set.of(), graph.withChanges(Map.of(), Set.of(4L)).findParents(List.of(4L)));
+	}
+
+}
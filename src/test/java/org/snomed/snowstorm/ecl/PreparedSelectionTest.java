@@ -0,0 +1,102 @@
+package org.snomed.snowstorm.ecl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.snomed.snowstorm.core.util.IdSet;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class PreparedSelectionTest {
+
+	private ECLContentService eclContentService;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setup() {
+		eclContentService = mock(ECLContentService.class);
+		// Evaluate operands one after another
+		when(eclContentService.evaluateOperands(anyList())).thenAnswer(invocation ->
+				((List<Supplier<?>>) invocation.getArgument(0)).stream().map(Supplier::get).toList());
+	}
+
+	@Test
+	void testConjunctionOrderedByCount() {
+		PreparedSelection large = operand(1000, List.of(1L, 2L, 3L, 4L, 5L, 6L));
+		PreparedSelection small = operand(3, List.of(2L, 3L, 4L));
+		PreparedSelection medium = operand(100, List.of(3L, 4L, 5L));
+
+		IdSet result = PreparedSelection.intersect(IdSet.of(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L)), List.of(large, small, medium), 100, eclContentService);
+
+		assertEquals(List.of(3L, 4L), result.toAscendingList());
+		InOrder inOrder = inOrder(small, medium, large);
+		inOrder.verify(small).select(any());
+		inOrder.verify(medium).select(any());
+		inOrder.verify(large).select(any());
+	}
+
+	@Test
+	void testFilterPushdown() {
+		PreparedSelection small = operand(3, List.of(2L, 3L, 4L));
+		PreparedSelection medium = operand(50, List.of(3L, 4L, 5L));
+		PreparedSelection large = operand(1000, List.of(3L, 4L, 6L));
+
+		IdSet result = PreparedSelection.intersect(IdSet.of(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L)), List.of(large, small, medium), 100, eclContentService);
+		assertEquals(List.of(3L, 4L), result.toAscendingList());
+
+		// The first operand matches fewer concepts than the ids so far, it is fetched and intersected in memory
+		verify(small).select(isNull());
+		// The ids matched so far are pushed down to the other operands
+		verify(medium).select(List.of(2L, 3L, 4L));
+		verify(large).select(List.of(3L, 4L));
+	}
+
+	@Test
+	void testNoPushdownBeyondTermsLimit() {
+		PreparedSelection first = operand(10, List.of(1L, 2L, 3L, 4L));
+		PreparedSelection second = operand(20, List.of(2L, 3L));
+		PreparedSelection third = operand(30, List.of(3L));
+
+		IdSet result = PreparedSelection.intersect(IdSet.of(List.of(1L, 2L, 3L, 4L, 5L)), List.of(first, second, third), 2, eclContentService);
+		assertEquals(List.of(3L), result.toAscendingList());
+
+		// Ids are only pushed down once within the terms limit
+		verify(first).select(isNull());
+		verify(second).select(isNull());
+		verify(third).select(List.of(2L, 3L));
+	}
+
+	@Test
+	void testStopsWhenIntersectionEmpty() {
+		PreparedSelection first = operand(1, List.of(9L));
+		PreparedSelection second = operand(10, List.of(1L));
+		PreparedSelection third = operand(20, List.of(1L));
+
+		IdSet result = PreparedSelection.intersect(IdSet.of(List.of(1L, 2L, 3L)), List.of(third, second, first), 100, eclContentService);
+		assertEquals(List.of(), result.toAscendingList());
+		verify(second, never()).select(any());
+		verify(third, never()).select(any());
+	}
+
+	// Operand which is not materialised, the count estimate and the ids it selects
+	private static PreparedSelection operand(long count, List<Long> ids) {
+		PreparedSelection operand = mock(PreparedSelection.class);
+		when(operand.count()).thenReturn(count);
+		when(operand.select(any())).thenAnswer(invocation -> {
+			List<Long> conceptIdFilter = invocation.getArgument(0);
+			IdSet selected = IdSet.of(ids);
+			if (conceptIdFilter != null) {
+				selected.and(IdSet.of(conceptIdFilter));
+			}
+			return selected;
+		});
+		return operand;
+	}
+}
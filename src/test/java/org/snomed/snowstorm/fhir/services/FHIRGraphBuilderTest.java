@@ -0,0 +1,59 @@
+package org.snomed.snowstorm.fhir.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FHIRGraphBuilderTest {
+
+	@Test
+	void testTransitiveClosure() {
+		FHIRGraphBuilder graphBuilder = new FHIRGraphBuilder();
+		graphBuilder.addNode("A", "Root");
+		graphBuilder.addParent("B", "A");
+		graphBuilder.addParent("C", "A");
+		graphBuilder.addParent("D", "B");
+		graphBuilder.addParent("D", "C");
+		graphBuilder.addParent("E", "D");
+
+		assertEquals(Set.of(), graphBuilder.getTransitiveClosure("A"));
+		assertEquals(Set.of("A", "B", "C", "D"), graphBuilder.getTransitiveClosure("E"));
+		assertEquals(Set.of("A", "B", "C"), graphBuilder.getTransitiveClosure("D"));
+		assertNull(graphBuilder.getTransitiveClosure("X"));
+
+		// Closures are rebuilt after the hierarchy changes
+		graphBuilder.addParent("A", "Z");
+		assertEquals(Set.of("A", "B", "C", "D", "Z"), graphBuilder.getTransitiveClosure("E"));
+
+		assertEquals(List.of("D"), graphBuilder.getNodeChildren("B"));
+		assertEquals(Set.of("B", "C"), Set.copyOf(graphBuilder.getNodeParents("D")));
+		assertEquals("Root", graphBuilder.getDisplay("A"));
+		assertNull(graphBuilder.getDisplay("B"));
+	}
+
+	@Test
+	void testCycle() {
+		// Every member of the cycle has the same closure whichever code is visited first
+		for (String firstCode : List.of("A", "B", "C", "Z")) {
+			FHIRGraphBuilder graphBuilder = new FHIRGraphBuilder();
+			graphBuilder.addParent("A", "B");
+			graphBuilder.addParent("B", "A");
+			graphBuilder.addParent("C", "A");
+			graphBuilder.addParent("B", "Z");
+
+			graphBuilder.getTransitiveClosure(firstCode);
+			assertEquals(Set.of("A", "B", "Z"), graphBuilder.getTransitiveClosure("A"), "First visited " + firstCode);
+			assertEquals(Set.of("A", "B", "Z"), graphBuilder.getTransitiveClosure("B"), "First visited " + firstCode);
+			assertEquals(Set.of("A", "B", "Z"), graphBuilder.getTransitiveClosure("C"), "First visited " + firstCode);
+			assertEquals(Set.of(), graphBuilder.getTransitiveClosure("Z"), "First visited " + firstCode);
+		}
+
+		FHIRGraphBuilder graphBuilder = new FHIRGraphBuilder();
+		graphBuilder.addParent("A", "A");
+		assertEquals(Set.of("A"), graphBuilder.getTransitiveClosure("A"));
+	}
+
+}
@@ -0,0 +1,189 @@
+package org.snomed.snowstorm.fhir.services;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.ecl.HierarchyGraph;
+import org.snomed.snowstorm.ecl.HierarchyGraphService;
+import org.snomed.snowstorm.fhir.domain.FHIRCodeSystemVersion;
+import org.snomed.snowstorm.fhir.domain.FHIRConcept;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.snomed.snowstorm.fhir.config.FHIRConstants.SNOMED_URI;
+import static org.snomed.snowstorm.fhir.config.FHIRConstants.SNOMED_URI_UNVERSIONED;
+
+class FHIRGraphServiceTest {
+
+	private static final String SNOMED_BRANCH = "MAIN/SNOMEDCT-XX/2025-01-01";
+
+	private FHIRGraphService graphService;
+	private ElasticsearchOperations elasticsearchOperations;
+	private HierarchyGraphService hierarchyGraphService;
+	private VersionControlHelper versionControlHelper;
+
+	@BeforeEach
+	void setup() {
+		elasticsearchOperations = mock(ElasticsearchOperations.class);
+		hierarchyGraphService = mock(HierarchyGraphService.class);
+		versionControlHelper = mock(VersionControlHelper.class);
+		when(hierarchyGraphService.isEnabled()).thenReturn(true);
+
+		graphService = new FHIRGraphService();
+		ReflectionTestUtils.setField(graphService, "elasticsearchOperations", elasticsearchOperations);
+		ReflectionTestUtils.setField(graphService, "hierarchyGraphService", hierarchyGraphService);
+		ReflectionTestUtils.setField(graphService, "snomedVersionControlHelper", versionControlHelper);
+		ReflectionTestUtils.setField(graphService, "maxGraphs", 10);
+		graphService.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		graphService.shutdown();
+	}
+
+	@Test
+	void testSnomedVersionAnsweredFromGraph() {
+		BranchCriteria branchCriteria = mock(BranchCriteria.class);
+		when(versionControlHelper.getBranchCriteria(SNOMED_BRANCH)).thenReturn(branchCriteria);
+		when(hierarchyGraphService.getGraph(branchCriteria, false)).thenReturn(HierarchyGraph.builder()
+				.addNode(138875005L)
+				.addParent(100001L, 138875005L)
+				.addParent(100002L, 100001L)
+				.addParent(100003L, 100001L)
+				.build());
+		FHIRCodeSystemVersion codeSystemVersion = getSnomedVersion(SNOMED_URI);
+
+		assertTrue(graphService.subsumes("138875005", "100002", codeSystemVersion));
+		assertFalse(graphService.subsumes("100002", "138875005", codeSystemVersion));
+		assertFalse(graphService.subsumes("100002", "100003", codeSystemVersion));
+		assertFalse(graphService.subsumes("not-a-code", "100002", codeSystemVersion));
+		assertEquals(List.of("100002", "100003"), graphService.findChildren("100001", codeSystemVersion, PageRequest.of(0, 10)));
+		assertEquals(List.of("100003"), graphService.findChildren("100001", codeSystemVersion, PageRequest.of(1, 1)));
+
+		// The branch of a version is only resolved once and Elasticsearch is not queried
+		verify(versionControlHelper, times(1)).getBranchCriteria(SNOMED_BRANCH);
+		verifyNoInteractions(elasticsearchOperations);
+
+		// The daily build is resolved for every query
+		FHIRCodeSystemVersion dailyBuild = getSnomedVersion(SNOMED_URI_UNVERSIONED);
+		assertTrue(graphService.subsumes("100001", "100003", dailyBuild));
+		assertEquals(List.of("100001"), graphService.findChildren("138875005", dailyBuild, PageRequest.of(0, 10)));
+		verify(versionControlHelper, times(3)).getBranchCriteria(SNOMED_BRANCH);
+		verifyNoInteractions(elasticsearchOperations);
+	}
+
+	@Test
+	void testCodeSystemGraphBuiltOnce() throws Exception {
+		FHIRCodeSystemVersion codeSystemVersion = getCodeSystemVersion();
+		CountDownLatch releaseBuild = new CountDownLatch(1);
+		when(elasticsearchOperations.searchForStream(any(Query.class), eq(FHIRConcept.class))).thenAnswer(invocation -> {
+			releaseBuild.await(10, TimeUnit.SECONDS);
+			return getConcepts();
+		});
+
+		// Concurrent requests wait for the same build
+		ExecutorService requests = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<FHIRGraphService.CodeSystemGraph>> graphs = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				graphs.add(requests.submit(() -> graphService.awaitCodeSystemGraph(codeSystemVersion)));
+			}
+			releaseBuild.countDown();
+			FHIRGraphService.CodeSystemGraph graph = graphs.get(0).get(10, TimeUnit.SECONDS);
+			for (Future<FHIRGraphService.CodeSystemGraph> other : graphs) {
+				assertSame(graph, other.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			requests.shutdownNow();
+		}
+		verify(elasticsearchOperations, times(1)).searchForStream(any(Query.class), eq(FHIRConcept.class));
+
+		// Queries are answered from the graph
+		assertTrue(graphService.subsumes("A", "D", codeSystemVersion));
+		assertTrue(graphService.subsumes("B", "D", codeSystemVersion));
+		assertFalse(graphService.subsumes("B", "C", codeSystemVersion));
+		assertFalse(graphService.subsumes("D", "A", codeSystemVersion));
+		assertFalse(graphService.subsumes("X", "A", codeSystemVersion));
+		assertEquals(List.of("B", "C"), graphService.findChildren("A", codeSystemVersion, PageRequest.of(0, 10)));
+		assertEquals(List.of("D"), graphService.findChildren("C", codeSystemVersion, PageRequest.of(0, 10)));
+		assertEquals(List.of(), graphService.findChildren("X", codeSystemVersion, PageRequest.of(0, 10)));
+		verify(elasticsearchOperations, never()).search(any(Query.class), any(Class.class));
+
+		// Subsumption is only answered from the hierarchy of an is-a code system
+		codeSystemVersion.setHierarchyMeaning("part-of");
+		assertFalse(graphService.subsumes("A", "D", codeSystemVersion));
+	}
+
+	@Test
+	void testEvictCodeSystemGraph() throws Exception {
+		FHIRCodeSystemVersion codeSystemVersion = getCodeSystemVersion();
+		when(elasticsearchOperations.searchForStream(any(Query.class), eq(FHIRConcept.class))).thenAnswer(invocation -> getConcepts());
+
+		FHIRGraphService.CodeSystemGraph graph = graphService.awaitCodeSystemGraph(codeSystemVersion);
+		assertSame(graph, graphService.awaitCodeSystemGraph(codeSystemVersion));
+		verify(elasticsearchOperations, times(1)).searchForStream(any(Query.class), eq(FHIRConcept.class));
+
+		// Graphs of other versions are kept
+		graphService.evictCodeSystemGraph("other-version");
+		assertSame(graph, graphService.awaitCodeSystemGraph(codeSystemVersion));
+
+		graphService.evictCodeSystemGraph(codeSystemVersion.getId());
+		assertNotSame(graph, graphService.awaitCodeSystemGraph(codeSystemVersion));
+		verify(elasticsearchOperations, times(2)).searchForStream(any(Query.class), eq(FHIRConcept.class));
+	}
+
+	private static FHIRCodeSystemVersion getSnomedVersion(String url) {
+		FHIRCodeSystemVersion codeSystemVersion = new FHIRCodeSystemVersion();
+		codeSystemVersion.setId("sct_" + url.hashCode());
+		codeSystemVersion.setUrl(url);
+		codeSystemVersion.setSnomedBranch(SNOMED_BRANCH);
+		return codeSystemVersion;
+	}
+
+	private static FHIRCodeSystemVersion getCodeSystemVersion() {
+		FHIRCodeSystemVersion codeSystemVersion = new FHIRCodeSystemVersion();
+		codeSystemVersion.setId("test-cs-1");
+		codeSystemVersion.setUrl("http://example.com/fhir/CodeSystem/test");
+		codeSystemVersion.setHierarchyMeaning("is-a");
+		return codeSystemVersion;
+	}
+
+	// A, B and C below A, D below B and C
+	@SuppressWarnings("unchecked")
+	private static SearchHitsIterator<FHIRConcept> getConcepts() {
+		Iterator<SearchHit<FHIRConcept>> hits = List.of(
+				getHit("A"),
+				getHit("B", "A"),
+				getHit("C", "A"),
+				getHit("D", "B", "C")).iterator();
+		SearchHitsIterator<FHIRConcept> iterator = mock(SearchHitsIterator.class);
+		when(iterator.hasNext()).thenAnswer(invocation -> hits.hasNext());
+		when(iterator.next()).thenAnswer(invocation -> hits.next());
+		doCallRealMethod().when(iterator).forEachRemaining(any());
+		return iterator;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SearchHit<FHIRConcept> getHit(String code, String... parents) {
+		FHIRConcept concept = new FHIRConcept();
+		concept.setCode(code);
+		concept.setParents(new HashSet<>(Arrays.asList(parents)));
+		SearchHit<FHIRConcept> hit = mock(SearchHit.class);
+		when(hit.getContent()).thenReturn(concept);
+		return hit;
+	}
+}
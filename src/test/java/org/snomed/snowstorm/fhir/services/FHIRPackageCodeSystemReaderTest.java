@@ -0,0 +1,125 @@
+package org.snomed.snowstorm.fhir.services;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FHIRPackageCodeSystemReaderTest {
+
+	private static final int CONCEPT_COUNT = 2_500;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final IParser fhirJsonParser = FhirContext.forR4().newJsonParser();
+
+	@TempDir
+	private File tempDir;
+
+	private File packageFile;
+
+	@BeforeEach
+	void setup() throws IOException {
+		StringBuilder concepts = new StringBuilder();
+		for (int i = 0; i < CONCEPT_COUNT; i++) {
+			if (i > 0) {
+				concepts.append(",");
+			}
+			concepts.append("{\"code\":\"c").append(i).append("\",\"display\":\"Concept ").append(i).append("\"");
+			if (i == 0) {
+				concepts.append(",\"concept\":[{\"code\":\"c0-child\",\"display\":\"Child of concept 0\"}]");
+			}
+			concepts.append("}");
+		}
+
+		// Entries before and after the code system, and a concept array before the other fields of the resource
+		Map<String, String> entries = new LinkedHashMap<>();
+		entries.put("package/package.json", "{\"name\":\"test.package\",\"version\":\"1.0.0\"}");
+		entries.put("package/ValueSet-other.json", "{\"resourceType\":\"ValueSet\",\"url\":\"http://example.com/vs\",\"concept\":[{\"code\":\"x\"}]}");
+		entries.put("package/CodeSystem-test.json", "{\"resourceType\":\"CodeSystem\",\"concept\":[" + concepts + "]," +
+				"\"url\":\"http://example.com/cs\",\"version\":\"2\",\"status\":\"active\",\"content\":\"complete\",\"property\":[{\"code\":\"p\",\"type\":\"string\"}]}");
+		entries.put("package/CodeSystem-truncated.json", "{\"resourceType\":\"CodeSystem\",\"url\":\"http://example.com/truncated\",\"concept\":[{\"code\":\"a\"},{\"code\":");
+		entries.put("package/CodeSystem-array.json", "[{\"resourceType\":\"CodeSystem\"}]");
+
+		packageFile = new File(tempDir, "test-package.tgz");
+		try (GzipCompressorOutputStream gzipOut = new GzipCompressorOutputStream(new FileOutputStream(packageFile));
+			 TarArchiveOutputStream tarOut = new TarArchiveOutputStream(gzipOut)) {
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+				TarArchiveEntry archiveEntry = new TarArchiveEntry(entry.getKey());
+				archiveEntry.setSize(bytes.length);
+				tarOut.putArchiveEntry(archiveEntry);
+				tarOut.write(bytes);
+				tarOut.closeArchiveEntry();
+			}
+		}
+	}
+
+	@Test
+	void testReadCodeSystemWithoutConcepts() throws IOException {
+		CodeSystem codeSystem = getReader("CodeSystem-test.json").readCodeSystemWithoutConcepts();
+		assertEquals("http://example.com/cs", codeSystem.getUrl());
+		assertEquals("2", codeSystem.getVersion());
+		assertEquals(CodeSystem.CodeSystemContentMode.COMPLETE, codeSystem.getContent());
+		assertEquals(1, codeSystem.getProperty().size());
+		assertTrue(codeSystem.getConcept().isEmpty());
+	}
+
+	@Test
+	void testStreamConcepts() {
+		FHIRPackageCodeSystemReader reader = getReader("CodeSystem-test.json");
+		List<CodeSystem.ConceptDefinitionComponent> concepts = new ArrayList<>();
+		reader.forEach(concepts::add);
+
+		// Concepts of all parse batches in package order, nested concepts kept with their parent
+		assertEquals(CONCEPT_COUNT, concepts.size());
+		for (int i = 0; i < CONCEPT_COUNT; i++) {
+			assertEquals("c" + i, concepts.get(i).getCode());
+		}
+		assertEquals("Concept 1999", concepts.get(1999).getDisplay());
+		assertEquals(1, concepts.get(0).getConcept().size());
+		assertEquals("c0-child", concepts.get(0).getConcept().get(0).getCode());
+
+		// The package is read again each time the concepts are streamed
+		List<CodeSystem.ConceptDefinitionComponent> secondRead = new ArrayList<>();
+		reader.forEach(secondRead::add);
+		assertEquals(CONCEPT_COUNT, secondRead.size());
+	}
+
+	@Test
+	void testMalformedJson() {
+		FHIRPackageCodeSystemReader truncatedReader = getReader("CodeSystem-truncated.json");
+		assertThrows(IOException.class, truncatedReader::readCodeSystemWithoutConcepts);
+		assertThrows(UncheckedIOException.class, () -> truncatedReader.forEach(concept -> {}));
+
+		FHIRPackageCodeSystemReader arrayReader = getReader("CodeSystem-array.json");
+		assertThrows(IOException.class, arrayReader::readCodeSystemWithoutConcepts);
+		assertThrows(UncheckedIOException.class, () -> arrayReader.forEach(concept -> {}));
+	}
+
+	@Test
+	void testMissingEntry() {
+		assertThrows(SnowstormFHIRServerResponseException.class, () -> getReader("CodeSystem-missing.json").readCodeSystemWithoutConcepts());
+	}
+
+	private FHIRPackageCodeSystemReader getReader(String archiveEntryName) {
+		return new FHIRPackageCodeSystemReader(packageFile, archiveEntryName, mapper, fhirJsonParser);
+	}
+}
@@ -0,0 +1,123 @@
+package org.snomed.snowstorm.fhir.services;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.CodeSystem;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.services.CodeSystemConfigurationService;
+import org.snomed.snowstorm.core.data.services.CodeSystemService;
+import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.snomed.snowstorm.core.data.services.ServiceException;
+import org.snomed.snowstorm.core.data.services.pojo.CodeSystemConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FHIRValueSetProviderExpandDeepPagingTest extends AbstractFHIRTest {
+
+	private static final String DEEP_CODE_SYSTEM = "SNOMEDCT-DEEP";
+	private static final String DEEP_MODULE = "1234001007";
+	private static final int CONCEPT_COUNT = 10_100;
+	private static final int PAGE_SIZE = 2_000;
+
+	@Autowired
+	private CodeSystemService codeSystemService;
+
+	@Autowired
+	private CodeSystemConfigurationService codeSystemConfigurationService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private ValueSetExpansionCache expansionCache;
+
+	private CodeSystemConfiguration deepConfiguration;
+
+	private final Set<String> createdConceptIds = new HashSet<>();
+
+	@BeforeEach
+	void setupContent() throws ServiceException {
+		// More concepts than the Elasticsearch 10K window, in a code system of their own so the shared test content is not changed
+		CodeSystem codeSystem = codeSystemService.createCodeSystem(new CodeSystem(DEEP_CODE_SYSTEM, "MAIN/" + DEEP_CODE_SYSTEM));
+		deepConfiguration = new CodeSystemConfiguration(DEEP_CODE_SYSTEM, DEEP_CODE_SYSTEM, DEEP_MODULE, null, null);
+		codeSystemConfigurationService.getConfigurations().add(deepConfiguration);
+
+		List<Concept> concepts = new ArrayList<>();
+		for (int i = 0; i < CONCEPT_COUNT; i++) {
+			concepts.add(new Concept());
+		}
+		for (Concept concept : conceptService.batchCreate(concepts, codeSystem.getBranchPath())) {
+			createdConceptIds.add(concept.getConceptId());
+		}
+		expansionCache.clearCache();
+	}
+
+	@AfterEach
+	void tearDown() {
+		expansionCache.clearCache();
+		codeSystemConfigurationService.getConfigurations().remove(deepConfiguration);
+		codeSystemService.deleteCodeSystemAndVersions(codeSystemService.find(DEEP_CODE_SYSTEM));
+	}
+
+	@Test
+	void testPagesBeyondTenThousandServedFromCachedExpansion() {
+		// Pages within the first 10K are loaded directly while the expansion is not held
+		ValueSet firstPage = expand(0);
+		int total = firstPage.getExpansion().getTotal();
+		assertTrue(total > 10_000, "Total " + total);
+		List<List<String>> uncachedPages = new ArrayList<>();
+		uncachedPages.add(getCodes(firstPage));
+		for (int offset = PAGE_SIZE; offset + PAGE_SIZE <= 10_000; offset += PAGE_SIZE) {
+			uncachedPages.add(getCodes(expand(offset)));
+		}
+		assertEquals(0, expansionCache.getStats().loadCount());
+
+		// The first page beyond 10K loads the whole expansion once
+		List<String> allCodes = new ArrayList<>();
+		for (int offset = uncachedPages.size() * PAGE_SIZE; offset < total; offset += PAGE_SIZE) {
+			ValueSet page = expand(offset);
+			assertEquals(total, page.getExpansion().getTotal());
+			assertEquals(offset, page.getExpansion().getOffset());
+			assertEquals(Math.min(PAGE_SIZE, total - offset), page.getExpansion().getContains().size());
+			allCodes.addAll(getCodes(page));
+		}
+		assertEquals(1, expansionCache.getStats().loadCount());
+
+		// Earlier pages are now sliced from the held expansion and match the pages loaded directly
+		long hitsBefore = expansionCache.getStats().hitCount();
+		List<String> cachedCodes = new ArrayList<>();
+		for (int i = 0; i < uncachedPages.size(); i++) {
+			List<String> cachedPage = getCodes(expand(i * PAGE_SIZE));
+			assertEquals(uncachedPages.get(i), cachedPage, "Page at offset " + (i * PAGE_SIZE));
+			cachedCodes.addAll(cachedPage);
+		}
+		assertEquals(1, expansionCache.getStats().loadCount());
+		assertEquals(hitsBefore + uncachedPages.size(), expansionCache.getStats().hitCount());
+
+		// Each code once, across all pages
+		allCodes.addAll(0, cachedCodes);
+		assertEquals(total, allCodes.size());
+		Set<String> distinctCodes = new HashSet<>(allCodes);
+		assertEquals(total, distinctCodes.size());
+		assertTrue(distinctCodes.containsAll(createdConceptIds));
+	}
+
+	private ValueSet expand(int offset) {
+		String url = baseUrl + "/ValueSet/$expand?url=http://snomed.info/xsct/" + DEEP_MODULE + "?fhir_vs=ecl/*" +
+				"&offset=" + offset + "&count=" + PAGE_SIZE + "&_format=json";
+		ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, defaultRequestEntity, String.class);
+		expectResponse(response, 200);
+		return fhirJsonParser.parseResource(ValueSet.class, response.getBody());
+	}
+
+	private static List<String> getCodes(ValueSet valueSet) {
+		return valueSet.getExpansion().getContains().stream().map(ValueSet.ValueSetExpansionContainsComponent::getCode).toList();
+	}
+}
@@ -1,13 +1,17 @@
 package org.snomed.snowstorm.fhir.services;
 
+import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.UriType;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.junit.jupiter.api.Test;
 import org.snomed.snowstorm.core.data.domain.Concepts;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 
 import java.io.InputStream;
+import java.util.List;
 
 import static java.lang.String.format;
 import static org.junit.jupiter.api.Assertions.*;
@@ -150,6 +154,53 @@ class FHIRValueSetProviderValidateCodeEclTest extends AbstractFHIRTest {
 
 	}
 
+	@Test
+	void testBatchValidate() {
+		Parameters request = new Parameters();
+		request.addParameter("url", new UriType("http://snomed.info/sct?fhir_vs=ecl/<<" + Concepts.SNOMEDCT_ROOT));
+		request.addParameter("coding", new Coding(SNOMED_URI, Concepts.SNOMEDCT_ROOT, null));
+		request.addParameter("coding", new Coding(SNOMED_URI, "257751006", "Baked potato 1"));
+		request.addParameter("coding", new Coding(SNOMED_URI, "257751006", "Baked potato"));
+		request.addParameter("coding", new Coding("http://example.com/other", "257751006", null));
+
+		HttpEntity<String> requestEntity = new HttpEntity<>(fhirJsonParser.encodeResourceToString(request), headers);
+		ResponseEntity<String> response = restTemplate.exchange(baseUrl + "/ValueSet/$batch-validate-code", HttpMethod.POST, requestEntity, String.class);
+		expectResponse(response, 200);
+		List<Parameters> results = fhirJsonParser.parseResource(Parameters.class, response.getBody()).getParameters("validation").stream()
+				.map(validation -> (Parameters) validation.getResource())
+				.toList();
+		assertEquals(4, results.size());
+		assertTrue(results.get(0).getParameterBool("result"));
+		assertTrue(results.get(1).getParameterBool("result"));
+		assertFalse(results.get(2).getParameterBool("result"));
+		assertEquals("The code '257751006' was found in the ValueSet, however the display 'Baked potato' did not match any designations.",
+				results.get(2).getParameter("message").getValue().primitiveValue());
+		assertFalse(results.get(3).getParameterBool("result"));
+		assertEquals("The system 'http://example.com/other' is not included in this ValueSet.", results.get(3).getParameter("message").getValue().primitiveValue());
+	}
+
+	@Test
+	void testBatchValidate_CodingsWithoutVersionAgainstXsctInclusion() {
+		// Codings without a version, validated against the daily build (xsct) of an edition
+		Parameters request = new Parameters();
+		request.addParameter("url", new UriType("http://snomed.info/xsct/" + sampleModuleId + "?fhir_vs=ecl/<<" + Concepts.SNOMEDCT_ROOT));
+		request.addParameter("coding", new Coding(SNOMED_URI, Concepts.SNOMEDCT_ROOT, null));
+		request.addParameter("coding", new Coding(SNOMED_URI, "257751006", null));
+		request.addParameter("coding", new Coding("http://example.com/other", "257751006", null));
+
+		HttpEntity<String> requestEntity = new HttpEntity<>(fhirJsonParser.encodeResourceToString(request), headers);
+		ResponseEntity<String> response = restTemplate.exchange(baseUrl + "/ValueSet/$batch-validate-code", HttpMethod.POST, requestEntity, String.class);
+		expectResponse(response, 200);
+		List<Parameters> results = fhirJsonParser.parseResource(Parameters.class, response.getBody()).getParameters("validation").stream()
+				.map(validation -> (Parameters) validation.getResource())
+				.toList();
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).getParameterBool("result"));
+		assertTrue(results.get(1).getParameterBool("result"));
+		assertFalse(results.get(2).getParameterBool("result"));
+		assertEquals("The system 'http://example.com/other' is not included in this ValueSet.", results.get(2).getParameter("message").getValue().primitiveValue());
+	}
+
 	@Test
 	void testECLWithUnknownVersionFail() {
 		String url = baseUrl + "/ValueSet/$expand?system-version=http://snomed.info/sct|http://snomed.info/sct/900000000000207008/version/19990731&" +
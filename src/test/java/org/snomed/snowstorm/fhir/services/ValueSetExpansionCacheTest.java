@@ -0,0 +1,67 @@
+package org.snomed.snowstorm.fhir.services;
+
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.pojo.LanguageDialect;
+import org.snomed.snowstorm.fhir.services.ValueSetExpansionCache.ExpansionKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueSetExpansionCacheTest {
+
+	private static final String ECL = "ecl:<< 404684003";
+	private static final List<LanguageDialect> EN_GB = List.of(new LanguageDialect("en", 900000000000508004L));
+
+	@Test
+	void equalKeysShareExpansion() {
+		ValueSetExpansionCache cache = new ValueSetExpansionCache(1000);
+		AtomicInteger loads = new AtomicInteger();
+		long[] expansion = cache.get(new ExpansionKey("MAIN", 100, ECL, true, "heart", EN_GB), () -> load(loads, 1, 2, 3));
+
+		// Key built again from equal values, as for the next request
+		ExpansionKey sameKey = new ExpansionKey("MAIN", 100, ECL, true, "heart", new ArrayList<>(List.of(new LanguageDialect("en", 900000000000508004L))));
+		assertSame(expansion, cache.getIfPresent(sameKey));
+		assertSame(expansion, cache.get(sameKey, () -> load(loads, 4)));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void expansionOptionsInKey() {
+		ValueSetExpansionCache cache = new ValueSetExpansionCache(1000);
+		ExpansionKey key = new ExpansionKey("MAIN", 100, ECL, true, "heart", EN_GB);
+		cache.get(key, () -> new long[]{1, 2, 3});
+
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, ECL, true, "lung", EN_GB)), "Different filter");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, ECL, true, null, EN_GB)), "No filter");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, ECL, false, "heart", EN_GB)), "Inactive concepts included");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, ECL, true, "heart",
+				List.of(new LanguageDialect("en", 900000000000509007L)))), "Different language reference set");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, ECL, true, "heart",
+				List.of(new LanguageDialect("en", 900000000000509007L), new LanguageDialect("en", 900000000000508004L)))), "Different dialect order");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, ECL, true, "heart", List.of())), "No dialects");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN", 100, "ecl:<< 71388002", true, "heart", EN_GB)), "Different selection");
+		assertNull(cache.getIfPresent(new ExpansionKey("MAIN/SNOMEDCT-SE", 100, ECL, true, "heart", EN_GB)), "Different branch");
+		assertNotNull(cache.getIfPresent(key));
+	}
+
+	@Test
+	void newHeadTimestampLoadsNewExpansion() {
+		ValueSetExpansionCache cache = new ValueSetExpansionCache(1000);
+		AtomicInteger loads = new AtomicInteger();
+		cache.get(new ExpansionKey("MAIN", 100, ECL, true, null, EN_GB), () -> load(loads, 1, 2, 3));
+
+		// Content committed to the branch moves the head timestamp on
+		ExpansionKey afterCommit = new ExpansionKey("MAIN", 200, ECL, true, null, EN_GB);
+		assertNull(cache.getIfPresent(afterCommit));
+		assertArrayEquals(new long[]{1, 2, 3, 4}, cache.get(afterCommit, () -> load(loads, 1, 2, 3, 4)));
+		assertEquals(2, loads.get());
+	}
+
+	private static long[] load(AtomicInteger loads, long... conceptIds) {
+		loads.incrementAndGet();
+		return conceptIds;
+	}
+}
@@ -0,0 +1,53 @@
+package org.snomed.snowstorm.rest;
+
+import io.kaicode.elasticvc.domain.Metadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.snomed.snowstorm.core.data.services.BranchMetadataKeys;
+import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.snomed.snowstorm.core.data.services.ServiceException;
+import org.snomed.snowstorm.validation.BulkValidationJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.snomed.snowstorm.core.data.domain.Concepts.SNOMEDCT_ROOT;
+import static org.snomed.snowstorm.rest.ControllerTestHelper.waitForStatus;
+
+class ConceptValidationControllerTest extends AbstractControllerSecurityTest {
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@BeforeEach
+	void setupContent() throws ServiceException {
+		branchService.updateMetadata("MAIN", new Metadata().putString(BranchMetadataKeys.ASSERTION_GROUP_NAMES, "common-authoring"));
+		conceptService.create(new Concept(SNOMEDCT_ROOT), "MAIN");
+	}
+
+	@Test
+	void testBulkValidation() {
+		RequestEntity<Object> request = new RequestEntity<>(HttpMethod.POST, URI.create(url + "/MAIN/validation/bulk?ecl=*"));
+		ResponseEntity<String> response = testStatusCode(HttpStatus.CREATED, authorHeaders, request);
+		waitForStatus(response, BulkValidationJob.Status.COMPLETED.name(), BulkValidationJob.Status.FAILED.name(), authorHeaders, restTemplate);
+		URI location = response.getHeaders().getLocation();
+		assertNotNull(location);
+		String jobId = location.toString().substring(location.toString().lastIndexOf("/") + 1);
+
+		ResponseEntity<String> results = testStatusCode(HttpStatus.OK, authorHeaders, new RequestEntity<>(HttpMethod.GET, URI.create(location + "/results")));
+		assertNotNull(results.getBody());
+		assertTrue(results.getBody().startsWith("conceptId\tconceptFsn\tcomponentId\truleId\tseverity\tmessage"));
+
+		// The job is not found on another branch
+		testStatusCode(HttpStatus.NOT_FOUND, authorHeaders, new RequestEntity<>(HttpMethod.GET, URI.create(url + "/MAIN/ProjectA/validation/bulk/" + jobId)));
+		testStatusCode(HttpStatus.NOT_FOUND, authorHeaders, new RequestEntity<>(HttpMethod.GET, URI.create(url + "/MAIN/ProjectA/validation/bulk/" + jobId + "/results")));
+		testStatusCode(HttpStatus.NOT_FOUND, authorHeaders, new RequestEntity<>(HttpMethod.GET, URI.create(url + "/MAIN/validation/bulk/unknown-job")));
+	}
+}
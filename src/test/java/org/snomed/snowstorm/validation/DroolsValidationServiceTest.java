@@ -12,17 +12,21 @@ import org.snomed.snowstorm.TestConfig;
 import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.BranchMetadataKeys;
 import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.snomed.snowstorm.core.data.services.NotFoundException;
 import org.snomed.snowstorm.core.data.services.ReferenceSetMemberService;
 import org.snomed.snowstorm.core.data.services.ServiceException;
+import org.snomed.snowstorm.validation.domain.DroolsConcept;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.snomed.snowstorm.core.data.domain.Concepts.*;
@@ -155,6 +159,52 @@ class DroolsValidationServiceTest extends AbstractTest {
         assertEquals("Active FSN should end with a valid semantic tag.", invalidContents.get(index).getMessage());
     }
 
+    @Test
+    void testBulkValidationJob() throws ServiceException, IOException, InterruptedException {
+        BulkValidationJob job = droolValidationService.createBulkValidationJob(DEFAULT_BRANCH, "*", false);
+        assertTrue(job.awaitFinished(30, TimeUnit.SECONDS), "Bulk validation finished");
+        assertEquals(BulkValidationJob.Status.COMPLETED, job.getStatus(), job.getErrorMessage());
+        assertTrue(job.getConceptCount() > 0);
+        assertEquals(job.getConceptCount(), job.getValidatedCount());
+        File resultsFile = job.getResultsFile();
+        List<String> lines = Files.readAllLines(resultsFile.toPath());
+        assertEquals("conceptId\tconceptFsn\tcomponentId\truleId\tseverity\tmessage", lines.get(0));
+        assertEquals(job.getInvalidContentCount() + 1, lines.size());
+        assertEquals(resultsFile.length(), job.getResultsLength());
+
+        // The job is only found on its own branch
+        assertSame(job, droolValidationService.getBulkValidationJobOrThrow(DEFAULT_BRANCH, job.getId()));
+        assertThrows(NotFoundException.class, () -> droolValidationService.getBulkValidationJobOrThrow("MAIN/A", job.getId()));
+
+        // Finished jobs expire along with their results
+        droolValidationService.expireBulkValidationJobsFinishedBefore(new Date(job.getEndDate().getTime() - 1));
+        assertSame(job, droolValidationService.getBulkValidationJobOrThrow(DEFAULT_BRANCH, job.getId()));
+        droolValidationService.expireBulkValidationJobsFinishedBefore(new Date(job.getEndDate().getTime() + 1));
+        assertThrows(NotFoundException.class, () -> droolValidationService.getBulkValidationJobOrThrow(DEFAULT_BRANCH, job.getId()));
+        assertFalse(resultsFile.exists());
+    }
+
+    @Test
+    void testBulkValidationResultsWriteError() {
+        PrintWriter failingWriter = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        InvalidContent invalidContent = new InvalidContent("rule-1", new DroolsConcept(new Concept("100001")), "Test message", Severity.ERROR);
+        BulkValidationJob job = new BulkValidationJob("1", DEFAULT_BRANCH, "*", false);
+        assertThrows(IllegalStateException.class, () -> DroolsValidationService.writeResults(failingWriter, List.of(invalidContent), job));
+    }
+
     private ReferenceSetMember constructMrcmRange(String referencedComponentId, String rangeConstraint) {
         ReferenceSetMember rangeMember = new ReferenceSetMember("900000000000207008", REFSET_MRCM_ATTRIBUTE_RANGE_INTERNATIONAL, referencedComponentId);
         rangeMember.setAdditionalField("rangeConstraint", rangeConstraint);